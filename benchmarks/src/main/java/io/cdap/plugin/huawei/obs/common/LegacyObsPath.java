@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.regex.Pattern;
+
+/**
+ * The regular expression based {@link ObsPath#from(String)} the plugin used before, kept as the baseline of
+ * {@link ObsPathBenchmark}.
+ */
+final class LegacyObsPath {
+    private static final Logger logger = LogManager.getLogger(LegacyObsPath.class);
+
+    final String fullPath;
+    final String bucket;
+    final String name;
+
+    private LegacyObsPath(String fullPath, String bucket, String name) {
+        this.fullPath = fullPath;
+        this.bucket = bucket;
+        this.name = name;
+    }
+
+    static LegacyObsPath from(String path) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Obs path can not be empty.");
+        }
+
+        if (path.startsWith(ObsPath.ROOT_DIR)) {
+            path = path.substring(1);
+        } else if (path.startsWith(ObsPath.SCHEME)) {
+            path = path.substring(ObsPath.SCHEME.length());
+        }
+
+        String bucket = path;
+        int idx = path.indexOf(ObsPath.ROOT_DIR);
+        if (idx > 0) {
+            bucket = path.substring(0, idx);
+        }
+
+        if (bucket.length() < 3 || bucket.length() > 63) {
+            throw new IllegalArgumentException("Invalid bucket name.");
+        }
+
+        if (!Pattern.matches("[a-z0-9-.]+", bucket)) {
+            throw new IllegalArgumentException(String.format("Invalid bucket name in path '%s'.", path));
+        }
+
+        String file = idx > 0 ? path.substring(idx).replaceAll("^/", "") : "";
+        StringBuilder sb = new StringBuilder(ObsPath.SCHEME)
+                .append(bucket)
+                .append(ObsPath.ROOT_DIR)
+                .append(file);
+        logger.info("ObsPath from: {}, to: {}", path, sb.toString());
+        return new LegacyObsPath(sb.toString(), bucket, file);
+    }
+}
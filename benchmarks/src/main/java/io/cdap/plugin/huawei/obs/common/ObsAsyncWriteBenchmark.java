@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a file of serialized records to a stand-in of the Obs output stream throttled to a fixed bandwidth and a
+ * latency per write, directly through a buffer of the same size, which is how the sink writes without the
+ * asynchronous writes, and through {@link ObsAsyncOutputStream} with heap and direct buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ObsAsyncWriteBenchmark {
+    private static final int RECORDS = 200_000;
+
+    @Param({"4194304"})
+    public int bufferSize;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"33554432"})
+    public long bytesPerSecond;
+
+    @Param({"2"})
+    public long latencyMillis;
+
+    private ExecutorService executor;
+    private ObsWriteBufferPool heapPool;
+    private ObsWriteBufferPool directPool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = Executors.newCachedThreadPool();
+        heapPool = new ObsWriteBufferPool(bufferSize, false);
+        directPool = new ObsWriteBufferPool(bufferSize, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public long synchronous() throws IOException {
+        ThrottledOutputStream network = new ThrottledOutputStream();
+        try (OutputStream out = new BufferedOutputStream(network, bufferSize)) {
+            writeRecords(out);
+        }
+        return network.bytes;
+    }
+
+    @Benchmark
+    public long asyncHeap() throws IOException {
+        ThrottledOutputStream network = new ThrottledOutputStream();
+        try (OutputStream out = new ObsAsyncOutputStream(network, heapPool, depth, executor)) {
+            writeRecords(out);
+        }
+        return network.bytes;
+    }
+
+    @Benchmark
+    public long asyncDirect() throws IOException {
+        ThrottledOutputStream network = new ThrottledOutputStream();
+        try (OutputStream out = new ObsAsyncOutputStream(network, directPool, depth, executor)) {
+            writeRecords(out);
+        }
+        return network.bytes;
+    }
+
+    // csv lines formatted one at a time, like the text output formats of the sink
+    private static void writeRecords(OutputStream out) throws IOException {
+        Random random = new Random(RECORDS);
+        StringBuilder line = new StringBuilder(128);
+        for (int i = 0; i < RECORDS; i++) {
+            line.setLength(0);
+            line.append(i).append(',').append(random.nextLong()).append(',')
+                    .append(random.nextDouble()).append(",tenant-").append(random.nextInt(100)).append(",")
+                    .append(Long.toHexString(random.nextLong())).append('\n');
+            out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Takes the time the bytes would take to be sent over a connection of the benchmark bandwidth.
+     */
+    private final class ThrottledOutputStream extends OutputStream {
+        private long bytes;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bytes += len;
+            long nanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis) + len * 1_000_000_000L / bytesPerSecond;
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of a file by {@link ObsBlockCompressorStream}, by compression and number of threads, with the single
+ * threaded {@link GZIPOutputStream} as the baseline. The data is generated csv text, or the content of the file given
+ * with -Dobs.benchmark.input. The compression ratio of each compression is printed once its trial ends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ObsCompressionBenchmark {
+    private static final int GENERATED_SIZE = 64 * 1024 * 1024;
+
+    @Param({"gzip", "zstd", "snappy", "lz4"})
+    public String compression;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private byte[] data;
+    private long compressedBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String input = System.getProperty("obs.benchmark.input");
+        data = input == null ? generateCsv(GENERATED_SIZE) : Files.readAllBytes(Paths.get(input));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (compressedBytes > 0) {
+            System.out.printf("%n%s: %d bytes compressed to %d, ratio %.2f%n", compression, data.length,
+                    compressedBytes, (double) data.length / compressedBytes);
+        }
+    }
+
+    @Benchmark
+    public long blockCompression() throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (OutputStream out = new ObsBlockCompressorStream(counter, ObsBlockCompression.fromName(compression),
+                ObsConstants.DEFAULT_COMPRESSION_LEVEL, ObsConstants.DEFAULT_COMPRESSION_BLOCK_SIZE, threads)) {
+            writeInChunks(out);
+        }
+        compressedBytes = counter.count;
+        return counter.count;
+    }
+
+    @Benchmark
+    public long gzipStream() throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (OutputStream out = new GZIPOutputStream(counter, 64 * 1024)) {
+            writeInChunks(out);
+        }
+        return counter.count;
+    }
+
+    // like the text output formats, which write a record at a time
+    private void writeInChunks(OutputStream out) throws IOException {
+        int chunk = 4096;
+        for (int offset = 0; offset < data.length; offset += chunk) {
+            out.write(data, offset, Math.min(chunk, data.length - offset));
+        }
+    }
+
+    private static byte[] generateCsv(int size) {
+        Random random = new Random(size);
+        StringBuilder csv = new StringBuilder(size + 256);
+        String[] tenants = {"acme", "globex", "initech", "umbrella", "hooli"};
+        while (csv.length() < size) {
+            csv.append(random.nextInt(1_000_000)).append(',')
+                    .append(tenants[random.nextInt(tenants.length)]).append(',')
+                    .append("2021-10-").append(10 + random.nextInt(20)).append(',')
+                    .append(random.nextDouble() * 1000).append(',')
+                    .append(random.nextBoolean() ? "ok" : "retry").append('\n');
+        }
+        return Arrays.copyOf(csv.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+
+    /**
+     * Discards the compressed bytes, counting them.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
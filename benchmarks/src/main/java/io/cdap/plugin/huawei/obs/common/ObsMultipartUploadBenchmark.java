@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploading an object to the in memory Obs client throttled to a latency per request and a bandwidth per connection,
+ * with a single put like the default upload of the sink, and in parts uploaded in parallel by
+ * {@link ObsMultipartOutputStream}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ObsMultipartUploadBenchmark {
+    private static final String BUCKET = "benchmark-bucket";
+    private static final int PART_SIZE = (int) ObsConstants.MIN_UPLOAD_PART_SIZE;
+
+    @Param({"67108864"})
+    public int objectSize;
+
+    @Param({"33554432"})
+    public long bytesPerSecond;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    @Param({"4"})
+    public int maxPendingParts;
+
+    private FakeObsClient obsClient;
+    private ExecutorService executor;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+        obsClient.setUploadThrottling(latencyMillis, bytesPerSecond);
+        executor = Executors.newFixedThreadPool(maxPendingParts);
+        data = new byte[objectSize];
+        new Random(objectSize).nextBytes(data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void singlePut() throws IOException {
+        // a part size larger than the object is written with a single put
+        try (OutputStream out = new ObsMultipartOutputStream(obsClient, BUCKET, "single", objectSize + 1, executor,
+                new Semaphore(1))) {
+            out.write(data);
+        }
+    }
+
+    @Benchmark
+    public void parallelUpload() throws IOException {
+        try (OutputStream out = new ObsMultipartOutputStream(obsClient, BUCKET, "parallel", PART_SIZE, executor,
+                new Semaphore(maxPendingParts))) {
+            out.write(data);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.connector;
+
+import com.obs.services.model.ObsObject;
+import io.cdap.cdap.etl.api.connector.BrowseDetail;
+import io.cdap.cdap.etl.api.connector.BrowseEntity;
+import io.cdap.cdap.etl.api.connector.BrowseRequest;
+import io.cdap.plugin.huawei.obs.common.FakeObsClient;
+import io.cdap.plugin.huawei.obs.common.ObsConnectorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity generation and browsing of a directory against the in memory Obs client. Run with
+ * {@code -prof gc} to get the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrowseBenchmark {
+    private static final String BUCKET = "benchmark-bucket";
+
+    @Param({"1000", "10000"})
+    public int files;
+
+    private ObsConnector connector;
+    private ObsObject summary;
+    private BrowseRequest request;
+
+    @Setup
+    public void setup() {
+        FakeObsClient obsClient = new FakeObsClient();
+        for (int i = 0; i < files; i++) {
+            obsClient.putObject(BUCKET, String.format("events/day=%03d/part-%07d.csv", i % 100, i), new byte[16]);
+            obsClient.putObject(BUCKET, String.format("flat/part-%07d.csv", i), new byte[16]);
+        }
+        connector = new ObsConnector(new ObsConnectorConfig("ak", "sk", ObsConnectorConfig.ACCESS_CREDENTIALS,
+                "http://127.0.0.1:1"), obsClient);
+        summary = obsClient.getObject(BUCKET, "flat/part-0000000.csv");
+        request = BrowseRequest.builder(BUCKET + "/flat").build();
+    }
+
+    @Benchmark
+    public BrowseEntity generateFromSummary() {
+        return connector.generateFromSummary(summary);
+    }
+
+    @Benchmark
+    public BrowseDetail browseObjects() throws IOException {
+        // measure the listing, not the cache
+        ObsBrowseCache.getInstance().clear();
+        return connector.browse(null, request);
+    }
+}
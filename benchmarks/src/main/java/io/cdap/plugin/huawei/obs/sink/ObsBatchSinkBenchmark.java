@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.sink;
+
+import io.cdap.cdap.etl.api.batch.BatchSinkContext;
+import io.cdap.plugin.huawei.obs.common.ObsConnectorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution of the filesystem properties of the sink.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObsBatchSinkBenchmark {
+
+    private ObsBatchSink sink;
+    private BatchSinkContext context;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        ObsBatchSink.ObsBatchSinkConfig config = new ObsBatchSink.ObsBatchSinkConfig();
+        set(config, "path", "obs://my-bucket/output/");
+        set(config, "accessKey", "ak");
+        set(config, "secretKey", "sk");
+        set(config, "endPoint", "https://obs.example.com");
+        set(config, "authenticationMethod", ObsConnectorConfig.ACCESS_CREDENTIALS);
+        context = context();
+        sink = new ObsBatchSink(config);
+    }
+
+    @Benchmark
+    public Map<String, String> getFileSystemProperties() {
+        return sink.getFileSystemProperties(context);
+    }
+
+    private static void set(Object config, String name, Object value) throws ReflectiveOperationException {
+        Field field = ObsBatchSink.ObsBatchSinkConfig.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(config, value);
+    }
+
+    /**
+     * Context of the stage, only its name is read.
+     */
+    private static BatchSinkContext context() {
+        return (BatchSinkContext) Proxy.newProxyInstance(BatchSinkContext.class.getClassLoader(),
+                new Class<?>[] {BatchSinkContext.class}, (proxy, method, args) -> {
+                    if ("getStageName".equals(method.getName())) {
+                        return "obsSink";
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
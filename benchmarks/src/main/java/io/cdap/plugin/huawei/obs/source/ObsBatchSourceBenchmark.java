@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.etl.api.batch.BatchSourceContext;
+import io.cdap.plugin.huawei.obs.common.ObsConnectorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolution of the filesystem properties of the source.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObsBatchSourceBenchmark {
+
+    private ObsBatchSource source;
+    private BatchSourceContext context;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        ObsBatchSource.ObsBatchConfig config = new ObsBatchSource.ObsBatchConfig();
+        set(config, "path", "obs://my-bucket/data/");
+        set(config, "connection", new ObsConnectorConfig("ak", "sk", ObsConnectorConfig.ACCESS_CREDENTIALS,
+                "https://obs.example.com"));
+        context = context();
+        source = new ObsBatchSource(config);
+    }
+
+    @Benchmark
+    public Map<String, String> getFileSystemProperties() {
+        return source.getFileSystemProperties(context);
+    }
+
+    private static void set(Object config, String name, Object value) throws ReflectiveOperationException {
+        Field field = ObsBatchSource.ObsBatchConfig.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(config, value);
+    }
+
+    /**
+     * Context of the stage, only its name is read.
+     */
+    private static BatchSourceContext context() {
+        return (BatchSourceContext) Proxy.newProxyInstance(BatchSourceContext.class.getClassLoader(),
+                new Class<?>[] {BatchSourceContext.class}, (proxy, method, args) -> {
+                    if ("getStageName".equals(method.getName())) {
+                        return "obsSource";
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsWriteBufferPool;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Reading the records of a csv object, the way the delimited formats do it, with the {@link LineReader} and the
+ * {@link Text} of the Hadoop line record reader, a string per line split into a string per value and converted by the
+ * record builder, and the way the direct read of the source does it, with {@link ObsLineReader} and
+ * {@link ObsDelimitedParser}.
+ *
+ * The object is generated csv text, or the file given with -Dobs.benchmark.input, which is streamed from the disk for
+ * every pass so that it can be larger than the memory. Its schema is given with -Dobs.benchmark.schema, or is a
+ * nullable string per value of its first line, and its delimiter with -Dobs.benchmark.delimiter.
+ *
+ * The records per second are reported as the {@code records} counter, run with {@code -prof gc} to compare the bytes
+ * allocated per pass over the object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ObsDelimitedParserBenchmark {
+    private static final int GENERATED_SIZE = 64 * 1024 * 1024;
+    // the buffer size of the Hadoop line record reader
+    private static final int HADOOP_BUFFER_SIZE = 64 * 1024;
+
+    private byte[] data;
+    private Path input;
+    private Schema schema;
+    private String delimiter;
+    private ObsWriteBufferPool pool;
+
+    /**
+     * Records read, reported as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long records;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            records = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        delimiter = System.getProperty("obs.benchmark.delimiter", ",");
+        String file = System.getProperty("obs.benchmark.input");
+        String schemaJson = System.getProperty("obs.benchmark.schema");
+        if (file == null) {
+            data = generateCsv(GENERATED_SIZE);
+            schema = Schema.recordOf("record",
+                    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                    Schema.Field.of("tenant", Schema.of(Schema.Type.STRING)),
+                    Schema.Field.of("day", Schema.of(Schema.Type.STRING)),
+                    Schema.Field.of("count", Schema.of(Schema.Type.INT)),
+                    Schema.Field.of("amount", Schema.of(Schema.Type.DOUBLE)),
+                    Schema.Field.of("ok", Schema.of(Schema.Type.BOOLEAN)));
+        } else {
+            input = Paths.get(file);
+            schema = schemaJson == null ? stringSchema(input, delimiter) : Schema.parseJson(schemaJson);
+        }
+        pool = new ObsWriteBufferPool(ObsConstants.DIRECT_READ_BUFFER_SIZE, true);
+    }
+
+    @Benchmark
+    public void formatRecords(Counters counters, Blackhole blackhole) throws IOException {
+        Pattern split = Pattern.compile(Pattern.quote(delimiter));
+        List<Schema.Field> fields = schema.getFields();
+        try (LineReader reader = new LineReader(open(), HADOOP_BUFFER_SIZE)) {
+            Text text = new Text();
+            long records = 0;
+            while (reader.readLine(text) > 0) {
+                String[] values = split.split(text.toString(), -1);
+                StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+                for (int i = 0; i < fields.size(); i++) {
+                    String value = i < values.length ? values[i] : null;
+                    builder.convertAndSet(fields.get(i).getName(), value == null || value.isEmpty() ? null : value);
+                }
+                blackhole.consume(builder.build());
+                records++;
+            }
+            counters.records += records;
+        }
+    }
+
+    @Benchmark
+    public void directRecords(Counters counters, Blackhole blackhole) throws IOException {
+        ObsDelimitedParser parser = new ObsDelimitedParser(schema, null, (byte) delimiter.charAt(0), false);
+        try (ObsLineReader reader = new ObsLineReader(open(), pool, 0L)) {
+            long records = 0;
+            ByteBuffer line;
+            while ((line = reader.next()) != null) {
+                StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+                parser.parse(line, builder);
+                blackhole.consume(builder.build());
+                records++;
+            }
+            counters.records += records;
+        }
+    }
+
+    /**
+     * The direct read with quoted values enabled, which only adds a test of the first byte of each value when there
+     * are no quotes.
+     */
+    @Benchmark
+    public void directQuotedRecords(Counters counters, Blackhole blackhole) throws IOException {
+        ObsDelimitedParser parser = new ObsDelimitedParser(schema, null, (byte) delimiter.charAt(0), true);
+        try (ObsLineReader reader = new ObsLineReader(open(), pool, 0L)) {
+            long records = 0;
+            ByteBuffer line;
+            while ((line = reader.next()) != null) {
+                StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+                parser.parse(line, builder);
+                blackhole.consume(builder.build());
+                records++;
+            }
+            counters.records += records;
+        }
+    }
+
+    private InputStream open() throws IOException {
+        return input == null ? new ArrayStream(data)
+                : new FileStream(FileChannel.open(input, StandardOpenOption.READ));
+    }
+
+    private static Schema stringSchema(Path input, String delimiter) throws IOException {
+        String first;
+        try (LineReader reader = new LineReader(Files.newInputStream(input))) {
+            Text text = new Text();
+            reader.readLine(text);
+            first = text.toString();
+        }
+        int values = first.split(Pattern.quote(delimiter), -1).length;
+        List<Schema.Field> fields = new ArrayList<>();
+        for (int i = 0; i < values; i++) {
+            fields.add(Schema.Field.of("value" + i, Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+        }
+        return Schema.recordOf("record", fields);
+    }
+
+    private static byte[] generateCsv(int size) {
+        Random random = new Random(size);
+        StringBuilder csv = new StringBuilder(size + 256);
+        String[] tenants = {"acme", "globex", "initech", "umbrella", "hooli"};
+        while (csv.length() < size) {
+            csv.append(random.nextInt(1_000_000_000)).append(',')
+                    .append(tenants[random.nextInt(tenants.length)]).append(',')
+                    .append("2021-10-").append(10 + random.nextInt(20)).append(',')
+                    .append(random.nextInt(10_000)).append(',')
+                    .append(random.nextDouble() * 1000).append(',')
+                    .append(random.nextBoolean()).append('\n');
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stream of the generated object, which also reads into buffers like the Obs input stream.
+     */
+    private static final class ArrayStream extends ByteArrayInputStream implements ByteBufferReadable {
+        private ArrayStream(byte[] data) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer buffer) {
+            if (pos >= count) {
+                return -1;
+            }
+            int read = Math.min(buffer.remaining(), count - pos);
+            buffer.put(buf, pos, read);
+            pos += read;
+            return read;
+        }
+    }
+
+    /**
+     * Stream of a local file, which reads into arrays and into buffers like the Obs input stream.
+     */
+    private static final class FileStream extends InputStream implements ByteBufferReadable {
+        private final FileChannel channel;
+
+        private FileStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            return channel.read(buffer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsWriteBufferPool;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the lines of a text object and decoding them into strings, the way the text format does it with the
+ * {@link LineReader} and the {@link Text} of the Hadoop line record reader, and the way the direct read of the source
+ * does it with {@link ObsLineReader} and pooled direct buffers. The object is generated csv text, or the file given
+ * with -Dobs.benchmark.input, read through a stand-in of the Obs input stream.
+ *
+ * The lines per second are reported as the {@code lines} counter, run with {@code -prof gc} to compare the bytes
+ * allocated per pass over the object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ObsLineReaderBenchmark {
+    private static final int GENERATED_SIZE = 64 * 1024 * 1024;
+    // the buffer size of the Hadoop line record reader
+    private static final int HADOOP_BUFFER_SIZE = 64 * 1024;
+
+    private byte[] data;
+    private ObsWriteBufferPool pool;
+
+    /**
+     * Lines read, reported as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String input = System.getProperty("obs.benchmark.input");
+        data = input == null ? generateCsv(GENERATED_SIZE) : Files.readAllBytes(Paths.get(input));
+        pool = new ObsWriteBufferPool(ObsConstants.DIRECT_READ_BUFFER_SIZE, true);
+    }
+
+    @Benchmark
+    public void hadoopLineReader(Counters counters, Blackhole blackhole) throws IOException {
+        try (LineReader reader = new LineReader(new ObjectStream(data), HADOOP_BUFFER_SIZE)) {
+            Text text = new Text();
+            long lines = 0;
+            while (reader.readLine(text) > 0) {
+                blackhole.consume(text.toString());
+                lines++;
+            }
+            counters.lines += lines;
+        }
+    }
+
+    @Benchmark
+    public void directLineReader(Counters counters, Blackhole blackhole) throws IOException {
+        try (ObsLineReader reader = new ObsLineReader(new ObjectStream(data), pool, 0L)) {
+            byte[] bytes = new byte[256];
+            long lines = 0;
+            ByteBuffer line;
+            while ((line = reader.next()) != null) {
+                int length = line.remaining();
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                line.get(bytes, 0, length);
+                blackhole.consume(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                lines++;
+            }
+            counters.lines += lines;
+        }
+    }
+
+    /**
+     * Splitting the lines without decoding them, the part of the direct read that replaces the line reader.
+     */
+    @Benchmark
+    public void directLineScan(Counters counters, Blackhole blackhole) throws IOException {
+        try (ObsLineReader reader = new ObsLineReader(new ObjectStream(data), pool, 0L)) {
+            long lines = 0;
+            ByteBuffer line;
+            while ((line = reader.next()) != null) {
+                blackhole.consume(line.remaining());
+                lines++;
+            }
+            counters.lines += lines;
+        }
+    }
+
+    private static byte[] generateCsv(int size) {
+        Random random = new Random(size);
+        StringBuilder csv = new StringBuilder(size + 256);
+        String[] tenants = {"acme", "globex", "initech", "umbrella", "hooli"};
+        while (csv.length() < size) {
+            csv.append(random.nextInt(1_000_000)).append(',')
+                    .append(tenants[random.nextInt(tenants.length)]).append(',')
+                    .append("2021-10-").append(10 + random.nextInt(20)).append(',')
+                    .append(random.nextDouble() * 1000).append(',')
+                    .append(random.nextBoolean() ? "ok" : "retry").append('\n');
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stand-in of the Obs input stream, which reads into arrays and into buffers.
+     */
+    private static final class ObjectStream extends InputStream implements ByteBufferReadable {
+        private final byte[] data;
+        private int position;
+
+        private ObjectStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int count = Math.min(len, data.length - position);
+            System.arraycopy(data, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int count = Math.min(buffer.remaining(), data.length - position);
+            buffer.put(data, position, count);
+            position += count;
+            return count;
+        }
+    }
+}
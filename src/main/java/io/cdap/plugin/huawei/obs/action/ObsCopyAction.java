@@ -0,0 +1,229 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.action;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.cdap.etl.api.action.Action;
+import io.cdap.cdap.etl.api.action.ActionContext;
+import io.cdap.plugin.common.ConfigUtil;
+import io.cdap.plugin.huawei.obs.common.ObsClientCache;
+import io.cdap.plugin.huawei.obs.common.ObsConnectorConfig;
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsMetricsReporter;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.annotation.Nullable;
+
+/**
+ * Copies objects between Obs buckets or prefixes with server side copies. Pipelines that only move files from an Obs
+ * source to an Obs sink in the same format read and write every byte through the workers, this action copies them
+ * within Obs instead, and only copies the objects that were not copied yet when it runs again after a failure.
+ */
+@Plugin(type = Action.PLUGIN_TYPE)
+@Name(ObsCopyAction.NAME)
+@Description("Copies objects between Huawei Obs buckets or prefixes without transferring their content.")
+public class ObsCopyAction extends Action {
+    public static final String NAME = "ObsCopy";
+
+    private final ObsCopyActionConfig config;
+
+    public ObsCopyAction(ObsCopyActionConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+        FailureCollector collector = pipelineConfigurer.getStageConfigurer().getFailureCollector();
+        config.validate(collector);
+        collector.getOrThrowException();
+    }
+
+    @Override
+    public void run(ActionContext context) throws Exception {
+        FailureCollector collector = context.getFailureCollector();
+        config.validate(collector);
+        collector.getOrThrowException();
+
+        ObsConnectorConfig connection = config.connection;
+        int threads = config.getCopyThreads();
+        // a connection per request in flight, on top of the list requests
+        ObsClientCache.ClientKey key = new ObsClientCache.ClientKey(connection.getEndPoint(),
+                connection.getAccessKey(), connection.getSecretKey(),
+                Math.max(ObsConstants.DEFAULT_CONNECTION_MAXIMUM, threads * 2),
+                ObsConstants.DEFAULT_CONNECTION_ESTABLISH_TIMEOUT, ObsConstants.DEFAULT_CONNECTION_TIMEOUT,
+                connection.getRetryPolicy());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("obs-copy-%d").build());
+        try (ObsClientCache.Lease lease = ObsClientCache.getInstance().acquire(key,
+                ObsRequestMetrics.forStage(context.getStageName()))) {
+            ObsObjectCopier.Result result = new ObsObjectCopier(lease.getClient(), executor, threads,
+                    config.getCopyPartSize()).copy(ObsPath.from(config.sourcePath), ObsPath.from(config.destinationPath),
+                    config.isRecursive(), config.getFileRegex(), config.isResumable());
+            StageMetrics metrics = context.getMetrics();
+            metrics.count("obs.copy.objects", result.getCopiedObjects());
+            metrics.count("obs.copy.skipped", result.getSkippedObjects());
+            metrics.countLong("obs.copy.bytes", result.getCopiedBytes());
+        } finally {
+            executor.shutdownNow();
+            new ObsMetricsReporter(context).report();
+        }
+    }
+
+    /**
+     * Obs copy action configuration.
+     */
+    @SuppressWarnings("unused")
+    public static class ObsCopyActionConfig extends PluginConfig {
+        public static final String NAME_SOURCE_PATH = "sourcePath";
+        public static final String NAME_DESTINATION_PATH = "destinationPath";
+        public static final String NAME_RECURSIVE = "recursive";
+        public static final String NAME_FILE_REGEX = "fileRegex";
+        public static final String NAME_COPY_THREADS = "copyThreads";
+        public static final String NAME_COPY_PART_SIZE = "copyPartSize";
+        public static final String NAME_RESUMABLE = "resumable";
+
+        @Name(ConfigUtil.NAME_USE_CONNECTION)
+        @Nullable
+        @Description("Whether to use an existing connection.")
+        private Boolean useConnection;
+
+        @Name(ConfigUtil.NAME_CONNECTION)
+        @Macro
+        @Nullable
+        @Description("The connection to use.")
+        private ObsConnectorConfig connection;
+
+        @Macro
+        @Description("Path of the object or of the directory to copy. If a directory is specified, terminate the path " +
+                "name with a '/'. The path must start with obs:// as follows: obs://<Bucket name>/<Object name>.")
+        private String sourcePath;
+
+        @Macro
+        @Description("Path the objects are copied to. The objects of a directory are copied under it with the same " +
+                "relative names. The path must start with obs:// as follows: obs://<Bucket name>/<Object name>.")
+        private String destinationPath;
+
+        @Macro
+        @Nullable
+        @Description("Whether the objects of the sub-directories of the source are copied. Defaults to True.")
+        private Boolean recursive;
+
+        @Macro
+        @Nullable
+        @Description("Regular expression the full path of the objects must match to be copied. " +
+                "If not specified, all the objects are copied.")
+        private String fileRegex;
+
+        @Macro
+        @Nullable
+        @Description("Maximum number of copy requests sent at the same time. Defaults to 16.")
+        private Integer copyThreads;
+
+        @Macro
+        @Nullable
+        @Description("Size in bytes of the parts of the objects copied with a multipart upload, between 5 MB and " +
+                "5 GB. The smaller objects are copied with a single request. Defaults to 128 MB.")
+        private Long copyPartSize;
+
+        @Macro
+        @Nullable
+        @Description("Whether the copied objects are recorded in a manifest in the destination, so that a copy that " +
+                "failed or runs again skips the objects already copied and not changed since. Defaults to True.")
+        private Boolean resumable;
+
+        ObsCopyActionConfig() {
+            // Set default value for Nullable properties.
+            this.recursive = true;
+            this.copyThreads = ObsConstants.DEFAULT_COPY_THREADS;
+            this.copyPartSize = ObsConstants.DEFAULT_COPY_PART_SIZE;
+            this.resumable = true;
+        }
+
+        public void validate(FailureCollector collector) {
+            ConfigUtil.validateConnection(this, useConnection, connection, collector);
+            if (!containsMacro(ConfigUtil.NAME_CONNECTION)) {
+                if (connection == null) {
+                    collector.addFailure("Connection credentials is not provided", "Please provide valid credentials");
+                } else {
+                    connection.validate(collector);
+                }
+            }
+
+            if (!containsMacro(NAME_SOURCE_PATH) && (sourcePath == null || !sourcePath.startsWith(ObsPath.SCHEME))) {
+                collector.addFailure("Source path must start with obs://", null)
+                        .withConfigProperty(NAME_SOURCE_PATH);
+            }
+            if (!containsMacro(NAME_DESTINATION_PATH)
+                    && (destinationPath == null || !destinationPath.startsWith(ObsPath.SCHEME))) {
+                collector.addFailure("Destination path must start with obs://", null)
+                        .withConfigProperty(NAME_DESTINATION_PATH);
+            }
+            if (!containsMacro(NAME_FILE_REGEX) && fileRegex != null) {
+                try {
+                    Pattern.compile(fileRegex);
+                } catch (PatternSyntaxException e) {
+                    collector.addFailure("File regex is not a valid regular expression: " + e.getDescription(), null)
+                            .withConfigProperty(NAME_FILE_REGEX);
+                }
+            }
+            if (!containsMacro(NAME_COPY_THREADS) && copyThreads != null && copyThreads < 1) {
+                collector.addFailure("Copy threads must be at least 1.", null)
+                        .withConfigProperty(NAME_COPY_THREADS);
+            }
+            if (!containsMacro(NAME_COPY_PART_SIZE) && copyPartSize != null
+                    && (copyPartSize < ObsConstants.MIN_UPLOAD_PART_SIZE
+                    || copyPartSize > ObsConstants.MAX_COPY_PART_SIZE)) {
+                collector.addFailure("Copy part size must be between 5 MB and 5 GB.", null)
+                        .withConfigProperty(NAME_COPY_PART_SIZE);
+            }
+        }
+
+        boolean isRecursive() {
+            return recursive == null || recursive;
+        }
+
+        @Nullable
+        Pattern getFileRegex() {
+            return fileRegex == null ? null : Pattern.compile(fileRegex);
+        }
+
+        int getCopyThreads() {
+            return copyThreads == null ? ObsConstants.DEFAULT_COPY_THREADS : copyThreads;
+        }
+
+        long getCopyPartSize() {
+            return copyPartSize == null ? ObsConstants.DEFAULT_COPY_PART_SIZE : copyPartSize;
+        }
+
+        boolean isResumable() {
+            return resumable == null || resumable;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.action;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PutObjectRequest;
+import io.cdap.plugin.huawei.obs.common.ObsPrefixLister;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Objects already copied by a copy from a source to a destination, with the ETag of the source object when it was
+ * copied. It is stored as a json object next to the copied objects, so that a copy that failed, or that runs again,
+ * only copies the objects that were not copied yet or that changed since.
+ *
+ * The first store writes the whole manifest, the following ones only append a segment object with the objects
+ * copied since the previous store, so that storing it regularly during a long copy does not upload it again and
+ * again. The segments are merged into the manifest when it is loaded, and removed by {@link #compact}.
+ */
+public final class ObsCopyManifest {
+    public static final String NAME = "_obs_copy_manifest";
+    private static final String SEGMENT_SEPARATOR = ".";
+    private static final Gson GSON = new Gson();
+
+    private final String source;
+    private final String destination;
+    // ETag of the copied objects by key relative to the source, guarded by this
+    private final Map<String, String> copied;
+    // objects copied since the last store, guarded by this
+    private Map<String, String> pending;
+    // whether the whole manifest was stored, the next stores only append segments
+    private boolean stored;
+    private long nextSegment;
+    // segments merged by the load, removed by the compaction
+    private final List<String> segmentKeys;
+
+    public ObsCopyManifest(String source, String destination) {
+        this.source = source;
+        this.destination = destination;
+        this.copied = new HashMap<>();
+        this.pending = new HashMap<>();
+        this.segmentKeys = new ArrayList<>();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return whether the object was copied when it had the given ETag
+     */
+    public synchronized boolean isCopied(String relativeKey, @Nullable String etag) {
+        return etag != null && etag.equals(copied.get(relativeKey));
+    }
+
+    public synchronized void add(String relativeKey, @Nullable String etag) {
+        if (etag != null) {
+            copied.put(relativeKey, etag);
+            pending.put(relativeKey, etag);
+        }
+    }
+
+    public synchronized int size() {
+        return copied.size();
+    }
+
+    /**
+     * @return the number of segments merged when the manifest was loaded
+     */
+    public synchronized int getSegments() {
+        return segmentKeys.size();
+    }
+
+    /**
+     * @return whether the name of an object is the name of a manifest or of one of its segments
+     */
+    public static boolean isManifest(String name) {
+        return name.equals(NAME) || name.startsWith(NAME + SEGMENT_SEPARATOR);
+    }
+
+    /**
+     * Reads the manifest stored in the given object, and merges the segments appended to it.
+     *
+     * @return the manifest, or null if the object does not exist
+     */
+    @Nullable
+    public static ObsCopyManifest load(IObsClient obsClient, String bucket, String key) throws IOException {
+        Content content = read(obsClient, bucket, key);
+        if (content == null) {
+            return null;
+        }
+        ObsCopyManifest manifest = new ObsCopyManifest(content.source, content.destination);
+        manifest.copied.putAll(content.copied);
+        manifest.stored = true;
+
+        ListObjectsRequest request = new ListObjectsRequest(bucket);
+        request.setPrefix(key + SEGMENT_SEPARATOR);
+        ObjectListing listing;
+        do {
+            try {
+                listing = obsClient.listObjects(request);
+            } catch (ObsException e) {
+                throw new IOException("Failed to list the segments of the copy manifest obs://" + bucket + "/" + key,
+                        e);
+            }
+            for (ObsObject object : listing.getObjects()) {
+                String segmentKey = object.getObjectKey();
+                manifest.segmentKeys.add(segmentKey);
+                try {
+                    long segment = Long.parseLong(segmentKey.substring(key.length() + SEGMENT_SEPARATOR.length()));
+                    manifest.nextSegment = Math.max(manifest.nextSegment, segment + 1);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid copy manifest segment obs://" + bucket + "/" + segmentKey, e);
+                }
+            }
+            request.setMarker(ObsPrefixLister.nextMarker(listing));
+        } while (listing.isTruncated());
+
+        // the segments are listed in the order they were stored, the later ones replace the earlier ones
+        for (String segmentKey : manifest.segmentKeys) {
+            Content segment = read(obsClient, bucket, segmentKey);
+            // the segments left by a copy to another destination are only removed
+            if (segment != null && segment.source.equals(content.source)
+                    && segment.destination.equals(content.destination)) {
+                manifest.copied.putAll(segment.copied);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Stores the manifest. The first store writes the whole manifest, replacing the previous one, the next ones append
+     * a segment with the objects copied since the previous store, if any.
+     */
+    public void store(IObsClient obsClient, String bucket, String key) throws IOException {
+        Map<String, String> entries;
+        String objectKey;
+        Content content;
+        synchronized (this) {
+            if (stored && pending.isEmpty()) {
+                return;
+            }
+            entries = pending;
+            pending = new HashMap<>();
+            objectKey = stored ? getSegmentKey(key, nextSegment) : key;
+            content = new Content(source, destination, stored ? entries : new HashMap<>(copied));
+        }
+        try {
+            write(obsClient, bucket, objectKey, content);
+        } catch (IOException e) {
+            synchronized (this) {
+                // stored again with the next segment, the entries added since replace these ones
+                entries.putAll(pending);
+                pending = entries;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (stored) {
+                nextSegment++;
+            }
+            stored = true;
+        }
+    }
+
+    /**
+     * Writes the whole manifest, replacing the previous one, and removes the segments merged when it was loaded.
+     */
+    public void compact(IObsClient obsClient, String bucket, String key) throws IOException {
+        Content content;
+        List<String> segments;
+        synchronized (this) {
+            content = new Content(source, destination, new HashMap<>(copied));
+            pending = new HashMap<>();
+            segments = new ArrayList<>(segmentKeys);
+        }
+        write(obsClient, bucket, key, content);
+        synchronized (this) {
+            stored = true;
+        }
+        for (String segmentKey : segments) {
+            try {
+                obsClient.deleteObject(bucket, segmentKey);
+            } catch (ObsException e) {
+                throw new IOException("Failed to delete the copy manifest segment obs://" + bucket + "/" + segmentKey,
+                        e);
+            }
+            synchronized (this) {
+                segmentKeys.remove(segmentKey);
+            }
+        }
+    }
+
+    private static String getSegmentKey(String key, long segment) {
+        // zero padded so that the segments are listed in the order they were stored
+        return String.format("%s%s%010d", key, SEGMENT_SEPARATOR, segment);
+    }
+
+    @Nullable
+    private static Content read(IObsClient obsClient, String bucket, String key) throws IOException {
+        ObsObject object;
+        try {
+            object = obsClient.getObject(bucket, key);
+        } catch (ObsException e) {
+            if (e.getResponseCode() == 404) {
+                return null;
+            }
+            throw new IOException("Failed to read the copy manifest from obs://" + bucket + "/" + key, e);
+        }
+        try (InputStream in = object.getObjectContent();
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            Content content = GSON.fromJson(reader, Content.class);
+            if (content == null || content.source == null || content.destination == null
+                    || content.copied == null) {
+                throw new IOException("Invalid copy manifest in obs://" + bucket + "/" + key);
+            }
+            return content;
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid copy manifest in obs://" + bucket + "/" + key, e);
+        }
+    }
+
+    private static void write(IObsClient obsClient, String bucket, String key, Content content) throws IOException {
+        byte[] bytes = GSON.toJson(content).getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength((long) bytes.length);
+        metadata.setContentType("application/json");
+        PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteArrayInputStream(bytes));
+        request.setMetadata(metadata);
+        try {
+            obsClient.putObject(request);
+        } catch (ObsException e) {
+            throw new IOException("Failed to store the copy manifest in obs://" + bucket + "/" + key, e);
+        }
+    }
+
+    /**
+     * Json of the manifest and of its segments.
+     */
+    private static final class Content {
+        private final String source;
+        private final String destination;
+        private final Map<String, String> copied;
+
+        private Content(String source, String destination, Map<String, String> copied) {
+            this.source = source;
+            this.destination = destination;
+            this.copied = copied;
+        }
+    }
+}
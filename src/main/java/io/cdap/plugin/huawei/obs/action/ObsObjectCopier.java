@@ -0,0 +1,447 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.action;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.AbortMultipartUploadRequest;
+import com.obs.services.model.CompleteMultipartUploadRequest;
+import com.obs.services.model.CopyObjectRequest;
+import com.obs.services.model.CopyPartRequest;
+import com.obs.services.model.CopyPartResult;
+import com.obs.services.model.InitiateMultipartUploadRequest;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PartEtag;
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import io.cdap.plugin.huawei.obs.common.ObsPrefixLister;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Copies an object, or the objects under a prefix, to another bucket or prefix with server side copies, so that their
+ * content is not transferred through the worker. The objects larger than the part size are copied with a multipart
+ * upload whose parts are copied in parallel, the other ones with a single copy request.
+ *
+ * The copied objects are recorded in a {@link ObsCopyManifest} stored in the destination, regularly during the copy
+ * and when it ends, so that a copy that failed resumes with the objects that were not copied yet. Each store only
+ * appends the objects copied since the previous one, the segments are compacted when the copy resumes. The objects are
+ * copied in the order of their keys, at most {@code threads} requests at the same time.
+ */
+public class ObsObjectCopier {
+    private static final Logger logger = LogManager.getLogger(ObsObjectCopier.class);
+    private static final String DELIMITER = "/";
+    static final long MANIFEST_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final IObsClient obsClient;
+    private final Executor executor;
+    private final int threads;
+    private final long partSize;
+    private final long manifestIntervalMillis;
+
+    /**
+     * @param executor runs the list and the copy requests, with at least {@code threads} threads
+     * @param threads maximum number of requests sent at the same time
+     * @param partSize size of the parts of the objects copied with a multipart upload
+     */
+    public ObsObjectCopier(IObsClient obsClient, Executor executor, int threads, long partSize) {
+        this(obsClient, executor, threads, partSize, MANIFEST_INTERVAL_MILLIS);
+    }
+
+    @VisibleForTesting
+    ObsObjectCopier(IObsClient obsClient, Executor executor, int threads, long partSize,
+                    long manifestIntervalMillis) {
+        this.obsClient = obsClient;
+        this.executor = executor;
+        this.threads = Math.max(1, threads);
+        this.partSize = partSize;
+        this.manifestIntervalMillis = manifestIntervalMillis;
+    }
+
+    /**
+     * Copies the source to the destination. If the source is a directory, which is a path ending with '/' or a path
+     * that is not an object, its objects are copied under the destination with the same relative keys. Otherwise the
+     * object is copied to the destination, or into it if the destination ends with '/'.
+     *
+     * @param recursive whether the objects of the sub-directories of the source are copied
+     * @param fileRegex regular expression the full path of the objects must match to be copied, null to copy all
+     * @param useManifest whether the copied objects are recorded in a manifest in the destination, and the objects
+     *                    already recorded are skipped
+     * @throws IOException if any of the objects can't be copied, after the manifest of the objects copied so far is
+     *                     stored
+     */
+    public Result copy(ObsPath source, ObsPath destination, boolean recursive, @Nullable Pattern fileRegex,
+                       boolean useManifest) throws IOException {
+        String sourceKey = source.getName();
+        List<ObsObject> objects;
+        String sourcePrefix;
+        if (sourceKey.isEmpty() || sourceKey.endsWith(DELIMITER) || !exists(source.getBucket(), sourceKey)) {
+            sourcePrefix = sourceKey.isEmpty() || sourceKey.endsWith(DELIMITER) ? sourceKey : sourceKey + DELIMITER;
+            objects = null;
+        } else {
+            int index = sourceKey.lastIndexOf(DELIMITER);
+            sourcePrefix = sourceKey.substring(0, index + 1);
+            ObsObject object = new ObsObject();
+            object.setBucketName(source.getBucket());
+            object.setObjectKey(sourceKey);
+            object.setMetadata(obsClient.getObjectMetadata(source.getBucket(), sourceKey));
+            objects = Collections.singletonList(object);
+        }
+        String destinationKey = destination.getName();
+        boolean intoDirectory = objects == null || destinationKey.isEmpty() || destinationKey.endsWith(DELIMITER);
+        String destinationPrefix = !intoDirectory || destinationKey.isEmpty() || destinationKey.endsWith(DELIMITER)
+                ? destinationKey : destinationKey + DELIMITER;
+        if (!intoDirectory) {
+            destinationPrefix = destinationKey.substring(0, destinationKey.lastIndexOf(DELIMITER) + 1);
+        }
+
+        String manifestKey = destinationPrefix + ObsCopyManifest.NAME;
+        ObsCopyManifest manifest = useManifest ? loadManifest(source, destination, manifestKey) : null;
+        if (manifest == null) {
+            manifest = new ObsCopyManifest(source.getFullPath(), destination.getFullPath());
+        }
+
+        if (objects == null) {
+            // the copies are left out when the destination is under the source, as well as the manifest
+            String excludedPrefix = source.getBucket().equals(destination.getBucket())
+                    && destinationPrefix.startsWith(sourcePrefix) && !destinationPrefix.equals(sourcePrefix)
+                    ? destinationPrefix : null;
+            String prefix = sourcePrefix;
+            objects = new ObsPrefixLister(obsClient, executor, threads).list(source.getBucket(), sourcePrefix,
+                    p -> recursive && (excludedPrefix == null || !p.equals(excludedPrefix)),
+                    key -> !key.equals(prefix)
+                            && !ObsCopyManifest.isManifest(key.substring(key.lastIndexOf(DELIMITER) + 1))
+                            && (excludedPrefix == null || !key.startsWith(excludedPrefix))
+                            && (fileRegex == null || fileRegex.matcher(ObsPath.SCHEME + source.getBucket() + DELIMITER
+                            + key).matches()));
+        }
+
+        Copy copy = new Copy(source.getBucket(), sourcePrefix, destination.getBucket(),
+                intoDirectory ? destinationPrefix : null, destinationKey, manifest);
+        long lastStore = System.currentTimeMillis();
+        try {
+            for (ObsObject object : objects) {
+                if (copy.failure.get() != null) {
+                    break;
+                }
+                copy.submit(object);
+                if (useManifest && System.currentTimeMillis() - lastStore >= manifestIntervalMillis) {
+                    manifest.store(obsClient, destination.getBucket(), manifestKey);
+                    lastStore = System.currentTimeMillis();
+                }
+            }
+        } finally {
+            copy.await();
+            if (useManifest) {
+                manifest.store(obsClient, destination.getBucket(), manifestKey);
+            }
+        }
+        Throwable failure = copy.failure.get();
+        if (failure != null) {
+            throw failure instanceof IOException ? (IOException) failure
+                    : new IOException("Failed to copy " + source.getFullPath() + " to " + destination.getFullPath(),
+                    failure);
+        }
+        Result result = new Result(copy.copied.get(), copy.skipped.get(), copy.bytes.get());
+        logger.info("Copied {} objects ({} bytes) from {} to {}, skipped {} objects already copied",
+                result.getCopiedObjects(), result.getCopiedBytes(), source.getFullPath(), destination.getFullPath(),
+                result.getSkippedObjects());
+        return result;
+    }
+
+    private boolean exists(String bucket, String key) {
+        try {
+            obsClient.getObjectMetadata(bucket, key);
+            return true;
+        } catch (ObsException e) {
+            if (e.getResponseCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Nullable
+    private ObsCopyManifest loadManifest(ObsPath source, ObsPath destination, String manifestKey) throws IOException {
+        ObsCopyManifest manifest = ObsCopyManifest.load(obsClient, destination.getBucket(), manifestKey);
+        if (manifest == null) {
+            return null;
+        }
+        if (!manifest.getSource().equals(source.getFullPath())
+                || !manifest.getDestination().equals(destination.getFullPath())) {
+            logger.warn("Ignoring the manifest obs://{}/{} of the copy from {} to {}", destination.getBucket(),
+                    manifestKey, manifest.getSource(), manifest.getDestination());
+            return null;
+        }
+        logger.info("Resuming the copy from {} to {}, {} objects already copied", source.getFullPath(),
+                destination.getFullPath(), manifest.size());
+        if (manifest.getSegments() > 0) {
+            try {
+                manifest.compact(obsClient, destination.getBucket(), manifestKey);
+            } catch (IOException e) {
+                // the segments left are merged again by the next load
+                logger.warn("Failed to compact the manifest obs://{}/{}", destination.getBucket(), manifestKey, e);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * @return the size of the parts of an object, larger than the configured one if needed to stay within the maximum
+     *         number of parts
+     */
+    @VisibleForTesting
+    static long getPartSize(long size, long partSize) {
+        long minimum = (size + ObsConstants.MAX_COPY_PARTS - 1) / ObsConstants.MAX_COPY_PARTS;
+        return Math.max(partSize, minimum);
+    }
+
+    /**
+     * State of a single copy. Every request takes a permit, so that at most {@code threads} requests are sent at the
+     * same time and the objects are not all queued at once.
+     */
+    private final class Copy {
+        private final String sourceBucket;
+        private final String sourcePrefix;
+        private final String destinationBucket;
+        // prefix the relative keys are appended to, null to copy to the destination key
+        @Nullable
+        private final String destinationPrefix;
+        private final String destinationKey;
+        private final ObsCopyManifest manifest;
+        private final Semaphore permits;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicInteger copied = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Copy(String sourceBucket, String sourcePrefix, String destinationBucket,
+                     @Nullable String destinationPrefix, String destinationKey, ObsCopyManifest manifest) {
+            this.sourceBucket = sourceBucket;
+            this.sourcePrefix = sourcePrefix;
+            this.destinationBucket = destinationBucket;
+            this.destinationPrefix = destinationPrefix;
+            this.destinationKey = destinationKey;
+            this.manifest = manifest;
+            this.permits = new Semaphore(threads);
+        }
+
+        private void submit(ObsObject object) {
+            String key = object.getObjectKey();
+            String relativeKey = key.substring(sourcePrefix.length());
+            ObjectMetadata metadata = object.getMetadata();
+            String etag = metadata == null ? null : metadata.getEtag();
+            if (manifest.isCopied(relativeKey, etag)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            long size = metadata == null || metadata.getContentLength() == null ? 0L : metadata.getContentLength();
+            String target = destinationPrefix == null ? destinationKey : destinationPrefix + relativeKey;
+            if (size <= partSize) {
+                execute(() -> {
+                    obsClient.copyObject(new CopyObjectRequest(sourceBucket, key, destinationBucket, target));
+                    done(relativeKey, etag, size);
+                });
+                return;
+            }
+
+            if (!acquire()) {
+                return;
+            }
+            String uploadId;
+            try {
+                uploadId = obsClient.initiateMultipartUpload(new InitiateMultipartUploadRequest(destinationBucket,
+                        target)).getUploadId();
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            } finally {
+                permits.release();
+            }
+            long objectPartSize = getPartSize(size, partSize);
+            int parts = (int) ((size + objectPartSize - 1) / objectPartSize);
+            PartEtag[] etags = new PartEtag[parts];
+            AtomicInteger remaining = new AtomicInteger(parts);
+            AtomicReference<Throwable> partFailure = new AtomicReference<>();
+            for (int i = 0; i < parts; i++) {
+                int partNumber = i + 1;
+                long start = i * objectPartSize;
+                long end = Math.min(size, start + objectPartSize) - 1;
+                boolean submitted = failure.get() == null && execute(() -> {
+                    try {
+                        CopyPartRequest request = new CopyPartRequest(uploadId, sourceBucket, key, destinationBucket,
+                                target, partNumber);
+                        request.setByteRangeStart(start);
+                        request.setByteRangeEnd(end);
+                        CopyPartResult result = obsClient.copyPart(request);
+                        etags[partNumber - 1] = new PartEtag(result.getEtag(), partNumber);
+                    } catch (RuntimeException e) {
+                        partFailure.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            finish(target, uploadId, etags, partFailure.get() == null, relativeKey, etag, size);
+                        }
+                    }
+                });
+                if (!submitted) {
+                    // the parts that were not submitted are done, the upload is aborted by the last submitted one
+                    partFailure.compareAndSet(null, failure.get());
+                    if (remaining.addAndGet(-(parts - i)) == 0) {
+                        finish(target, uploadId, etags, false, relativeKey, etag, size);
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Completes the upload once all its parts are copied, or aborts it if any of them could not be copied.
+         */
+        private void finish(String target, String uploadId, PartEtag[] etags, boolean succeeded, String relativeKey,
+                            @Nullable String etag, long size) {
+            try {
+                if (succeeded) {
+                    obsClient.completeMultipartUpload(new CompleteMultipartUploadRequest(destinationBucket, target,
+                            uploadId, Arrays.asList(etags)));
+                    done(relativeKey, etag, size);
+                    return;
+                }
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+            try {
+                obsClient.abortMultipartUpload(new AbortMultipartUploadRequest(destinationBucket, target, uploadId));
+            } catch (RuntimeException e) {
+                logger.warn("Failed to abort the upload {} of obs://{}/{}", uploadId, destinationBucket, target, e);
+            }
+        }
+
+        private void done(String relativeKey, @Nullable String etag, long size) {
+            manifest.add(relativeKey, etag);
+            copied.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+
+        private void fail(Throwable e) {
+            if (!failure.compareAndSet(null, e)) {
+                failure.get().addSuppressed(e);
+            }
+        }
+
+        /**
+         * Runs the request with a permit.
+         *
+         * @return false if the copy failed, in which case the request is not run
+         */
+        private boolean execute(Runnable request) {
+            if (!acquire()) {
+                return false;
+            }
+            if (failure.get() != null) {
+                permits.release();
+                return false;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        request.run();
+                    } catch (RuntimeException e) {
+                        fail(e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                fail(e);
+                return false;
+            }
+        }
+
+        /**
+         * @return false if interrupted, in which case the copy fails
+         */
+        private boolean acquire() {
+            try {
+                permits.acquire();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(new InterruptedIOException("Interrupted while copying to obs://" + destinationBucket));
+                return false;
+            }
+        }
+
+        /**
+         * Waits for the requests in flight, even if interrupted, so that the manifest records all the copied objects.
+         */
+        private void await() {
+            permits.acquireUninterruptibly(threads);
+            permits.release(threads);
+        }
+    }
+
+    /**
+     * Numbers of a copy.
+     */
+    public static final class Result {
+        private final int copiedObjects;
+        private final int skippedObjects;
+        private final long copiedBytes;
+
+        Result(int copiedObjects, int skippedObjects, long copiedBytes) {
+            this.copiedObjects = copiedObjects;
+            this.skippedObjects = skippedObjects;
+            this.copiedBytes = copiedBytes;
+        }
+
+        public int getCopiedObjects() {
+            return copiedObjects;
+        }
+
+        /**
+         * @return the number of objects not copied since the manifest says they were already copied
+         */
+        public int getSkippedObjects() {
+            return skippedObjects;
+        }
+
+        public long getCopiedBytes() {
+            return copiedBytes;
+        }
+    }
+}
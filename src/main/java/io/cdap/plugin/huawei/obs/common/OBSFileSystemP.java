@@ -1,9 +1,821 @@
 package io.cdap.plugin.huawei.obs.common;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.obs.services.IObsClient;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.obs.OBSFileSystem;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
 /**
- * OBSFileSystemP for OBSFileSystem
+ * OBSFileSystemP for OBSFileSystem.
+ * Adds the plugin specific behaviour on top of {@link OBSFileSystem}, enabled through the fs.obs.cdap.* properties
+ * set by the source and the sink. Without any of these properties it behaves exactly like {@link OBSFileSystem}.
  */
 public class OBSFileSystemP extends OBSFileSystem {
+    private static final Logger logger = LogManager.getLogger(OBSFileSystemP.class);
+
+    public static final String FOLDER_SUFFIX = "_$folder$";
+
+    private int listParallelism;
+    private int listMaxRequests;
+    private ExecutorService listExecutor;
+
+    // how the task attempts writing with the filesystem write their files, by task attempt, see startTaskAttempt
+    private final ConcurrentMap<String, TaskAttemptWrites> taskAttempts = new ConcurrentHashMap<>();
+    private ObsServerSideEncryption encryption;
+
+    // the buffers of the asynchronous writes, by size and allocation, reused by the task attempts of the worker
+    private final ConcurrentMap<String, ObsWriteBufferPool> writeBufferPools = new ConcurrentHashMap<>();
+    private ExecutorService writeExecutor;
+
+    private int readAheadDepth;
+    private ObsBufferPool readBufferPool;
+    private ExecutorService readExecutor;
+
+    // listing of the input of the job running on the thread, see listInput
+    private final ThreadLocal<InputListing> inputListing = new ThreadLocal<>();
+
+    private ObsClientCache.ClientKey clientKey;
+    private ObsClientCache.Lease clientLease;
+    private ObsRequestMetrics metrics;
+
+    @Override
+    public void initialize(URI name, Configuration conf) throws IOException {
+        super.initialize(name, conf);
+        listParallelism = conf.getInt(ObsConstants.LIST_PARALLELISM, ObsConstants.DEFAULT_LIST_PARALLELISM);
+        listMaxRequests = conf.getInt(ObsConstants.LIST_MAX_REQUESTS, ObsConstants.DEFAULT_LIST_MAX_REQUESTS);
+
+        encryption = ObsServerSideEncryption.fromConfiguration(conf);
+        readAheadDepth = conf.getInt(ObsConstants.READ_AHEAD_DEPTH, ObsConstants.DEFAULT_READ_AHEAD_DEPTH);
+        if (readAheadDepth > 0) {
+            long chunkSize = conf.getLong(ObsConstants.READ_CHUNK_SIZE, ObsConstants.DEFAULT_READ_CHUNK_SIZE);
+            int readChunkSize = (int) Math.min(Integer.MAX_VALUE - 8,
+                    Math.max(ObsConstants.MIN_READ_CHUNK_SIZE, chunkSize));
+            long readMemoryLimit = conf.getLong(ObsConstants.READ_MEMORY_LIMIT, ObsConstants.DEFAULT_READ_MEMORY_LIMIT);
+            readBufferPool = new ObsBufferPool(readChunkSize, (int) Math.max(1, readMemoryLimit / readChunkSize));
+        }
+        clientKey = ObsClientCache.ClientKey.fromConfiguration(conf);
+        // a filesystem shared by stages reading the same bucket counts their requests for the one that created it
+        metrics = ObsRequestMetrics.fromConfiguration(conf);
+    }
+
+    /**
+     * When the read-ahead is enabled, reads the file with {@link ObsRangedInputStream} so that the chunks following
+     * the one being read are fetched in parallel with ranged requests.
+     *
+     * The bytes read are counted by the metrics of the stage.
+     */
+    @Override
+    public FSDataInputStream open(Path path, int bufferSize) throws IOException {
+        return new FSDataInputStream(new CountingInputStream(openFile(path, bufferSize), metrics));
+    }
+
+    private FSDataInputStream openFile(Path path, int bufferSize) throws IOException {
+        if (readAheadDepth <= 0) {
+            return super.open(path, bufferSize);
+        }
+        Path qualified = makeQualified(path);
+        FileStatus status = getFileStatus(qualified);
+        if (status.isDirectory()) {
+            throw new FileNotFoundException("Can't open " + qualified + " because it is a directory");
+        }
+        // same split size as FileInputFormat
+        Configuration conf = getConf();
+        long splitSize = Math.max(conf.getLong(FileInputFormat.SPLIT_MINSIZE, 1L),
+                Math.min(conf.getLong(FileInputFormat.SPLIT_MAXSIZE, Long.MAX_VALUE), status.getBlockSize()));
+        return new FSDataInputStream(new ObsRangedInputStream(getSharedObsClient(), getUri().getAuthority(),
+                pathToKey(qualified), status.getLen(), readAheadDepth, splitSize, getReadExecutor(),
+                readBufferPool, statistics));
+    }
+
+    /**
+     * When the parallel upload is enabled for the task attempt writing the file, writes the file with
+     * {@link ObsMultipartOutputStream} so that the parts of a single object are uploaded concurrently, and encrypted
+     * like the files written by {@link OBSFileSystem}.
+     *
+     * When the output of the task attempt is committed directly, the file is written with
+     * {@link ObsPendingOutputStream} to its final location, and only becomes visible when the job commits.
+     *
+     * When the writes of the task attempt are asynchronous, the file is written through {@link ObsAsyncOutputStream},
+     * so that the writer fills the next buffer while the previous one is written to Obs.
+     *
+     * The bytes written are counted by the metrics of the stage when the file is closed, and by the task attempt as
+     * they are written, see {@link #getBytesWritten}.
+     */
+    @Override
+    public FSDataOutputStream create(Path path, FsPermission permission, boolean overwrite, int bufferSize,
+                                     short replication, long blockSize, Progressable progress) throws IOException {
+        Path qualified = makeQualified(path);
+        String key = pathToKey(qualified);
+        String taskAttempt = ObsPendingUpload.getTaskAttempt(key);
+        TaskAttemptWrites writes = taskAttempt == null ? null : taskAttempts.get(taskAttempt);
+        if (writes == null || !writes.isUploadedInParts()) {
+            FSDataOutputStream out = super.create(path, permission, overwrite, bufferSize, replication, blockSize,
+                    progress);
+            // the bytes are counted by the new stream, on the thread of the writer
+            OutputStream stream = out.getWrappedStream();
+            return writes == null ? newOutputStream(stream, null, null)
+                    : newOutputStream(new CountingOutputStream(newAsyncStream(stream, writes), writes), null, writes);
+        }
+        if (!overwrite && exists(qualified)) {
+            throw new FileAlreadyExistsException(qualified + " already exists");
+        }
+        String bucket = getUri().getAuthority();
+        ObsMultipartOutputStream stream = writes.directCommit
+                ? new ObsPendingOutputStream(getSharedObsClient(), bucket, ObsPendingUpload.getDestinationKey(key),
+                        key + ObsPendingUpload.PENDING_SUFFIX, writes.partSize, writes.getUploadExecutor(),
+                        writes.uploadPermits, encryption)
+                : new ObsMultipartOutputStream(getSharedObsClient(), bucket, key, writes.partSize,
+                        writes.getUploadExecutor(), writes.uploadPermits, encryption);
+        writes.openUploads.add(stream);
+        return newOutputStream(new CountingOutputStream(newAsyncStream(stream, writes), writes), stream, writes);
+    }
+
+    /**
+     * @param upload upload of the file, no longer open once the stream is closed, null if it is not uploaded in parts
+     * @param writes task attempt writing the file, null if it was not started
+     */
+    private FSDataOutputStream newOutputStream(OutputStream out, @Nullable ObsMultipartOutputStream upload,
+                                               @Nullable TaskAttemptWrites writes) throws IOException {
+        return new FSDataOutputStream(out, statistics) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (upload != null) {
+                        writes.openUploads.remove(upload);
+                    }
+                    if (!closed) {
+                        closed = true;
+                        metrics.recordFileWritten(getPos());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * When the input format lists its input on this thread, see {@link #listInput}, lists the directories with the
+     * settings of its job and only returns the files accepted by its filter.
+     */
+    @Override
+    public RemoteIterator<LocatedFileStatus> listLocatedStatus(Path path) throws IOException {
+        InputListing listing = inputListing.get();
+        RemoteIterator<LocatedFileStatus> statuses = listAllLocatedStatus(path, listing);
+        if (listing == null || listing.filter == null) {
+            return statuses;
+        }
+        Predicate<FileStatus> filter = listing.filter;
+        return new FilteringIterator<>(statuses, status -> status.isDirectory() || filter.test(status));
+    }
+
+    /**
+     * Lists the input of a job, the directories listed by the lister on the current thread being listed with the
+     * settings of the job, and only returning the files accepted by the filter. The settings come from the
+     * configuration of the job, since the filesystem is cached and shared by the stages reading the same bucket.
+     *
+     * @param conf configuration of the job
+     * @param filter files of the input, or null to read all of them
+     */
+    public <T> T listInput(Configuration conf, @Nullable Predicate<FileStatus> filter, InputLister<T> lister)
+            throws IOException, InterruptedException {
+        InputListing previous = inputListing.get();
+        inputListing.set(new InputListing(conf, filter));
+        try {
+            return lister.list();
+        } finally {
+            if (previous == null) {
+                inputListing.remove();
+            } else {
+                inputListing.set(previous);
+            }
+        }
+    }
+
+    /**
+     * When the parallel listing is enabled and the input is read recursively, returns every file under the directory
+     * in a single flat listing produced by {@link ObsPrefixLister}. The input path filter and the hidden file filter
+     * are applied to the sub-directories and the files in the same way {@link FileInputFormat} would do it, so
+     * the input format gets the same files it would get by walking the directories itself.
+     *
+     * When the input of a job is listed with the inventory enabled in its configuration, the files of an input path
+     * that is a directory are taken from its {@link ObsInventory} if it has one. The sub-directories are never looked
+     * up in the inventory.
+     */
+    private RemoteIterator<LocatedFileStatus> listAllLocatedStatus(Path path, @Nullable InputListing listing)
+            throws IOException {
+        Configuration conf = listing == null ? getConf() : listing.conf;
+        boolean recursive = conf.getBoolean(FileInputFormat.INPUT_DIR_RECURSIVE, false);
+        if (listing != null && conf.getBoolean(ObsConstants.LIST_INVENTORY, false) && isInputPath(path, conf)
+                && getFileStatus(path).isDirectory()) {
+            List<LocatedFileStatus> statuses = listInventory(path, recursive, conf);
+            if (statuses != null) {
+                return new ListIterator<>(statuses.iterator());
+            }
+        }
+        if (listParallelism <= 1 || !recursive) {
+            return super.listLocatedStatus(path);
+        }
+        FileStatus status = getFileStatus(path);
+        if (!status.isDirectory()) {
+            return super.listLocatedStatus(path);
+        }
+
+        Path qualified = makeQualified(path);
+        String prefix = pathToKey(qualified);
+        if (!prefix.isEmpty() && !prefix.endsWith(ObsPrefixLister.DELIMITER)) {
+            prefix += ObsPrefixLister.DELIMITER;
+        }
+        PathFilter filter = getInputPathFilter(conf);
+        Predicate<String> prefixFilter = key -> accept(keyToPath(key), filter);
+        Predicate<String> keyFilter = key -> !key.endsWith(FOLDER_SUFFIX) && accept(keyToPath(key), filter);
+
+        ObsPrefixLister lister = new ObsPrefixLister(getSharedObsClient(), getListExecutor(), listMaxRequests);
+        List<ObsObject> objects = lister.list(getUri().getAuthority(), prefix, prefixFilter, keyFilter);
+        List<LocatedFileStatus> statuses = new ArrayList<>(objects.size());
+        for (ObsObject object : objects) {
+            statuses.add(toLocatedFileStatus(object));
+        }
+        logger.debug("Listed {} files under {} with {} threads", statuses.size(), qualified, listParallelism);
+        return new ListIterator<>(statuses.iterator());
+    }
+
+    /**
+     * Lists the directory from its inventory, with a single request. The recursive listing applies the filters in the
+     * same way as the parallel listing, otherwise the files and the sub-directories of the directory are returned
+     * like {@link OBSFileSystem} does.
+     *
+     * @return the files, or null if the directory has no inventory
+     */
+    @Nullable
+    private List<LocatedFileStatus> listInventory(Path path, boolean recursive, Configuration conf)
+            throws IOException {
+        Path qualified = makeQualified(path);
+        String prefix = pathToKey(qualified);
+        if (!prefix.isEmpty() && !prefix.endsWith(ObsPrefixLister.DELIMITER)) {
+            prefix += ObsPrefixLister.DELIMITER;
+        }
+        String bucket = getUri().getAuthority();
+        ObsInventory inventory = ObsInventory.load(getSharedObsClient(), bucket, prefix);
+        if (inventory == null) {
+            return null;
+        }
+        List<LocatedFileStatus> statuses = new ArrayList<>();
+        if (recursive) {
+            PathFilter filter = getInputPathFilter(conf);
+            Map<String, Boolean> directories = new HashMap<>();
+            for (ObsObject object : inventory.getObjects(bucket, prefix, true)) {
+                String key = object.getObjectKey();
+                String directory = key.substring(0, key.lastIndexOf(ObsPrefixLister.DELIMITER) + 1);
+                if (!key.endsWith(FOLDER_SUFFIX) && isAccepted(directory, prefix, filter, directories)
+                        && accept(keyToPath(key), filter)) {
+                    statuses.add(toLocatedFileStatus(object));
+                }
+            }
+        } else {
+            for (String directory : inventory.getDirectories(prefix)) {
+                FileStatus status = new FileStatus(0L, true, 1, 0L, 0L, keyToPath(directory));
+                statuses.add(new LocatedFileStatus(status, null));
+            }
+            for (ObsObject object : inventory.getObjects(bucket, prefix, false)) {
+                if (!object.getObjectKey().endsWith(FOLDER_SUFFIX)) {
+                    statuses.add(toLocatedFileStatus(object));
+                }
+            }
+        }
+        logger.info("Listed {} files under {} from its inventory of {}, the objects added since are not read",
+                statuses.size(), qualified, new Date(inventory.getListedAt()));
+        return statuses;
+    }
+
+    /**
+     * @return whether the path is one of the input paths of the job, and not one of their sub-directories
+     */
+    private boolean isInputPath(Path path, Configuration conf) {
+        String inputPaths = conf.get(FileInputFormat.INPUT_DIR);
+        if (inputPaths == null) {
+            return false;
+        }
+        Path qualified = makeQualified(path);
+        for (String inputPath : StringUtils.split(inputPaths)) {
+            if (qualified.equals(makeQualified(new Path(StringUtils.unEscapeString(inputPath))))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param directory a sub-directory of the prefix, ending with '/'
+     * @param accepted whether the sub-directories already checked are accepted
+     * @return whether the directory and its parents under the prefix are accepted by the filters
+     */
+    private boolean isAccepted(String directory, String prefix, PathFilter filter, Map<String, Boolean> accepted) {
+        if (directory.length() <= prefix.length()) {
+            return true;
+        }
+        Boolean result = accepted.get(directory);
+        if (result == null) {
+            String parent = directory.substring(0,
+                    directory.lastIndexOf(ObsPrefixLister.DELIMITER, directory.length() - 2) + 1);
+            result = isAccepted(parent, prefix, filter, accepted) && accept(keyToPath(directory), filter);
+            accepted.put(directory, result);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the files of the task attempt with the write settings of the configuration of its task: the parallel
+     * upload, the direct commit and the asynchronous writes. The filesystem is cached and shared by the stages and the
+     * tasks of the worker, so these settings can't be taken from its own configuration, which is the one of the stage
+     * that created it. The files of the task attempts that were not started are written like {@link OBSFileSystem}
+     * does.
+     *
+     * Called by the output format of the sink before the task writes its files, until {@link #finishTaskAttempt}.
+     */
+    public void startTaskAttempt(TaskAttemptID taskAttempt, Configuration conf) {
+        ObsWriteBufferPool writeBufferPool = getWriteBufferPool(conf);
+        taskAttempts.computeIfAbsent(taskAttempt.toString(), a -> new TaskAttemptWrites(conf, writeBufferPool));
+    }
+
+    /**
+     * Called once the task attempt closed its files. If some of its uploads are still open, because it failed to close
+     * them, they are left to {@link #abortUploads}.
+     */
+    public void finishTaskAttempt(TaskAttemptID taskAttempt) {
+        taskAttempts.computeIfPresent(taskAttempt.toString(), (a, writes) -> {
+            if (!writes.openUploads.isEmpty()) {
+                return writes;
+            }
+            writes.close();
+            return null;
+        });
+    }
+
+    /**
+     * @return the number of bytes written so far to the files of the task attempt, when they are written by the
+     *         thread of the task, 0 if the attempt was not started
+     */
+    public long getBytesWritten(TaskAttemptID taskAttempt) {
+        TaskAttemptWrites writes = taskAttempts.get(taskAttempt.toString());
+        return writes == null ? 0L : writes.bytesWritten.get();
+    }
+
+    /**
+     * Aborts the multipart uploads of the files of the task attempt that were not closed, because the attempt failed,
+     * so that their parts do not stay in the bucket until the filesystem is closed. Called when the task is aborted,
+     * the filesystem being shared by the tasks of the worker.
+     *
+     * @return the number of uploads aborted
+     */
+    public int abortUploads(TaskAttemptID taskAttempt) {
+        TaskAttemptWrites writes = taskAttempts.remove(taskAttempt.toString());
+        if (writes == null) {
+            return 0;
+        }
+        int aborted = writes.abort("task attempt " + taskAttempt + " failed");
+        writes.close();
+        return aborted;
+    }
+
+    /**
+     * Aborts the multipart uploads of the streams that were never closed, for example because the task writing them
+     * failed and was not aborted, so that their parts do not stay in the bucket.
+     */
+    @Override
+    public void close() throws IOException {
+        for (TaskAttemptWrites writes : taskAttempts.values()) {
+            writes.abort("it was not closed");
+            writes.close();
+        }
+        taskAttempts.clear();
+        try {
+            super.close();
+        } finally {
+            synchronized (this) {
+                if (clientLease != null) {
+                    clientLease.close();
+                    clientLease = null;
+                }
+                if (listExecutor != null) {
+                    listExecutor.shutdownNow();
+                    listExecutor = null;
+                }
+                if (readExecutor != null) {
+                    readExecutor.shutdownNow();
+                    readExecutor = null;
+                }
+                if (writeExecutor != null) {
+                    writeExecutor.shutdownNow();
+                    writeExecutor = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the client used by the operations of this class. When the credentials are given through the
+     * configuration, it is the client of {@link ObsClientCache} shared with the other filesystems and the connector,
+     * otherwise the client of {@link OBSFileSystem}.
+     */
+    private synchronized IObsClient getSharedObsClient() {
+        if (clientKey == null) {
+            return getObsClient();
+        }
+        if (clientLease == null) {
+            clientLease = ObsClientCache.getInstance().acquire(clientKey, metrics);
+        }
+        return clientLease.getClient();
+    }
+
+    private synchronized ExecutorService getListExecutor() {
+        if (listExecutor == null) {
+            listExecutor = Executors.newFixedThreadPool(listParallelism, new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("obs-list-%d").build());
+        }
+        return listExecutor;
+    }
+
+    /**
+     * The number of requests in flight is bounded by the read buffer pool.
+     */
+    private synchronized ExecutorService getReadExecutor() {
+        if (readExecutor == null) {
+            readExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("obs-read-%d").build());
+        }
+        return readExecutor;
+    }
+
+    /**
+     * @return the pool of the buffers of the asynchronous writes of the configuration, or null if they are not enabled
+     */
+    @Nullable
+    private ObsWriteBufferPool getWriteBufferPool(Configuration conf) {
+        if (!conf.getBoolean(ObsConstants.WRITE_ASYNC, false)) {
+            return null;
+        }
+        long size = conf.getLong(ObsConstants.WRITE_BUFFER_SIZE, ObsConstants.DEFAULT_WRITE_BUFFER_SIZE);
+        int bufferSize = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, size));
+        boolean direct = conf.getBoolean(ObsConstants.WRITE_BUFFER_OFF_HEAP, false);
+        return writeBufferPools.computeIfAbsent(bufferSize + (direct ? "-direct" : "-heap"),
+                k -> new ObsWriteBufferPool(bufferSize, direct));
+    }
+
+    /**
+     * @return the stream writing asynchronously to the given one if the writes of the task attempt are asynchronous,
+     *         otherwise the given stream
+     */
+    private OutputStream newAsyncStream(OutputStream out, TaskAttemptWrites writes) {
+        if (writes.writeBufferPool == null) {
+            return out;
+        }
+        return new ObsAsyncOutputStream(out, writes.writeBufferPool, writes.writeBufferDepth, getWriteExecutor());
+    }
+
+    /**
+     * Each stream writes one buffer at a time, so the number of threads is bounded by the number of open streams.
+     */
+    private synchronized ExecutorService getWriteExecutor() {
+        if (writeExecutor == null) {
+            writeExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("obs-write-%d").build());
+        }
+        return writeExecutor;
+    }
+
+    String pathToKey(Path path) {
+        String key = path.toUri().getPath();
+        return key.startsWith(ObsPrefixLister.DELIMITER) ? key.substring(1) : key;
+    }
+
+    Path keyToPath(String key) {
+        return new Path(ObsPrefixLister.DELIMITER + key).makeQualified(getUri(), getWorkingDirectory());
+    }
+
+    private LocatedFileStatus toLocatedFileStatus(ObsObject object) throws IOException {
+        ObjectMetadata metadata = object.getMetadata();
+        long length = metadata.getContentLength() == null ? 0L : metadata.getContentLength();
+        long modified = metadata.getLastModified() == null ? 0L : metadata.getLastModified().getTime();
+        Path path = keyToPath(object.getObjectKey());
+        FileStatus status = new FileStatus(length, false, 1, getDefaultBlockSize(path), modified, path);
+        return new LocatedFileStatus(status, getFileBlockLocations(status, 0, length));
+    }
+
+    private static PathFilter getInputPathFilter(Configuration conf) {
+        Class<?> filterClass = conf.getClass(FileInputFormat.PATHFILTER_CLASS, null, PathFilter.class);
+        return filterClass == null ? null : (PathFilter) ReflectionUtils.newInstance(filterClass, conf);
+    }
+
+    private static boolean accept(Path path, PathFilter filter) {
+        String name = path.getName();
+        // same as the hidden file filter of FileInputFormat
+        if (name.startsWith("_") || name.startsWith(".")) {
+            return false;
+        }
+        return filter == null || filter.accept(path);
+    }
+
+    /**
+     * How a task attempt writes its files, from the configuration of its task, and the uploads of its files that are
+     * not closed. The part size, the concurrency and the memory limit of the uploads apply to each task attempt.
+     * The buffers of the asynchronous writes come from a pool of the filesystem, so that they are reused by the next
+     * task attempts.
+     */
+    private static final class TaskAttemptWrites {
+        private final boolean parallelUpload;
+        private final boolean directCommit;
+        private final int partSize;
+        private final int concurrency;
+        private final Semaphore uploadPermits;
+        @Nullable
+        private final ObsWriteBufferPool writeBufferPool;
+        private final int writeBufferDepth;
+        private final Set<ObsMultipartOutputStream> openUploads = ConcurrentHashMap.newKeySet();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private ExecutorService uploadExecutor;
+
+        private TaskAttemptWrites(Configuration conf, @Nullable ObsWriteBufferPool writeBufferPool) {
+            parallelUpload = conf.getBoolean(ObsConstants.UPLOAD_PARALLEL, false);
+            directCommit = conf.getBoolean(ObsConstants.COMMIT_DIRECT, false);
+            long size = conf.getLong(ObsConstants.UPLOAD_PART_SIZE, ObsConstants.DEFAULT_UPLOAD_PART_SIZE);
+            partSize = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(ObsConstants.MIN_UPLOAD_PART_SIZE, size));
+            concurrency = Math.max(1, conf.getInt(ObsConstants.UPLOAD_CONCURRENCY,
+                    ObsConstants.DEFAULT_UPLOAD_CONCURRENCY));
+            long memoryLimit = conf.getLong(ObsConstants.UPLOAD_MEMORY_LIMIT, ObsConstants.DEFAULT_UPLOAD_MEMORY_LIMIT);
+            uploadPermits = new Semaphore((int) Math.max(1, memoryLimit / partSize));
+            this.writeBufferPool = writeBufferPool;
+            writeBufferDepth = conf.getInt(ObsConstants.WRITE_BUFFER_DEPTH, ObsConstants.DEFAULT_WRITE_BUFFER_DEPTH);
+        }
+
+        private boolean isUploadedInParts() {
+            return parallelUpload || directCommit;
+        }
+
+        private synchronized ExecutorService getUploadExecutor() {
+            if (uploadExecutor == null) {
+                uploadExecutor = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("obs-upload-%d").build());
+            }
+            return uploadExecutor;
+        }
+
+        /**
+         * @return the number of uploads aborted
+         */
+        private int abort(String reason) {
+            int aborted = 0;
+            for (ObsMultipartOutputStream stream : openUploads) {
+                logger.warn("Aborting the upload of {} since {}", stream, reason);
+                stream.abort();
+                aborted++;
+            }
+            openUploads.clear();
+            return aborted;
+        }
+
+        /**
+         * Stops the upload threads once the parts that are still uploaded are done.
+         */
+        private synchronized void close() {
+            if (uploadExecutor != null) {
+                uploadExecutor.shutdown();
+                uploadExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written to the files of a task attempt as they are written, before they are buffered by the
+     * asynchronous writes or the multipart uploads, so that the output can be rolled by size.
+     */
+    static final class CountingOutputStream extends FilterOutputStream {
+        private final TaskAttemptWrites writes;
+
+        private CountingOutputStream(OutputStream out, TaskAttemptWrites writes) {
+            super(out);
+            this.writes = writes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            writes.bytesWritten.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            writes.bytesWritten.addAndGet(len);
+        }
+
+        OutputStream getWrappedStream() {
+            return out;
+        }
+    }
+
+    /**
+     * Lists the input of a job, see {@link #listInput}.
+     */
+    public interface InputLister<T> {
+        T list() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Configuration and filter of the job whose input is listed on a thread.
+     */
+    private static final class InputListing {
+        private final Configuration conf;
+        @Nullable
+        private final Predicate<FileStatus> filter;
+
+        private InputListing(Configuration conf, @Nullable Predicate<FileStatus> filter) {
+            this.conf = conf;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * {@link RemoteIterator} that skips the elements of another one that do not match a predicate.
+     */
+    private static final class FilteringIterator<T> implements RemoteIterator<T> {
+        private final RemoteIterator<T> delegate;
+        private final Predicate<T> predicate;
+        private T next;
+
+        private FilteringIterator(RemoteIterator<T> delegate, Predicate<T> predicate) {
+            this.delegate = delegate;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            while (next == null && delegate.hasNext()) {
+                T candidate = delegate.next();
+                if (predicate.test(candidate)) {
+                    next = candidate;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    /**
+     * {@link RemoteIterator} over a listing that is already in memory.
+     */
+    private static final class ListIterator<T> implements RemoteIterator<T> {
+        private final Iterator<T> delegate;
+
+        private ListIterator(Iterator<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (!delegate.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return delegate.next();
+        }
+    }
+
+    /**
+     * Stream of a file counting the bytes read in the metrics of the stage.
+     */
+    private static final class CountingInputStream extends FSInputStream implements ByteBufferReadable {
+        private final FSDataInputStream in;
+        private final ObsRequestMetrics metrics;
+
+        private CountingInputStream(FSDataInputStream in, ObsRequestMetrics metrics) {
+            this.in = in;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                metrics.recordFileRead(1L);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return count(in.read(b, off, len));
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            return count(in.read(buffer));
+        }
+
+        @Override
+        public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            return count(in.read(position, buffer, offset, length));
+        }
+
+        @Override
+        public void readFully(long position, byte[] buffer, int offset, int length) throws IOException {
+            in.readFully(position, buffer, offset, length);
+            count(length);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return in.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            in.seek(pos);
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return in.getPos();
+        }
+
+        @Override
+        public boolean seekToNewSource(long targetPos) throws IOException {
+            return in.seekToNewSource(targetPos);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private int count(int read) {
+            if (read > 0) {
+                metrics.recordFileRead(read);
+            }
+            return read;
+        }
+    }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Output stream that decouples the writer from the stream it writes to. The data is written to buffers of a
+ * {@link ObsWriteBufferPool}, and every full buffer is written to the underlying stream on the given executor while
+ * the next one is being filled, so the serialization of the records goes on while the underlying stream sends the
+ * previous ones over the network. The buffers are written in order, one at a time.
+ *
+ * Each stream uses at most {@code depth} buffers, including the one being filled: once they are all waiting to be
+ * written, writers block until a buffer is written, so a slow network slows the writer down instead of growing the
+ * memory. Flushes hand the current buffer to the underlying stream without waiting for it, and closing the stream
+ * waits for all the buffers to be written before closing the underlying stream.
+ *
+ * If the underlying stream fails, the next write, flush or close fails, and a multipart upload is aborted so that the
+ * object is not created.
+ */
+public class ObsAsyncOutputStream extends OutputStream {
+    private static final Logger logger = LogManager.getLogger(ObsAsyncOutputStream.class);
+
+    // size of the copies of the direct buffers to the underlying stream, which only takes arrays
+    private static final int TRANSFER_SIZE = 64 * 1024;
+
+    private final OutputStream delegate;
+    private final ObsWriteBufferPool pool;
+    private final Executor executor;
+    private final Semaphore buffers;
+    private final byte[] transfer;
+
+    private ByteBuffer current;
+    // completes once the buffers handed to the executor are written
+    private CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * @param depth maximum number of buffers used by the stream, at least 2 so that a buffer is filled while the
+     *              previous one is written
+     * @param executor executor writing the buffers to the underlying stream
+     */
+    public ObsAsyncOutputStream(OutputStream delegate, ObsWriteBufferPool pool, int depth, Executor executor) {
+        this.delegate = delegate;
+        this.pool = pool;
+        // the buffers are written on the caller thread once the executor is shut down, so that they are released
+        this.executor = command -> {
+            try {
+                executor.execute(command);
+            } catch (RejectedExecutionException e) {
+                command.run();
+            }
+        };
+        this.buffers = new Semaphore(Math.max(2, depth));
+        this.transfer = pool.isDirect() ? new byte[Math.min(TRANSFER_SIZE, pool.getBufferSize())] : null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (current == null) {
+            ensureBuffer();
+        }
+        current.put((byte) b);
+        if (!current.hasRemaining()) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (current == null) {
+                ensureBuffer();
+            }
+            int count = Math.min(len, current.remaining());
+            current.put(b, off, count);
+            off += count;
+            len -= count;
+            if (!current.hasRemaining()) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Hands the data written so far to the underlying stream and flushes it once written, without waiting for it.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (current != null && current.position() > 0) {
+            submit();
+        }
+        written = written.thenRunAsync(() -> {
+            if (failure == null) {
+                try {
+                    delegate.flush();
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                }
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (current != null && current.position() > 0 && failure == null) {
+                submit();
+            }
+            awaitWritten();
+        } finally {
+            closed = true;
+            if (current != null) {
+                release(current);
+                current = null;
+            }
+            if (failure != null && delegate instanceof ObsMultipartOutputStream) {
+                ((ObsMultipartOutputStream) delegate).abort();
+            }
+            delegate.close();
+        }
+        if (failure != null) {
+            throw new IOException("Failed to write " + delegate, failure);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    private void ensureBuffer() throws IOException {
+        ensureOpen();
+        try {
+            buffers.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer to write " + this);
+        }
+        current = pool.acquire();
+    }
+
+    private void submit() {
+        ByteBuffer buffer = current;
+        current = null;
+        buffer.flip();
+        written = written.thenRunAsync(() -> writeBuffer(buffer), executor);
+    }
+
+    private void writeBuffer(ByteBuffer buffer) {
+        try {
+            if (failure != null) {
+                return;
+            }
+            if (buffer.hasArray()) {
+                delegate.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                while (buffer.hasRemaining()) {
+                    int count = Math.min(transfer.length, buffer.remaining());
+                    buffer.get(transfer, 0, count);
+                    delegate.write(transfer, 0, count);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private void awaitWritten() throws IOException {
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new InterruptedIOException("Interrupted while writing " + this));
+        } catch (ExecutionException e) {
+            fail(e.getCause());
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) {
+            logger.debug("Failed to write {}", this, t);
+            failure = t instanceof IOException ? (IOException) t : new IOException(t);
+        }
+    }
+
+    private void release(ByteBuffer buffer) {
+        pool.release(buffer);
+        buffers.release();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream for " + this + " is already closed");
+        }
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Failed to write " + this, e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Compression of the independent blocks written by {@link ObsBlockCompressorStream}. Each compressed block can be
+ * decompressed on its own, and the concatenation of the blocks is a valid stream of the Hadoop codec of the same
+ * compression, so the files can be read back with the usual codecs:
+ * <ul>
+ *   <li>gzip: each block is a gzip member, the file is a multi-member gzip file.</li>
+ *   <li>zstd: each block is a zstd frame, the file is a sequence of frames.</li>
+ *   <li>snappy and lz4: each block is framed like the block streams of the Hadoop codecs, the uncompressed length
+ *   followed by the length of the compressed block and the block.</li>
+ * </ul>
+ */
+public enum ObsBlockCompression {
+    GZIP("gzip", ".gz", "org.apache.hadoop.io.compress.GzipCodec", Integer.MAX_VALUE, true) {
+        @Override
+        ByteBuffer compress(byte[] block, int length, int level) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes, GZIP_BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            }) {
+                gzip.write(block, 0, length);
+            }
+            return ByteBuffer.wrap(bytes.toByteArray());
+        }
+    },
+    ZSTD("zstd", ".zst", "org.apache.hadoop.io.compress.ZStandardCodec", Integer.MAX_VALUE, true) {
+        @Override
+        ByteBuffer compress(byte[] block, int length, int level) throws IOException {
+            byte[] compressed = new byte[(int) Zstd.compressBound(length)];
+            long size = Zstd.compressByteArray(compressed, 0, compressed.length, block, 0, length,
+                    level < 0 ? DEFAULT_ZSTD_LEVEL : level);
+            if (Zstd.isError(size)) {
+                throw new IOException("Failed to compress a block with zstd: " + Zstd.getErrorName(size));
+            }
+            return ByteBuffer.wrap(compressed, 0, (int) size);
+        }
+    },
+    // the Hadoop codecs decompress the blocks in a buffer of io.compression.codec.snappy.buffersize or
+    // io.compression.codec.lz4.buffersize, 256 KB by default, the blocks must still fit in it once compressed
+    SNAPPY("snappy", ".snappy", "org.apache.hadoop.io.compress.SnappyCodec",
+            256 * 1024 - (256 * 1024 / 6 + 32), false) {
+        @Override
+        ByteBuffer compress(byte[] block, int length, int level) throws IOException {
+            byte[] compressed = new byte[FRAME_HEADER_SIZE + Snappy.maxCompressedLength(length)];
+            int size = Snappy.compress(block, 0, length, compressed, FRAME_HEADER_SIZE);
+            return frame(compressed, length, size);
+        }
+    },
+    LZ4("lz4", ".lz4", "org.apache.hadoop.io.compress.Lz4Codec",
+            256 * 1024 - (256 * 1024 / 255 + 16), false) {
+        @Override
+        ByteBuffer compress(byte[] block, int length, int level) {
+            LZ4Factory factory = LZ4Factory.fastestInstance();
+            LZ4Compressor compressor = level > 0 ? factory.highCompressor(level) : factory.fastCompressor();
+            byte[] compressed = new byte[FRAME_HEADER_SIZE + compressor.maxCompressedLength(length)];
+            int size = compressor.compress(block, 0, length, compressed, FRAME_HEADER_SIZE,
+                    compressed.length - FRAME_HEADER_SIZE);
+            return frame(compressed, length, size);
+        }
+    };
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_ZSTD_LEVEL = 3;
+    // uncompressed length and compressed length
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private final String name;
+    private final String extension;
+    private final String hadoopCodec;
+    private final int maxBlockSize;
+    private final boolean emptyBlockWritten;
+
+    ObsBlockCompression(String name, String extension, String hadoopCodec, int maxBlockSize,
+                        boolean emptyBlockWritten) {
+        this.name = name;
+        this.extension = extension;
+        this.hadoopCodec = hadoopCodec;
+        this.maxBlockSize = maxBlockSize;
+        this.emptyBlockWritten = emptyBlockWritten;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the extension of the files, which the Hadoop codecs are chosen by when the files are read
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the class name of the Hadoop codec that reads the files
+     */
+    public String getHadoopCodec() {
+        return hadoopCodec;
+    }
+
+    /**
+     * @return the maximum size of the uncompressed blocks
+     */
+    public int getMaxBlockSize() {
+        return maxBlockSize;
+    }
+
+    /**
+     * @return whether a stream without data is written as an empty block, so that the file is a valid empty stream
+     *         instead of an empty file
+     */
+    boolean isEmptyBlockWritten() {
+        return emptyBlockWritten;
+    }
+
+    /**
+     * Compresses a block.
+     *
+     * @param level the compression level, -1 for the default level of the compression
+     * @return the compressed block, ready to be written to the file
+     */
+    abstract ByteBuffer compress(byte[] block, int length, int level) throws IOException;
+
+    /**
+     * @return the compression with the given name, or null if there is none
+     */
+    @Nullable
+    public static ObsBlockCompression fromName(String name) {
+        for (ObsBlockCompression compression : values()) {
+            if (compression.name.equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer frame(byte[] compressed, int length, int size) {
+        ByteBuffer frame = ByteBuffer.wrap(compressed, 0, FRAME_HEADER_SIZE + size);
+        frame.putInt(0, length);
+        frame.putInt(4, size);
+        return frame;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link CompressionCodec} set as the output codec of the text based formats of the sink, which compresses the files
+ * with {@link ObsBlockCompressorStream} in the compression chosen by {@link ObsConstants#OUTPUT_COMPRESSION}.
+ *
+ * The files are read back by the Hadoop codec of the same compression, chosen by their extension, so reads are
+ * delegated to that codec. The codec does not use the Hadoop compressors, so it does not need the native libraries.
+ */
+public class ObsBlockCompressionCodec implements Configurable, CompressionCodec {
+    private Configuration conf;
+    private ObsBlockCompression compression;
+    private CompressionCodec hadoopCodec;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        String name = conf.get(ObsConstants.OUTPUT_COMPRESSION);
+        compression = ObsBlockCompression.fromName(name);
+        if (compression == null) {
+            throw new IllegalArgumentException(String.format("Unsupported compression '%s' set as %s", name,
+                    ObsConstants.OUTPUT_COMPRESSION));
+        }
+        hadoopCodec = null;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public CompressionOutputStream createOutputStream(OutputStream out) {
+        return new ObsBlockCompressorStream(out, compression,
+                conf.getInt(ObsConstants.OUTPUT_COMPRESSION_LEVEL, ObsConstants.DEFAULT_COMPRESSION_LEVEL),
+                conf.getInt(ObsConstants.OUTPUT_COMPRESSION_BLOCK_SIZE, ObsConstants.DEFAULT_COMPRESSION_BLOCK_SIZE),
+                conf.getInt(ObsConstants.OUTPUT_COMPRESSION_THREADS, ObsConstants.DEFAULT_COMPRESSION_THREADS));
+    }
+
+    @Override
+    public CompressionOutputStream createOutputStream(OutputStream out, Compressor compressor) {
+        return createOutputStream(out);
+    }
+
+    /**
+     * @return null, the blocks are compressed without Hadoop compressors
+     */
+    @Override
+    public Class<? extends Compressor> getCompressorType() {
+        return null;
+    }
+
+    /**
+     * @return null, the blocks are compressed without Hadoop compressors
+     */
+    @Override
+    public Compressor createCompressor() {
+        return null;
+    }
+
+    @Override
+    public CompressionInputStream createInputStream(InputStream in) throws IOException {
+        return getHadoopCodec().createInputStream(in);
+    }
+
+    @Override
+    public CompressionInputStream createInputStream(InputStream in, Decompressor decompressor) throws IOException {
+        return getHadoopCodec().createInputStream(in, decompressor);
+    }
+
+    @Override
+    public Class<? extends Decompressor> getDecompressorType() {
+        return getHadoopCodec().getDecompressorType();
+    }
+
+    @Override
+    public Decompressor createDecompressor() {
+        return getHadoopCodec().createDecompressor();
+    }
+
+    @Override
+    public String getDefaultExtension() {
+        return compression.getExtension();
+    }
+
+    private CompressionCodec getHadoopCodec() {
+        if (hadoopCodec == null) {
+            Class<?> codecClass;
+            try {
+                codecClass = conf.getClassByName(compression.getHadoopCodec());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(String.format("Hadoop codec %s reading %s files is not available",
+                        compression.getHadoopCodec(), compression.getName()), e);
+            }
+            hadoopCodec = (CompressionCodec) ReflectionUtils.newInstance(codecClass, conf);
+        }
+        return hadoopCodec;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Output stream that compresses the data in independent blocks on several threads. The data is buffered into blocks
+ * and every full block is compressed on a shared pool while the next one is being filled, so the compression of a
+ * single file uses several cores and the writes to the underlying stream, like the parts of a multipart upload, go on
+ * at the same time. The compressed blocks are written in the order of the data.
+ *
+ * The number of blocks being compressed is bounded by the number of threads of the stream: once reached, writers
+ * block until the oldest block is compressed and written, which also bounds the memory held by the stream.
+ */
+public class ObsBlockCompressorStream extends CompressionOutputStream {
+    private static final ExecutorService COMPRESSION_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("obs-compress-%d").build());
+
+    private final ObsBlockCompression compression;
+    private final int level;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+    private final Deque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    private byte[] buffer;
+    private int position;
+    private boolean blockWritten;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * @param level compression level, -1 for the default level of the compression
+     * @param blockSize size of the uncompressed blocks, capped to the maximum block size of the compression
+     * @param threads maximum number of blocks compressed at the same time
+     */
+    public ObsBlockCompressorStream(OutputStream out, ObsBlockCompression compression, int level, int blockSize,
+                                    int threads) {
+        super(out);
+        this.compression = compression;
+        this.level = level;
+        this.blockSize = Math.max(1, Math.min(blockSize, compression.getMaxBlockSize()));
+        this.maxPendingBlocks = Math.max(1, threads);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        finished = false;
+        if (buffer == null) {
+            buffer = newBuffer();
+        }
+        buffer[position++] = (byte) b;
+        if (position == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        finished = false;
+        while (len > 0) {
+            if (buffer == null) {
+                buffer = newBuffer();
+            }
+            int count = Math.min(len, blockSize - position);
+            System.arraycopy(b, off, buffer, position, count);
+            position += count;
+            off += count;
+            len -= count;
+            if (position == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks compressed so far to the underlying stream. The current block is not compressed until it is
+     * full, so that flushes do not shrink the blocks.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drainBlocks();
+        out.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        ensureOpen();
+        if (position > 0 || (!blockWritten && pendingBlocks.isEmpty() && compression.isEmptyBlockWritten())) {
+            if (buffer == null) {
+                buffer = newBuffer();
+            }
+            submitBlock();
+        }
+        drainBlocks();
+        finished = true;
+    }
+
+    @Override
+    public void resetState() {
+        // blocks are independent, there is no state to reset
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            closed = true;
+            for (PendingBlock block : pendingBlocks) {
+                block.compressed.cancel(true);
+            }
+            pendingBlocks.clear();
+            freeBuffers.clear();
+            buffer = null;
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        if (pendingBlocks.size() >= maxPendingBlocks) {
+            writeBlock(pendingBlocks.removeFirst());
+        }
+        byte[] block = buffer;
+        int length = position;
+        buffer = null;
+        position = 0;
+        pendingBlocks.addLast(new PendingBlock(block, COMPRESSION_EXECUTOR.submit(
+                () -> compression.compress(block, length, level))));
+    }
+
+    private void drainBlocks() throws IOException {
+        while (!pendingBlocks.isEmpty()) {
+            writeBlock(pendingBlocks.removeFirst());
+        }
+    }
+
+    private void writeBlock(PendingBlock block) throws IOException {
+        ByteBuffer compressed;
+        try {
+            compressed = block.compressed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            block.compressed.cancel(true);
+            throw new InterruptedIOException("Interrupted while compressing a block");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress a block with " + compression.getName(), e.getCause());
+        }
+        out.write(compressed.array(), compressed.arrayOffset() + compressed.position(), compressed.remaining());
+        blockWritten = true;
+        freeBuffers.addLast(block.buffer);
+    }
+
+    private byte[] newBuffer() {
+        byte[] free = freeBuffers.pollFirst();
+        return free == null ? new byte[blockSize] : free;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    /**
+     * A block being compressed, its buffer is reused once the block is written.
+     */
+    private static final class PendingBlock {
+        private final byte[] buffer;
+        private final Future<ByteBuffer> compressed;
+
+        private PendingBlock(byte[] buffer, Future<ByteBuffer> compressed) {
+            this.buffer = buffer;
+            this.compressed = compressed;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounded pool of byte arrays of a fixed size. Buffers are only handed out while the pool is below its capacity, so
+ * callers that cannot get one do without instead of waiting, which avoids any deadlock between readers.
+ */
+public class ObsBufferPool {
+    private final int bufferSize;
+    private final Semaphore available;
+    private final Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+    public ObsBufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.available = new Semaphore(capacity);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a buffer, or null if all the buffers of the pool are in use
+     */
+    public byte[] tryAcquire() {
+        if (!available.tryAcquire()) {
+            return null;
+        }
+        byte[] buffer = free.poll();
+        return buffer == null ? new byte[bufferSize] : buffer;
+    }
+
+    /**
+     * Returns a buffer obtained with {@link #tryAcquire()} to the pool.
+     */
+    public void release(byte[] buffer) {
+        free.offer(buffer);
+        available.release();
+    }
+
+    int available() {
+        return available.availablePermits();
+    }
+}
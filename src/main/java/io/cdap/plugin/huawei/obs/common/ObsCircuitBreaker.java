@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending requests to an endpoint that keeps failing. Once the number of consecutive failed attempts reaches
+ * the threshold, the circuit opens and no request is sent for the cooldown. A single request is then let through:
+ * the circuit closes if it succeeds, and opens again for another cooldown if it fails.
+ */
+public class ObsCircuitBreaker {
+    private final int threshold;
+    private final long cooldownNanos;
+    private final LongSupplier clock;
+
+    // guarded by this
+    private int consecutiveFailures;
+    private boolean open;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * @param threshold number of consecutive failures that opens the circuit, 0 to never open it
+     */
+    public ObsCircuitBreaker(int threshold, long cooldownMillis) {
+        this(threshold, cooldownMillis, System::nanoTime);
+    }
+
+    ObsCircuitBreaker(int threshold, long cooldownMillis, LongSupplier clock) {
+        this.threshold = threshold;
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether a request can be sent
+     */
+    public synchronized boolean tryAcquire() {
+        if (!open) {
+            return true;
+        }
+        if (!trialInFlight && clock.getAsLong() - openedAt >= cooldownNanos) {
+            trialInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the time left before a trial request can be sent when the circuit is open, 0 when it is closed or the
+     *         cooldown is over
+     */
+    public synchronized long getRemainingCooldownNanos() {
+        return open ? Math.max(0L, cooldownNanos - (clock.getAsLong() - openedAt)) : 0L;
+    }
+
+    /**
+     * Records a request that got an answer from the endpoint, even an error like a missing object.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        open = false;
+        trialInFlight = false;
+    }
+
+    /**
+     * Records a request that failed because of the endpoint, a server error or a network error.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (threshold > 0 && (trialInFlight || consecutiveFailures >= threshold)) {
+            open = true;
+            openedAt = clock.getAsLong();
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * Records a request that failed without telling whether the endpoint is failing, like an invalid request or a
+     * throttled request, which is left to the rate limiter.
+     */
+    public synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+}
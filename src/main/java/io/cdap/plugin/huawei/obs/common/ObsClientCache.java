@@ -0,0 +1,335 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.obs.services.IObsClient;
+import com.obs.services.ObsClient;
+import com.obs.services.ObsConfiguration;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Process wide cache of {@link IObsClient}, so that the connector, the source and the sink share the clients and
+ * their connection pools instead of creating a new client, and paying for new TLS handshakes, for every operation.
+ *
+ * Clients are keyed by endpoint, credentials and connection settings, and are reference counted: every
+ * {@link #acquire(ClientKey)} must be paired with a {@link Lease#close()}. A client that has not been leased for the
+ * idle timeout is closed by a background thread. All the clients are closed when the JVM shuts down.
+ */
+public final class ObsClientCache {
+    private static final Logger logger = LogManager.getLogger(ObsClientCache.class);
+
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final ObsClientCache INSTANCE = new ObsClientCache(DEFAULT_IDLE_TIMEOUT_MILLIS,
+            ObsClientCache::newClient, System::currentTimeMillis);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::shutdown, "obs-client-cache-shutdown"));
+    }
+
+    private final long idleTimeoutMillis;
+    private final Function<ClientKey, IObsClient> clientFactory;
+    private final LongSupplier clock;
+    // guarded by this
+    private final Map<ClientKey, Entry> entries = new HashMap<>();
+    private ScheduledExecutorService evictor;
+    private boolean shutdown;
+
+    @VisibleForTesting
+    ObsClientCache(long idleTimeoutMillis, Function<ClientKey, IObsClient> clientFactory, LongSupplier clock) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.clientFactory = clientFactory;
+        this.clock = clock;
+    }
+
+    public static ObsClientCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a lease on the client for the given key, creating the client if there is none. Its requests are counted
+     * by {@link ObsRequestMetrics#get()}.
+     */
+    public Lease acquire(ClientKey key) {
+        return acquire(key, ObsRequestMetrics.get());
+    }
+
+    /**
+     * Returns a lease on the client for the given key, creating the client if there is none. Its requests are counted
+     * by the given metrics, the ones of the stage using the client.
+     */
+    public synchronized Lease acquire(ClientKey key, ObsRequestMetrics metrics) {
+        if (shutdown) {
+            throw new IllegalStateException("The Obs client cache is shut down");
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, clientFactory.apply(key));
+            entries.put(key, entry);
+            logger.debug("Created Obs client for {}", key);
+        }
+        entry.references++;
+        return new Lease(entry, ObsRequestExecutor.withMetrics(entry.client, metrics));
+    }
+
+    /**
+     * Closes the clients that have not been leased for longer than the idle timeout.
+     *
+     * @return the number of closed clients
+     */
+    @VisibleForTesting
+    synchronized int evictIdle() {
+        long now = clock.getAsLong();
+        List<Entry> evicted = new ArrayList<>();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.references == 0 && now - entry.idleSince >= idleTimeoutMillis) {
+                iterator.remove();
+                evicted.add(entry);
+            }
+        }
+        if (entries.isEmpty() && evictor != null) {
+            evictor.shutdown();
+            evictor = null;
+        }
+        for (Entry entry : evicted) {
+            closeClient(entry);
+        }
+        return evicted.size();
+    }
+
+    /**
+     * Closes all the clients, including the ones still leased. No client can be acquired afterwards.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        for (Entry entry : entries.values()) {
+            closeClient(entry);
+        }
+        entries.clear();
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void release(Entry entry) {
+        if (--entry.references > 0 || entries.get(entry.key) != entry) {
+            return;
+        }
+        entry.idleSince = clock.getAsLong();
+        if (evictor == null && !shutdown) {
+            evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("obs-client-evictor-%d").build());
+            long period = Math.max(1L, idleTimeoutMillis / 2);
+            evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void closeClient(Entry entry) {
+        try {
+            entry.client.close();
+            logger.debug("Closed Obs client for {}", entry.key);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to close Obs client for {}", entry.key, e);
+        }
+    }
+
+    private static IObsClient newClient(ClientKey key) {
+        ObsConfiguration configuration = new ObsConfiguration();
+        configuration.setEndPoint(key.endPoint);
+        configuration.setMaxConnections(key.maxConnections);
+        configuration.setConnectionTimeout(key.connectionTimeout);
+        configuration.setSocketTimeout(key.socketTimeout);
+        // the executor retries the failed requests, retrying them in the client too would multiply the attempts and
+        // hide the throttling and the failures from its rate limiter and circuit breaker, so the number of attempts
+        // of OBSFileSystem is not part of the key
+        configuration.setMaxErrorRetry(0);
+        return ObsRequestExecutor.forEndpoint(key.endPoint, key.retryPolicy)
+                .wrap(new ObsClient(key.accessKey, key.secretKey, configuration));
+    }
+
+    /**
+     * A cached client.
+     */
+    private static final class Entry {
+        private final ClientKey key;
+        private final IObsClient client;
+        private int references;
+        private long idleSince;
+
+        private Entry(ClientKey key, IObsClient client) {
+            this.key = key;
+            this.client = client;
+        }
+    }
+
+    /**
+     * Use of a cached client, to be closed once the client is not needed anymore. The client itself must not be
+     * closed by its users.
+     */
+    public final class Lease implements Closeable {
+        private final Entry entry;
+        private final IObsClient client;
+        private boolean released;
+
+        private Lease(Entry entry, IObsClient client) {
+            this.entry = entry;
+            this.client = client;
+        }
+
+        public IObsClient getClient() {
+            return client;
+        }
+
+        @Override
+        public void close() {
+            synchronized (ObsClientCache.this) {
+                if (!released) {
+                    released = true;
+                    release(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Identifies the clients that can be shared: same endpoint, same credentials, same connection settings and same
+     * retry policy.
+     */
+    public static final class ClientKey {
+        private final String endPoint;
+        private final String accessKey;
+        private final String secretKey;
+        private final int maxConnections;
+        private final int connectionTimeout;
+        private final int socketTimeout;
+        private final ObsRetryPolicy retryPolicy;
+
+        public ClientKey(String endPoint, String accessKey, String secretKey, int maxConnections,
+                         int connectionTimeout, int socketTimeout) {
+            this(endPoint, accessKey, secretKey, maxConnections, connectionTimeout, socketTimeout,
+                    ObsRetryPolicy.DEFAULT);
+        }
+
+        public ClientKey(String endPoint, String accessKey, String secretKey, int maxConnections,
+                         int connectionTimeout, int socketTimeout, ObsRetryPolicy retryPolicy) {
+            this.endPoint = endPoint;
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+            this.maxConnections = maxConnections;
+            this.connectionTimeout = connectionTimeout;
+            this.socketTimeout = socketTimeout;
+            this.retryPolicy = retryPolicy;
+        }
+
+        /**
+         * Key of a client with the default connection settings of {@code OBSFileSystem}.
+         */
+        public static ClientKey of(String endPoint, String accessKey, String secretKey) {
+            return of(endPoint, accessKey, secretKey, ObsRetryPolicy.DEFAULT);
+        }
+
+        /**
+         * Key of a client with the default connection settings of {@code OBSFileSystem} and the given retry policy.
+         */
+        public static ClientKey of(String endPoint, String accessKey, String secretKey, ObsRetryPolicy retryPolicy) {
+            return new ClientKey(endPoint, accessKey, secretKey, ObsConstants.DEFAULT_CONNECTION_MAXIMUM,
+                    ObsConstants.DEFAULT_CONNECTION_ESTABLISH_TIMEOUT, ObsConstants.DEFAULT_CONNECTION_TIMEOUT,
+                    retryPolicy);
+        }
+
+        /**
+         * Key of the client described by the filesystem properties set by the plugins.
+         *
+         * @return the key, or null if the configuration does not contain the endpoint and the credentials
+         */
+        @Nullable
+        public static ClientKey fromConfiguration(Configuration conf) {
+            String endPoint = conf.get(ObsConstants.OBS_END_POINT);
+            String accessKey = conf.get(ObsConstants.OBS_ACCESS_KEY);
+            String secretKey = conf.get(ObsConstants.OBS_SECRET_KEY);
+            if (endPoint == null || accessKey == null || secretKey == null) {
+                return null;
+            }
+            return new ClientKey(endPoint, accessKey, secretKey,
+                    conf.getInt(ObsConstants.OBS_CONNECTION_MAXIMUM, ObsConstants.DEFAULT_CONNECTION_MAXIMUM),
+                    conf.getInt(ObsConstants.OBS_CONNECTION_ESTABLISH_TIMEOUT,
+                            ObsConstants.DEFAULT_CONNECTION_ESTABLISH_TIMEOUT),
+                    conf.getInt(ObsConstants.OBS_CONNECTION_TIMEOUT, ObsConstants.DEFAULT_CONNECTION_TIMEOUT),
+                    ObsRetryPolicy.fromConfiguration(conf));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ClientKey that = (ClientKey) o;
+            return maxConnections == that.maxConnections
+                    && connectionTimeout == that.connectionTimeout
+                    && socketTimeout == that.socketTimeout
+                    && Objects.equals(retryPolicy, that.retryPolicy)
+                    && Objects.equals(endPoint, that.endPoint)
+                    && Objects.equals(accessKey, that.accessKey)
+                    && Objects.equals(secretKey, that.secretKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endPoint, accessKey, secretKey, maxConnections, connectionTimeout, socketTimeout,
+                    retryPolicy);
+        }
+
+        @Override
+        public String toString() {
+            // never log the credentials
+            return "ClientKey{endPoint=" + endPoint + ", maxConnections=" + maxConnections
+                    + ", connectionTimeout=" + connectionTimeout + ", socketTimeout=" + socketTimeout
+                    + ", retryPolicy=" + retryPolicy + "}";
+        }
+    }
+}
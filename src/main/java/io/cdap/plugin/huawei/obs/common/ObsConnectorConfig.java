@@ -38,6 +38,12 @@ public class ObsConnectorConfig extends PluginConfig {
     public static final String NAME_SECRET_KEY = "secretKey";
     public static final String NAME_END_POINT = "endPoint";
     public static final String NAME_AUTH_METHOD = "authenticationMethod";
+    public static final String NAME_MAX_ATTEMPTS = "maxAttempts";
+    public static final String NAME_RETRY_BASE_DELAY = "retryBaseDelay";
+    public static final String NAME_RETRY_MAX_DELAY = "retryMaxDelay";
+    public static final String NAME_MAX_REQUESTS_PER_SECOND = "maxRequestsPerSecond";
+    public static final String NAME_CIRCUIT_BREAKER_THRESHOLD = "circuitBreakerThreshold";
+    public static final String NAME_CIRCUIT_BREAKER_COOLDOWN = "circuitBreakerCooldown";
 
     @Macro
     @Nullable
@@ -60,9 +66,51 @@ public class ObsConnectorConfig extends PluginConfig {
     @Description("End-Point to be used by the Obs Client.")
     private String endPoint;
 
+    @Macro
+    @Nullable
+    @Description("Maximum number of attempts of a request that fails because Obs throttles the requests, returns a "
+            + "server error or cannot be reached. 1 to not retry the failed requests. Defaults to 5.")
+    private Integer maxAttempts;
+
+    @Macro
+    @Nullable
+    @Description("Maximum delay in milliseconds before the first retry of a failed request, doubled for each of the next "
+            + "retries. The actual delay is picked at random up to this maximum. Defaults to 200.")
+    private Long retryBaseDelay;
+
+    @Macro
+    @Nullable
+    @Description("Maximum delay in milliseconds before any retry of a failed request. Defaults to 20000.")
+    private Long retryMaxDelay;
+
+    @Macro
+    @Nullable
+    @Description("Maximum number of requests per second sent to the endpoint by each worker. The rate is lowered when "
+            + "Obs throttles the requests and raised back while they succeed. 0 to not limit the rate until Obs "
+            + "throttles the requests. Defaults to 0.")
+    private Integer maxRequestsPerSecond;
+
+    @Macro
+    @Nullable
+    @Description("Number of consecutive failed requests after which the requests to the endpoint wait instead of "
+            + "being sent, until the cooldown is over. Throttled requests are not counted. 0 to always send the "
+            + "requests. Defaults to 50.")
+    private Integer circuitBreakerThreshold;
+
+    @Macro
+    @Nullable
+    @Description("Time in milliseconds during which the requests wait once the failure threshold is reached. A "
+            + "single request is then sent to check whether Obs is back. Defaults to 30000.")
+    private Long circuitBreakerCooldown;
 
     public ObsConnectorConfig() {
         authenticationMethod = ACCESS_CREDENTIALS;
+        maxAttempts = ObsConstants.DEFAULT_RETRY_MAX_ATTEMPTS;
+        retryBaseDelay = ObsConstants.DEFAULT_RETRY_BASE_DELAY;
+        retryMaxDelay = ObsConstants.DEFAULT_RETRY_MAX_DELAY;
+        maxRequestsPerSecond = ObsConstants.DEFAULT_MAX_REQUESTS_PER_SECOND;
+        circuitBreakerThreshold = ObsConstants.DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+        circuitBreakerCooldown = ObsConstants.DEFAULT_CIRCUIT_BREAKER_COOLDOWN;
     }
 
     public ObsConnectorConfig(@Nullable String accessKey, @Nullable String secretKey, @Nullable String authenticationMethod, @Nullable String endPoint) {
@@ -93,11 +141,27 @@ public class ObsConnectorConfig extends PluginConfig {
     }
 
 
+    /**
+     * @return the retry policy of the requests sent to Obs, with the default of each setting that is not set
+     */
+    public ObsRetryPolicy getRetryPolicy() {
+        return new ObsRetryPolicy(
+                maxAttempts == null ? ObsConstants.DEFAULT_RETRY_MAX_ATTEMPTS : maxAttempts,
+                retryBaseDelay == null ? ObsConstants.DEFAULT_RETRY_BASE_DELAY : retryBaseDelay,
+                retryMaxDelay == null ? ObsConstants.DEFAULT_RETRY_MAX_DELAY : retryMaxDelay,
+                maxRequestsPerSecond == null ? ObsConstants.DEFAULT_MAX_REQUESTS_PER_SECOND : maxRequestsPerSecond,
+                circuitBreakerThreshold == null ? ObsConstants.DEFAULT_CIRCUIT_BREAKER_THRESHOLD
+                        : circuitBreakerThreshold,
+                circuitBreakerCooldown == null ? ObsConstants.DEFAULT_CIRCUIT_BREAKER_COOLDOWN : circuitBreakerCooldown);
+    }
+
     public boolean isAccessCredentials() {
         return ACCESS_CREDENTIALS.equalsIgnoreCase(authenticationMethod);
     }
 
     public void validate(FailureCollector collector) {
+        validateRetryPolicy(collector);
+
         if (containsMacro(NAME_AUTH_METHOD)) {
             return;
         }
@@ -119,4 +183,40 @@ public class ObsConnectorConfig extends PluginConfig {
                     .withConfigProperty(NAME_END_POINT).withConfigProperty(NAME_AUTH_METHOD);
         }
     }
+
+    private void validateRetryPolicy(FailureCollector collector) {
+        if (!containsMacro(NAME_MAX_ATTEMPTS) && maxAttempts != null && maxAttempts < 1) {
+            collector.addFailure("The maximum number of attempts must be at least 1.", null)
+                    .withConfigProperty(NAME_MAX_ATTEMPTS);
+        }
+        if (!containsMacro(NAME_RETRY_BASE_DELAY) && retryBaseDelay != null && retryBaseDelay < 0) {
+            collector.addFailure("The retry base delay cannot be negative.", null)
+                    .withConfigProperty(NAME_RETRY_BASE_DELAY);
+        }
+        if (!containsMacro(NAME_RETRY_MAX_DELAY) && retryMaxDelay != null && retryMaxDelay < 0) {
+            collector.addFailure("The retry maximum delay cannot be negative.", null)
+                    .withConfigProperty(NAME_RETRY_MAX_DELAY);
+        }
+        if (!containsMacro(NAME_RETRY_BASE_DELAY) && !containsMacro(NAME_RETRY_MAX_DELAY) && retryBaseDelay != null
+                && retryMaxDelay != null && retryMaxDelay < retryBaseDelay) {
+            collector.addFailure("The retry maximum delay cannot be lower than the retry base delay.", null)
+                    .withConfigProperty(NAME_RETRY_MAX_DELAY).withConfigProperty(NAME_RETRY_BASE_DELAY);
+        }
+        if (!containsMacro(NAME_MAX_REQUESTS_PER_SECOND) && maxRequestsPerSecond != null && maxRequestsPerSecond < 0) {
+            collector.addFailure("The maximum number of requests per second cannot be negative.",
+                    "Set it to 0 to not limit the rate of the requests.")
+                    .withConfigProperty(NAME_MAX_REQUESTS_PER_SECOND);
+        }
+        if (!containsMacro(NAME_CIRCUIT_BREAKER_THRESHOLD) && circuitBreakerThreshold != null
+                && circuitBreakerThreshold < 0) {
+            collector.addFailure("The circuit breaker threshold cannot be negative.",
+                    "Set it to 0 to always send the requests.")
+                    .withConfigProperty(NAME_CIRCUIT_BREAKER_THRESHOLD);
+        }
+        if (!containsMacro(NAME_CIRCUIT_BREAKER_COOLDOWN) && circuitBreakerCooldown != null
+                && circuitBreakerCooldown < 0) {
+            collector.addFailure("The circuit breaker cooldown cannot be negative.", null)
+                    .withConfigProperty(NAME_CIRCUIT_BREAKER_COOLDOWN);
+        }
+    }
 }
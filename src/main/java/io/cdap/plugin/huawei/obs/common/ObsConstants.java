@@ -24,4 +24,98 @@ public class ObsConstants {
   public static final String OBS_ACCESS_KEY = "fs.obs.accessKey";
   public static final String OBS_SECRET_KEY = "fs.obs.secretKey";
   public static final String OBS_END_POINT = "fs.obs.endpoint";
+  public static final String OBS_IMPL = "fs.obs.impl";
+  public static final String OBS_CONNECTION_MAXIMUM = "fs.obs.connection.maximum";
+  public static final String OBS_CONNECTION_ESTABLISH_TIMEOUT = "fs.obs.connection.establish.timeout";
+  public static final String OBS_CONNECTION_TIMEOUT = "fs.obs.connection.timeout";
+  public static final String OBS_SSE_TYPE = "fs.obs.server-side-encryption-type";
+  public static final String OBS_SSE_KEY = "fs.obs.server-side-encryption-key";
+
+  // properties understood by OBSFileSystemP on top of the ones of OBSFileSystem
+  // name of the stage using the filesystem, whose metrics count its requests
+  public static final String STAGE = "fs.obs.cdap.stage";
+  public static final String LIST_PARALLELISM = "fs.obs.cdap.list.parallelism";
+  public static final String LIST_MAX_REQUESTS = "fs.obs.cdap.list.max.requests";
+  public static final String LIST_INVENTORY = "fs.obs.cdap.list.inventory";
+  public static final String UPLOAD_PARALLEL = "fs.obs.cdap.upload.parallel";
+  public static final String UPLOAD_PART_SIZE = "fs.obs.cdap.upload.part.size";
+  public static final String UPLOAD_CONCURRENCY = "fs.obs.cdap.upload.concurrency";
+  public static final String UPLOAD_MEMORY_LIMIT = "fs.obs.cdap.upload.memory.limit";
+  public static final String WRITE_ASYNC = "fs.obs.cdap.write.async";
+  public static final String WRITE_BUFFER_SIZE = "fs.obs.cdap.write.buffer.size";
+  public static final String WRITE_BUFFER_DEPTH = "fs.obs.cdap.write.buffer.depth";
+  public static final String WRITE_BUFFER_OFF_HEAP = "fs.obs.cdap.write.buffer.offheap";
+  public static final String READ_AHEAD_DEPTH = "fs.obs.cdap.read.ahead.depth";
+  public static final String READ_CHUNK_SIZE = "fs.obs.cdap.read.chunk.size";
+  public static final String READ_MEMORY_LIMIT = "fs.obs.cdap.read.memory.limit";
+  public static final String COALESCE_MAX_FILE_SIZE = "fs.obs.cdap.coalesce.max.file.size";
+  public static final String COALESCE_TARGET_SIZE = "fs.obs.cdap.coalesce.target.size";
+  public static final String COALESCE_FETCH_THREADS = "fs.obs.cdap.coalesce.fetch.threads";
+  public static final String COALESCE_PREFETCH_DEPTH = "fs.obs.cdap.coalesce.prefetch.depth";
+  public static final String COALESCE_PREFETCH_MEMORY_LIMIT = "fs.obs.cdap.coalesce.prefetch.memory.limit";
+  public static final String WATERMARK_FROM = "fs.obs.cdap.watermark.from";
+  public static final String WATERMARK_TO = "fs.obs.cdap.watermark.to";
+  public static final String WATERMARK_LOOKBACK = "fs.obs.cdap.watermark.lookback";
+  public static final String COMMIT_DIRECT = "fs.obs.cdap.commit.direct";
+  public static final String COMMIT_THREADS = "fs.obs.cdap.commit.threads";
+  public static final String OUTPUT_ROLL_SIZE = "fs.obs.cdap.output.roll.size";
+  public static final String OUTPUT_ROLL_RECORDS = "fs.obs.cdap.output.roll.records";
+  public static final String OUTPUT_PARTITION_FIELDS = "fs.obs.cdap.output.partition.fields";
+  public static final String OUTPUT_MAX_OPEN_WRITERS = "fs.obs.cdap.output.max.open.writers";
+  public static final String OUTPUT_MAX_PARTITIONS = "fs.obs.cdap.output.max.partitions";
+  public static final String OUTPUT_COMPRESSION = "fs.obs.cdap.output.compression";
+  public static final String OUTPUT_COMPRESSION_LEVEL = "fs.obs.cdap.output.compression.level";
+  public static final String OUTPUT_COMPRESSION_BLOCK_SIZE = "fs.obs.cdap.output.compression.block.size";
+  public static final String OUTPUT_COMPRESSION_THREADS = "fs.obs.cdap.output.compression.threads";
+  public static final String RETRY_MAX_ATTEMPTS = "fs.obs.cdap.retry.max.attempts";
+  public static final String RETRY_BASE_DELAY = "fs.obs.cdap.retry.base.delay";
+  public static final String RETRY_MAX_DELAY = "fs.obs.cdap.retry.max.delay";
+  public static final String MAX_REQUESTS_PER_SECOND = "fs.obs.cdap.max.requests.per.second";
+  public static final String CIRCUIT_BREAKER_THRESHOLD = "fs.obs.cdap.circuit.breaker.threshold";
+  public static final String CIRCUIT_BREAKER_COOLDOWN = "fs.obs.cdap.circuit.breaker.cooldown";
+
+  // same defaults as OBSFileSystem
+  public static final int DEFAULT_CONNECTION_MAXIMUM = 1000;
+  public static final int DEFAULT_CONNECTION_ESTABLISH_TIMEOUT = 120000;
+  public static final int DEFAULT_CONNECTION_TIMEOUT = 120000;
+
+  public static final int DEFAULT_LIST_PARALLELISM = 1;
+  public static final int DEFAULT_LIST_MAX_REQUESTS = 16;
+  // Obs requires every part but the last one of a multipart upload to be at least 5 MB
+  public static final long MIN_UPLOAD_PART_SIZE = 5L * 1024 * 1024;
+  public static final long DEFAULT_UPLOAD_PART_SIZE = 32L * 1024 * 1024;
+  public static final int DEFAULT_UPLOAD_CONCURRENCY = 4;
+  public static final long DEFAULT_UPLOAD_MEMORY_LIMIT = 256L * 1024 * 1024;
+  public static final long DEFAULT_WRITE_BUFFER_SIZE = 4L * 1024 * 1024;
+  public static final int DEFAULT_WRITE_BUFFER_DEPTH = 4;
+  public static final int DEFAULT_READ_AHEAD_DEPTH = 0;
+  public static final long MIN_READ_CHUNK_SIZE = 64L * 1024;
+  public static final long DEFAULT_READ_CHUNK_SIZE = 8L * 1024 * 1024;
+  public static final long DEFAULT_READ_MEMORY_LIMIT = 256L * 1024 * 1024;
+  // size of the pooled direct buffers the lines of the text objects are read into when reading directly
+  public static final int DIRECT_READ_BUFFER_SIZE = 1024 * 1024;
+  public static final long DEFAULT_COALESCE_MAX_FILE_SIZE = 1024L * 1024;
+  public static final long DEFAULT_COALESCE_TARGET_SIZE = 128L * 1024 * 1024;
+  public static final int DEFAULT_COALESCE_FETCH_THREADS = 8;
+  public static final int DEFAULT_COALESCE_PREFETCH_DEPTH = 8;
+  public static final long DEFAULT_COALESCE_PREFETCH_MEMORY_LIMIT = 64L * 1024 * 1024;
+  public static final int DEFAULT_COMMIT_THREADS = 16;
+  public static final int DEFAULT_MAX_OPEN_WRITERS = 16;
+  public static final int DEFAULT_MAX_PARTITIONS = 1000;
+  public static final int DEFAULT_COMPRESSION_LEVEL = -1;
+  public static final int DEFAULT_COMPRESSION_BLOCK_SIZE = 1024 * 1024;
+  public static final int DEFAULT_COMPRESSION_THREADS = 4;
+  public static final int DEFAULT_RETRY_MAX_ATTEMPTS = 5;
+  public static final long DEFAULT_RETRY_BASE_DELAY = 200L;
+  public static final long DEFAULT_RETRY_MAX_DELAY = 20000L;
+  public static final int DEFAULT_MAX_REQUESTS_PER_SECOND = 0;
+  public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 50;
+  public static final long DEFAULT_CIRCUIT_BREAKER_COOLDOWN = 30000L;
+  public static final int DEFAULT_SCHEMA_SAMPLE_FILES = 1;
+  public static final long DEFAULT_WATERMARK_LOOKBACK = 0L;
+  public static final int DEFAULT_COPY_THREADS = 16;
+  public static final long DEFAULT_COPY_PART_SIZE = 128L * 1024 * 1024;
+  // Obs copies at most 5 GB with a single request, and in at most 10000 parts
+  public static final long MAX_COPY_PART_SIZE = 5L * 1024 * 1024 * 1024;
+  public static final int MAX_COPY_PARTS = 10000;
 }
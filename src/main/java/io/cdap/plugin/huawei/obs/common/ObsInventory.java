@@ -0,0 +1,426 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PutObjectRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Inventory of the objects under a prefix: the key, size, modification time and ETag of every object, sorted by key.
+ * It is stored next to the objects, in the hidden {@value #NAME} object of the prefix, so that the objects of a large
+ * prefix that does not change are listed with a single request instead of one list request per thousand objects.
+ *
+ * The keys are front coded, each key only stores the characters that differ from the previous one, and the whole
+ * inventory is compressed with gzip.
+ */
+public final class ObsInventory {
+    private static final Logger logger = LogManager.getLogger(ObsInventory.class);
+
+    public static final String NAME = "_obs_inventory";
+
+    // "OBSI"
+    private static final int MAGIC = 0x4f425349;
+    private static final int VERSION = 1;
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    private final String prefix;
+    private final long listedAt;
+    private final List<Entry> entries;
+
+    private ObsInventory(String prefix, long listedAt, List<Entry> entries) {
+        this.prefix = prefix;
+        this.listedAt = listedAt;
+        this.entries = entries;
+    }
+
+    /**
+     * @return the prefix of the objects, either empty or ending with '/'
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the time the objects were last listed, in milliseconds
+     */
+    public long getListedAt() {
+        return listedAt;
+    }
+
+    /**
+     * @return the objects, sorted by key
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return the key of the inventory of the prefix
+     */
+    public static String getKey(String prefix) {
+        return prefix + NAME;
+    }
+
+    /**
+     * Returns the objects under a directory of the prefix, like a listing of the directory.
+     *
+     * @param directory the directory, either the prefix or one of its sub-directories ending with '/'
+     * @param recursive whether the objects of the sub-directories are returned
+     * @return the objects, sorted by key
+     */
+    public List<ObsObject> getObjects(String bucket, String directory, boolean recursive) {
+        List<ObsObject> objects = new ArrayList<>();
+        for (int i = lowerBound(directory); i < entries.size() && entries.get(i).key.startsWith(directory); i++) {
+            Entry entry = entries.get(i);
+            if (recursive || entry.key.indexOf(ObsPrefixLister.DELIMITER, directory.length()) < 0) {
+                objects.add(entry.toObsObject(bucket));
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Returns the sub-directories of a directory of the prefix, like the common prefixes of a listing of the
+     * directory with a delimiter.
+     *
+     * @param directory the directory, either the prefix or one of its sub-directories ending with '/'
+     * @return the keys of the sub-directories, ending with '/', sorted
+     */
+    public List<String> getDirectories(String directory) {
+        List<String> directories = new ArrayList<>();
+        int i = lowerBound(directory);
+        while (i < entries.size() && entries.get(i).key.startsWith(directory)) {
+            String key = entries.get(i).key;
+            int end = key.indexOf(ObsPrefixLister.DELIMITER, directory.length());
+            if (end < 0) {
+                i++;
+                continue;
+            }
+            String subDirectory = key.substring(0, end + 1);
+            directories.add(subDirectory);
+            // skip the rest of the sub-directory, the next key after it is the first one not starting with it
+            i = lowerBound(subDirectory.substring(0, end) + (char) (ObsPrefixLister.DELIMITER.charAt(0) + 1));
+        }
+        return directories;
+    }
+
+    /**
+     * @return the index of the first entry whose key is not before the given one
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries.get(middle).key.compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Lists every object under the prefix, walking its sub-directories in parallel with {@link ObsPrefixLister}.
+     *
+     * @param prefix the prefix, either empty or ending with '/'
+     */
+    public static ObsInventory build(IObsClient obsClient, String bucket, String prefix, Executor executor,
+                                     int maxRequests) throws IOException {
+        long listedAt = System.currentTimeMillis();
+        String inventoryKey = getKey(prefix);
+        List<ObsObject> objects = new ObsPrefixLister(obsClient, executor, maxRequests)
+                .list(bucket, prefix, subPrefix -> true, key -> !key.equals(inventoryKey));
+        List<Entry> entries = new ArrayList<>(objects.size());
+        for (ObsObject object : objects) {
+            entries.add(Entry.of(object));
+        }
+        logger.debug("Listed {} objects under obs://{}/{} for the inventory", entries.size(), bucket, prefix);
+        return new ObsInventory(prefix, listedAt, entries);
+    }
+
+    /**
+     * Adds the objects whose key comes after the last key of the inventory, listing from it. This picks up the objects
+     * added to the prefixes where the new keys come last, such as date or sequence number partitions, with a request
+     * per thousand new objects. The objects added before the last key, and the objects removed, are only picked up by
+     * building the inventory again.
+     */
+    public ObsInventory update(IObsClient obsClient, String bucket) {
+        long updatedAt = System.currentTimeMillis();
+        String inventoryKey = getKey(prefix);
+        List<Entry> updated = new ArrayList<>(entries);
+        ListObjectsRequest request = new ListObjectsRequest(bucket);
+        if (!prefix.isEmpty()) {
+            request.setPrefix(prefix);
+        }
+        request.setMaxKeys(ObsPrefixLister.DEFAULT_MAX_KEYS);
+        request.setMarker(entries.isEmpty() ? null : entries.get(entries.size() - 1).key);
+        ObjectListing result;
+        do {
+            result = obsClient.listObjects(request);
+            for (ObsObject object : result.getObjects()) {
+                String key = object.getObjectKey();
+                if (!key.endsWith(ObsPrefixLister.DELIMITER) && !key.equals(inventoryKey)) {
+                    updated.add(Entry.of(object));
+                }
+            }
+            request.setMarker(ObsPrefixLister.nextMarker(result));
+        } while (result.isTruncated());
+        logger.debug("Added {} objects to the inventory of obs://{}/{}", updated.size() - entries.size(), bucket,
+                prefix);
+        return new ObsInventory(prefix, updatedAt, updated);
+    }
+
+    /**
+     * Reads the inventory of the prefix.
+     *
+     * @return the inventory, or null if the prefix has none
+     */
+    @Nullable
+    public static ObsInventory load(IObsClient obsClient, String bucket, String prefix) throws IOException {
+        String key = getKey(prefix);
+        ObsObject object;
+        try {
+            object = obsClient.getObject(bucket, key);
+        } catch (ObsException e) {
+            if (e.getResponseCode() == 404) {
+                return null;
+            }
+            throw new IOException("Failed to read the inventory from obs://" + bucket + "/" + key, e);
+        }
+        try (InputStream in = object.getObjectContent()) {
+            return read(prefix, in);
+        } catch (IOException e) {
+            throw new IOException("Invalid inventory in obs://" + bucket + "/" + key, e);
+        }
+    }
+
+    /**
+     * Stores the inventory in the prefix, replacing the previous one.
+     */
+    public void store(IObsClient obsClient, String bucket) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(bytes);
+        byte[] content = bytes.toByteArray();
+        String key = getKey(prefix);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength((long) content.length);
+        metadata.setContentType(CONTENT_TYPE);
+        PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteArrayInputStream(content));
+        request.setMetadata(metadata);
+        try {
+            obsClient.putObject(request);
+        } catch (ObsException e) {
+            throw new IOException("Failed to store the inventory in obs://" + bucket + "/" + key, e);
+        }
+        logger.debug("Stored the inventory of {} objects in obs://{}/{}, {} bytes", entries.size(), bucket, key,
+                content.length);
+    }
+
+    void write(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024);
+        DataOutputStream data = new DataOutputStream(gzip);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(prefix);
+        data.writeLong(listedAt);
+        writeLong(data, entries.size());
+        String previous = "";
+        for (Entry entry : entries) {
+            int shared = sharedPrefix(previous, entry.key);
+            writeLong(data, shared);
+            writeString(data, entry.key.substring(shared));
+            writeLong(data, entry.size);
+            writeLong(data, entry.lastModified);
+            writeString(data, entry.etag == null ? "" : entry.etag);
+            previous = entry.key;
+        }
+        data.flush();
+        gzip.finish();
+    }
+
+    static ObsInventory read(String prefix, InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new GZIPInputStream(in, 64 * 1024));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an inventory");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported inventory version " + version);
+        }
+        String storedPrefix = data.readUTF();
+        if (!storedPrefix.equals(prefix)) {
+            throw new IOException("The inventory is the one of the prefix '" + storedPrefix + "'");
+        }
+        long listedAt = data.readLong();
+        long count = readLong(data);
+        List<Entry> entries = new ArrayList<>((int) Math.min(count, 1024 * 1024));
+        String previous = "";
+        for (long i = 0; i < count; i++) {
+            int shared = (int) readLong(data);
+            if (shared > previous.length()) {
+                throw new IOException("Invalid key at entry " + i);
+            }
+            String key = previous.substring(0, shared) + readString(data);
+            long size = readLong(data);
+            long lastModified = readLong(data);
+            String etag = readString(data);
+            entries.add(new Entry(key, size, lastModified, etag.isEmpty() ? null : etag));
+            previous = key;
+        }
+        return new ObsInventory(prefix, listedAt, entries);
+    }
+
+    private static int sharedPrefix(String previous, String key) {
+        int length = Math.min(previous.length(), key.length());
+        int shared = 0;
+        while (shared < length && previous.charAt(shared) == key.charAt(shared)) {
+            shared++;
+        }
+        // do not split a surrogate pair
+        if (shared > 0 && Character.isHighSurrogate(key.charAt(shared - 1))) {
+            shared--;
+        }
+        return shared;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        long length = readLong(in);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a non negative long with 7 bits per byte, so that the small sizes and lengths take one or two bytes.
+     */
+    private static void writeLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid long in the inventory");
+    }
+
+    /**
+     * An object of the inventory.
+     */
+    public static final class Entry {
+        private final String key;
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+
+        Entry(String key, long size, long lastModified, @Nullable String etag) {
+            this.key = key;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        private static Entry of(ObsObject object) {
+            ObjectMetadata metadata = object.getMetadata();
+            Long size = metadata == null ? null : metadata.getContentLength();
+            Date lastModified = metadata == null ? null : metadata.getLastModified();
+            return new Entry(object.getObjectKey(), size == null ? 0L : size,
+                    lastModified == null ? 0L : lastModified.getTime(), metadata == null ? null : metadata.getEtag());
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Nullable
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return the object as it would be returned by a listing
+         */
+        public ObsObject toObsObject(String bucket) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(size);
+            metadata.setLastModified(new Date(lastModified));
+            metadata.setEtag(etag);
+            ObsObject object = new ObsObject();
+            object.setBucketName(bucket);
+            object.setObjectKey(key);
+            object.setMetadata(metadata);
+            return object;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.obs.services.IObsClient;
+import com.obs.services.ObsClient;
+import com.obs.services.ObsConfiguration;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command building or updating the {@link ObsInventory} of a prefix:
+ *
+ * <pre>
+ *   java -cp huaweicloud-obs-plugin.jar io.cdap.plugin.huawei.obs.common.ObsInventoryTool build|update obs://bucket/prefix
+ * </pre>
+ *
+ * The endpoint and the credentials are read from the OBS_ENDPOINT, OBS_ACCESS_KEY_ID and OBS_SECRET_ACCESS_KEY
+ * environment variables, so that they do not show in the command line. The update builds the inventory if there is
+ * none yet.
+ */
+public final class ObsInventoryTool {
+    private static final String ENDPOINT = "OBS_ENDPOINT";
+    private static final String ACCESS_KEY = "OBS_ACCESS_KEY_ID";
+    private static final String SECRET_KEY = "OBS_SECRET_ACCESS_KEY";
+    private static final int LIST_THREADS = 16;
+
+    private ObsInventoryTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || !(args[0].equals("build") || args[0].equals("update"))
+                || !args[1].startsWith(ObsPath.SCHEME)) {
+            System.err.println("Usage: " + ObsInventoryTool.class.getName() + " build|update obs://bucket/prefix");
+            System.exit(1);
+        }
+        String endPoint = getEnv(ENDPOINT);
+        ObsConfiguration configuration = new ObsConfiguration();
+        configuration.setEndPoint(endPoint);
+        IObsClient obsClient = ObsRequestExecutor.forEndpoint(endPoint, ObsRetryPolicy.DEFAULT)
+                .wrap(new ObsClient(getEnv(ACCESS_KEY), getEnv(SECRET_KEY), configuration));
+        ExecutorService executor = Executors.newFixedThreadPool(LIST_THREADS, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("obs-inventory-%d").build());
+        try {
+            ObsPath path = ObsPath.from(args[1]);
+            String name = path.getName();
+            String prefix = name.isEmpty() || name.endsWith(ObsPrefixLister.DELIMITER) ? name
+                    : name + ObsPrefixLister.DELIMITER;
+            ObsInventory inventory = args[0].equals("update")
+                    ? ObsInventory.load(obsClient, path.getBucket(), prefix) : null;
+            int previous = inventory == null ? 0 : inventory.getEntries().size();
+            inventory = inventory == null
+                    ? ObsInventory.build(obsClient, path.getBucket(), prefix, executor, LIST_THREADS)
+                    : inventory.update(obsClient, path.getBucket());
+            inventory.store(obsClient, path.getBucket());
+            System.out.printf("Stored the inventory of %d objects (%d new) in obs://%s/%s%n",
+                    inventory.getEntries().size(), inventory.getEntries().size() - previous, path.getBucket(),
+                    ObsInventory.getKey(prefix));
+        } finally {
+            executor.shutdownNow();
+            obsClient.close();
+        }
+    }
+
+    private static String getEnv(String name) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            System.err.println("The " + name + " environment variable is not set");
+            System.exit(1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import io.cdap.cdap.etl.api.StageContext;
+import io.cdap.cdap.etl.api.StageMetrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Reports the Obs requests of a stage recorded by {@link ObsRequestMetrics#forStage(String)} as metrics of the stage,
+ * along with the bytes of the files it read and wrote through {@link OBSFileSystemP}, which include the reads and
+ * writes done by {@code OBSFileSystem} with its own client. The requests of the other stages of the process are left
+ * to their own reporters.
+ *
+ * The stages report the metrics while they process records, at most once every {@link #REPORT_INTERVAL_NANOS}, and
+ * when they are done.
+ */
+public final class ObsMetricsReporter {
+    static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // number of records between two reads of the clock
+    private static final int CHECK_INTERVAL = 1024;
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final StageMetrics metrics;
+    private final ObsRequestMetrics requestMetrics;
+    private final LongSupplier clock;
+    private long lastReport;
+    private int records;
+
+    public ObsMetricsReporter(StageContext context) {
+        this(context.getMetrics(), ObsRequestMetrics.forStage(context.getStageName()), System::nanoTime);
+    }
+
+    ObsMetricsReporter(StageMetrics metrics, ObsRequestMetrics requestMetrics, LongSupplier clock) {
+        this.metrics = metrics;
+        this.requestMetrics = requestMetrics;
+        this.clock = clock;
+        this.lastReport = clock.getAsLong();
+    }
+
+    /**
+     * Called for every record processed by the stage, reports the metrics if the interval is over.
+     */
+    public void onRecord() {
+        if (++records < CHECK_INTERVAL) {
+            return;
+        }
+        records = 0;
+        if (clock.getAsLong() - lastReport >= REPORT_INTERVAL_NANOS) {
+            report();
+        }
+    }
+
+    /**
+     * Reports the requests recorded since the previous report of the stage in the process.
+     */
+    public void report() {
+        lastReport = clock.getAsLong();
+        report(requestMetrics.drain(), metrics);
+    }
+
+    static void report(ObsRequestMetrics.Snapshot snapshot, StageMetrics metrics) {
+        for (ObsRequestMetrics.Operation operation : ObsRequestMetrics.Operation.values()) {
+            long requests = snapshot.getRequests(operation);
+            if (requests == 0) {
+                continue;
+            }
+            String prefix = operation.getMetricPrefix();
+            metrics.countLong(prefix + "requests", requests);
+            countIfPositive(metrics, prefix + "failures", snapshot.getFailures(operation));
+            countIfPositive(metrics, prefix + "retries", snapshot.getRetries(operation));
+            if (snapshot.getBytes(operation) > 0) {
+                metrics.countLong(prefix + "bytes", snapshot.getBytes(operation));
+                metrics.gauge(prefix + "bytes.per.second", snapshot.getBytesPerSecond(operation));
+            }
+            for (double percentile : PERCENTILES) {
+                metrics.gauge(prefix + "latency.p" + (int) percentile + ".us",
+                        snapshot.getLatencyPercentileMicros(operation, percentile));
+            }
+            metrics.gauge(prefix + "latency.max.us", snapshot.getMaxLatencyMicros(operation));
+        }
+        for (int code : ObsRequestMetrics.ERROR_CODES) {
+            countIfPositive(metrics, code == 0 ? "obs.errors.no.response" : "obs.errors." + code,
+                    snapshot.getErrors(code));
+        }
+        countIfPositive(metrics, "obs.errors.other", snapshot.getErrors(-1));
+        countIfPositive(metrics, "obs.rejected", snapshot.getRejected());
+        countIfPositive(metrics, "obs.prefetch.ready", snapshot.getPrefetchReady());
+        countIfPositive(metrics, "obs.prefetch.stalls", snapshot.getPrefetchStalls());
+        countIfPositive(metrics, "obs.prefetch.stall.ms", snapshot.getPrefetchStallMillis());
+        countIfPositive(metrics, "obs.prefetch.avoided.ms", snapshot.getPrefetchAvoidedMillis());
+        countIfPositive(metrics, "obs.fs.bytes.read", snapshot.getFileBytesRead());
+        countIfPositive(metrics, "obs.fs.bytes.written", snapshot.getFileBytesWritten());
+    }
+
+    private static void countIfPositive(StageMetrics metrics, String name, long value) {
+        if (value > 0) {
+            metrics.countLong(name, value);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.IObsClient;
+import com.obs.services.model.AbortMultipartUploadRequest;
+import com.obs.services.model.InitiateMultipartUploadRequest;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.PartEtag;
+import com.obs.services.model.PutObjectRequest;
+import com.obs.services.model.UploadPartRequest;
+import com.obs.services.model.UploadPartResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nullable;
+
+/**
+ * Output stream that writes an object with the Obs multipart API. Data is buffered into parts of a fixed size and
+ * every full part is uploaded on the given executor while the next one is being filled, so a single object is
+ * uploaded over several connections. Objects smaller than one part are written with a single put request.
+ *
+ * The number of parts waiting for or being uploaded is bounded by the given semaphore, so writers block once the
+ * memory limit is reached. On any failure the multipart upload is aborted, so no uncommitted parts are left behind.
+ *
+ * The object is encrypted with the given server-side encryption, if any.
+ */
+public class ObsMultipartOutputStream extends OutputStream {
+    private static final Logger logger = LogManager.getLogger(ObsMultipartOutputStream.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final IObsClient obsClient;
+    private final String bucket;
+    private final String key;
+    private final int partSize;
+    private final Executor executor;
+    private final Semaphore uploadPermits;
+    @Nullable
+    private final ObsServerSideEncryption encryption;
+    private final List<CompletableFuture<PartEtag>> parts = new ArrayList<>();
+    private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    private byte[] buffer;
+    private int position;
+    private long length;
+    private String uploadId;
+    private volatile boolean closed;
+    private boolean aborted;
+
+    /**
+     * @param partSize size of each uploaded part, except the last one
+     * @param executor executor running the part uploads
+     * @param uploadPermits one permit is held by each part waiting for or being uploaded
+     */
+    public ObsMultipartOutputStream(IObsClient obsClient, String bucket, String key, int partSize,
+                                    Executor executor, Semaphore uploadPermits) {
+        this(obsClient, bucket, key, partSize, executor, uploadPermits, null);
+    }
+
+    /**
+     * @param encryption server-side encryption of the object, null to not encrypt it
+     */
+    public ObsMultipartOutputStream(IObsClient obsClient, String bucket, String key, int partSize,
+                                    Executor executor, Semaphore uploadPermits,
+                                    @Nullable ObsServerSideEncryption encryption) {
+        this.obsClient = obsClient;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.executor = executor;
+        this.uploadPermits = uploadPermits;
+        this.encryption = encryption;
+        this.buffer = new byte[Math.min(partSize, INITIAL_BUFFER_SIZE)];
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the id of the multipart upload, or null if no part has been uploaded yet
+     */
+    public synchronized String getUploadId() {
+        return uploadId;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        ensureOpen();
+        if (position == buffer.length) {
+            ensureCapacity(1);
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (position == buffer.length) {
+                ensureCapacity(len);
+            }
+            int count = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, count);
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (uploadId == null && isSinglePutEnabled()) {
+                putObject();
+                return;
+            }
+            if (position > 0 || uploadId == null) {
+                uploadPart();
+            }
+            completeUpload();
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e instanceof IOException ? (IOException) e : new IOException("Failed to write " + this, e);
+        } finally {
+            buffer = null;
+            freeBuffers.clear();
+        }
+    }
+
+    /**
+     * Aborts the upload. Parts already uploaded are discarded and the object is not created.
+     */
+    public synchronized void abort() {
+        closed = true;
+        if (aborted) {
+            return;
+        }
+        aborted = true;
+        for (CompletableFuture<PartEtag> part : parts) {
+            part.cancel(false);
+        }
+        if (uploadId != null) {
+            try {
+                obsClient.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+                logger.debug("Aborted multipart upload {} of {}", uploadId, this);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to abort multipart upload {} of {}", uploadId, this, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "obs://" + bucket + "/" + key;
+    }
+
+    /**
+     * Completes the upload once all its parts are uploaded, which makes the object visible.
+     */
+    protected void complete(ObsPendingUpload upload) throws IOException {
+        upload.complete(obsClient);
+        logger.debug("Completed multipart upload {} of {}", upload.getUploadId(), this);
+    }
+
+    /**
+     * Whether an object smaller than one part is written with a single put request instead of a multipart upload.
+     */
+    protected boolean isSinglePutEnabled() {
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream for " + this + " is already closed");
+        }
+    }
+
+    /**
+     * Grows the current buffer up to the part size, or hands the full part to the uploader.
+     */
+    private void ensureCapacity(int needed) throws IOException {
+        if (buffer.length < partSize) {
+            int size = buffer.length;
+            while (size - position < needed && size < partSize) {
+                size = (int) Math.min((long) size * 2, partSize);
+            }
+            byte[] grown = new byte[size];
+            System.arraycopy(buffer, 0, grown, 0, position);
+            buffer = grown;
+            return;
+        }
+        uploadPart();
+    }
+
+    private void uploadPart() throws IOException {
+        if (uploadId == null) {
+            InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucket, key);
+            if (encryption != null) {
+                encryption.applyTo(request);
+            }
+            uploadId = obsClient.initiateMultipartUpload(request).getUploadId();
+            logger.debug("Started multipart upload {} of {}", uploadId, this);
+        }
+        // fail fast if an earlier part could not be uploaded
+        for (CompletableFuture<PartEtag> part : parts) {
+            if (part.isCompletedExceptionally()) {
+                getPartEtag(part);
+            }
+        }
+        try {
+            uploadPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to upload a part of " + this);
+        }
+
+        byte[] data = buffer;
+        int length = position;
+        this.length += length;
+        int partNumber = parts.size() + 1;
+        CompletableFuture<PartEtag> part = new CompletableFuture<>();
+        parts.add(part);
+        try {
+            executor.execute(() -> {
+                try {
+                    UploadPartRequest request = new UploadPartRequest();
+                    request.setBucketName(bucket);
+                    request.setObjectKey(key);
+                    request.setUploadId(uploadId);
+                    request.setPartNumber(partNumber);
+                    request.setPartSize((long) length);
+                    request.setInput(new ByteArrayInputStream(data, 0, length));
+                    if (encryption != null) {
+                        encryption.applyTo(request);
+                    }
+                    UploadPartResult result = obsClient.uploadPart(request);
+                    part.complete(new PartEtag(result.getEtag(), partNumber));
+                } catch (Throwable t) {
+                    part.completeExceptionally(t);
+                } finally {
+                    uploadPermits.release();
+                    if (data.length == partSize) {
+                        freeBuffers.offer(data);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            uploadPermits.release();
+            part.completeExceptionally(e);
+        }
+
+        byte[] next = freeBuffers.poll();
+        buffer = next == null ? new byte[partSize] : next;
+        position = 0;
+    }
+
+    private void putObject() throws IOException {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength((long) position);
+        PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteArrayInputStream(buffer, 0, position));
+        request.setMetadata(metadata);
+        if (encryption != null) {
+            encryption.applyTo(request);
+        }
+        obsClient.putObject(request);
+    }
+
+    private void completeUpload() throws IOException {
+        // the parts are numbered in the order they were added
+        List<String> etags = new ArrayList<>(parts.size());
+        for (CompletableFuture<PartEtag> part : parts) {
+            etags.add(getPartEtag(part).getEtag());
+        }
+        complete(new ObsPendingUpload(bucket, key, uploadId, etags, length));
+    }
+
+    private PartEtag getPartEtag(CompletableFuture<PartEtag> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while uploading " + this);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to upload a part of " + this, e.getCause());
+        }
+    }
+}
@@ -17,12 +17,7 @@
 
 package io.cdap.plugin.huawei.obs.common;
 
-import io.cdap.plugin.huawei.obs.connector.ObsConnector;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
 import java.util.Objects;
-import java.util.regex.Pattern;
 
 /**
  * A path on Obs. Contains information about the bucket and file name (if applicable).
@@ -35,8 +30,6 @@ public class ObsPath {
     private final String bucket;
     private final String name;
 
-    private static final Logger logger = LogManager.getLogger(ObsPath.class);
-
 
     private ObsPath(String fullPath, String bucket, String name) {
         this.fullPath = fullPath;
@@ -96,37 +89,45 @@ public class ObsPath {
                     "'https://<Bucket-name>.<Domain-name>/<Object-name>'.");
         }
 
+        // parsed on every browse request, so this avoids regular expressions and intermediate strings
+        boolean hasScheme = false;
+        int start = 0;
         if (path.startsWith(ROOT_DIR)) {
-            path = path.substring(1);
+            start = 1;
         } else if (path.startsWith(SCHEME)) {
-            path = path.substring(SCHEME.length());
+            start = SCHEME.length();
+            hasScheme = true;
         }
 
-        String bucket = path;
-        int idx = path.indexOf(ROOT_DIR);
+        int idx = path.indexOf(ROOT_DIR, start);
         // if the path within bucket is provided, then only get the bucket
-        if (idx > 0) {
-            bucket = path.substring(0, idx);
-        }
-
-        if (bucket.length() < 3 || bucket.length() > 63) {
+        int bucketEnd = idx > start ? idx : path.length();
+        int bucketLength = bucketEnd - start;
+        if (bucketLength < 3 || bucketLength > 63) {
             throw new IllegalArgumentException("Invalid bucket name, the bucket name length must be between 3 characters " +
                     "and 63 characters.");
         }
+        for (int i = start; i < bucketEnd; i++) {
+            if (!isBucketChar(path.charAt(i))) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid bucket name in path '%s'. Bucket name should only contain lower case alphanumeric, " +
+                                "'-' and '.'. Please follow Obs bucket naming convention: " +
+                                "https://docs.aws.amazon.com/AmazonS3/latest/userguide/bucketnamingrules.html",
+                                path.substring(start))); //TODO fix
+            }
+        }
 
-        if (!Pattern.matches("[a-z0-9-.]+", bucket)) {
-            throw new IllegalArgumentException(
-                    String.format("Invalid bucket name in path '%s'. Bucket name should only contain lower case alphanumeric, " +
-                            "'-' and '.'. Please follow Obs bucket naming convention: " +
-                            "https://docs.aws.amazon.com/AmazonS3/latest/userguide/bucketnamingrules.html", path)); //TODO fix
+        String bucket = path.substring(start, bucketEnd);
+        if (bucketEnd == path.length()) {
+            return new ObsPath(SCHEME + bucket + ROOT_DIR, bucket, "");
         }
+        String file = path.substring(bucketEnd + 1);
+        // a path given with the scheme is already in its full form
+        String fullPath = hasScheme ? path : SCHEME + path.substring(start);
+        return new ObsPath(fullPath, bucket, file);
+    }
 
-        String file = idx > 0 ? path.substring(idx).replaceAll("^/", "") : "";
-        StringBuilder sb = new StringBuilder(SCHEME)
-                .append(bucket)
-                .append(ROOT_DIR)
-                .append(file);
-        logger.info("ObsPath from: {}, to: {}", path, sb.toString());
-        return new ObsPath(sb.toString(), bucket, file);
+    private static boolean isBucketChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '.';
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.IObsClient;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nullable;
+
+/**
+ * {@link ObsMultipartOutputStream} that does not complete the upload when it is closed. The upload is stored as an
+ * {@link ObsPendingUpload} in another object instead, and the object only becomes visible once the job commits.
+ */
+public class ObsPendingOutputStream extends ObsMultipartOutputStream {
+    private final IObsClient obsClient;
+    private final String pendingKey;
+
+    /**
+     * @param key key of the object the data is uploaded to
+     * @param pendingKey key of the object the pending upload is stored in when the stream is closed
+     * @param encryption server-side encryption of the object, null to not encrypt it
+     */
+    public ObsPendingOutputStream(IObsClient obsClient, String bucket, String key, String pendingKey, int partSize,
+                                  Executor executor, Semaphore uploadPermits,
+                                  @Nullable ObsServerSideEncryption encryption) {
+        super(obsClient, bucket, key, partSize, executor, uploadPermits, encryption);
+        this.obsClient = obsClient;
+        this.pendingKey = pendingKey;
+    }
+
+    @Override
+    protected void complete(ObsPendingUpload upload) throws IOException {
+        ObsPendingUpload.store(obsClient, getBucket(), pendingKey, Collections.singletonList(upload));
+    }
+
+    /**
+     * A single put would make the object visible right away.
+     */
+    @Override
+    protected boolean isSinglePutEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.AbortMultipartUploadRequest;
+import com.obs.services.model.CompleteMultipartUploadRequest;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PartEtag;
+import com.obs.services.model.PutObjectRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A multipart upload whose parts are all uploaded but that is not completed yet, so the object is not visible.
+ * It is completed when the job that wrote it commits, or aborted when the job fails.
+ *
+ * The files written by a task under the task attempt directory of the output,
+ * {@code <output>/_temporary/<application attempt>/_temporary/<task attempt>/<file>}, which is where the output
+ * formats based on FileOutputFormat write, are uploaded directly to {@code <output>/<file>} and the pending upload is
+ * stored next to where the file would have been written, with the {@link #PENDING_SUFFIX} suffix.
+ */
+public final class ObsPendingUpload {
+    public static final String TEMPORARY = "_temporary";
+    public static final String PENDING_SUFFIX = ".pending";
+
+    private static final Gson GSON = new Gson();
+    private static final Type LIST_TYPE = new TypeToken<List<ObsPendingUpload>>() { }.getType();
+
+    private final String bucket;
+    private final String key;
+    private final String uploadId;
+    // etags of the parts, in part number order starting at 1
+    private final List<String> etags;
+    private final long length;
+
+    public ObsPendingUpload(String bucket, String key, String uploadId, List<String> etags, long length) {
+        this.bucket = bucket;
+        this.key = key;
+        this.uploadId = uploadId;
+        this.etags = etags;
+        this.length = length;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Completes the upload, the object becomes visible.
+     */
+    public void complete(IObsClient obsClient) throws IOException {
+        List<PartEtag> parts = new ArrayList<>(etags.size());
+        for (int i = 0; i < etags.size(); i++) {
+            parts.add(new PartEtag(etags.get(i), i + 1));
+        }
+        try {
+            obsClient.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, parts));
+        } catch (ObsException e) {
+            throw new IOException("Failed to complete the upload " + uploadId + " of " + this, e);
+        }
+    }
+
+    /**
+     * Aborts the upload, its parts are discarded.
+     *
+     * @return false if the upload does not exist anymore, because it was already completed or aborted
+     */
+    public boolean abort(IObsClient obsClient) throws IOException {
+        try {
+            obsClient.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            return true;
+        } catch (ObsException e) {
+            if (e.getResponseCode() == 404) {
+                return false;
+            }
+            throw new IOException("Failed to abort the upload " + uploadId + " of " + this, e);
+        }
+    }
+
+    /**
+     * Returns the key of the object a file written under a task attempt directory is uploaded to.
+     *
+     * @return the key of the file in the output directory, or null if the key is not under a task attempt directory
+     */
+    @Nullable
+    public static String getDestinationKey(String key) {
+        String[] parts = splitTaskAttemptKey(key);
+        return parts == null ? null : parts[0] + parts[2];
+    }
+
+    /**
+     * @return the task attempt whose directory the file is written under, or null if the key is not under a task
+     *         attempt directory
+     */
+    @Nullable
+    public static String getTaskAttempt(String key) {
+        String[] parts = splitTaskAttemptKey(key);
+        return parts == null ? null : parts[1];
+    }
+
+    /**
+     * @return the output directory, the task attempt and the file of a key under a task attempt directory, null if
+     *         the key is not under one
+     */
+    @Nullable
+    private static String[] splitTaskAttemptKey(String key) {
+        String marker = TEMPORARY + ObsPrefixLister.DELIMITER;
+        int index = key.startsWith(marker) ? 0 : key.indexOf(ObsPrefixLister.DELIMITER + marker);
+        if (index < 0) {
+            return null;
+        }
+        int start = index == 0 ? marker.length() : index + marker.length() + 1;
+        // <application attempt>/_temporary/<task attempt>/<file>
+        String[] parts = key.substring(start).split(ObsPrefixLister.DELIMITER, 4);
+        if (parts.length < 4 || !TEMPORARY.equals(parts[1]) || parts[3].isEmpty()) {
+            return null;
+        }
+        return new String[] {index == 0 ? "" : key.substring(0, index + 1), parts[2], parts[3]};
+    }
+
+    /**
+     * Stores the uploads as a json object.
+     */
+    public static void store(IObsClient obsClient, String bucket, String key, List<ObsPendingUpload> uploads)
+            throws IOException {
+        byte[] content = GSON.toJson(uploads, LIST_TYPE).getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength((long) content.length);
+        metadata.setContentType("application/json");
+        PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteArrayInputStream(content));
+        request.setMetadata(metadata);
+        try {
+            obsClient.putObject(request);
+        } catch (ObsException e) {
+            throw new IOException("Failed to store the pending uploads in obs://" + bucket + "/" + key, e);
+        }
+    }
+
+    /**
+     * Reads the uploads stored by {@link #store(IObsClient, String, String, List)}.
+     */
+    public static List<ObsPendingUpload> load(IObsClient obsClient, String bucket, String key) throws IOException {
+        ObsObject object;
+        try {
+            object = obsClient.getObject(bucket, key);
+        } catch (ObsException e) {
+            throw new IOException("Failed to read the pending uploads from obs://" + bucket + "/" + key, e);
+        }
+        try (InputStream in = object.getObjectContent();
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            List<ObsPendingUpload> uploads = GSON.fromJson(reader, LIST_TYPE);
+            if (uploads == null) {
+                throw new IOException("Invalid pending uploads in obs://" + bucket + "/" + key);
+            }
+            return uploads;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "obs://" + bucket + "/" + key;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.IObsClient;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObsObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Lists every object under a prefix by walking the "directory" tree of the bucket. Each sub-prefix returned in
+ * the common prefixes of a listing is listed by its own task on the given executor, so sharded layouts
+ * (hex or date sub-prefixes) are listed concurrently instead of one page at a time.
+ * The number of list requests sent to Obs at the same time is bounded independently of the executor size.
+ */
+public class ObsPrefixLister {
+    private static final Logger logger = LogManager.getLogger(ObsPrefixLister.class);
+
+    static final String DELIMITER = "/";
+    static final int DEFAULT_MAX_KEYS = 1000;
+
+    private final IObsClient obsClient;
+    private final Executor executor;
+    private final Semaphore requests;
+    private final int maxKeys;
+
+    public ObsPrefixLister(IObsClient obsClient, Executor executor, int maxRequests) {
+        this(obsClient, executor, maxRequests, DEFAULT_MAX_KEYS);
+    }
+
+    public ObsPrefixLister(IObsClient obsClient, Executor executor, int maxRequests, int maxKeys) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException("The maximum number of list requests must be positive.");
+        }
+        this.obsClient = obsClient;
+        this.executor = executor;
+        this.requests = new Semaphore(maxRequests);
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Lists all objects under the given prefix, recursing into sub-prefixes.
+     *
+     * @param bucket the bucket to list
+     * @param prefix the prefix to list, either empty or ending with '/'
+     * @param prefixFilter decides whether a sub-prefix (ending with '/') is descended into
+     * @param keyFilter decides whether an object key is part of the result
+     * @return the accepted objects, sorted by key
+     * @throws IOException if any of the list requests failed
+     */
+    public List<ObsObject> list(String bucket, String prefix, Predicate<String> prefixFilter,
+                                Predicate<String> keyFilter) throws IOException {
+        Listing listing = new Listing(bucket, prefixFilter, keyFilter);
+        listing.submit(prefix);
+        try {
+            listing.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing obs://" + bucket + "/" + prefix);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to list obs://" + bucket + "/" + prefix, cause);
+        }
+
+        List<ObsObject> objects = new ArrayList<>(listing.objects);
+        objects.sort(Comparator.comparing(ObsObject::getObjectKey));
+        logger.debug("Listed {} objects under obs://{}/{} from {} prefixes", objects.size(), bucket, prefix,
+                listing.prefixes.get());
+        return objects;
+    }
+
+    /**
+     * Returns the marker of the page following the given one. The next marker is only guaranteed to be set when a
+     * delimiter is used, otherwise the last entry of the page is used.
+     */
+    public static String nextMarker(ObjectListing result) {
+        if (result.getNextMarker() != null) {
+            return result.getNextMarker();
+        }
+        String last = null;
+        List<ObsObject> page = result.getObjects();
+        if (!page.isEmpty()) {
+            last = page.get(page.size() - 1).getObjectKey();
+        }
+        List<String> commonPrefixes = result.getCommonPrefixes();
+        if (!commonPrefixes.isEmpty()) {
+            String lastPrefix = commonPrefixes.get(commonPrefixes.size() - 1);
+            if (last == null || lastPrefix.compareTo(last) > 0) {
+                last = lastPrefix;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * State of a single recursive listing.
+     */
+    private final class Listing {
+        private final String bucket;
+        private final Predicate<String> prefixFilter;
+        private final Predicate<String> keyFilter;
+        private final Queue<ObsObject> objects = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger prefixes = new AtomicInteger();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Listing(String bucket, Predicate<String> prefixFilter, Predicate<String> keyFilter) {
+            this.bucket = bucket;
+            this.prefixFilter = prefixFilter;
+            this.keyFilter = keyFilter;
+        }
+
+        private void submit(String prefix) {
+            pending.incrementAndGet();
+            prefixes.incrementAndGet();
+            try {
+                executor.execute(() -> run(prefix));
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        }
+
+        private void run(String prefix) {
+            try {
+                if (!done.isDone()) {
+                    listPrefix(prefix);
+                }
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            }
+        }
+
+        private void listPrefix(String prefix) throws InterruptedException {
+            ListObjectsRequest request = new ListObjectsRequest(bucket);
+            if (!prefix.isEmpty()) {
+                request.setPrefix(prefix);
+            }
+            request.setDelimiter(DELIMITER);
+            request.setMaxKeys(maxKeys);
+
+            ObjectListing result;
+            do {
+                requests.acquire();
+                try {
+                    result = obsClient.listObjects(request);
+                } finally {
+                    requests.release();
+                }
+                for (String subPrefix : result.getCommonPrefixes()) {
+                    // skip the marker of the prefix itself, some buckets return it as a common prefix
+                    if (!subPrefix.equals(prefix) && prefixFilter.test(subPrefix)) {
+                        submit(subPrefix);
+                    }
+                }
+                for (ObsObject object : result.getObjects()) {
+                    String key = object.getObjectKey();
+                    if (!key.endsWith(DELIMITER) && keyFilter.test(key)) {
+                        objects.add(object);
+                    }
+                }
+                request.setMarker(nextMarker(result));
+            } while (result.isTruncated() && !done.isDone());
+        }
+    }
+}
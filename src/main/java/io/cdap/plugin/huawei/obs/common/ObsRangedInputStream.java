@@ -0,0 +1,335 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.IObsClient;
+import com.obs.services.model.GetObjectRequest;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+
+/**
+ * Input stream that reads an object with ranged GET requests issued ahead of the reader. The object is read in
+ * chunks aligned on the chunk size, and up to the read-ahead depth chunks following the one being read are fetched
+ * in parallel, so that a single reader is not limited by the latency of one connection.
+ *
+ * Prefetched chunks use the buffers of a shared {@link ObsBufferPool}, so the memory used by all the streams is
+ * bounded: when the pool is exhausted the stream only fetches the chunk it needs. Read-ahead stops at the end of
+ * the split the reader started in, unless the reader goes on well past it, in which case it is reading the whole
+ * object and read-ahead continues up to the end. Seeks within the prefetched chunks do not issue any request.
+ */
+public class ObsRangedInputStream extends FSInputStream {
+    private static final Logger logger = LogManager.getLogger(ObsRangedInputStream.class);
+
+    private final IObsClient obsClient;
+    private final String bucket;
+    private final String key;
+    private final long length;
+    private final int depth;
+    private final long splitSize;
+    private final Executor executor;
+    private final ObsBufferPool bufferPool;
+    @Nullable
+    private final FileSystem.Statistics statistics;
+    private final int chunkSize;
+    // chunks fetched ahead of the current one, consecutive and in ascending order
+    private final Deque<Chunk> prefetched = new ArrayDeque<>();
+
+    private Chunk current;
+    private long pos;
+    private long readAheadEnd = -1L;
+    private boolean closed;
+
+    /**
+     * @param length length of the object
+     * @param depth number of chunks fetched ahead of the one being read
+     * @param splitSize size of the splits the object is read with, bounds the read-ahead after the first read
+     * @param executor executor fetching the chunks
+     * @param bufferPool pool of the chunk buffers, its buffer size is the chunk size
+     */
+    public ObsRangedInputStream(IObsClient obsClient, String bucket, String key, long length, int depth,
+                                long splitSize, Executor executor, ObsBufferPool bufferPool,
+                                @Nullable FileSystem.Statistics statistics) {
+        this.obsClient = obsClient;
+        this.bucket = bucket;
+        this.key = key;
+        this.length = length;
+        this.depth = depth;
+        this.splitSize = splitSize;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.statistics = statistics;
+        this.chunkSize = bufferPool.getBufferSize();
+    }
+
+    @Override
+    public synchronized void seek(long position) throws IOException {
+        ensureOpen();
+        if (position < 0) {
+            throw new EOFException("Cannot seek to a negative offset " + position + " in " + this);
+        }
+        if (position > length) {
+            throw new EOFException("Cannot seek past the end of " + this + " to " + position);
+        }
+        pos = position;
+    }
+
+    @Override
+    public synchronized long getPos() {
+        return pos;
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) {
+        return false;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        ensureOpen();
+        if (current == null || !current.contains(pos)) {
+            return 0;
+        }
+        return (int) (current.start + current.length - pos);
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        ensureOpen();
+        if (pos >= length) {
+            return -1;
+        }
+        Chunk chunk = chunkAt(pos);
+        int b = chunk.buffer[(int) (pos - chunk.start)] & 0xff;
+        pos++;
+        incrementBytesRead(1);
+        return b;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= length) {
+            return -1;
+        }
+        Chunk chunk = chunkAt(pos);
+        int offset = (int) (pos - chunk.start);
+        int count = Math.min(len, chunk.length - offset);
+        System.arraycopy(chunk.buffer, offset, b, off, count);
+        pos += count;
+        incrementBytesRead(count);
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (current != null) {
+            release(current);
+            current = null;
+        }
+        discardPrefetched();
+        super.close();
+    }
+
+    @Override
+    public String toString() {
+        return "obs://" + bucket + "/" + key;
+    }
+
+    /**
+     * Returns the chunk containing the given position, fetching it if needed, and schedules the read-ahead.
+     */
+    private Chunk chunkAt(long position) throws IOException {
+        if (current != null && current.contains(position)) {
+            return current;
+        }
+        if (readAheadEnd < 0) {
+            // the first read tells which split is being read
+            readAheadEnd = splitSize >= length - position ? length : position + splitSize;
+        } else if (position >= readAheadEnd + chunkSize) {
+            // well past the end of the split, the whole object is being read
+            readAheadEnd = length;
+        }
+        if (current != null) {
+            release(current);
+            current = null;
+        }
+        while (!prefetched.isEmpty() && prefetched.peekFirst().end() <= position) {
+            release(prefetched.pollFirst());
+        }
+        if (!prefetched.isEmpty() && !prefetched.peekFirst().contains(position)) {
+            // seek backward
+            discardPrefetched();
+        }
+
+        Chunk chunk = prefetched.pollFirst();
+        if (chunk == null) {
+            long start = position - position % chunkSize;
+            byte[] buffer = bufferPool.tryAcquire();
+            chunk = fetch(start, buffer == null ? new byte[chunkSize] : buffer, buffer != null);
+        }
+        current = chunk;
+        readAhead();
+        try {
+            await(chunk);
+        } catch (IOException e) {
+            current = null;
+            release(chunk);
+            throw e;
+        }
+        return chunk;
+    }
+
+    private void readAhead() {
+        long next = prefetched.isEmpty() ? current.end() : prefetched.peekLast().end();
+        long end = Math.min(length, readAheadEnd);
+        while (prefetched.size() < depth && next < end) {
+            byte[] buffer = bufferPool.tryAcquire();
+            if (buffer == null) {
+                break;
+            }
+            Chunk chunk = fetch(next, buffer, true);
+            prefetched.addLast(chunk);
+            next = chunk.end();
+        }
+    }
+
+    private Chunk fetch(long start, byte[] buffer, boolean pooled) {
+        Chunk chunk = new Chunk(start, (int) Math.min(chunkSize, length - start), buffer, pooled);
+        try {
+            executor.execute(() -> {
+                try {
+                    readRange(chunk);
+                    chunk.fetched.complete(null);
+                } catch (Throwable t) {
+                    chunk.fetched.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            chunk.fetched.completeExceptionally(e);
+        }
+        return chunk;
+    }
+
+    private void readRange(Chunk chunk) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket, key);
+        request.setRangeStart(chunk.start);
+        request.setRangeEnd(chunk.end() - 1);
+        try (InputStream in = obsClient.getObject(request).getObjectContent()) {
+            int offset = 0;
+            while (offset < chunk.length) {
+                int read = in.read(chunk.buffer, offset, chunk.length - offset);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of " + this + " at " + (chunk.start + offset));
+                }
+                offset += read;
+            }
+        }
+    }
+
+    private void await(Chunk chunk) throws IOException {
+        try {
+            chunk.fetched.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + this);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to read " + this + " at " + chunk.start, cause);
+        }
+    }
+
+    private void discardPrefetched() {
+        logger.trace("Discarding {} prefetched chunks of {}", prefetched.size(), this);
+        while (!prefetched.isEmpty()) {
+            release(prefetched.pollFirst());
+        }
+    }
+
+    /**
+     * Gives the buffer of the chunk back to the pool once no request writes into it anymore.
+     */
+    private void release(Chunk chunk) {
+        if (chunk.pooled) {
+            chunk.fetched.whenComplete((result, error) -> bufferPool.release(chunk.buffer));
+        }
+    }
+
+    private void incrementBytesRead(long bytes) {
+        if (statistics != null) {
+            statistics.incrementBytesRead(bytes);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream for " + this + " is already closed");
+        }
+    }
+
+    /**
+     * A range of the object.
+     */
+    private static final class Chunk {
+        private final long start;
+        private final int length;
+        private final byte[] buffer;
+        private final boolean pooled;
+        private final CompletableFuture<Void> fetched = new CompletableFuture<>();
+
+        private Chunk(long start, int length, byte[] buffer, boolean pooled) {
+            this.start = start;
+            this.length = length;
+            this.buffer = buffer;
+            this.pooled = pooled;
+        }
+
+        private long end() {
+            return start + length;
+        }
+
+        private boolean contains(long position) {
+            return position >= start && position < start + length;
+        }
+    }
+}
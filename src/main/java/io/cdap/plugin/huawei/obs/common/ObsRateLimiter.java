@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting the rate of the requests sent to an endpoint, which adapts to the throttling of the endpoint:
+ * the rate is halved every time a request is throttled, and grows back by about one request per second every second
+ * while the requests succeed, up to the maximum rate (additive increase, multiplicative decrease).
+ *
+ * Without a maximum rate, requests are not limited until the first throttled request, the rate then starts from half
+ * of the rate observed during the last second. The bucket holds up to one second of requests, so short bursts are
+ * not delayed.
+ */
+public class ObsRateLimiter {
+    static final double MIN_RATE = 1.0d;
+    private static final double DECREASE_FACTOR = 0.5d;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double maxRate;
+    private final LongSupplier clock;
+
+    // guarded by this
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long windowStart;
+    private int windowRequests;
+    private int previousWindowRequests;
+
+    /**
+     * @param maxRequestsPerSecond maximum rate, 0 for no limit until the requests are throttled
+     */
+    public ObsRateLimiter(int maxRequestsPerSecond) {
+        this(maxRequestsPerSecond, System::nanoTime);
+    }
+
+    ObsRateLimiter(int maxRequestsPerSecond, LongSupplier clock) {
+        this.maxRate = maxRequestsPerSecond > 0 ? maxRequestsPerSecond : Double.POSITIVE_INFINITY;
+        this.clock = clock;
+        this.rate = maxRate;
+        this.tokens = Double.isInfinite(maxRate) ? 0 : maxRate;
+        this.lastRefill = clock.getAsLong();
+        this.windowStart = lastRefill;
+    }
+
+    /**
+     * Takes a token for a request.
+     *
+     * @return the time in nanoseconds to wait before sending the request
+     */
+    public synchronized long reserve() {
+        long now = clock.getAsLong();
+        if (now - windowStart >= SECOND) {
+            previousWindowRequests = now - windowStart >= 2 * SECOND ? 0 : windowRequests;
+            windowRequests = 0;
+            windowStart = now;
+        }
+        windowRequests++;
+        if (Double.isInfinite(rate)) {
+            return 0L;
+        }
+        tokens = Math.min(Math.max(1.0d, rate), tokens + (now - lastRefill) * rate / SECOND);
+        lastRefill = now;
+        tokens -= 1.0d;
+        return tokens >= 0 ? 0L : (long) (-tokens / rate * SECOND);
+    }
+
+    /**
+     * Lowers the rate after a throttled request.
+     */
+    public synchronized void onThrottled() {
+        double current = Double.isInfinite(rate) ? Math.max(windowRequests, previousWindowRequests) : rate;
+        rate = Math.max(MIN_RATE, current * DECREASE_FACTOR);
+        tokens = Math.min(tokens, 0.0d);
+        lastRefill = clock.getAsLong();
+    }
+
+    /**
+     * Raises the rate after a successful request.
+     */
+    public synchronized void onSuccess() {
+        if (!Double.isInfinite(rate)) {
+            rate = Math.min(maxRate, rate + 1.0d / rate);
+        }
+    }
+
+    /**
+     * @return the current rate in requests per second, infinite if the requests are not limited
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PutObjectRequest;
+import com.obs.services.model.UploadPartRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Sends the requests to an Obs endpoint: waits for the rate limiter, waits while the circuit breaker is open, and
+ * retries the requests that failed because of the endpoint (throttling, server errors and network errors) after an
+ * exponential backoff with full jitter. Other errors, like a missing object or denied access, are not retried. The
+ * throttled requests only slow down the rate limiter, they do not count toward opening the circuit.
+ *
+ * The clients wrapped by an executor must not retry the requests themselves, see {@link ObsClientCache}.
+ *
+ * The executors are shared by all the clients of an endpoint in the JVM, so that the rate limiter and the circuit
+ * breaker see all the requests sent to it.
+ */
+public class ObsRequestExecutor {
+    private static final Logger logger = LogManager.getLogger(ObsRequestExecutor.class);
+
+    private static final Map<List<Object>, ObsRequestExecutor> EXECUTORS = new ConcurrentHashMap<>();
+    // wait between two checks of an open circuit whose trial request is in flight
+    private static final long TRIAL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final String endPoint;
+    private final ObsRetryPolicy policy;
+    private final ObsRateLimiter rateLimiter;
+    private final ObsCircuitBreaker circuitBreaker;
+    private final Sleeper sleeper;
+    private final DoubleSupplier jitter;
+    private final ObsRequestMetrics metrics;
+
+    /**
+     * Sleeps for the backoff and the rate limiter, replaced by the tests.
+     */
+    @VisibleForTesting
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    @VisibleForTesting
+    ObsRequestExecutor(String endPoint, ObsRetryPolicy policy, ObsRateLimiter rateLimiter,
+                       ObsCircuitBreaker circuitBreaker, Sleeper sleeper, DoubleSupplier jitter) {
+        this(endPoint, policy, rateLimiter, circuitBreaker, sleeper, jitter, ObsRequestMetrics.get());
+    }
+
+    @VisibleForTesting
+    ObsRequestExecutor(String endPoint, ObsRetryPolicy policy, ObsRateLimiter rateLimiter,
+                       ObsCircuitBreaker circuitBreaker, Sleeper sleeper, DoubleSupplier jitter,
+                       ObsRequestMetrics metrics) {
+        this.endPoint = endPoint;
+        this.policy = policy;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.sleeper = sleeper;
+        this.jitter = jitter;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the executor shared by the clients of the endpoint with the same policy
+     */
+    public static ObsRequestExecutor forEndpoint(String endPoint, ObsRetryPolicy policy) {
+        return EXECUTORS.computeIfAbsent(Arrays.asList(endPoint, policy), key -> new ObsRequestExecutor(endPoint,
+                policy, new ObsRateLimiter(policy.getMaxRequestsPerSecond()),
+                new ObsCircuitBreaker(policy.getCircuitBreakerThreshold(), policy.getCircuitBreakerCooldownMillis()),
+                TimeUnit.NANOSECONDS::sleep, () -> ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * Client sending all its requests through this executor, counted by the metrics of the executor.
+     */
+    public IObsClient wrap(IObsClient client) {
+        return wrap(client, metrics);
+    }
+
+    /**
+     * Client sending all its requests through this executor, counted by the given metrics.
+     */
+    public IObsClient wrap(IObsClient client, ObsRequestMetrics metrics) {
+        return (IObsClient) Proxy.newProxyInstance(IObsClient.class.getClassLoader(), new Class<?>[] {IObsClient.class},
+                new ClientHandler(client, metrics));
+    }
+
+    /**
+     * Returns a client sending its requests like the given client, but counting them with the given metrics.
+     *
+     * @param client client returned by {@link #wrap}, any other client is returned as is
+     */
+    public static IObsClient withMetrics(IObsClient client, ObsRequestMetrics metrics) {
+        if (!Proxy.isProxyClass(client.getClass())) {
+            return client;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(client);
+        if (!(handler instanceof ClientHandler) || ((ClientHandler) handler).metrics == metrics) {
+            return client;
+        }
+        ClientHandler clientHandler = (ClientHandler) handler;
+        return clientHandler.getExecutor().wrap(clientHandler.client, metrics);
+    }
+
+    /**
+     * Sends a request, retrying it if it fails because of the endpoint.
+     *
+     * @param operation name of the request, for the logs
+     * @throws ObsException the error of the last attempt, or an error without response code if the circuit breaker
+     *                      stays open for the maximum number of attempts times the cooldown, or if the thread is
+     *                      interrupted while waiting
+     */
+    public <T> T execute(String operation, Supplier<T> request) {
+        return execute(operation, null, metrics, request);
+    }
+
+    private <T> T execute(String operation, Object[] args, ObsRequestMetrics metrics, Supplier<T> request) {
+        InputStream input = getInput(args);
+        ObsRequestMetrics.Operation metricsOperation = ObsRequestMetrics.Operation.of(operation);
+        for (int attempt = 1; ; attempt++) {
+            awaitCircuit(operation, metrics);
+            sleep(rateLimiter.reserve());
+            long requestBytes = getRequestBytes(args, input);
+            long start = System.nanoTime();
+            try {
+                T result = request.get();
+                metrics.recordSuccess(metricsOperation, System.nanoTime() - start,
+                        requestBytes + getResponseBytes(result));
+                circuitBreaker.onSuccess();
+                rateLimiter.onSuccess();
+                return result;
+            } catch (ObsException e) {
+                metrics.recordFailure(metricsOperation, System.nanoTime() - start, e.getResponseCode());
+                if (!isRetryable(e)) {
+                    circuitBreaker.onSuccess();
+                    throw e;
+                }
+                if (isThrottled(e)) {
+                    circuitBreaker.onIgnored();
+                    rateLimiter.onThrottled();
+                    logger.debug("{} request to {} throttled, rate lowered to {} requests per second", operation,
+                            endPoint, rateLimiter.getRate());
+                } else {
+                    circuitBreaker.onFailure();
+                }
+                if (attempt >= policy.getMaxAttempts() || !rewind(input)) {
+                    throw e;
+                }
+                metrics.recordRetry(metricsOperation);
+                long delay = (long) (jitter.getAsDouble() * backoff(attempt));
+                logger.debug("Attempt {} of {} request to {} failed with response code {}, retrying in {} ms",
+                        attempt, operation, endPoint, e.getResponseCode(), delay);
+                sleep(TimeUnit.MILLISECONDS.toNanos(delay));
+            } catch (RuntimeException | Error e) {
+                circuitBreaker.onIgnored();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Waits until the circuit breaker lets a request through: for the rest of the cooldown, then for the trial
+     * request sent by another thread. Gives up once it waited for the maximum number of attempts times the cooldown,
+     * the trial requests sent during that time having failed.
+     */
+    private void awaitCircuit(String operation, ObsRequestMetrics metrics) {
+        long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(policy.getCircuitBreakerCooldownMillis())
+                * policy.getMaxAttempts();
+        long waitedNanos = 0L;
+        while (!circuitBreaker.tryAcquire()) {
+            if (waitedNanos >= maxWaitNanos) {
+                metrics.recordRejected();
+                ObsException e = new ObsException(String.format("%s request to %s not sent, the requests still fail "
+                        + "after %d ms and %d consecutive failures.", operation, endPoint,
+                        TimeUnit.NANOSECONDS.toMillis(waitedNanos), circuitBreaker.getConsecutiveFailures()));
+                e.setErrorCode("CircuitOpen");
+                throw e;
+            }
+            long wait = Math.max(circuitBreaker.getRemainingCooldownNanos(), TRIAL_WAIT_NANOS);
+            if (waitedNanos == 0L) {
+                logger.debug("{} request to {} waiting {} ms for the circuit breaker to close", operation, endPoint,
+                        TimeUnit.NANOSECONDS.toMillis(wait));
+            }
+            sleep(wait);
+            waitedNanos += wait;
+        }
+    }
+
+    @VisibleForTesting
+    static boolean isRetryable(ObsException e) {
+        switch (e.getResponseCode()) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                // no response at all: the connection failed or timed out
+                return e.getResponseCode() <= 0 && hasIOExceptionCause(e);
+        }
+    }
+
+    private static boolean isThrottled(ObsException e) {
+        return e.getResponseCode() == 429 || e.getResponseCode() == 503;
+    }
+
+    private static boolean hasIOExceptionCause(Throwable t) {
+        for (Throwable cause = t.getCause(); cause != null && cause != t; t = cause, cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long backoff(int attempt) {
+        // base * 2^(attempt - 1), without overflowing
+        long delay = policy.getBaseDelayMillis() << Math.min(attempt - 1, 30);
+        return delay < 0 ? policy.getMaxDelayMillis() : Math.min(delay, policy.getMaxDelayMillis());
+    }
+
+    private void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            sleeper.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObsException("Interrupted while waiting to send a request to " + endPoint, e);
+        }
+    }
+
+    /**
+     * @return the size of the content of an upload
+     */
+    private static long getRequestBytes(Object[] args, InputStream input) {
+        if (input instanceof ByteArrayInputStream) {
+            return ((ByteArrayInputStream) input).available();
+        }
+        if (input != null && args[0] instanceof UploadPartRequest) {
+            Long partSize = ((UploadPartRequest) args[0]).getPartSize();
+            return partSize == null ? 0L : partSize;
+        }
+        return 0L;
+    }
+
+    /**
+     * @return the size of the content of a download, which is read later from the response
+     */
+    private static long getResponseBytes(Object result) {
+        if (!(result instanceof ObsObject)) {
+            return 0L;
+        }
+        ObjectMetadata metadata = ((ObsObject) result).getMetadata();
+        return metadata == null || metadata.getContentLength() == null ? 0L : metadata.getContentLength();
+    }
+
+    /**
+     * @return the content of the uploads, read again when they are retried
+     */
+    private static InputStream getInput(Object[] args) {
+        if (args == null || args.length == 0) {
+            return null;
+        }
+        if (args[0] instanceof PutObjectRequest) {
+            return ((PutObjectRequest) args[0]).getInput();
+        }
+        if (args[0] instanceof UploadPartRequest) {
+            return ((UploadPartRequest) args[0]).getInput();
+        }
+        return null;
+    }
+
+    /**
+     * Rewinds the content of an upload, only possible for the in-memory content uploaded by the plugins.
+     *
+     * @return whether the request can be sent again
+     */
+    private static boolean rewind(InputStream input) {
+        if (input == null) {
+            return true;
+        }
+        if (!(input instanceof ByteArrayInputStream)) {
+            return false;
+        }
+        // the mark of a ByteArrayInputStream is the start of its content until mark() is called
+        ((ByteArrayInputStream) input).reset();
+        return true;
+    }
+
+    private static Object invoke(IObsClient client, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(client, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Sends the requests of a client through the executor.
+     */
+    private final class ClientHandler implements InvocationHandler {
+        private final IObsClient client;
+        private final ObsRequestMetrics metrics;
+
+        private ClientHandler(IObsClient client, ObsRequestMetrics metrics) {
+            this.client = client;
+            this.metrics = metrics;
+        }
+
+        private ObsRequestExecutor getExecutor() {
+            return ObsRequestExecutor.this;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "ObsRequestExecutor client of " + endPoint;
+                }
+            }
+            if ("close".equals(method.getName()) || "refresh".equals(method.getName())) {
+                return ObsRequestExecutor.invoke(client, method, args);
+            }
+            return execute(method.getName(), args, metrics, () -> {
+                try {
+                    return ObsRequestExecutor.invoke(client, method, args);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new UndeclaredThrowableException(t);
+                }
+            });
+        }
+    }
+}
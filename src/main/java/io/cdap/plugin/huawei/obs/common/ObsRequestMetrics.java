@@ -0,0 +1,433 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Counts the requests sent to Obs for a stage, recorded by {@link ObsRequestExecutor} for every attempt: number of
+ * requests, failures and retries, bytes transferred, and latencies in a histogram of power of two microseconds.
+ * Recording a request does not allocate, so that it can be done for every request. The files of the coalesced splits
+ * opened ahead by {@code ObsCoalescingRecordReader} are counted as well, as the requests whose latency was hidden, and
+ * so are the bytes of the files read and written by {@link OBSFileSystemP}, which include the ones transferred by
+ * {@code OBSFileSystem} with its own client.
+ *
+ * Each stage of the process has its own counts, found by {@link #forStage(String)} with the name the stage passes to
+ * the filesystem and the client leases, so that a stage only reports its own requests. The requests sent without a
+ * stage, like the ones of the connector, are counted by {@link #get()}. The counts are taken and reset by
+ * {@link #drain()}, so that each request is reported once.
+ */
+public final class ObsRequestMetrics {
+    static final int LATENCY_BUCKETS = 32;
+    // response codes counted separately, the others are counted together; 0 is a request without response
+    static final int[] ERROR_CODES = {0, 400, 403, 404, 408, 409, 412, 416, 429, 500, 502, 503, 504};
+
+    private static final ObsRequestMetrics INSTANCE = new ObsRequestMetrics();
+    private static final ConcurrentMap<String, ObsRequestMetrics> STAGES = new ConcurrentHashMap<>();
+
+    private final OperationMetrics[] operations = new OperationMetrics[Operation.values().length];
+    private final AtomicLongArray errors = new AtomicLongArray(ERROR_CODES.length + 1);
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder prefetchReady = new LongAdder();
+    private final LongAdder prefetchStalls = new LongAdder();
+    private final LongAdder prefetchStallNanos = new LongAdder();
+    private final LongAdder prefetchAvoidedNanos = new LongAdder();
+    private final LongAdder fileBytesRead = new LongAdder();
+    private final LongAdder fileBytesWritten = new LongAdder();
+
+    /**
+     * Kinds of requests sent to Obs.
+     */
+    public enum Operation {
+        LIST, GET, HEAD, PUT, MULTIPART, DELETE, OTHER;
+
+        private final String metricPrefix = "obs." + name().toLowerCase() + ".";
+
+        /**
+         * @param method name of the {@link com.obs.services.IObsClient} method sending the request
+         */
+        public static Operation of(String method) {
+            switch (method) {
+                case "listObjects":
+                case "listBuckets":
+                case "listVersions":
+                    return LIST;
+                case "getObject":
+                    return GET;
+                case "getObjectMetadata":
+                case "doesObjectExist":
+                case "headBucket":
+                    return HEAD;
+                case "putObject":
+                case "copyObject":
+                    return PUT;
+                case "initiateMultipartUpload":
+                case "uploadPart":
+                case "completeMultipartUpload":
+                case "abortMultipartUpload":
+                case "listMultipartUploads":
+                case "listParts":
+                    return MULTIPART;
+                case "deleteObject":
+                case "deleteObjects":
+                    return DELETE;
+                default:
+                    return OTHER;
+            }
+        }
+
+        String getMetricPrefix() {
+            return metricPrefix;
+        }
+    }
+
+    ObsRequestMetrics() {
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = new OperationMetrics();
+        }
+    }
+
+    /**
+     * @return the counts of the requests sent without a stage
+     */
+    public static ObsRequestMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param stage name of the stage, null for the requests sent without a stage
+     * @return the counts of the requests sent for the stage
+     */
+    public static ObsRequestMetrics forStage(@Nullable String stage) {
+        return stage == null ? INSTANCE : STAGES.computeIfAbsent(stage, name -> new ObsRequestMetrics());
+    }
+
+    /**
+     * @return the counts of the stage named by {@link ObsConstants#STAGE} in the configuration
+     */
+    public static ObsRequestMetrics fromConfiguration(Configuration conf) {
+        return forStage(conf.get(ObsConstants.STAGE));
+    }
+
+    /**
+     * Records a request that got a successful response.
+     *
+     * @param bytes bytes sent or received with the request, 0 if unknown
+     */
+    public void recordSuccess(Operation operation, long nanos, long bytes) {
+        OperationMetrics metrics = operations[operation.ordinal()];
+        metrics.record(nanos);
+        if (bytes > 0) {
+            metrics.bytes.add(bytes);
+        }
+    }
+
+    /**
+     * Records a request that failed.
+     *
+     * @param responseCode response code of the failure, 0 if there was no response
+     */
+    public void recordFailure(Operation operation, long nanos, int responseCode) {
+        OperationMetrics metrics = operations[operation.ordinal()];
+        metrics.record(nanos);
+        metrics.failures.increment();
+        errors.incrementAndGet(errorIndex(responseCode));
+    }
+
+    /**
+     * Records a failed request that is sent again.
+     */
+    public void recordRetry(Operation operation) {
+        operations[operation.ordinal()].retries.increment();
+    }
+
+    /**
+     * Records a request that was not sent because the circuit breaker is open.
+     */
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Records a file opened ahead by the record reader of a split when the reader gets to it.
+     *
+     * @param ready whether the file was already open, so that the reader did not wait for it
+     * @param nanos time it took to open the file when it was ready, which the reader did not wait, otherwise time the
+     *              reader waited for it
+     */
+    public void recordPrefetch(boolean ready, long nanos) {
+        if (ready) {
+            prefetchReady.increment();
+            prefetchAvoidedNanos.add(nanos);
+        } else {
+            prefetchStalls.increment();
+            prefetchStallNanos.add(nanos);
+        }
+    }
+
+    /**
+     * Records bytes read from a file of the filesystem.
+     */
+    public void recordFileRead(long bytes) {
+        fileBytesRead.add(bytes);
+    }
+
+    /**
+     * Records bytes written to a file of the filesystem.
+     */
+    public void recordFileWritten(long bytes) {
+        fileBytesWritten.add(bytes);
+    }
+
+    /**
+     * Takes the counts recorded since the previous call.
+     */
+    public Snapshot drain() {
+        Snapshot snapshot = new Snapshot();
+        for (Operation operation : Operation.values()) {
+            OperationMetrics metrics = operations[operation.ordinal()];
+            int i = operation.ordinal();
+            snapshot.requests[i] = metrics.requests.sumThenReset();
+            snapshot.failures[i] = metrics.failures.sumThenReset();
+            snapshot.retries[i] = metrics.retries.sumThenReset();
+            snapshot.bytes[i] = metrics.bytes.sumThenReset();
+            snapshot.latencyNanos[i] = metrics.latencyNanos.sumThenReset();
+            snapshot.maxLatencyNanos[i] = metrics.maxLatencyNanos.getThenReset();
+            for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+                snapshot.latencies[i][bucket] = metrics.latencies.getAndSet(bucket, 0L);
+            }
+        }
+        for (int i = 0; i < snapshot.errors.length; i++) {
+            snapshot.errors[i] = errors.getAndSet(i, 0L);
+        }
+        snapshot.rejected = rejected.sumThenReset();
+        snapshot.prefetchReady = prefetchReady.sumThenReset();
+        snapshot.prefetchStalls = prefetchStalls.sumThenReset();
+        snapshot.prefetchStallNanos = prefetchStallNanos.sumThenReset();
+        snapshot.prefetchAvoidedNanos = prefetchAvoidedNanos.sumThenReset();
+        snapshot.fileBytesRead = fileBytesRead.sumThenReset();
+        snapshot.fileBytesWritten = fileBytesWritten.sumThenReset();
+        return snapshot;
+    }
+
+    private static int errorIndex(int responseCode) {
+        int code = Math.max(0, responseCode);
+        for (int i = 0; i < ERROR_CODES.length; i++) {
+            if (ERROR_CODES[i] == code) {
+                return i;
+            }
+        }
+        return ERROR_CODES.length;
+    }
+
+    /**
+     * @return the histogram bucket of a latency: bucket i holds the latencies from 2^(i-1) to 2^i - 1 microseconds
+     */
+    static int latencyBucket(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0L, nanos));
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Counts of one kind of requests.
+     */
+    private static final class OperationMetrics {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+        private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0L);
+        private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+        private void record(long nanos) {
+            requests.increment();
+            latencyNanos.add(nanos);
+            maxLatencyNanos.accumulate(nanos);
+            latencies.incrementAndGet(latencyBucket(nanos));
+        }
+    }
+
+    /**
+     * Counts taken by {@link #drain()}.
+     */
+    public static final class Snapshot {
+        private final int operations = Operation.values().length;
+        private final long[] requests = new long[operations];
+        private final long[] failures = new long[operations];
+        private final long[] retries = new long[operations];
+        private final long[] bytes = new long[operations];
+        private final long[] latencyNanos = new long[operations];
+        private final long[] maxLatencyNanos = new long[operations];
+        private final long[][] latencies = new long[operations][LATENCY_BUCKETS];
+        private final long[] errors = new long[ERROR_CODES.length + 1];
+        private long rejected;
+        private long prefetchReady;
+        private long prefetchStalls;
+        private long prefetchStallNanos;
+        private long prefetchAvoidedNanos;
+        private long fileBytesRead;
+        private long fileBytesWritten;
+
+        private Snapshot() {
+        }
+
+        public long getRequests(Operation operation) {
+            return requests[operation.ordinal()];
+        }
+
+        public long getFailures(Operation operation) {
+            return failures[operation.ordinal()];
+        }
+
+        public long getRetries(Operation operation) {
+            return retries[operation.ordinal()];
+        }
+
+        public long getBytes(Operation operation) {
+            return bytes[operation.ordinal()];
+        }
+
+        /**
+         * @return the bytes transferred per second of request, 0 if no bytes were transferred
+         */
+        public long getBytesPerSecond(Operation operation) {
+            long nanos = latencyNanos[operation.ordinal()];
+            return nanos == 0 ? 0L : (long) (bytes[operation.ordinal()] * 1e9d / nanos);
+        }
+
+        public long getMaxLatencyMicros(Operation operation) {
+            return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos[operation.ordinal()]);
+        }
+
+        /**
+         * @return the upper bound in microseconds of the histogram bucket holding the given percentile of the
+         *         latencies, 0 if there was no request
+         */
+        public long getLatencyPercentileMicros(Operation operation, double percentile) {
+            long[] histogram = latencies[operation.ordinal()];
+            long count = requests[operation.ordinal()];
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100.0d);
+            long seen = 0;
+            for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+                seen += histogram[bucket];
+                if (seen >= rank) {
+                    return Math.min((1L << bucket) - 1, getMaxLatencyMicros(operation));
+                }
+            }
+            return getMaxLatencyMicros(operation);
+        }
+
+        /**
+         * @param responseCode response code, 0 for the requests without response, -1 for all the other codes
+         */
+        public long getErrors(int responseCode) {
+            return responseCode < 0 ? errors[ERROR_CODES.length] : errors[errorIndex(responseCode)];
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return the number of files opened ahead that were open when the reader got to them
+         */
+        public long getPrefetchReady() {
+            return prefetchReady;
+        }
+
+        /**
+         * @return the number of files the reader waited for
+         */
+        public long getPrefetchStalls() {
+            return prefetchStalls;
+        }
+
+        public long getPrefetchStallMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(prefetchStallNanos);
+        }
+
+        /**
+         * @return the time it took to open the files that were ready, which the reader would have waited otherwise
+         */
+        public long getPrefetchAvoidedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(prefetchAvoidedNanos);
+        }
+
+        /**
+         * @return the bytes read from the files of the filesystem
+         */
+        public long getFileBytesRead() {
+            return fileBytesRead;
+        }
+
+        /**
+         * @return the bytes written to the files of the filesystem
+         */
+        public long getFileBytesWritten() {
+            return fileBytesWritten;
+        }
+
+        public boolean isEmpty() {
+            for (Operation operation : Operation.values()) {
+                if (requests[operation.ordinal()] > 0) {
+                    return false;
+                }
+            }
+            return rejected == 0 && prefetchReady == 0 && prefetchStalls == 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Operation operation : Operation.values()) {
+                if (getRequests(operation) == 0) {
+                    continue;
+                }
+                builder.append(builder.length() == 0 ? "" : ", ").append(operation.name().toLowerCase())
+                        .append("={requests=").append(getRequests(operation))
+                        .append(", failures=").append(getFailures(operation))
+                        .append(", retries=").append(getRetries(operation))
+                        .append(", bytes=").append(getBytes(operation))
+                        .append(", p50=").append(getLatencyPercentileMicros(operation, 50)).append("us")
+                        .append(", p99=").append(getLatencyPercentileMicros(operation, 99)).append("us")
+                        .append(", max=").append(getMaxLatencyMicros(operation)).append("us}");
+            }
+            if (rejected > 0) {
+                builder.append(builder.length() == 0 ? "" : ", ").append("rejected=").append(rejected);
+            }
+            if (prefetchReady > 0 || prefetchStalls > 0) {
+                builder.append(builder.length() == 0 ? "" : ", ").append("prefetch={ready=").append(prefetchReady)
+                        .append(", stalls=").append(prefetchStalls)
+                        .append(", stall=").append(getPrefetchStallMillis()).append("ms}");
+            }
+            return builder.length() == 0 ? "no requests" : builder.toString();
+        }
+    }
+}
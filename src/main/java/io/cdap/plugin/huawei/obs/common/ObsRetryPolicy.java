@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Settings of {@link ObsRequestExecutor}: how often and how long the failed requests are retried, how fast requests
+ * are sent to an endpoint, and when the endpoint is considered down.
+ */
+public final class ObsRetryPolicy {
+    public static final ObsRetryPolicy DEFAULT = new ObsRetryPolicy(ObsConstants.DEFAULT_RETRY_MAX_ATTEMPTS,
+            ObsConstants.DEFAULT_RETRY_BASE_DELAY, ObsConstants.DEFAULT_RETRY_MAX_DELAY,
+            ObsConstants.DEFAULT_MAX_REQUESTS_PER_SECOND, ObsConstants.DEFAULT_CIRCUIT_BREAKER_THRESHOLD,
+            ObsConstants.DEFAULT_CIRCUIT_BREAKER_COOLDOWN);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxRequestsPerSecond;
+    private final int circuitBreakerThreshold;
+    private final long circuitBreakerCooldownMillis;
+
+    /**
+     * @param maxAttempts maximum number of attempts of a request, 1 to not retry
+     * @param baseDelayMillis maximum delay before the first retry, doubled for each of the next ones
+     * @param maxDelayMillis maximum delay before any retry
+     * @param maxRequestsPerSecond maximum number of requests per second sent to the endpoint, 0 for no limit until
+     *                             the endpoint throttles the requests
+     * @param circuitBreakerThreshold number of consecutive failed attempts after which the requests to the endpoint
+     *                                fail without being sent, 0 to never stop sending them
+     * @param circuitBreakerCooldownMillis time during which the requests fail once the threshold is reached
+     */
+    public ObsRetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, int maxRequestsPerSecond,
+                          int circuitBreakerThreshold, long circuitBreakerCooldownMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+        this.circuitBreakerCooldownMillis = circuitBreakerCooldownMillis;
+    }
+
+    /**
+     * Policy described by the filesystem properties set by the plugins, with the default of each missing property.
+     */
+    public static ObsRetryPolicy fromConfiguration(Configuration conf) {
+        return new ObsRetryPolicy(
+                conf.getInt(ObsConstants.RETRY_MAX_ATTEMPTS, DEFAULT.maxAttempts),
+                conf.getLong(ObsConstants.RETRY_BASE_DELAY, DEFAULT.baseDelayMillis),
+                conf.getLong(ObsConstants.RETRY_MAX_DELAY, DEFAULT.maxDelayMillis),
+                conf.getInt(ObsConstants.MAX_REQUESTS_PER_SECOND, DEFAULT.maxRequestsPerSecond),
+                conf.getInt(ObsConstants.CIRCUIT_BREAKER_THRESHOLD, DEFAULT.circuitBreakerThreshold),
+                conf.getLong(ObsConstants.CIRCUIT_BREAKER_COOLDOWN, DEFAULT.circuitBreakerCooldownMillis));
+    }
+
+    /**
+     * Adds the filesystem properties describing this policy, read back by {@link #fromConfiguration}.
+     */
+    public void addTo(Map<String, String> properties) {
+        properties.put(ObsConstants.RETRY_MAX_ATTEMPTS, String.valueOf(maxAttempts));
+        properties.put(ObsConstants.RETRY_BASE_DELAY, String.valueOf(baseDelayMillis));
+        properties.put(ObsConstants.RETRY_MAX_DELAY, String.valueOf(maxDelayMillis));
+        properties.put(ObsConstants.MAX_REQUESTS_PER_SECOND, String.valueOf(maxRequestsPerSecond));
+        properties.put(ObsConstants.CIRCUIT_BREAKER_THRESHOLD, String.valueOf(circuitBreakerThreshold));
+        properties.put(ObsConstants.CIRCUIT_BREAKER_COOLDOWN, String.valueOf(circuitBreakerCooldownMillis));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public int getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    public long getCircuitBreakerCooldownMillis() {
+        return circuitBreakerCooldownMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ObsRetryPolicy that = (ObsRetryPolicy) o;
+        return maxAttempts == that.maxAttempts
+                && baseDelayMillis == that.baseDelayMillis
+                && maxDelayMillis == that.maxDelayMillis
+                && maxRequestsPerSecond == that.maxRequestsPerSecond
+                && circuitBreakerThreshold == that.circuitBreakerThreshold
+                && circuitBreakerCooldownMillis == that.circuitBreakerCooldownMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxAttempts, baseDelayMillis, maxDelayMillis, maxRequestsPerSecond,
+                circuitBreakerThreshold, circuitBreakerCooldownMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "ObsRetryPolicy{maxAttempts=" + maxAttempts + ", baseDelayMillis=" + baseDelayMillis
+                + ", maxDelayMillis=" + maxDelayMillis + ", maxRequestsPerSecond=" + maxRequestsPerSecond
+                + ", circuitBreakerThreshold=" + circuitBreakerThreshold
+                + ", circuitBreakerCooldownMillis=" + circuitBreakerCooldownMillis + "}";
+    }
+}
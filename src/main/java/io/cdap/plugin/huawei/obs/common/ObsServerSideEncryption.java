@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.model.PutObjectBasicRequest;
+import com.obs.services.model.SseCHeader;
+import com.obs.services.model.SseKmsHeader;
+import com.obs.services.model.UploadPartRequest;
+import org.apache.hadoop.conf.Configuration;
+
+import javax.annotation.Nullable;
+
+/**
+ * Server-side encryption of the objects written by the plugin, read from the same properties as the encryption of
+ * the objects written by {@code OBSFileSystem}, so that the objects uploaded in parts are encrypted like the other ones.
+ */
+public final class ObsServerSideEncryption {
+    private static final String SSE_C = "sse-c";
+    private static final String SSE_KMS = "sse-kms";
+
+    @Nullable
+    private final SseCHeader sseCHeader;
+    @Nullable
+    private final SseKmsHeader sseKmsHeader;
+
+    private ObsServerSideEncryption(@Nullable SseCHeader sseCHeader, @Nullable SseKmsHeader sseKmsHeader) {
+        this.sseCHeader = sseCHeader;
+        this.sseKmsHeader = sseKmsHeader;
+    }
+
+    /**
+     * @return the encryption described by the filesystem properties, or null if the objects are not encrypted
+     */
+    @Nullable
+    public static ObsServerSideEncryption fromConfiguration(Configuration conf) {
+        String type = conf.getTrimmed(ObsConstants.OBS_SSE_TYPE);
+        if (type == null) {
+            return null;
+        }
+        String key = conf.getTrimmed(ObsConstants.OBS_SSE_KEY);
+        if (SSE_C.equalsIgnoreCase(type)) {
+            SseCHeader header = new SseCHeader();
+            header.setSseCKeyBase64(key);
+            return new ObsServerSideEncryption(header, null);
+        }
+        if (SSE_KMS.equalsIgnoreCase(type)) {
+            SseKmsHeader header = new SseKmsHeader();
+            // without a key, the default key of the bucket is used
+            header.setKmsKeyId(key);
+            return new ObsServerSideEncryption(null, header);
+        }
+        return null;
+    }
+
+    /**
+     * Encrypts the object created by a put request or a multipart upload.
+     */
+    public void applyTo(PutObjectBasicRequest request) {
+        request.setSseCHeader(sseCHeader);
+        request.setSseKmsHeader(sseKmsHeader);
+    }
+
+    /**
+     * Sends the key of the encryption with a part of a multipart upload, which is required by the encryption with a
+     * key provided by the client.
+     */
+    public void applyTo(UploadPartRequest request) {
+        request.setSseCHeader(sseCHeader);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PutObjectRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Position of an incremental read: the modification time and the key of the last object read. Objects are ordered
+ * by modification time, then by key, so that the objects modified in the same millisecond are not skipped.
+ *
+ * An object can show up in the listing after objects with a later modification time, for example when its upload
+ * took longer. To read these objects, the runs look back before the previous watermark by a lookback duration. The
+ * watermark keeps the keys of the objects read within the lookback before its position, the recent keys, so that
+ * they are not read again.
+ */
+public final class ObsWatermark implements Comparable<ObsWatermark> {
+    private static final Gson GSON = new Gson();
+
+    private final long lastModified;
+    private final String lastKey;
+    // null in the watermarks stored without a lookback
+    private final Set<String> recentKeys;
+
+    public ObsWatermark(long lastModified, String lastKey) {
+        this(lastModified, lastKey, Collections.emptySet());
+    }
+
+    /**
+     * @param recentKeys keys of the objects read within the lookback before the watermark
+     */
+    public ObsWatermark(long lastModified, String lastKey, Collection<String> recentKeys) {
+        this.lastModified = lastModified;
+        this.lastKey = lastKey;
+        this.recentKeys = new HashSet<>(recentKeys);
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getLastKey() {
+        return lastKey;
+    }
+
+    public Set<String> getRecentKeys() {
+        return recentKeys == null ? Collections.emptySet() : Collections.unmodifiableSet(recentKeys);
+    }
+
+    /**
+     * @return whether the object with the given modification time and key comes after this watermark
+     */
+    public boolean isBefore(long modified, String key) {
+        return compare(lastModified, lastKey, modified, key) < 0;
+    }
+
+    /**
+     * @return whether a run starting from this watermark reads the object: either it comes after the watermark, or it
+     *         is within the lookback and was not read by the previous runs
+     */
+    public boolean isReadAfter(long modified, String key, long lookback) {
+        return isBefore(modified, key) || modified > getLookbackStart(lookback) && !getRecentKeys().contains(key);
+    }
+
+    /**
+     * @return whether a run ending at this watermark reads the object: it does not come after the watermark, and if
+     *         it is within the lookback, it was listed when the watermark was taken, so that the next run does not
+     *         read it again
+     */
+    public boolean isReadUpTo(long modified, String key, long lookback) {
+        return !isBefore(modified, key) && (modified <= getLookbackStart(lookback) || getRecentKeys().contains(key));
+    }
+
+    /**
+     * @return the modification time the lookback starts after
+     */
+    private long getLookbackStart(long lookback) {
+        return lastModified < Long.MIN_VALUE + lookback ? Long.MIN_VALUE : lastModified - lookback;
+    }
+
+    @Override
+    public int compareTo(ObsWatermark other) {
+        return compare(lastModified, lastKey, other.lastModified, other.lastKey);
+    }
+
+    /**
+     * Formats the watermark for a configuration property, as the same json as the stored watermark, see
+     * {@link #parse(String)}.
+     */
+    public String format() {
+        return GSON.toJson(this);
+    }
+
+    public static ObsWatermark parse(String value) {
+        ObsWatermark watermark;
+        try {
+            watermark = GSON.fromJson(value, ObsWatermark.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid watermark '" + value + "'", e);
+        }
+        if (watermark == null || watermark.lastKey == null) {
+            throw new IllegalArgumentException("Invalid watermark '" + value + "'");
+        }
+        return watermark;
+    }
+
+    /**
+     * Reads the watermark stored in the given object.
+     *
+     * @return the watermark, or null if the object does not exist
+     */
+    @Nullable
+    public static ObsWatermark load(IObsClient obsClient, String bucket, String key) throws IOException {
+        ObsObject object;
+        try {
+            object = obsClient.getObject(bucket, key);
+        } catch (ObsException e) {
+            if (e.getResponseCode() == 404) {
+                return null;
+            }
+            throw new IOException("Failed to read the watermark from obs://" + bucket + "/" + key, e);
+        }
+        try (InputStream in = object.getObjectContent();
+             Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            ObsWatermark watermark = GSON.fromJson(reader, ObsWatermark.class);
+            if (watermark == null || watermark.lastKey == null) {
+                throw new IOException("Invalid watermark in obs://" + bucket + "/" + key);
+            }
+            return watermark;
+        }
+    }
+
+    /**
+     * Stores the watermark as a small json object, replacing the previous one.
+     */
+    public void store(IObsClient obsClient, String bucket, String key) throws IOException {
+        byte[] content = GSON.toJson(this).getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength((long) content.length);
+        metadata.setContentType("application/json");
+        PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteArrayInputStream(content));
+        request.setMetadata(metadata);
+        try {
+            obsClient.putObject(request);
+        } catch (ObsException e) {
+            throw new IOException("Failed to store the watermark in obs://" + bucket + "/" + key, e);
+        }
+    }
+
+    /**
+     * Lists the objects of the path and returns the position of the last one, so that a run reads the objects
+     * between the previous watermark and this one, and the objects added while it runs are left to the next run.
+     * The objects are filtered like the input format does it, leaving out the hidden objects and the objects not
+     * matching the file pattern, so that the watermark is the position of an object the run reads. The keys of the
+     * objects within the lookback before that position are kept as the recent keys of the watermark.
+     *
+     * @param lister lists the sub-directories of the path concurrently
+     * @param path the object or the directory read
+     * @param recursive whether the objects under the sub-directories of the path are read
+     * @param filePattern pattern the full path of the objects must match, null to read all the objects
+     * @param from the previous watermark, null if the path was never read
+     * @param lookback duration in milliseconds before the previous watermark in which the objects are read if they
+     *                 were not read by the previous runs
+     * @return the position of the last object after the previous watermark, or the previous watermark if there is
+     *         no new object
+     */
+    @Nullable
+    public static ObsWatermark latest(ObsPrefixLister lister, ObsPath path, boolean recursive,
+                                      @Nullable Pattern filePattern, @Nullable ObsWatermark from, long lookback)
+            throws IOException {
+        String bucket = path.getBucket();
+        String name = path.getName();
+        String directory = name.isEmpty() || name.endsWith(ObsPrefixLister.DELIMITER) ? name
+                : name + ObsPrefixLister.DELIMITER;
+        // the name is listed as it is, which returns the object of that name when the path is not a directory
+        List<ObsObject> objects = lister.list(bucket, name,
+                prefix -> prefix.equals(directory)
+                        || recursive && prefix.startsWith(directory) && !isHidden(prefix.substring(directory.length())),
+                key -> (key.equals(name) || key.startsWith(directory) && !isHidden(key.substring(directory.length())))
+                        && !key.endsWith(OBSFileSystemP.FOLDER_SUFFIX) && (filePattern == null
+                        || filePattern.matcher(ObsPath.SCHEME + bucket + ObsPrefixLister.DELIMITER + key).matches()));
+
+        ObsWatermark latest = from;
+        for (ObsObject object : objects) {
+            Long modified = getLastModified(object);
+            if (modified != null && (latest == null || latest.isBefore(modified, object.getObjectKey()))) {
+                latest = new ObsWatermark(modified, object.getObjectKey());
+            }
+        }
+        if (latest == null || lookback <= 0) {
+            return latest;
+        }
+        Set<String> recentKeys = new HashSet<>();
+        for (ObsObject object : objects) {
+            Long modified = getLastModified(object);
+            if (modified != null && modified > latest.getLookbackStart(lookback)
+                    && !latest.isBefore(modified, object.getObjectKey())) {
+                recentKeys.add(object.getObjectKey());
+            }
+        }
+        if (latest == from && recentKeys.equals(from.getRecentKeys())) {
+            return from;
+        }
+        return new ObsWatermark(latest.lastModified, latest.lastKey, recentKeys);
+    }
+
+    @Nullable
+    private static Long getLastModified(ObsObject object) {
+        return object.getMetadata().getLastModified() == null ? null : object.getMetadata().getLastModified().getTime();
+    }
+
+    /**
+     * @param relativePath path of the object or the sub-directory relative to the directory read
+     */
+    private static boolean isHidden(String relativePath) {
+        for (String segment : relativePath.split(ObsPrefixLister.DELIMITER)) {
+            if (segment.startsWith("_") || segment.startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int compare(long modified, String key, long otherModified, String otherKey) {
+        int result = Long.compare(modified, otherModified);
+        return result != 0 ? result : key.compareTo(otherKey);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ObsWatermark that = (ObsWatermark) o;
+        return lastModified == that.lastModified && lastKey.equals(that.lastKey)
+                && getRecentKeys().equals(that.getRecentKeys());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lastModified, lastKey, getRecentKeys());
+    }
+
+    @Override
+    public String toString() {
+        return "ObsWatermark{lastModified=" + lastModified + ", lastKey=" + lastKey + ", recentKeys="
+                + getRecentKeys().size() + "}";
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of the buffers of {@link ObsAsyncOutputStream}, shared by the streams of a filesystem so that the buffers,
+ * in particular the direct ones whose memory is only released by the garbage collector, are reused from one file to
+ * the next instead of allocated for every file. The number of buffers in use is bounded by the streams, the pool
+ * keeps the ones released until they are used again. The line readers of the direct read of the source share a pool
+ * the same way.
+ */
+public class ObsWriteBufferPool {
+    private final int bufferSize;
+    private final boolean direct;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param direct whether the buffers are allocated outside of the heap
+     */
+    public ObsWriteBufferPool(int bufferSize, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return an empty buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a buffer obtained with {@link #acquire()} to the pool.
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+
+    int free() {
+        return free.size();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.connector;
+
+import io.cdap.cdap.etl.api.connector.BrowseDetail;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of the bucket lists and prefix listings returned by {@link ObsConnector#browse}, so that navigating
+ * back and forth in Studio does not list the same prefixes again. Entries expire after a fixed time, the least
+ * recently used ones are evicted once the cache is full, and the listings of a path are dropped when the path
+ * is sampled.
+ *
+ * The cache is shared by all connector instances, since a new connector is created for every browse request.
+ * Entries are keyed by connection, so connections with different endpoints or credentials never share listings.
+ */
+final class ObsBrowseCache {
+    private static final Logger logger = LogManager.getLogger(ObsBrowseCache.class);
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ObsBrowseCache INSTANCE = new ObsBrowseCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS,
+            System::currentTimeMillis);
+
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    // guarded by this, in access order for the LRU eviction
+    private final LinkedHashMap<Key, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ObsBrowseCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    static ObsBrowseCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached listing of the path, or lists it with the loader if it is not cached or has expired.
+     * Concurrent misses on the same path may both call the loader.
+     *
+     * @param connection identifies the connection, must implement equals and hashCode
+     * @param path the full path, "obs://" for the bucket list
+     * @param limit the limit of the browse request
+     */
+    <E extends Exception> BrowseDetail get(Object connection, String path, int limit,
+                                           ListingLoader<E> loader) throws E {
+        Key key = new Key(connection, path, limit);
+        long now = clock.getAsLong();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiration > now) {
+                hits.incrementAndGet();
+                return entry.detail;
+            }
+        }
+        misses.incrementAndGet();
+        BrowseDetail detail = loader.load();
+        synchronized (this) {
+            entries.put(key, new Entry(detail, clock.getAsLong() + ttlMillis));
+        }
+        logger.debug("Browse cache miss for {}, {} hits and {} misses so far", path, hits.get(), misses.get());
+        return detail;
+    }
+
+    /**
+     * Drops the listings of the given path, of its parents and of its children for the connection.
+     */
+    synchronized void invalidate(Object connection, String path) {
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            Key key = iterator.next();
+            if (key.connection.equals(connection) && (path.startsWith(key.path) || key.path.startsWith(path))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Lists a path on a cache miss.
+     *
+     * @param <E> the exception thrown by the listing
+     */
+    interface ListingLoader<E extends Exception> {
+        BrowseDetail load() throws E;
+    }
+
+    /**
+     * A cached listing.
+     */
+    private static final class Entry {
+        private final BrowseDetail detail;
+        private final long expiration;
+
+        private Entry(BrowseDetail detail, long expiration) {
+            this.detail = detail;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * Key of a cached listing.
+     */
+    private static final class Key {
+        private final Object connection;
+        private final String path;
+        private final int limit;
+
+        private Key(Object connection, String path, int limit) {
+            this.connection = connection;
+            this.path = path;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return limit == key.limit && connection.equals(key.connection) && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(connection, path, limit);
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package io.cdap.plugin.huawei.obs.connector;
 
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.obs.services.IObsClient;
-import com.obs.services.ObsClient;
 import com.obs.services.model.ListBucketsRequest;
 import com.obs.services.model.ListObjectsRequest;
 import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObjectMetadata;
 import com.obs.services.model.ObsBucket;
 import com.obs.services.model.ObsObject;
 import io.cdap.cdap.api.annotation.Category;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.batch.InputFormatProvider;
+import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.etl.api.FailureCollector;
 import io.cdap.cdap.etl.api.batch.BatchSource;
 import io.cdap.cdap.etl.api.connector.BrowseDetail;
@@ -23,26 +28,37 @@ import io.cdap.cdap.etl.api.connector.ConnectorContext;
 import io.cdap.cdap.etl.api.connector.ConnectorSpec;
 import io.cdap.cdap.etl.api.connector.ConnectorSpecRequest;
 import io.cdap.cdap.etl.api.connector.PluginSpec;
+import io.cdap.cdap.etl.api.connector.SampleRequest;
 import io.cdap.cdap.etl.api.validation.ValidationException;
 import io.cdap.plugin.common.ConfigUtil;
 import io.cdap.plugin.common.Constants;
 import io.cdap.plugin.common.ReferenceNames;
+import io.cdap.plugin.common.SourceInputFormatProvider;
 import io.cdap.plugin.format.connector.AbstractFileConnector;
 import io.cdap.plugin.format.connector.FileTypeDetector;
 import io.cdap.plugin.format.plugin.AbstractFileSourceConfig;
+import io.cdap.plugin.huawei.obs.common.ObsClientCache;
 import io.cdap.plugin.huawei.obs.common.ObsConnectorConfig;
 import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsInventory;
 import io.cdap.plugin.huawei.obs.common.ObsPath;
+import io.cdap.plugin.huawei.obs.common.ObsPrefixLister;
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics;
 import io.cdap.plugin.huawei.obs.source.ObsBatchSource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
 
 /**
  * Obs connector
@@ -65,15 +81,26 @@ public class ObsConnector extends AbstractFileConnector<ObsConnectorConfig> {
     static final String SIZE_KEY = "Size";
     static final String FILE_TYPE_KEY = "File Type";
 
+    // the file type property only takes a few values, share them between the entities
+    private static final Map<String, BrowseEntityPropertyValue> FILE_TYPE_VALUES = new ConcurrentHashMap<>();
+    private static final ExecutorService BROWSE_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("obs-browse-%d").build());
+
 
     private IObsClient obsClient;
+    private ObsClientCache.Lease clientLease;
     private ObsConnectorConfig config;
 
     public ObsConnector(ObsConnectorConfig config) {
         super(config);
         this.config = config;
-        this.obsClient = getObsClient();
-        logger.debug("ObsConnector log");
+    }
+
+    @VisibleForTesting
+    ObsConnector(ObsConnectorConfig config, IObsClient obsClient) {
+        super(config);
+        this.config = config;
+        this.obsClient = obsClient;
     }
 
     @Override
@@ -85,61 +112,131 @@ public class ObsConnector extends AbstractFileConnector<ObsConnectorConfig> {
             return;
         }
 
-        obsClient = getObsClient();
-        obsClient.listBuckets(new ListBucketsRequest());
+        getObsClient().listBuckets(new ListBucketsRequest());
     }
 
     @Override
     public BrowseDetail browse(ConnectorContext connectorContext, BrowseRequest request) throws IOException {
-        obsClient = getObsClient();
         String path = request.getPath();
         int limit = request.getLimit() == null || request.getLimit() <= 0 ? Integer.MAX_VALUE : request.getLimit();
-        if (isRoot(path)) {
-            return browseBuckets(limit);
+        try {
+            if (isRoot(path)) {
+                return ObsBrowseCache.getInstance().get(getConnectionKey(), ObsPath.SCHEME, limit,
+                        () -> browseBuckets(limit));
+            }
+            ObsPath obsPath = ObsPath.from(path);
+            return ObsBrowseCache.getInstance().get(getConnectionKey(), obsPath.getFullPath(), limit,
+                    () -> browseObjects(obsPath, limit));
+        } finally {
+            logRequests("browse", path);
         }
-        return browseObjects(ObsPath.from(request.getPath()), limit);
     }
 
+    /**
+     * Samples the object, or the first objects of the directory, with ranged requests reading only the beginning of
+     * text objects and the footer and first row group of Parquet objects, and returns them with
+     * {@link ObsSampleInputFormat}. The objects in other formats are sampled by the file connector.
+     */
+    @Override
+    public InputFormatProvider getInputFormatProvider(ConnectorContext connectorContext, SampleRequest request)
+            throws IOException {
+        String path = request.getPath();
+        int limit = request.getLimit() <= 0 ? Integer.MAX_VALUE : request.getLimit();
+        try {
+            if (!isRoot(path)) {
+                List<StructuredRecord> records = new ObsSampler(getObsClient(), BROWSE_EXECUTOR)
+                        .sample(ObsPath.from(path), limit);
+                if (records != null) {
+                    return new SourceInputFormatProvider(ObsSampleInputFormat.class,
+                            ObsSampleInputFormat.configure(records));
+                }
+            }
+            return super.getInputFormatProvider(connectorContext, request);
+        } finally {
+            logRequests("sample", path);
+        }
+    }
+
+    /**
+     * Logs the Obs requests sent by the service since the previous call, the connectors have no stage metrics.
+     */
+    private static void logRequests(String action, String path) {
+        ObsRequestMetrics.Snapshot requests = ObsRequestMetrics.get().drain();
+        if (!requests.isEmpty()) {
+            logger.debug("Obs requests sent to {} {}: {}", action, path, requests);
+        }
+    }
+
+    /**
+     * Lists the objects and the directories directly under the path. The next page of the listing is requested while
+     * the current one is converted to entities, and the listing stops as soon as the limit is reached. The total
+     * count is the number of entries in the pages that were listed, so it is only a lower bound when the listing
+     * stopped early.
+     *
+     * When the first page does not hold all the entries, the directory is browsed from its inventory if it has one.
+     */
     private BrowseDetail browseObjects(ObsPath path, int limit) {
         IObsClient obsClient = getObsClient();
-        ListObjectsRequest listObjectsRequest = getListObjectsRequest(path);
-        List<BrowseEntity> entities = new ArrayList<>();
         BrowseDetail.Builder builder = BrowseDetail.builder();
 
-        ObjectListing result;
+        CompletableFuture<ObjectListing> nextPage = null;
+        ObjectListing result = obsClient.listObjects(getListObjectsRequest(path, null));
+        if (result.isTruncated() && result.getCommonPrefixes().size() + result.getObjects().size() < limit) {
+            BrowseDetail detail = browseInventory(path, limit);
+            if (detail != null) {
+                return detail;
+            }
+        }
         int count = 0;
-        do {
-            result = obsClient.listObjects(listObjectsRequest);
-            // common prefixes are directories
-            for (String dir : result.getCommonPrefixes()) {
-                if (dir.equalsIgnoreCase("/")) {
-                    continue;
+        int listed = 0;
+        try {
+            while (true) {
+                boolean hasNext = result.isTruncated();
+                if (hasNext && count + result.getCommonPrefixes().size() + result.getObjects().size() < limit) {
+                    ListObjectsRequest nextRequest = getListObjectsRequest(path, ObsPrefixLister.nextMarker(result));
+                    nextPage = CompletableFuture.supplyAsync(() -> obsClient.listObjects(nextRequest), BROWSE_EXECUTOR);
                 }
-                if (count >= limit) {
-                    break;
+                // common prefixes are directories
+                for (String dir : result.getCommonPrefixes()) {
+                    if (dir.equals(DELIMITER)) {
+                        continue;
+                    }
+                    listed++;
+                    if (count < limit) {
+                        builder.addEntity(BrowseEntity.builder(getName(dir), path.getBucket() + DELIMITER + dir,
+                                DIRECTORY_TYPE).canBrowse(true).canSample(true).build());
+                        count++;
+                    }
                 }
-                StringBuilder sb = new StringBuilder(result.getBucketName()).append(dir);
-                entities.add(BrowseEntity.builder(new File(dir).getName(), sb.toString(),
-                        DIRECTORY_TYPE).canBrowse(true).canSample(true).build());
-                count++;
-            }
-            for (ObsObject summary : result.getObjects()) {
-                if (count >= limit) {
+                for (ObsObject summary : result.getObjects()) {
+                    listed++;
+                    if (count < limit) {
+                        builder.addEntity(generateFromSummary(summary));
+                        count++;
+                    }
+                }
+                if (nextPage == null) {
+                    if (hasNext) {
+                        // there are more entries than the ones that were listed
+                        listed++;
+                    }
                     break;
                 }
-
-                BrowseEntity build = generateFromSummary(summary);
-                entities.add(build);
-                count++;
+                result = getPage(nextPage, path);
+                nextPage = null;
+            }
+        } finally {
+            if (nextPage != null) {
+                nextPage.cancel(false);
             }
-            listObjectsRequest.setMarker(result.getMarker());
-        } while (count < limit && result.isTruncated());
+        }
 
         // if the result is empty, this path may already be a file so just try to list it without "/" in prefix
-        if (count == 0 && entities.isEmpty()) {
+        if (count == 0) {
             ListObjectsRequest fileRequest = new ListObjectsRequest();
             fileRequest.setBucketName(path.getBucket());
             fileRequest.setPrefix(path.getName());
+            fileRequest.setMaxKeys(1);
             ObjectListing listing = obsClient.listObjects(fileRequest);
             List<ObsObject> objectSummaries = listing.getObjects();
             if (objectSummaries.isEmpty()) {
@@ -147,34 +244,95 @@ public class ObsConnector extends AbstractFileConnector<ObsConnectorConfig> {
             }
             return builder.setTotalCount(1).addEntity(generateFromSummary(objectSummaries.get(0))).build();
         }
-        return builder.setTotalCount(count).setEntities(entities).build();
+        return builder.setTotalCount(listed).build();
     }
 
-    private BrowseEntity generateFromSummary(ObsObject summary) {
+    /**
+     * Browses the directory from its inventory, with a single request instead of the remaining pages of the listing.
+     *
+     * @return the entities, or null if the directory has no inventory
+     */
+    @Nullable
+    private BrowseDetail browseInventory(ObsPath path, int limit) {
+        String prefix = getPrefix(path);
+        ObsInventory inventory;
+        try {
+            inventory = ObsInventory.load(getObsClient(), path.getBucket(), prefix == null ? "" : prefix);
+        } catch (IOException e) {
+            logger.warn("Failed to read the inventory of {}, listing it instead", path.getFullPath(), e);
+            return null;
+        }
+        if (inventory == null) {
+            return null;
+        }
+        List<String> directories = inventory.getDirectories(inventory.getPrefix());
+        List<ObsObject> objects = inventory.getObjects(path.getBucket(), inventory.getPrefix(), false);
+        BrowseDetail.Builder builder = BrowseDetail.builder().setTotalCount(directories.size() + objects.size());
+        int count = 0;
+        for (String dir : directories) {
+            if (count++ >= limit) {
+                break;
+            }
+            builder.addEntity(BrowseEntity.builder(getName(dir), path.getBucket() + DELIMITER + dir, DIRECTORY_TYPE)
+                    .canBrowse(true).canSample(true).build());
+        }
+        for (ObsObject object : objects) {
+            if (count++ >= limit) {
+                break;
+            }
+            builder.addEntity(generateFromSummary(object));
+        }
+        return builder.build();
+    }
+
+    private static ObjectListing getPage(CompletableFuture<ObjectListing> page, ObsPath path) {
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Failed to list " + path.getFullPath(), cause);
+        }
+    }
+
+    @VisibleForTesting
+    BrowseEntity generateFromSummary(ObsObject summary) {
         String name = summary.getObjectKey();
         // on aws the file name can be empty, it this way the key here will ends with "/"
-        BrowseEntity.Builder entity = BrowseEntity.builder(name.endsWith(DELIMITER) ? "" : new File(name).getName(),
-                String.format("%s/%s", summary.getBucketName(), name),
-                FILE_TYPE);
-        Map<String, BrowseEntityPropertyValue> properties = new HashMap<>();
-        //TODO fix
-//        properties.put(SIZE_KEY, BrowseEntityPropertyValue.builder(
-//                String.valueOf(summary.getSize()), BrowseEntityPropertyValue.PropertyType.SIZE_BYTES).build());
-        properties.put(LAST_MODIFIED_KEY, BrowseEntityPropertyValue.builder(
-                String.valueOf(summary.getMetadata().getLastModified()), BrowseEntityPropertyValue.PropertyType.TIMESTAMP_MILLIS).build());
+        BrowseEntity.Builder entity = BrowseEntity.builder(name.endsWith(DELIMITER) ? "" : getName(name),
+                summary.getBucketName() + DELIMITER + name, FILE_TYPE);
+        ObjectMetadata metadata = summary.getMetadata();
+        Long size = metadata.getContentLength();
+        Date lastModified = metadata.getLastModified();
         String fileType = FileTypeDetector.detectFileType(name);
-        properties.put(FILE_TYPE_KEY, BrowseEntityPropertyValue.builder(
-                fileType, BrowseEntityPropertyValue.PropertyType.STRING).build());
+        entity.setProperties(ImmutableMap.of(
+                SIZE_KEY, BrowseEntityPropertyValue.builder(String.valueOf(size == null ? 0L : size),
+                        BrowseEntityPropertyValue.PropertyType.SIZE_BYTES).build(),
+                LAST_MODIFIED_KEY, BrowseEntityPropertyValue.builder(
+                        String.valueOf(lastModified == null ? 0L : lastModified.getTime()),
+                        BrowseEntityPropertyValue.PropertyType.TIMESTAMP_MILLIS).build(),
+                FILE_TYPE_KEY, FILE_TYPE_VALUES.computeIfAbsent(fileType, type -> BrowseEntityPropertyValue.builder(
+                        type, BrowseEntityPropertyValue.PropertyType.STRING).build())));
         entity.canSample(FileTypeDetector.isSampleable(fileType));
-        entity.setProperties(properties);
         return entity.build();
     }
 
-    private ListObjectsRequest getListObjectsRequest(ObsPath path) {
+    /**
+     * Returns the last segment of a key, without the trailing delimiter of directories.
+     */
+    private static String getName(String key) {
+        int end = key.endsWith(DELIMITER) ? key.length() - 1 : key.length();
+        int start = key.lastIndexOf(DELIMITER, end - 1) + 1;
+        return key.substring(start, end);
+    }
+
+    private ListObjectsRequest getListObjectsRequest(ObsPath path, @Nullable String marker) {
         ListObjectsRequest listObjectsRequest = new ListObjectsRequest();
+        listObjectsRequest.setMarker(marker);
         listObjectsRequest.setBucketName(path.getBucket());
-        String name = path.getName();
-        String prefix = name.isEmpty() ? null : name.endsWith(DELIMITER) ? name : name + DELIMITER;
+        String prefix = getPrefix(path);
         if (prefix != null) {
             listObjectsRequest.setPrefix(prefix);
         }
@@ -182,6 +340,15 @@ public class ObsConnector extends AbstractFileConnector<ObsConnectorConfig> {
         return listObjectsRequest;
     }
 
+    /**
+     * @return the prefix of the objects of the directory, null for the root of the bucket
+     */
+    @Nullable
+    private static String getPrefix(ObsPath path) {
+        String name = path.getName();
+        return name.isEmpty() ? null : name.endsWith(DELIMITER) ? name : name + DELIMITER;
+    }
+
     private BrowseDetail browseBuckets(int limit) {
         IObsClient iObsClient = getObsClient();
         List<ObsBucket> buckets = iObsClient.listBuckets(new ListBucketsRequest());
@@ -201,13 +368,19 @@ public class ObsConnector extends AbstractFileConnector<ObsConnectorConfig> {
         return ObsPath.from(path).getFullPath();
     }
 
-//    @Override
-//    public void close() throws IOException {
-//        super.close();
-//        if (obsClient != null) {
-//            obsClient.close();
-//        }
-//    }
+    /**
+     * Releases the shared client, it stays open in {@link ObsClientCache} for the next connector using the same
+     * connection.
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (clientLease != null) {
+            clientLease.close();
+            clientLease = null;
+            obsClient = null;
+        }
+    }
 
 
     @Override
@@ -221,12 +394,15 @@ public class ObsConnector extends AbstractFileConnector<ObsConnectorConfig> {
         properties.put(ObsConstants.OBS_SECRET_KEY, config.getSecretKey());
         properties.put(ObsConstants.OBS_ACCESS_KEY, config.getAccessKey());
         properties.put(ObsConstants.OBS_END_POINT, config.getEndPoint());
+        config.getRetryPolicy().addTo(properties);
         return properties;
     }
 
     @Override
     protected void setConnectorSpec(ConnectorSpecRequest request, ConnectorSpec.Builder builder) {
         super.setConnectorSpec(request, builder);
+        // the path is being sampled, make sure the next browse shows its current content
+        ObsBrowseCache.getInstance().invalidate(getConnectionKey(), getFullPath(request.getPath()));
         Map<String, String> properties = new HashMap<>();
         properties.put(ConfigUtil.NAME_USE_CONNECTION, "true");
         properties.put(ConfigUtil.NAME_CONNECTION, request.getConnectionWithMacro());
@@ -244,11 +420,20 @@ public class ObsConnector extends AbstractFileConnector<ObsConnectorConfig> {
 
     private IObsClient getObsClient() {
         if (obsClient == null) {
-            obsClient = new ObsClient(config.getAccessKey(), config.getSecretKey(), config.getEndPoint());
+            clientLease = ObsClientCache.getInstance().acquire(ObsClientCache.ClientKey.of(config.getEndPoint(),
+                    config.getAccessKey(), config.getSecretKey(), config.getRetryPolicy()));
+            obsClient = clientLease.getClient();
         }
         return obsClient;
     }
 
+    /**
+     * Identifies the connection in {@link ObsBrowseCache}.
+     */
+    private ObsClientCache.ClientKey getConnectionKey() {
+        return ObsClientCache.ClientKey.of(config.getEndPoint(), config.getAccessKey(), config.getSecretKey());
+    }
+
     private boolean isRoot(String path) {
         return path.isEmpty() || path.equals(ObsPath.ROOT_DIR);
     }
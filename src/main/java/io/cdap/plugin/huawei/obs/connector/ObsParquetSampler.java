@@ -0,0 +1,228 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.connector;
+
+import com.obs.services.IObsClient;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.huawei.obs.common.ObsBufferPool;
+import io.cdap.plugin.huawei.obs.common.ObsRangedInputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.util.HadoopStreams;
+import org.apache.parquet.io.ColumnIOFactory;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.io.SeekableInputStream;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Samples a Parquet object from its footer and first row groups, read with ranged requests. Only the row groups needed
+ * to reach the limit are read, usually the first one.
+ *
+ * The columns of primitive types are converted to the matching types, dates, timestamps and decimals included. Nested
+ * and repeated columns are sampled as their string representation.
+ */
+final class ObsParquetSampler {
+    // size of the ranged requests, the footer and the column chunks are read with a few requests each
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int READ_AHEAD = 4;
+    // shared by the samples of all the connectors, bounds the memory used by the read-ahead
+    private static final ObsBufferPool BUFFER_POOL = new ObsBufferPool(CHUNK_SIZE, 16);
+
+    private ObsParquetSampler() {
+    }
+
+    /**
+     * Adds up to limit records of the object to the records.
+     */
+    static void sample(IObsClient obsClient, Executor executor, String bucket, String key, long length, int limit,
+                       List<StructuredRecord> records) throws IOException {
+        InputFile file = new InputFile() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public SeekableInputStream newStream() {
+                return HadoopStreams.wrap(new FSDataInputStream(new ObsRangedInputStream(obsClient, bucket, key,
+                        length, READ_AHEAD, length, executor, BUFFER_POOL, null)));
+            }
+        };
+        try (ParquetFileReader reader = ParquetFileReader.open(file)) {
+            MessageType parquetSchema = reader.getFooter().getFileMetaData().getSchema();
+            Schema schema = toSchema(parquetSchema);
+            int sampled = 0;
+            PageReadStore rowGroup;
+            while (sampled < limit && (rowGroup = reader.readNextRowGroup()) != null) {
+                RecordReader<Group> recordReader = new ColumnIOFactory().getColumnIO(parquetSchema)
+                        .getRecordReader(rowGroup, new GroupRecordConverter(parquetSchema));
+                for (long row = 0; row < rowGroup.getRowCount() && sampled < limit; row++) {
+                    records.add(toRecord(recordReader.read(), parquetSchema, schema));
+                    sampled++;
+                }
+            }
+        }
+    }
+
+    private static Schema toSchema(MessageType parquetSchema) {
+        List<Schema.Field> fields = new ArrayList<>();
+        for (Type type : parquetSchema.getFields()) {
+            Schema schema = toSchema(type);
+            fields.add(Schema.Field.of(type.getName(),
+                    type.isRepetition(Type.Repetition.REQUIRED) ? schema : Schema.nullableOf(schema)));
+        }
+        return Schema.recordOf(parquetSchema.getName(), fields);
+    }
+
+    private static Schema toSchema(Type type) {
+        if (!type.isPrimitive() || type.isRepetition(Type.Repetition.REPEATED)) {
+            return Schema.of(Schema.Type.STRING);
+        }
+        PrimitiveType primitive = type.asPrimitiveType();
+        LogicalTypeAnnotation annotation = primitive.getLogicalTypeAnnotation();
+        if (annotation instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+            LogicalTypeAnnotation.DecimalLogicalTypeAnnotation decimal =
+                    (LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) annotation;
+            return Schema.decimalOf(decimal.getPrecision(), decimal.getScale());
+        }
+        switch (primitive.getPrimitiveTypeName()) {
+            case BOOLEAN:
+                return Schema.of(Schema.Type.BOOLEAN);
+            case INT32:
+                return annotation instanceof LogicalTypeAnnotation.DateLogicalTypeAnnotation
+                        ? Schema.of(Schema.LogicalType.DATE) : Schema.of(Schema.Type.INT);
+            case INT64:
+                if (annotation instanceof LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) {
+                    switch (((LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) annotation).getUnit()) {
+                        case MILLIS:
+                            return Schema.of(Schema.LogicalType.TIMESTAMP_MILLIS);
+                        case MICROS:
+                            return Schema.of(Schema.LogicalType.TIMESTAMP_MICROS);
+                        default:
+                            return Schema.of(Schema.Type.LONG);
+                    }
+                }
+                return Schema.of(Schema.Type.LONG);
+            case FLOAT:
+                return Schema.of(Schema.Type.FLOAT);
+            case DOUBLE:
+                return Schema.of(Schema.Type.DOUBLE);
+            case BINARY:
+                return isString(annotation) ? Schema.of(Schema.Type.STRING) : Schema.of(Schema.Type.BYTES);
+            default:
+                // INT96 and FIXED_LEN_BYTE_ARRAY
+                return Schema.of(Schema.Type.BYTES);
+        }
+    }
+
+    private static boolean isString(LogicalTypeAnnotation annotation) {
+        return annotation instanceof LogicalTypeAnnotation.StringLogicalTypeAnnotation
+                || annotation instanceof LogicalTypeAnnotation.EnumLogicalTypeAnnotation
+                || annotation instanceof LogicalTypeAnnotation.JsonLogicalTypeAnnotation;
+    }
+
+    private static StructuredRecord toRecord(Group group, MessageType parquetSchema, Schema schema) {
+        StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+        for (int i = 0; i < parquetSchema.getFieldCount(); i++) {
+            Type type = parquetSchema.getType(i);
+            int count = group.getFieldRepetitionCount(i);
+            if (count == 0) {
+                continue;
+            }
+            String name = type.getName();
+            if (!type.isPrimitive() || type.isRepetition(Type.Repetition.REPEATED)) {
+                builder.set(name, toString(group, i, count));
+                continue;
+            }
+            PrimitiveType primitive = type.asPrimitiveType();
+            LogicalTypeAnnotation annotation = primitive.getLogicalTypeAnnotation();
+            if (annotation instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+                builder.setDecimal(name, new BigDecimal(getUnscaled(group, i, primitive),
+                        ((LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) annotation).getScale()));
+                continue;
+            }
+            switch (primitive.getPrimitiveTypeName()) {
+                case BOOLEAN:
+                    builder.set(name, group.getBoolean(i, 0));
+                    break;
+                case INT32:
+                    builder.set(name, group.getInteger(i, 0));
+                    break;
+                case INT64:
+                    builder.set(name, group.getLong(i, 0));
+                    break;
+                case FLOAT:
+                    builder.set(name, group.getFloat(i, 0));
+                    break;
+                case DOUBLE:
+                    builder.set(name, group.getDouble(i, 0));
+                    break;
+                case BINARY:
+                    builder.set(name, isString(annotation) ? group.getString(i, 0) : group.getBinary(i, 0).getBytes());
+                    break;
+                case INT96:
+                    builder.set(name, group.getInt96(i, 0).getBytes());
+                    break;
+                default:
+                    builder.set(name, group.getBinary(i, 0).getBytes());
+                    break;
+            }
+        }
+        return builder.build();
+    }
+
+    private static BigInteger getUnscaled(Group group, int field, PrimitiveType primitive) {
+        switch (primitive.getPrimitiveTypeName()) {
+            case INT32:
+                return BigInteger.valueOf(group.getInteger(field, 0));
+            case INT64:
+                return BigInteger.valueOf(group.getLong(field, 0));
+            default:
+                return new BigInteger(group.getBinary(field, 0).getBytes());
+        }
+    }
+
+    /**
+     * @return the values of a nested or repeated column, separated by commas and between brackets if repeated
+     */
+    private static String toString(Group group, int field, int count) {
+        if (count == 1 && !group.getType().getType(field).isRepetition(Type.Repetition.REPEATED)) {
+            return group.getValueToString(field, 0);
+        }
+        StringBuilder builder = new StringBuilder("[");
+        for (int index = 0; index < count; index++) {
+            builder.append(index == 0 ? "" : ", ").append(group.getValueToString(field, index));
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+package io.cdap.plugin.huawei.obs.connector;
+
+import com.google.gson.Gson;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.format.StructuredRecordStringConverter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Input format returning the records sampled by {@link ObsSampler}, which the connector reads with ranged requests
+ * when it is asked for the input format of a sample. The records are passed in the configuration, a sample being at
+ * most a few hundred kilobytes per sampled object.
+ */
+public class ObsSampleInputFormat extends InputFormat<NullWritable, StructuredRecord> {
+    /**
+     * Schemas of the sampled records, as a json array, the objects of a directory can have different schemas.
+     */
+    static final String SCHEMAS = "fs.obs.cdap.sample.schemas";
+    /**
+     * Sampled records, as a json array of the json of each record with the index of its schema.
+     */
+    static final String RECORDS = "fs.obs.cdap.sample.records";
+
+    private static final Gson GSON = new Gson();
+
+    /**
+     * @return the configuration of the input format returning the records
+     */
+    static Configuration configure(List<StructuredRecord> records) throws IOException {
+        List<String> schemas = new ArrayList<>();
+        SampledRecord[] sampled = new SampledRecord[records.size()];
+        for (int i = 0; i < sampled.length; i++) {
+            StructuredRecord record = records.get(i);
+            String schema = record.getSchema().toString();
+            int index = schemas.indexOf(schema);
+            if (index < 0) {
+                index = schemas.size();
+                schemas.add(schema);
+            }
+            sampled[i] = new SampledRecord(index, StructuredRecordStringConverter.toJsonString(record));
+        }
+        Configuration conf = new Configuration(false);
+        conf.set(SCHEMAS, GSON.toJson(schemas));
+        conf.set(RECORDS, GSON.toJson(sampled));
+        return conf;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext context) {
+        return Collections.singletonList(new SampleSplit());
+    }
+
+    @Override
+    public RecordReader<NullWritable, StructuredRecord> createRecordReader(InputSplit split,
+                                                                           TaskAttemptContext context) {
+        return new SampleRecordReader();
+    }
+
+    /**
+     * The only split, the records being in the configuration.
+     */
+    public static final class SampleSplit extends InputSplit implements Writable {
+        @Override
+        public long getLength() {
+            return 0L;
+        }
+
+        @Override
+        public String[] getLocations() {
+            return new String[0];
+        }
+
+        @Override
+        public void write(DataOutput out) {
+            // nothing to write
+        }
+
+        @Override
+        public void readFields(DataInput in) {
+            // nothing to read
+        }
+    }
+
+    private static final class SampledRecord {
+        private final int schema;
+        private final String record;
+
+        private SampledRecord(int schema, String record) {
+            this.schema = schema;
+            this.record = record;
+        }
+    }
+
+    private static final class SampleRecordReader extends RecordReader<NullWritable, StructuredRecord> {
+        private Schema[] schemas;
+        private SampledRecord[] records;
+        private int next;
+        private StructuredRecord current;
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            String[] schemasJson = GSON.fromJson(conf.get(SCHEMAS, "[]"), String[].class);
+            schemas = new Schema[schemasJson.length];
+            for (int i = 0; i < schemas.length; i++) {
+                schemas[i] = Schema.parseJson(schemasJson[i]);
+            }
+            records = GSON.fromJson(conf.get(RECORDS, "[]"), SampledRecord[].class);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            if (next >= records.length) {
+                current = null;
+                return false;
+            }
+            SampledRecord record = records[next++];
+            current = StructuredRecordStringConverter.fromJsonString(record.record, schemas[record.schema]);
+            return true;
+        }
+
+        @Override
+        public NullWritable getCurrentKey() {
+            return NullWritable.get();
+        }
+
+        @Override
+        public StructuredRecord getCurrentValue() {
+            return current;
+        }
+
+        @Override
+        public float getProgress() {
+            return records.length == 0 ? 1.0f : (float) next / records.length;
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+}
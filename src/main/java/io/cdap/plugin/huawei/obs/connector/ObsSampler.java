@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.connector;
+
+import com.obs.services.IObsClient;
+import com.obs.services.model.GetObjectRequest;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObsObject;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+
+/**
+ * Samples objects for the connector preview with ranged requests, so that the time taken does not depend on the size
+ * of the objects. Text objects are sampled from their first bytes, cut at the last line break, and Parquet objects
+ * from their footer and first row groups. A directory is sampled from the first objects listed under it, skipping
+ * the hidden ones like _SUCCESS.
+ *
+ * Objects in other formats, or compressed, are not sampled by this class.
+ */
+final class ObsSampler {
+    /**
+     * Schema of the text samples, the same as the records of the text format: a line and its offset in the object.
+     */
+    static final Schema TEXT_SCHEMA = Schema.recordOf("text",
+            Schema.Field.of("offset", Schema.of(Schema.Type.LONG)),
+            Schema.Field.of("body", Schema.of(Schema.Type.STRING)));
+    static final int DEFAULT_SAMPLE_BYTES = 256 * 1024;
+    static final int DEFAULT_MAX_OBJECTS = 10;
+
+    private static final String DELIMITER = "/";
+    // objects listed to find the sampled ones, leaves room for the hidden objects and directory markers
+    private static final int LISTED_OBJECTS = 100;
+    private static final String[] TEXT_EXTENSIONS = {"txt", "csv", "tsv", "psv", "json", "log"};
+
+    private final IObsClient obsClient;
+    private final Executor executor;
+    private final int sampleBytes;
+    private final int maxObjects;
+
+    /**
+     * @param executor executor of the ranged requests reading ahead in the Parquet objects
+     */
+    ObsSampler(IObsClient obsClient, Executor executor) {
+        this(obsClient, executor, DEFAULT_SAMPLE_BYTES, DEFAULT_MAX_OBJECTS);
+    }
+
+    /**
+     * @param sampleBytes bytes read from the beginning of each text object
+     * @param maxObjects maximum number of objects sampled from a directory
+     */
+    ObsSampler(IObsClient obsClient, Executor executor, int sampleBytes, int maxObjects) {
+        this.obsClient = obsClient;
+        this.executor = executor;
+        this.sampleBytes = sampleBytes;
+        this.maxObjects = maxObjects;
+    }
+
+    /**
+     * @return up to limit records read from the object or from the first objects of the directory, or null if they
+     *         are not in a format sampled by this class
+     */
+    @Nullable
+    List<StructuredRecord> sample(ObsPath path, int limit) throws IOException {
+        List<ObsObject> objects = listSampledObjects(path);
+        if (objects.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Format format = Format.of(objects.get(0).getObjectKey());
+        if (format == Format.OTHER) {
+            return null;
+        }
+        List<StructuredRecord> records = new ArrayList<>();
+        for (ObsObject object : objects) {
+            if (records.size() >= limit) {
+                break;
+            }
+            // the objects of a directory are sampled together only if they have the same format
+            if (Format.of(object.getObjectKey()) != format) {
+                continue;
+            }
+            long length = getLength(object);
+            if (format == Format.PARQUET) {
+                ObsParquetSampler.sample(obsClient, executor, path.getBucket(), object.getObjectKey(), length,
+                        limit - records.size(), records);
+            } else {
+                sampleText(path.getBucket(), object.getObjectKey(), length, limit, records);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Lists the object at the path, or the first objects under it if it is a bucket or a directory. The object is
+     * told apart from a directory by listing its key: it is the first key listed with its own name as prefix.
+     */
+    private List<ObsObject> listSampledObjects(ObsPath path) {
+        String name = path.getName();
+        if (!name.isEmpty() && !name.endsWith(DELIMITER)) {
+            List<ObsObject> objects = list(path.getBucket(), name, 1);
+            if (!objects.isEmpty() && objects.get(0).getObjectKey().equals(name)) {
+                return objects;
+            }
+        }
+        String prefix = name.isEmpty() || name.endsWith(DELIMITER) ? name : name + DELIMITER;
+        List<ObsObject> objects = new ArrayList<>();
+        for (ObsObject object : list(path.getBucket(), prefix, LISTED_OBJECTS)) {
+            if (objects.size() < maxObjects && getLength(object) > 0
+                    && !isHidden(object.getObjectKey().substring(prefix.length()))) {
+                objects.add(object);
+            }
+        }
+        return objects;
+    }
+
+    private List<ObsObject> list(String bucket, String prefix, int maxKeys) {
+        ListObjectsRequest request = new ListObjectsRequest(bucket);
+        if (!prefix.isEmpty()) {
+            request.setPrefix(prefix);
+        }
+        request.setMaxKeys(maxKeys);
+        ObjectListing listing = obsClient.listObjects(request);
+        return listing.getObjects();
+    }
+
+    /**
+     * Reads the lines in the first bytes of the object, the last line is dropped if it is cut by the end of the
+     * sampled bytes.
+     */
+    private void sampleText(String bucket, String key, long length, int limit, List<StructuredRecord> records)
+            throws IOException {
+        int size = (int) Math.min(sampleBytes, length);
+        byte[] content = readRange(bucket, key, size);
+        int end = size;
+        if (size < length) {
+            while (end > 0 && content[end - 1] != '\n') {
+                end--;
+            }
+        }
+        int start = 0;
+        while (start < end && records.size() < limit) {
+            int lineEnd = start;
+            while (lineEnd < end && content[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int bodyEnd = lineEnd > start && content[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+            records.add(StructuredRecord.builder(TEXT_SCHEMA)
+                    .set("offset", (long) start)
+                    .set("body", new String(content, start, bodyEnd - start, StandardCharsets.UTF_8))
+                    .build());
+            start = lineEnd + 1;
+        }
+    }
+
+    private byte[] readRange(String bucket, String key, int size) throws IOException {
+        byte[] content = new byte[size];
+        if (size == 0) {
+            return content;
+        }
+        GetObjectRequest request = new GetObjectRequest(bucket, key);
+        request.setRangeStart(0L);
+        request.setRangeEnd(size - 1L);
+        try (InputStream in = obsClient.getObject(request).getObjectContent()) {
+            int offset = 0;
+            while (offset < size) {
+                int read = in.read(content, offset, size - offset);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of obs://" + bucket + "/" + key + " at " + offset);
+                }
+                offset += read;
+            }
+        }
+        return content;
+    }
+
+    private static long getLength(ObsObject object) {
+        Long length = object.getMetadata() == null ? null : object.getMetadata().getContentLength();
+        return length == null ? 0L : length;
+    }
+
+    /**
+     * @param relativePath path of the object relative to the sampled directory
+     */
+    private static boolean isHidden(String relativePath) {
+        for (String segment : relativePath.split(DELIMITER)) {
+            if (segment.startsWith("_") || segment.startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How an object is sampled, given by the extension of its key.
+     */
+    enum Format {
+        TEXT, PARQUET, OTHER;
+
+        static Format of(String key) {
+            String name = key.substring(key.lastIndexOf(DELIMITER) + 1);
+            int dot = name.lastIndexOf('.');
+            if (dot < 0) {
+                return TEXT;
+            }
+            String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+            if (extension.equals("parquet")) {
+                return PARQUET;
+            }
+            for (String textExtension : TEXT_EXTENSIONS) {
+                if (textExtension.equals(extension)) {
+                    return TEXT;
+                }
+            }
+            return OTHER;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import io.cdap.plugin.huawei.obs.common.OBSFileSystemP;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * {@link OutputCommitter} that aborts the multipart uploads of the files a task attempt did not close before aborting
+ * the task with the committer it wraps. The files of a failed attempt are never closed, so their uploads are neither
+ * completed nor listed by the committer, and would otherwise only be aborted when the filesystem is closed.
+ */
+public class ObsAbortingOutputCommitter extends OutputCommitter {
+    private static final Logger logger = LogManager.getLogger(ObsAbortingOutputCommitter.class);
+
+    private final OutputCommitter delegate;
+    private final Path outputPath;
+
+    public ObsAbortingOutputCommitter(OutputCommitter delegate, Path outputPath) {
+        this.delegate = delegate;
+        this.outputPath = outputPath;
+    }
+
+    @Override
+    public void setupJob(JobContext context) throws IOException {
+        delegate.setupJob(context);
+    }
+
+    @Override
+    public void setupTask(TaskAttemptContext context) throws IOException {
+        delegate.setupTask(context);
+    }
+
+    @Override
+    public boolean needsTaskCommit(TaskAttemptContext context) throws IOException {
+        return delegate.needsTaskCommit(context);
+    }
+
+    @Override
+    public void commitTask(TaskAttemptContext context) throws IOException {
+        delegate.commitTask(context);
+    }
+
+    @Override
+    public void abortTask(TaskAttemptContext context) throws IOException {
+        try {
+            // the filesystem the task wrote its files with, shared by the tasks of the worker
+            FileSystem fs = outputPath.getFileSystem(context.getConfiguration());
+            if (fs instanceof OBSFileSystemP) {
+                int aborted = ((OBSFileSystemP) fs).abortUploads(context.getTaskAttemptID());
+                logger.debug("Aborted {} uploads of task attempt {}", aborted, context.getTaskAttemptID());
+            }
+        } finally {
+            delegate.abortTask(context);
+        }
+    }
+
+    @Override
+    public void commitJob(JobContext context) throws IOException {
+        delegate.commitJob(context);
+    }
+
+    @Override
+    public void abortJob(JobContext context, JobStatus.State state) throws IOException {
+        delegate.abortJob(context, state);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void cleanupJob(JobContext context) throws IOException {
+        delegate.cleanupJob(context);
+    }
+
+    @Override
+    public boolean isRecoverySupported() {
+        return delegate.isRecoverySupported();
+    }
+
+    @Override
+    public boolean isRecoverySupported(JobContext context) throws IOException {
+        return delegate.isRecoverySupported(context);
+    }
+
+    @Override
+    public boolean isCommitJobRepeatable(JobContext context) throws IOException {
+        return delegate.isCommitJobRepeatable(context);
+    }
+
+    @Override
+    public void recoverTask(TaskAttemptContext context) throws IOException {
+        delegate.recoverTask(context);
+    }
+}
@@ -17,21 +17,43 @@
 package io.cdap.plugin.huawei.obs.sink;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Macro;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.dataset.lib.KeyValue;
+import io.cdap.cdap.etl.api.Emitter;
 import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.cdap.etl.api.batch.BatchRuntimeContext;
 import io.cdap.cdap.etl.api.batch.BatchSink;
 import io.cdap.cdap.etl.api.batch.BatchSinkContext;
+import io.cdap.cdap.etl.api.validation.FormatContext;
+import io.cdap.cdap.etl.api.validation.ValidatingOutputFormat;
 import io.cdap.plugin.common.LineageRecorder;
 import io.cdap.plugin.format.plugin.AbstractFileSink;
 import io.cdap.plugin.format.plugin.AbstractFileSinkConfig;
+import io.cdap.plugin.huawei.obs.common.OBSFileSystemP;
+import io.cdap.plugin.huawei.obs.common.ObsBlockCompression;
+import io.cdap.plugin.huawei.obs.common.ObsBlockCompressionCodec;
+import io.cdap.plugin.huawei.obs.common.ObsClientCache;
 import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsMetricsReporter;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -45,31 +67,136 @@ import javax.annotation.Nullable;
 @Name("Obs")
 @Description("Batch sink to use Huawei Obs as a sink.")
 public class ObsBatchSink extends AbstractFileSink<ObsBatchSink.ObsBatchSinkConfig> {
+    private static final Logger logger = LogManager.getLogger(ObsBatchSink.class);
     private static final String ENCRYPTION_VALUE = "AES256";
     private static final String OBS_ENCRYPTION = "fs.obs.server-side-encryption-algorithm"; //TODO fix
     private static final String ACCESS_CREDENTIALS = "Access Credentials";
+    // the properties of FileOutputFormat that enable the compression of the text based formats
+    private static final String OUTPUT_COMPRESS = "mapreduce.output.fileoutputformat.compress";
+    private static final String OUTPUT_COMPRESS_CODEC = "mapreduce.output.fileoutputformat.compress.codec";
 
     private final ObsBatchSinkConfig config;
+    // output directory of the run, set by prepareRun
+    private String outputDir;
+    // reports the Obs requests of the worker, set by initialize
+    private ObsMetricsReporter metricsReporter;
 
     public ObsBatchSink(ObsBatchSinkConfig config) {
         super(config);
         this.config = config;
     }
 
+    @Override
+    public void initialize(BatchRuntimeContext context) throws Exception {
+        super.initialize(context);
+        metricsReporter = new ObsMetricsReporter(context);
+    }
+
+    @Override
+    public void transform(StructuredRecord input, Emitter<KeyValue<NullWritable, StructuredRecord>> emitter) {
+        super.transform(input, emitter);
+        metricsReporter.onRecord();
+    }
+
+    @Override
+    public void destroy() {
+        if (metricsReporter != null) {
+            metricsReporter.report();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Reports the number and the sizes of the files of the run as metrics once it succeeded.
+     */
+    @Override
+    public void onRunFinish(boolean succeeded, BatchSinkContext context) {
+        super.onRunFinish(succeeded, context);
+        try {
+            if (succeeded && outputDir != null && ACCESS_CREDENTIALS.equalsIgnoreCase(config.authenticationMethod)) {
+                reportOutputStats(context);
+            }
+        } finally {
+            // requests sent by the driver, like the commit of the output
+            new ObsMetricsReporter(context).report();
+        }
+    }
+
+    private void reportOutputStats(BatchSinkContext context) {
+        ObsPath path = ObsPath.from(outputDir);
+        String prefix = path.getName().isEmpty() || path.getName().endsWith(ObsPath.ROOT_DIR)
+                ? path.getName() : path.getName() + ObsPath.ROOT_DIR;
+        ObsClientCache.ClientKey clientKey = ObsClientCache.ClientKey.of(config.endPoint, config.accessKey,
+                config.secretKey);
+        try (ObsClientCache.Lease lease = ObsClientCache.getInstance().acquire(clientKey,
+                ObsRequestMetrics.forStage(context.getStageName()))) {
+            ObsOutputStats stats = ObsOutputStats.collect(lease.getClient(), path.getBucket(), prefix);
+            StageMetrics metrics = context.getMetrics();
+            metrics.gauge("output.files", stats.getFiles());
+            metrics.gauge("output.bytes", stats.getBytes());
+            metrics.gauge("output.file.bytes.min", stats.getMinBytes());
+            metrics.gauge("output.file.bytes.max", stats.getMaxBytes());
+            metrics.gauge("output.file.bytes.avg", stats.getAverageBytes());
+            logger.info("Wrote {} to {}", stats, outputDir);
+        } catch (IOException e) {
+            // the output is committed, only the metrics are missing
+            logger.warn("Failed to collect the file sizes of {}", outputDir, e);
+        }
+    }
+
     @Override
     protected Map<String, String> getFileSystemProperties(BatchSinkContext context) {
-        Map<String, String> properties = new HashMap<>(config.getFilesystemProperties());
+        Map<String, String> properties = config.getFilesystemProperties();
 
         if (ACCESS_CREDENTIALS.equalsIgnoreCase(config.authenticationMethod)) {
             if (config.path.startsWith("obs://")) {
                 properties.put(ObsConstants.OBS_SECRET_KEY, config.secretKey);
                 properties.put(ObsConstants.OBS_ACCESS_KEY, config.accessKey);
                 properties.put(ObsConstants.OBS_END_POINT, config.endPoint);
-//                properties.put("fs.obs.impl", "org.apache.hadoop.fs.obs.OBSFileSystem");
-//                properties.put("fs.obs.impl", "org.apache.hadoop.fs.obs.OBSFileSystemP");
-
             }  //TODO fix
         }
+        properties.putIfAbsent(ObsConstants.OBS_IMPL, OBSFileSystemP.class.getName());
+        properties.put(ObsConstants.STAGE, context.getStageName());
+
+        if (config.shouldUploadInParallel()) {
+            properties.put(ObsConstants.UPLOAD_PARALLEL, "true");
+            properties.put(ObsConstants.UPLOAD_PART_SIZE, String.valueOf(config.getUploadPartSize()));
+            properties.put(ObsConstants.UPLOAD_CONCURRENCY, String.valueOf(config.getUploadConcurrency()));
+            properties.put(ObsConstants.UPLOAD_MEMORY_LIMIT, String.valueOf(config.getUploadMemoryLimit()));
+        }
+
+        if (config.shouldWriteAsynchronously()) {
+            properties.put(ObsConstants.WRITE_ASYNC, "true");
+            properties.put(ObsConstants.WRITE_BUFFER_SIZE, String.valueOf(config.getWriteBufferSize()));
+            properties.put(ObsConstants.WRITE_BUFFER_DEPTH, String.valueOf(config.getWriteBufferDepth()));
+            properties.put(ObsConstants.WRITE_BUFFER_OFF_HEAP, String.valueOf(config.shouldUseOffHeapWriteBuffers()));
+        }
+
+        if (config.shouldCommitDirectly()) {
+            properties.put(ObsConstants.COMMIT_DIRECT, "true");
+            properties.put(ObsConstants.COMMIT_THREADS, String.valueOf(config.getCommitThreads()));
+        }
+        if (config.getRollSize() > 0) {
+            properties.put(ObsConstants.OUTPUT_ROLL_SIZE, String.valueOf(config.getRollSize()));
+        }
+        if (config.getRollRecords() > 0) {
+            properties.put(ObsConstants.OUTPUT_ROLL_RECORDS, String.valueOf(config.getRollRecords()));
+        }
+        if (config.isPartitioned()) {
+            properties.put(ObsConstants.OUTPUT_PARTITION_FIELDS, String.join(",", config.getPartitionFields()));
+            properties.put(ObsConstants.OUTPUT_MAX_OPEN_WRITERS, String.valueOf(config.getMaxOpenWriters()));
+            properties.put(ObsConstants.OUTPUT_MAX_PARTITIONS, String.valueOf(config.getMaxPartitions()));
+        }
+        ObsBlockCompression compression = config.getCompression();
+        if (compression != null) {
+            properties.put(OUTPUT_COMPRESS, "true");
+            properties.put(OUTPUT_COMPRESS_CODEC, ObsBlockCompressionCodec.class.getName());
+            properties.put(ObsConstants.OUTPUT_COMPRESSION, compression.getName());
+            properties.put(ObsConstants.OUTPUT_COMPRESSION_LEVEL, String.valueOf(config.getCompressionLevel()));
+            properties.put(ObsConstants.OUTPUT_COMPRESSION_BLOCK_SIZE,
+                    String.valueOf(config.getCompressionBlockSize()));
+            properties.put(ObsConstants.OUTPUT_COMPRESSION_THREADS, String.valueOf(config.getCompressionThreads()));
+        }
 
         if (config.shouldEnableEncryption()) {
             if (config.path.startsWith("obs://")) {
@@ -79,6 +206,29 @@ public class ObsBatchSink extends AbstractFileSink<ObsBatchSink.ObsBatchSinkConf
         return properties;
     }
 
+    /**
+     * Returns the output format of the sink format, wrapped by {@link ObsOutputFormat} when the files are partitioned,
+     * rolled, uploaded in parts or committed directly.
+     */
+    @Override
+    protected ValidatingOutputFormat getOutputFormatForRun(BatchSinkContext context) throws InstantiationException {
+        ValidatingOutputFormat format = super.getOutputFormatForRun(context);
+        if (config.shouldCommitDirectly() || config.shouldUploadInParallel() || config.isPartitioned()
+                || config.getRollSize() > 0 || config.getRollRecords() > 0) {
+            return new ObsValidatingOutputFormat(format);
+        }
+        return format;
+    }
+
+    /**
+     * Records the output directory of the run, whose files are reported once the run succeeded.
+     */
+    @Override
+    protected String getOutputDir(long logicalStartTime) {
+        outputDir = super.getOutputDir(logicalStartTime);
+        return outputDir;
+    }
+
     @Override
     protected void recordLineage(LineageRecorder lineageRecorder, List<String> outputFields) {
         lineageRecorder.recordWrite("Write", "Wrote to Obs.", outputFields);
@@ -89,6 +239,34 @@ public class ObsBatchSink extends AbstractFileSink<ObsBatchSink.ObsBatchSinkConf
         return config;
     }
 
+    /**
+     * Output format of the sink format, written with {@link ObsOutputFormat}.
+     */
+    private static final class ObsValidatingOutputFormat implements ValidatingOutputFormat {
+        private final ValidatingOutputFormat delegate;
+
+        private ObsValidatingOutputFormat(ValidatingOutputFormat delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void validate(FormatContext context) {
+            delegate.validate(context);
+        }
+
+        @Override
+        public String getOutputFormatClassName() {
+            return ObsOutputFormat.class.getName();
+        }
+
+        @Override
+        public Map<String, String> getOutputFormatConfiguration() {
+            Map<String, String> conf = new HashMap<>(delegate.getOutputFormatConfiguration());
+            conf.put(ObsOutputFormat.DELEGATE, delegate.getOutputFormatClassName());
+            return conf;
+        }
+    }
+
     /**
      * S3 Sink configuration.
      */
@@ -100,6 +278,25 @@ public class ObsBatchSink extends AbstractFileSink<ObsBatchSink.ObsBatchSinkConf
         private static final String NAME_PATH = "path";
         private static final String NAME_AUTH_METHOD = "authenticationMethod";
         private static final String NAME_FILE_SYSTEM_PROPERTIES = "fileSystemProperties";
+        private static final String NAME_UPLOAD_PART_SIZE = "uploadPartSize";
+        private static final String NAME_UPLOAD_CONCURRENCY = "uploadConcurrency";
+        private static final String NAME_UPLOAD_MEMORY_LIMIT = "uploadMemoryLimit";
+        private static final String NAME_WRITE_BUFFER_SIZE = "writeBufferSize";
+        private static final String NAME_WRITE_BUFFER_DEPTH = "writeBufferDepth";
+        private static final String NAME_DIRECT_COMMIT = "directCommit";
+        private static final String NAME_COMMIT_THREADS = "commitThreads";
+        private static final String NAME_ROLL_SIZE = "rollSize";
+        private static final String NAME_ROLL_RECORDS = "rollRecords";
+        private static final String NAME_PARTITION_FIELDS = "partitionFields";
+        private static final String NAME_MAX_OPEN_WRITERS = "maxOpenWriters";
+        private static final String NAME_MAX_PARTITIONS = "maxPartitions";
+        private static final String NAME_COMPRESSION = "compression";
+        private static final String NAME_COMPRESSION_LEVEL = "compressionLevel";
+        private static final String NAME_COMPRESSION_BLOCK_SIZE = "compressionBlockSize";
+        private static final String NAME_COMPRESSION_THREADS = "compressionThreads";
+        private static final String NO_COMPRESSION = "none";
+        // formats that compress their files themselves
+        private static final List<String> SELF_COMPRESSED_FORMATS = Arrays.asList("avro", "parquet", "orc");
 
         private static final Gson GSON = new Gson();
         private static final Type MAP_STRING_STRING_TYPE = new TypeToken<Map<String, String>>() {
@@ -143,11 +340,135 @@ public class ObsBatchSink extends AbstractFileSink<ObsBatchSink.ObsBatchSinkConf
                 + "This is an advanced feature that requires knowledge of the properties supported by the underlying filesystem.")
         private String fileSystemProperties;
 
+        @Macro
+        @Nullable
+        @Description("Whether to upload each output file with parallel multipart uploads. Defaults to False.")
+        private Boolean parallelUpload;
+
+        @Macro
+        @Nullable
+        @Description("Size in bytes of the parts of a parallel upload. Must be at least 5 MB. Defaults to 32 MB.")
+        private Long uploadPartSize;
+
+        @Macro
+        @Nullable
+        @Description("Maximum number of parts uploaded at the same time by each task. Defaults to 4.")
+        private Integer uploadConcurrency;
+
+        @Macro
+        @Nullable
+        @Description("Maximum memory in bytes held by the parts waiting for or being uploaded by each task. " +
+                "Writes block once the limit is reached. Defaults to 256 MB.")
+        private Long uploadMemoryLimit;
+
+        @Macro
+        @Nullable
+        @Description("Whether to write the files through buffers written to Obs by a background thread, so that the " +
+                "records are serialized while the previous ones are sent. Defaults to False.")
+        private Boolean asyncWrite;
+
+        @Macro
+        @Nullable
+        @Description("Size in bytes of the buffers of the asynchronous writes. Defaults to 4 MB.")
+        private Long writeBufferSize;
+
+        @Macro
+        @Nullable
+        @Description("Maximum number of buffers of each file written asynchronously, including the one being " +
+                "filled. Writes block once they are all waiting to be sent. Defaults to 4.")
+        private Integer writeBufferDepth;
+
+        @Macro
+        @Nullable
+        @Description("Whether to allocate the buffers of the asynchronous writes outside of the heap. " +
+                "Defaults to False.")
+        private Boolean offHeapWriteBuffers;
+
+        @Macro
+        @Nullable
+        @Description("Whether to upload the files directly to the output path and make them visible when the job " +
+                "commits, instead of writing them to a temporary directory and renaming them. Defaults to False.")
+        private Boolean directCommit;
+
+        @Macro
+        @Nullable
+        @Description("Number of files made visible at the same time when the job commits directly. Defaults to 16.")
+        private Integer commitThreads;
+
+        @Macro
+        @Nullable
+        @Description("Size in bytes at which each task closes its current file and starts writing the next one. " +
+                "If not specified, the files are not rolled by size.")
+        private Long rollSize;
+
+        @Macro
+        @Nullable
+        @Description("Number of records at which each task closes its current file and starts writing the next one. " +
+                "If not specified, the files are not rolled by record count.")
+        private Long rollRecords;
+
+        @Macro
+        @Nullable
+        @Description("Comma separated list of the fields whose values choose the directory the records are written " +
+                "to, as <field>=<value> sub-directories of the output directory in the order of the list. " +
+                "If not specified, the records are not partitioned.")
+        private String partitionFields;
+
+        @Macro
+        @Nullable
+        @Description("Maximum number of partition files each task keeps open at the same time. Once reached, the " +
+                "file of the least recently written partition is closed. Defaults to 16.")
+        private Integer maxOpenWriters;
+
+        @Macro
+        @Nullable
+        @Description("Maximum number of partitions each task writes. The task fails if its records have more. " +
+                "Defaults to 1000.")
+        private Integer maxPartitions;
+
+        @Macro
+        @Nullable
+        @Description("Compression of the files of the text based formats: none, gzip, zstd, snappy or lz4. " +
+                "The files are compressed in blocks on several threads. Defaults to none.")
+        private String compression;
+
+        @Macro
+        @Nullable
+        @Description("Compression level, -1 for the default level of the compression. Defaults to -1.")
+        private Integer compressionLevel;
+
+        @Macro
+        @Nullable
+        @Description("Size in bytes of the blocks compressed independently. Snappy and lz4 blocks are capped to fit " +
+                "the buffers of the Hadoop codecs. Defaults to 1 MB.")
+        private Integer compressionBlockSize;
+
+        @Macro
+        @Nullable
+        @Description("Maximum number of blocks each file compresses at the same time. Defaults to 4.")
+        private Integer compressionThreads;
+
         ObsBatchSinkConfig() {
             // Set default value for Nullable properties.
             this.enableEncryption = false;
             this.authenticationMethod = ACCESS_CREDENTIALS;
             this.fileSystemProperties = GSON.toJson(Collections.emptyMap());
+            this.parallelUpload = false;
+            this.uploadPartSize = ObsConstants.DEFAULT_UPLOAD_PART_SIZE;
+            this.uploadConcurrency = ObsConstants.DEFAULT_UPLOAD_CONCURRENCY;
+            this.uploadMemoryLimit = ObsConstants.DEFAULT_UPLOAD_MEMORY_LIMIT;
+            this.asyncWrite = false;
+            this.writeBufferSize = ObsConstants.DEFAULT_WRITE_BUFFER_SIZE;
+            this.writeBufferDepth = ObsConstants.DEFAULT_WRITE_BUFFER_DEPTH;
+            this.offHeapWriteBuffers = false;
+            this.directCommit = false;
+            this.commitThreads = ObsConstants.DEFAULT_COMMIT_THREADS;
+            this.maxOpenWriters = ObsConstants.DEFAULT_MAX_OPEN_WRITERS;
+            this.maxPartitions = ObsConstants.DEFAULT_MAX_PARTITIONS;
+            this.compression = NO_COMPRESSION;
+            this.compressionLevel = ObsConstants.DEFAULT_COMPRESSION_LEVEL;
+            this.compressionBlockSize = ObsConstants.DEFAULT_COMPRESSION_BLOCK_SIZE;
+            this.compressionThreads = ObsConstants.DEFAULT_COMPRESSION_THREADS;
         }
 
         public void validate() {
@@ -184,6 +505,109 @@ public class ObsBatchSink extends AbstractFileSink<ObsBatchSink.ObsBatchSinkConf
                             .withConfigProperty(NAME_FILE_SYSTEM_PROPERTIES).withStacktrace(e.getStackTrace());
                 }
             }
+
+            if (!containsMacro(NAME_UPLOAD_PART_SIZE) && uploadPartSize != null
+                    && uploadPartSize < ObsConstants.MIN_UPLOAD_PART_SIZE) {
+                collector.addFailure("Upload part size must be at least 5 MB.", null)
+                        .withConfigProperty(NAME_UPLOAD_PART_SIZE);
+            }
+            if (!containsMacro(NAME_UPLOAD_CONCURRENCY) && uploadConcurrency != null && uploadConcurrency < 1) {
+                collector.addFailure("Upload concurrency must be at least 1.", null)
+                        .withConfigProperty(NAME_UPLOAD_CONCURRENCY);
+            }
+            if (!containsMacro(NAME_UPLOAD_MEMORY_LIMIT) && uploadMemoryLimit != null && uploadMemoryLimit < 1) {
+                collector.addFailure("Upload memory limit must be positive.", null)
+                        .withConfigProperty(NAME_UPLOAD_MEMORY_LIMIT);
+            }
+            if (!containsMacro(NAME_WRITE_BUFFER_SIZE) && writeBufferSize != null
+                    && (writeBufferSize < 1 || writeBufferSize > Integer.MAX_VALUE - 8)) {
+                collector.addFailure("Write buffer size must be positive and less than 2 GB.", null)
+                        .withConfigProperty(NAME_WRITE_BUFFER_SIZE);
+            }
+            if (!containsMacro(NAME_WRITE_BUFFER_DEPTH) && writeBufferDepth != null && writeBufferDepth < 2) {
+                collector.addFailure("Write buffer depth must be at least 2.", null)
+                        .withConfigProperty(NAME_WRITE_BUFFER_DEPTH);
+            }
+            if (!containsMacro(NAME_DIRECT_COMMIT) && shouldCommitDirectly()
+                    && !ACCESS_CREDENTIALS.equalsIgnoreCase(authenticationMethod)) {
+                collector.addFailure("Direct commit requires the Access Credentials authentication.", null)
+                        .withConfigProperty(NAME_DIRECT_COMMIT).withConfigProperty(NAME_AUTH_METHOD);
+            }
+            if (!containsMacro(NAME_COMMIT_THREADS) && commitThreads != null && commitThreads < 1) {
+                collector.addFailure("Commit threads must be at least 1.", null)
+                        .withConfigProperty(NAME_COMMIT_THREADS);
+            }
+            if (!containsMacro(NAME_ROLL_SIZE) && rollSize != null && rollSize < 1) {
+                collector.addFailure("Roll size must be positive.", null).withConfigProperty(NAME_ROLL_SIZE);
+            }
+            if (!containsMacro(NAME_ROLL_RECORDS) && rollRecords != null && rollRecords < 1) {
+                collector.addFailure("Roll records must be positive.", null).withConfigProperty(NAME_ROLL_RECORDS);
+            }
+            if (!containsMacro(NAME_PARTITION_FIELDS) && isPartitioned()) {
+                validatePartitionFields(collector);
+            }
+            if (!containsMacro(NAME_MAX_OPEN_WRITERS) && maxOpenWriters != null && maxOpenWriters < 1) {
+                collector.addFailure("Maximum open writers must be at least 1.", null)
+                        .withConfigProperty(NAME_MAX_OPEN_WRITERS);
+            }
+            if (!containsMacro(NAME_MAX_PARTITIONS) && maxPartitions != null && maxPartitions < 1) {
+                collector.addFailure("Maximum partitions must be at least 1.", null)
+                        .withConfigProperty(NAME_MAX_PARTITIONS);
+            }
+            if (!containsMacro(NAME_COMPRESSION)) {
+                validateCompression(collector);
+            }
+            if (!containsMacro(NAME_COMPRESSION_LEVEL) && compressionLevel != null && compressionLevel < -1) {
+                collector.addFailure("Compression level must be -1 or more.", null)
+                        .withConfigProperty(NAME_COMPRESSION_LEVEL);
+            }
+            if (!containsMacro(NAME_COMPRESSION_BLOCK_SIZE) && compressionBlockSize != null
+                    && compressionBlockSize < 1) {
+                collector.addFailure("Compression block size must be positive.", null)
+                        .withConfigProperty(NAME_COMPRESSION_BLOCK_SIZE);
+            }
+            if (!containsMacro(NAME_COMPRESSION_THREADS) && compressionThreads != null && compressionThreads < 1) {
+                collector.addFailure("Compression threads must be at least 1.", null)
+                        .withConfigProperty(NAME_COMPRESSION_THREADS);
+            }
+        }
+
+        private void validateCompression(FailureCollector collector) {
+            if (Strings.isNullOrEmpty(compression) || NO_COMPRESSION.equalsIgnoreCase(compression)) {
+                return;
+            }
+            if (ObsBlockCompression.fromName(compression) == null) {
+                collector.addFailure(String.format("Unsupported compression '%s'.", compression),
+                        "Use none, gzip, zstd, snappy or lz4.").withConfigProperty(NAME_COMPRESSION);
+            } else if (!containsMacro(NAME_FORMAT) && SELF_COMPRESSED_FORMATS.contains(getFormatName())) {
+                collector.addFailure(String.format("Format '%s' compresses its files itself.", getFormatName()),
+                        "Set the compression to none.")
+                        .withConfigProperty(NAME_COMPRESSION).withConfigProperty(NAME_FORMAT);
+            }
+        }
+
+        private void validatePartitionFields(FailureCollector collector) {
+            Schema schema;
+            try {
+                schema = getSchema();
+            } catch (IllegalArgumentException e) {
+                // the invalid schema is reported by the file sink config
+                return;
+            }
+            if (schema == null) {
+                return;
+            }
+            for (String field : getPartitionFields()) {
+                Schema.Field schemaField = schema.getField(field);
+                if (schemaField == null) {
+                    collector.addFailure(String.format("Partition field '%s' is not in the schema.", field), null)
+                            .withConfigProperty(NAME_PARTITION_FIELDS);
+                } else if (!ObsRecordPartitioner.isSupported(schemaField.getSchema())) {
+                    collector.addFailure(String.format("Partition field '%s' must be a boolean, number, string, " +
+                            "enum, date or timestamp.", field), null)
+                            .withConfigProperty(NAME_PARTITION_FIELDS).withOutputSchemaField(field);
+                }
+            }
         }
 
         @Override
@@ -195,10 +619,112 @@ public class ObsBatchSink extends AbstractFileSink<ObsBatchSink.ObsBatchSinkConf
             return enableEncryption;
         }
 
+        boolean shouldUploadInParallel() {
+            return parallelUpload != null && parallelUpload;
+        }
+
+        long getUploadPartSize() {
+            return uploadPartSize == null ? ObsConstants.DEFAULT_UPLOAD_PART_SIZE : uploadPartSize;
+        }
+
+        int getUploadConcurrency() {
+            return uploadConcurrency == null ? ObsConstants.DEFAULT_UPLOAD_CONCURRENCY : uploadConcurrency;
+        }
+
+        long getUploadMemoryLimit() {
+            return uploadMemoryLimit == null ? ObsConstants.DEFAULT_UPLOAD_MEMORY_LIMIT : uploadMemoryLimit;
+        }
+
+        boolean shouldWriteAsynchronously() {
+            return asyncWrite != null && asyncWrite;
+        }
+
+        long getWriteBufferSize() {
+            return writeBufferSize == null ? ObsConstants.DEFAULT_WRITE_BUFFER_SIZE : writeBufferSize;
+        }
+
+        int getWriteBufferDepth() {
+            return writeBufferDepth == null ? ObsConstants.DEFAULT_WRITE_BUFFER_DEPTH : writeBufferDepth;
+        }
+
+        boolean shouldUseOffHeapWriteBuffers() {
+            return offHeapWriteBuffers != null && offHeapWriteBuffers;
+        }
+
+        boolean shouldCommitDirectly() {
+            return directCommit != null && directCommit;
+        }
+
+        int getCommitThreads() {
+            return commitThreads == null ? ObsConstants.DEFAULT_COMMIT_THREADS : commitThreads;
+        }
+
+        /**
+         * @return the roll size, 0 if the files are not rolled by size
+         */
+        long getRollSize() {
+            return rollSize == null ? 0L : rollSize;
+        }
+
+        /**
+         * @return the roll record count, 0 if the files are not rolled by record count
+         */
+        long getRollRecords() {
+            return rollRecords == null ? 0L : rollRecords;
+        }
+
+        boolean isPartitioned() {
+            return !getPartitionFields().isEmpty();
+        }
+
+        List<String> getPartitionFields() {
+            List<String> fields = new ArrayList<>();
+            if (!Strings.isNullOrEmpty(partitionFields)) {
+                for (String field : partitionFields.split(",")) {
+                    if (!field.trim().isEmpty()) {
+                        fields.add(field.trim());
+                    }
+                }
+            }
+            return fields;
+        }
+
+        int getMaxOpenWriters() {
+            return maxOpenWriters == null ? ObsConstants.DEFAULT_MAX_OPEN_WRITERS : maxOpenWriters;
+        }
+
+        int getMaxPartitions() {
+            return maxPartitions == null ? ObsConstants.DEFAULT_MAX_PARTITIONS : maxPartitions;
+        }
+
+        /**
+         * @return the compression of the files, or null if they are not compressed
+         */
+        @Nullable
+        ObsBlockCompression getCompression() {
+            if (Strings.isNullOrEmpty(compression) || NO_COMPRESSION.equalsIgnoreCase(compression)) {
+                return null;
+            }
+            return ObsBlockCompression.fromName(compression);
+        }
+
+        int getCompressionLevel() {
+            return compressionLevel == null ? ObsConstants.DEFAULT_COMPRESSION_LEVEL : compressionLevel;
+        }
+
+        int getCompressionBlockSize() {
+            return compressionBlockSize == null ? ObsConstants.DEFAULT_COMPRESSION_BLOCK_SIZE : compressionBlockSize;
+        }
+
+        int getCompressionThreads() {
+            return compressionThreads == null ? ObsConstants.DEFAULT_COMPRESSION_THREADS : compressionThreads;
+        }
+
         Map<String, String> getFilesystemProperties() {
-            Map<String, String> properties = new HashMap<>();
-            if (containsMacro(NAME_FILE_SYSTEM_PROPERTIES)) {
-                return properties;
+            // the default value is an empty json object, no need to parse it
+            if (containsMacro(NAME_FILE_SYSTEM_PROPERTIES) || Strings.isNullOrEmpty(fileSystemProperties)
+                    || "{}".equals(fileSystemProperties)) {
+                return new HashMap<>();
             }
             return GSON.fromJson(fileSystemProperties, MAP_STRING_STRING_TYPE);
         }
@@ -0,0 +1,400 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PutObjectRequest;
+import io.cdap.plugin.huawei.obs.common.OBSFileSystemP;
+import io.cdap.plugin.huawei.obs.common.ObsClientCache;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import io.cdap.plugin.huawei.obs.common.ObsPendingUpload;
+import io.cdap.plugin.huawei.obs.common.ObsPrefixLister;
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
+
+/**
+ * {@link OutputCommitter} that commits the files written to Obs without renaming them.
+ *
+ * The files of the tasks are uploaded to their final location by {@link OBSFileSystemP} with multipart uploads that
+ * are not completed, see {@link ObsPendingUpload}. When a task commits, the pending uploads of its attempt are
+ * gathered into a single pending set under the job attempt directory. When the job commits, the uploads of every
+ * pending set are completed in parallel, which makes the files visible, and a manifest of the files is written to the
+ * _SUCCESS object. When a task or the job fails, its pending uploads are aborted.
+ *
+ * The directories are the ones of FileOutputCommitter, which the output formats use to name the files:
+ * {@code <output>/_temporary/<application attempt>/_temporary/<task attempt>}.
+ */
+public class ObsDirectOutputCommitter extends OutputCommitter {
+    private static final Logger logger = LogManager.getLogger(ObsDirectOutputCommitter.class);
+
+    static final String PENDING_SET_SUFFIX = ".pendingset";
+    static final String SUCCESS = "_SUCCESS";
+
+    private static final String DELIMITER = "/";
+    private static final Gson GSON = new Gson();
+
+    private final String bucket;
+    // key of the output directory, ending with the delimiter unless it is the root of the bucket
+    private final String outputKey;
+    private final int threads;
+    @Nullable
+    private final ObsClientCache.ClientKey clientKey;
+    @Nullable
+    private final IObsClient obsClient;
+    private final ObsRequestMetrics metrics;
+
+    /**
+     * @param metrics metrics of the stage, counting the requests of the commit
+     * @param threads number of uploads completed or aborted at the same time
+     */
+    public ObsDirectOutputCommitter(Path outputPath, ObsClientCache.ClientKey clientKey, ObsRequestMetrics metrics,
+                                    int threads) {
+        this(outputPath, clientKey, null, metrics, threads);
+    }
+
+    @VisibleForTesting
+    ObsDirectOutputCommitter(Path outputPath, IObsClient obsClient, int threads) {
+        this(outputPath, null, obsClient, ObsRequestMetrics.get(), threads);
+    }
+
+    private ObsDirectOutputCommitter(Path outputPath, @Nullable ObsClientCache.ClientKey clientKey,
+                                     @Nullable IObsClient obsClient, ObsRequestMetrics metrics, int threads) {
+        ObsPath path = ObsPath.from(outputPath.toString());
+        String name = path.getName();
+        this.bucket = path.getBucket();
+        this.outputKey = name.isEmpty() || name.endsWith(DELIMITER) ?
+                name : name + DELIMITER;
+        this.threads = Math.max(1, threads);
+        this.clientKey = clientKey;
+        this.obsClient = obsClient;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void setupJob(JobContext context) {
+        // nothing to create, there are no directories in Obs
+    }
+
+    @Override
+    public void setupTask(TaskAttemptContext context) {
+        // the task attempt directory is created by the files written in it
+    }
+
+    @Override
+    public boolean needsTaskCommit(TaskAttemptContext context) {
+        return true;
+    }
+
+    /**
+     * Gathers the pending uploads of the task attempt into the pending set of the task. A later attempt of the same
+     * task replaces the pending set of the previous one.
+     *
+     * Fails if the task attempt directory holds files that are not pending uploads: they were written without the
+     * direct commit, and would be deleted with the temporary directory when the job commits.
+     */
+    @Override
+    public void commitTask(TaskAttemptContext context) throws IOException {
+        String taskAttemptKey = getTaskAttemptKey(context);
+        run(client -> {
+            List<String> pendingKeys = new ArrayList<>();
+            List<String> files = new ArrayList<>();
+            for (String key : listKeys(client, taskAttemptKey, null)) {
+                if (key.endsWith(ObsPendingUpload.PENDING_SUFFIX)) {
+                    pendingKeys.add(key);
+                } else if (!key.endsWith(DELIMITER) && !key.endsWith(OBSFileSystemP.FOLDER_SUFFIX)) {
+                    files.add(key);
+                }
+            }
+            if (!files.isEmpty()) {
+                throw new IOException("Task attempt " + context.getTaskAttemptID() + " wrote " + files.size()
+                        + " files that can't be committed directly, like obs://" + bucket + "/" + files.get(0));
+            }
+            List<ObsPendingUpload> uploads = new ArrayList<>();
+            for (String key : pendingKeys) {
+                uploads.addAll(ObsPendingUpload.load(client, bucket, key));
+            }
+            String pendingSetKey = getJobAttemptKey(context) + context.getTaskAttemptID().getTaskID()
+                    + PENDING_SET_SUFFIX;
+            for (String key : listKeys(client, pendingSetKey, PENDING_SET_SUFFIX)) {
+                if (key.equals(pendingSetKey)) {
+                    // an earlier attempt of the task committed, its files are replaced by the ones of this attempt
+                    abortUploads(client, ObsPendingUpload.load(client, bucket, key));
+                }
+            }
+            ObsPendingUpload.store(client, bucket, pendingSetKey, uploads);
+            deleteKeys(client, pendingKeys);
+            logger.debug("Committed {} files of task attempt {}", uploads.size(), context.getTaskAttemptID());
+            return null;
+        });
+    }
+
+    @Override
+    public void abortTask(TaskAttemptContext context) throws IOException {
+        String taskAttemptKey = getTaskAttemptKey(context);
+        run(client -> {
+            List<String> pendingKeys = listKeys(client, taskAttemptKey, ObsPendingUpload.PENDING_SUFFIX);
+            List<ObsPendingUpload> uploads = new ArrayList<>();
+            for (String key : pendingKeys) {
+                uploads.addAll(ObsPendingUpload.load(client, bucket, key));
+            }
+            abortUploads(client, uploads);
+            deleteKeys(client, pendingKeys);
+            logger.debug("Aborted {} files of task attempt {}", uploads.size(), context.getTaskAttemptID());
+            return null;
+        });
+    }
+
+    /**
+     * Completes the pending uploads of every committed task and writes the manifest. If an upload can't be completed,
+     * the uploads that were not completed yet are aborted.
+     */
+    @Override
+    public void commitJob(JobContext context) throws IOException {
+        String jobAttemptKey = getJobAttemptKey(context);
+        run(client -> {
+            List<ObsPendingUpload> uploads = new ArrayList<>();
+            for (String key : listKeys(client, jobAttemptKey, PENDING_SET_SUFFIX)) {
+                uploads.addAll(ObsPendingUpload.load(client, bucket, key));
+            }
+            ExecutorService executor = newExecutor(uploads.size());
+            try {
+                List<Future<?>> completions = new ArrayList<>(uploads.size());
+                for (ObsPendingUpload upload : uploads) {
+                    completions.add(executor.submit(() -> {
+                        upload.complete(client);
+                        return null;
+                    }));
+                }
+                IOException failure = await(completions);
+                if (failure != null) {
+                    // the uploads already completed are skipped
+                    abortUploads(client, uploads);
+                    throw failure;
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            writeManifest(client, uploads);
+            deleteKeys(client, listKeys(client, getTemporaryKey(), null));
+            logger.info("Committed {} files to obs://{}/{}", uploads.size(), bucket, outputKey);
+            return null;
+        });
+    }
+
+    /**
+     * Aborts the pending uploads of the committed tasks, and of the task attempts that were neither committed nor
+     * aborted.
+     */
+    @Override
+    public void abortJob(JobContext context, JobStatus.State state) throws IOException {
+        run(client -> {
+            List<String> keys = listKeys(client, getTemporaryKey(), null);
+            List<ObsPendingUpload> uploads = new ArrayList<>();
+            for (String key : keys) {
+                if (key.endsWith(PENDING_SET_SUFFIX) || key.endsWith(ObsPendingUpload.PENDING_SUFFIX)) {
+                    uploads.addAll(ObsPendingUpload.load(client, bucket, key));
+                }
+            }
+            abortUploads(client, uploads);
+            deleteKeys(client, keys);
+            logger.info("Aborted {} files of obs://{}/{}", uploads.size(), bucket, outputKey);
+            return null;
+        });
+    }
+
+    private String getTemporaryKey() {
+        return outputKey + ObsPendingUpload.TEMPORARY + DELIMITER;
+    }
+
+    private String getJobAttemptKey(JobContext context) {
+        return getTemporaryKey() + context.getConfiguration().getInt(MRJobConfig.APPLICATION_ATTEMPT_ID, 0)
+                + DELIMITER;
+    }
+
+    private String getTaskAttemptKey(TaskAttemptContext context) {
+        return getJobAttemptKey(context) + ObsPendingUpload.TEMPORARY + DELIMITER
+                + context.getTaskAttemptID() + DELIMITER;
+    }
+
+    /**
+     * Aborts the uploads in parallel. The uploads that were already completed or aborted are skipped, so that the
+     * other ones are still aborted.
+     */
+    private void abortUploads(IObsClient client, List<ObsPendingUpload> uploads) throws IOException {
+        ExecutorService executor = newExecutor(uploads.size());
+        try {
+            List<Future<?>> aborts = new ArrayList<>(uploads.size());
+            for (ObsPendingUpload upload : uploads) {
+                aborts.add(executor.submit(() -> {
+                    if (!upload.abort(client)) {
+                        logger.debug("Upload {} of {} was already completed or aborted", upload.getUploadId(), upload);
+                    }
+                    return null;
+                }));
+            }
+            IOException failure = await(aborts);
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeManifest(IObsClient client, List<ObsPendingUpload> uploads) throws IOException {
+        Manifest manifest = new Manifest();
+        for (ObsPendingUpload upload : uploads) {
+            manifest.files.add(upload.getKey());
+            manifest.length += upload.getLength();
+        }
+        byte[] content = GSON.toJson(manifest).getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength((long) content.length);
+        metadata.setContentType("application/json");
+        PutObjectRequest request = new PutObjectRequest(bucket, outputKey + SUCCESS, new ByteArrayInputStream(content));
+        request.setMetadata(metadata);
+        try {
+            client.putObject(request);
+        } catch (ObsException e) {
+            throw new IOException("Failed to write the manifest of obs://" + bucket + "/" + outputKey, e);
+        }
+    }
+
+    /**
+     * @param suffix suffix of the keys to return, or null to return every key under the prefix
+     */
+    private List<String> listKeys(IObsClient client, String prefix, @Nullable String suffix) throws IOException {
+        ListObjectsRequest request = new ListObjectsRequest(bucket);
+        request.setPrefix(prefix);
+        List<String> keys = new ArrayList<>();
+        ObjectListing result;
+        try {
+            do {
+                result = client.listObjects(request);
+                for (ObsObject object : result.getObjects()) {
+                    if (suffix == null || object.getObjectKey().endsWith(suffix)) {
+                        keys.add(object.getObjectKey());
+                    }
+                }
+                request.setMarker(ObsPrefixLister.nextMarker(result));
+            } while (result.isTruncated());
+        } catch (ObsException e) {
+            throw new IOException("Failed to list obs://" + bucket + "/" + prefix, e);
+        }
+        return keys;
+    }
+
+    private void deleteKeys(IObsClient client, List<String> keys) throws IOException {
+        ExecutorService executor = newExecutor(keys.size());
+        try {
+            List<Future<?>> deletes = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                deletes.add(executor.submit(() -> client.deleteObject(bucket, key)));
+            }
+            IOException failure = await(deletes);
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ExecutorService newExecutor(int tasks) {
+        return Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks)), new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("obs-commit-%d").build());
+    }
+
+    /**
+     * Waits for all the futures.
+     *
+     * @return the first failure, or null if they all succeeded
+     */
+    @Nullable
+    private static IOException await(List<Future<?>> futures) throws IOException {
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while committing the output");
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    failure = cause instanceof IOException ? (IOException) cause :
+                            new IOException("Failed to commit the output", cause);
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+        return failure;
+    }
+
+    private <T> T run(ObsOperation<T> operation) throws IOException {
+        if (obsClient != null) {
+            return operation.run(obsClient);
+        }
+        try (ObsClientCache.Lease lease = ObsClientCache.getInstance().acquire(clientKey, metrics)) {
+            return operation.run(lease.getClient());
+        }
+    }
+
+    /**
+     * Operation run with the Obs client of the committer.
+     */
+    private interface ObsOperation<T> {
+        T run(IObsClient client) throws IOException;
+    }
+
+    /**
+     * Content of the _SUCCESS object: the keys of the committed files and their total length.
+     */
+    @VisibleForTesting
+    static final class Manifest {
+        final List<String> files = new ArrayList<>();
+        long length;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import io.cdap.plugin.huawei.obs.common.OBSFileSystemP;
+import io.cdap.plugin.huawei.obs.common.ObsClientCache;
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link OutputFormat} that writes the records with the output format of the sink format. When a roll size or a roll
+ * record count is set, each task rolls over to a new file once the current one reaches it, see
+ * {@link ObsRollingRecordWriter}. When partition fields are set, each record is written to the directory of its
+ * partition, see {@link ObsPartitionedRecordWriter}. When the output is committed directly, the files are committed with
+ * {@link ObsDirectOutputCommitter} instead of the rename based committer of the sink format. The uploads of the files
+ * left open by a failed task attempt are aborted when the attempt is aborted.
+ *
+ * The filesystem writing the files is shared by the stages writing to the same bucket, so the settings of the sink
+ * that change how the files are written, like the direct commit, are passed to it for each task attempt.
+ */
+public class ObsOutputFormat<K, V> extends OutputFormat<K, V> {
+    /**
+     * Class name of the output format of the sink format.
+     */
+    public static final String DELEGATE = "fs.obs.cdap.output.delegate";
+
+    /**
+     * Returns the writer of the task attempt. The files of the attempt are written with the write settings of the
+     * configuration of the task, see {@link OBSFileSystemP#startTaskAttempt}, until the writer is closed.
+     */
+    @Override
+    public RecordWriter<K, V> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        Path outputPath = FileOutputFormat.getOutputPath(context);
+        FileSystem fs = outputPath == null ? null : outputPath.getFileSystem(conf);
+        if (!(fs instanceof OBSFileSystemP)) {
+            if (conf.getBoolean(ObsConstants.COMMIT_DIRECT, false)) {
+                throw new IOException("The output can only be committed directly when it is written with "
+                        + OBSFileSystemP.class.getName());
+            }
+            if (conf.getLong(ObsConstants.OUTPUT_ROLL_SIZE, 0L) > 0) {
+                throw new IOException("The output files can only be rolled by size when they are written with "
+                        + OBSFileSystemP.class.getName());
+            }
+            return newRecordWriter(context, () -> 0L);
+        }
+        OBSFileSystemP obsFs = (OBSFileSystemP) fs;
+        TaskAttemptID taskAttempt = context.getTaskAttemptID();
+        obsFs.startTaskAttempt(taskAttempt, conf);
+        try {
+            return new TaskAttemptRecordWriter<>(newRecordWriter(context, () -> obsFs.getBytesWritten(taskAttempt)),
+                    obsFs, taskAttempt);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            obsFs.finishTaskAttempt(taskAttempt);
+            throw e;
+        }
+    }
+
+    /**
+     * @param bytesWritten the number of bytes written by the task attempt to the filesystem
+     */
+    private RecordWriter<K, V> newRecordWriter(TaskAttemptContext context, LongSupplier bytesWritten)
+            throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        OutputFormat<K, V> delegate = getDelegate(conf);
+        long rollSize = conf.getLong(ObsConstants.OUTPUT_ROLL_SIZE, 0L);
+        long rollRecords = conf.getLong(ObsConstants.OUTPUT_ROLL_RECORDS, 0L);
+        String partitionFields = conf.get(ObsConstants.OUTPUT_PARTITION_FIELDS);
+        if (partitionFields != null && !partitionFields.isEmpty()) {
+            return new ObsPartitionedRecordWriter<>(delegate, context,
+                    new ObsRecordPartitioner(Arrays.asList(partitionFields.split(","))),
+                    conf.getInt(ObsConstants.OUTPUT_MAX_OPEN_WRITERS, ObsConstants.DEFAULT_MAX_OPEN_WRITERS),
+                    conf.getInt(ObsConstants.OUTPUT_MAX_PARTITIONS, ObsConstants.DEFAULT_MAX_PARTITIONS),
+                    rollSize, rollRecords, bytesWritten);
+        }
+        if (rollSize <= 0 && rollRecords <= 0) {
+            return delegate.getRecordWriter(context);
+        }
+        return new ObsRollingRecordWriter<>(delegate, context, rollSize, rollRecords,
+                bytesWritten);
+    }
+
+    @Override
+    public void checkOutputSpecs(JobContext context) throws IOException, InterruptedException {
+        getDelegate(context.getConfiguration()).checkOutputSpecs(context);
+    }
+
+    /**
+     * Returns the committer of the output, which first aborts the uploads of the files left open by a task attempt
+     * when the attempt is aborted, see {@link ObsAbortingOutputCommitter}.
+     */
+    @Override
+    public OutputCommitter getOutputCommitter(TaskAttemptContext context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        Path outputPath = FileOutputFormat.getOutputPath(context);
+        if (!conf.getBoolean(ObsConstants.COMMIT_DIRECT, false)) {
+            OutputCommitter committer = getDelegate(conf).getOutputCommitter(context);
+            return outputPath == null ? committer : new ObsAbortingOutputCommitter(committer, outputPath);
+        }
+        if (outputPath == null) {
+            throw new IOException("No output path set for the direct commit");
+        }
+        ObsClientCache.ClientKey clientKey = ObsClientCache.ClientKey.fromConfiguration(conf);
+        if (clientKey == null) {
+            throw new IOException("The access credentials are required to commit the output directly");
+        }
+        return new ObsAbortingOutputCommitter(new ObsDirectOutputCommitter(outputPath, clientKey,
+                ObsRequestMetrics.fromConfiguration(conf),
+                conf.getInt(ObsConstants.COMMIT_THREADS, ObsConstants.DEFAULT_COMMIT_THREADS)), outputPath);
+    }
+
+    /**
+     * {@link RecordWriter} that lets the filesystem know once the task attempt closed its files.
+     */
+    private static final class TaskAttemptRecordWriter<K, V> extends RecordWriter<K, V> {
+        private final RecordWriter<K, V> delegate;
+        private final OBSFileSystemP fs;
+        private final TaskAttemptID taskAttempt;
+
+        private TaskAttemptRecordWriter(RecordWriter<K, V> delegate, OBSFileSystemP fs, TaskAttemptID taskAttempt) {
+            this.delegate = delegate;
+            this.fs = fs;
+            this.taskAttempt = taskAttempt;
+        }
+
+        @Override
+        public void write(K key, V value) throws IOException, InterruptedException {
+            delegate.write(key, value);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+            try {
+                delegate.close(context);
+            } finally {
+                fs.finishTaskAttempt(taskAttempt);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> OutputFormat<K, V> getDelegate(Configuration conf) {
+        Class<?> delegateClass = conf.getClass(DELEGATE, null, OutputFormat.class);
+        if (delegateClass == null) {
+            throw new IllegalStateException("The output format of the sink format is not set in " + DELEGATE);
+        }
+        return (OutputFormat<K, V>) ReflectionUtils.newInstance(delegateClass, conf);
+    }
+}
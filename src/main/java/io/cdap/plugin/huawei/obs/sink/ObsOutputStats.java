@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObsObject;
+import io.cdap.plugin.huawei.obs.common.ObsPendingUpload;
+import io.cdap.plugin.huawei.obs.common.ObsPrefixLister;
+
+import java.io.IOException;
+
+/**
+ * Sizes of the files committed to an output directory, reported as metrics once a run succeeds so that the output
+ * can be checked against the target file size.
+ */
+public final class ObsOutputStats {
+    private static final String DELIMITER = "/";
+
+    private long files;
+    private long bytes;
+    private long minBytes;
+    private long maxBytes;
+
+    private ObsOutputStats() {
+    }
+
+    /**
+     * Lists the files under the output directory, including the ones of its sub-directories. The temporary directory
+     * and the files whose name starts with '_' or '.', like the _SUCCESS marker, are not part of the output.
+     *
+     * @param prefix the output directory, either empty or ending with '/'
+     */
+    public static ObsOutputStats collect(IObsClient obsClient, String bucket, String prefix) throws IOException {
+        ObsOutputStats stats = new ObsOutputStats();
+        ListObjectsRequest request = new ListObjectsRequest(bucket);
+        request.setPrefix(prefix);
+        ObjectListing result;
+        try {
+            do {
+                result = obsClient.listObjects(request);
+                for (ObsObject object : result.getObjects()) {
+                    if (isOutputFile(object.getObjectKey().substring(prefix.length()))) {
+                        Long length = object.getMetadata().getContentLength();
+                        stats.add(length == null ? 0L : length);
+                    }
+                }
+                request.setMarker(ObsPrefixLister.nextMarker(result));
+            } while (result.isTruncated());
+        } catch (ObsException e) {
+            throw new IOException("Failed to list the output obs://" + bucket + "/" + prefix, e);
+        }
+        return stats;
+    }
+
+    private static boolean isOutputFile(String path) {
+        if (path.isEmpty() || path.endsWith(DELIMITER)
+                || (path + DELIMITER).startsWith(ObsPendingUpload.TEMPORARY + DELIMITER)) {
+            return false;
+        }
+        String name = path.substring(path.lastIndexOf(DELIMITER) + 1);
+        return !name.startsWith("_") && !name.startsWith(".");
+    }
+
+    private void add(long length) {
+        minBytes = files == 0 ? length : Math.min(minBytes, length);
+        maxBytes = Math.max(maxBytes, length);
+        files++;
+        bytes += length;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getMinBytes() {
+        return minBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getAverageBytes() {
+        return files == 0 ? 0L : bytes / files;
+    }
+
+    @Override
+    public String toString() {
+        return files + " files, " + bytes + " bytes, min " + minBytes + ", max " + maxBytes + ", avg "
+                + getAverageBytes();
+    }
+}
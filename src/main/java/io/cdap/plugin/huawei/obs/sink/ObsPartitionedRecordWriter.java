@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link RecordWriter} that writes each record to the directory of its partition, so that a single run lays out the
+ * records of many partitions, for example {@code <output>/tenant=a/date=2021-10-18/part-00000-r-00003}.
+ *
+ * Each partition is written by its own {@link ObsRollingRecordWriter}. Every open file holds buffers, so the number
+ * of files open at the same time is bounded: once the limit is reached, the file of the least recently written
+ * partition is closed, and the next records of that partition are written to a new file. Input grouped by partition
+ * keeps the number of files low. The number of partitions written by a task is bounded as well, to fail the tasks that
+ * would write a file per record when the partition fields have too many values.
+ */
+public class ObsPartitionedRecordWriter<K, V> extends RecordWriter<K, V> {
+    private static final Logger logger = LogManager.getLogger(ObsPartitionedRecordWriter.class);
+
+    private final OutputFormat<K, V> delegate;
+    private final TaskAttemptContext context;
+    private final Function<? super V, String> partitioner;
+    private final int maxOpenWriters;
+    private final int maxPartitions;
+    private final long rollSize;
+    private final long rollRecords;
+    private final LongSupplier bytesWritten;
+    private final String baseName;
+
+    private final Map<String, ObsRollingRecordWriter<K, V>> partitions = new HashMap<>();
+    // the writers of the partitions with an open file, from the least to the most recently written
+    private final LinkedHashMap<String, ObsRollingRecordWriter<K, V>> openWriters =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long evictions;
+
+    /**
+     * @param partitioner returns the directory of the partition of a record, relative to the output
+     * @param maxOpenWriters maximum number of files open at the same time
+     * @param maxPartitions maximum number of partitions written by the task
+     * @param rollSize size in bytes of the files, 0 to not roll by size
+     * @param rollRecords number of records of the files, 0 to not roll by record count
+     * @param bytesWritten the number of bytes written by the task to the filesystem
+     */
+    public ObsPartitionedRecordWriter(OutputFormat<K, V> delegate, TaskAttemptContext context,
+                                      Function<? super V, String> partitioner, int maxOpenWriters, int maxPartitions,
+                                      long rollSize, long rollRecords, LongSupplier bytesWritten) {
+        this.delegate = delegate;
+        this.context = context;
+        this.partitioner = partitioner;
+        this.maxOpenWriters = maxOpenWriters;
+        this.maxPartitions = maxPartitions;
+        this.rollSize = rollSize;
+        this.rollRecords = rollRecords;
+        this.bytesWritten = bytesWritten;
+        this.baseName = ObsRollingRecordWriter.getBaseName(context);
+    }
+
+    @Override
+    public void write(K key, V value) throws IOException, InterruptedException {
+        String partition = partitioner.apply(value);
+        ObsRollingRecordWriter<K, V> writer = partitions.get(partition);
+        if (writer == null) {
+            if (partitions.size() >= maxPartitions) {
+                throw new IOException(String.format("Task %s writes more than the maximum of %d partitions, " +
+                        "failed to write partition %s", context.getTaskAttemptID(), maxPartitions, partition));
+            }
+            writer = new ObsRollingRecordWriter<>(delegate, context, partition + "/" + baseName, rollSize,
+                    rollRecords, bytesWritten);
+            partitions.put(partition, writer);
+        }
+        if (!writer.isOpen() && openWriters.size() >= maxOpenWriters) {
+            Iterator<ObsRollingRecordWriter<K, V>> leastRecentlyWritten = openWriters.values().iterator();
+            ObsRollingRecordWriter<K, V> evicted = leastRecentlyWritten.next();
+            leastRecentlyWritten.remove();
+            evicted.roll();
+            evictions++;
+        }
+        writer.write(key, value);
+        if (writer.isOpen()) {
+            openWriters.put(partition, writer);
+        } else {
+            openWriters.remove(partition);
+        }
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+        IOException failure = null;
+        for (ObsRollingRecordWriter<K, V> writer : openWriters.values()) {
+            try {
+                writer.roll();
+            } catch (IOException e) {
+                // close the other files, so that their buffers are released
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        openWriters.clear();
+        if (failure != null) {
+            throw failure;
+        }
+        logger.info("Task {} wrote {} partitions, closed the files of the least recently written partition {} times",
+                this.context.getTaskAttemptID(), partitions.size(), evictions);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.math.BigDecimal;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Returns the directory of the partition of a record, {@code <field>=<value>} for each of the partition fields, the
+ * way Hive lays out the partitions of a table, for example {@code tenant=a/date=2021-10-18}.
+ *
+ * The values are escaped like Hive does, so that they can be read back as partition values, and null or empty values
+ * go to the Hive default partition.
+ */
+public class ObsRecordPartitioner implements Function<Object, String> {
+    public static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final List<String> fields;
+
+    public ObsRecordPartitioner(List<String> fields) {
+        this.fields = fields;
+    }
+
+    @Override
+    public String apply(Object value) {
+        if (!(value instanceof StructuredRecord)) {
+            throw new IllegalArgumentException("Only records can be partitioned, got " + value);
+        }
+        StructuredRecord record = (StructuredRecord) value;
+        StringBuilder path = new StringBuilder();
+        for (String field : fields) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            String partitionValue = getValue(record, field);
+            path.append(escape(field)).append('=')
+                    .append(partitionValue == null || partitionValue.isEmpty() ? DEFAULT_PARTITION
+                            : escape(partitionValue));
+        }
+        return path.toString();
+    }
+
+    /**
+     * @return whether the values of a field of the given schema can be used as partition values
+     */
+    public static boolean isSupported(Schema schema) {
+        Schema nonNullable = schema.isNullable() ? schema.getNonNullable() : schema;
+        switch (nonNullable.getType()) {
+            case BOOLEAN:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+            case STRING:
+            case ENUM:
+                return true;
+            case BYTES:
+                return nonNullable.getLogicalType() == Schema.LogicalType.DECIMAL;
+            default:
+                return false;
+        }
+    }
+
+    @Nullable
+    private static String getValue(StructuredRecord record, String name) {
+        Schema.Field field = record.getSchema().getField(name);
+        if (field == null) {
+            throw new IllegalArgumentException("Partition field '" + name + "' is not in the schema of the record");
+        }
+        Object value = record.get(name);
+        if (value == null) {
+            return null;
+        }
+        Schema schema = field.getSchema().isNullable() ? field.getSchema().getNonNullable() : field.getSchema();
+        Schema.LogicalType logicalType = schema.getLogicalType();
+        if (logicalType == Schema.LogicalType.DATE) {
+            return record.getDate(name).toString();
+        }
+        if (logicalType == Schema.LogicalType.TIMESTAMP_MILLIS || logicalType == Schema.LogicalType.TIMESTAMP_MICROS) {
+            return record.getTimestamp(name).format(TIMESTAMP_FORMAT);
+        }
+        if (logicalType == Schema.LogicalType.DECIMAL) {
+            BigDecimal decimal = record.getDecimal(name);
+            return decimal.toPlainString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * Escapes the characters that cannot be part of a partition directory name the way Hive does, as '%' followed by
+     * the hexadecimal code of the character.
+     */
+    static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (needsEscaping(c)) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+                }
+                escaped.append('%').append(String.format("%02X", (int) c));
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private static boolean needsEscaping(char c) {
+        if (c < 0x20 || c == 0x7F) {
+            return true;
+        }
+        switch (c) {
+            case '"':
+            case '#':
+            case '%':
+            case '\'':
+            case '*':
+            case '/':
+            case ':':
+            case '=':
+            case '?':
+            case '\\':
+            case '{':
+            case '[':
+            case ']':
+            case '^':
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageConfigurer;
+import io.cdap.cdap.etl.api.batch.SparkCompute;
+import io.cdap.cdap.etl.api.batch.SparkExecutionPluginContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.storage.StorageLevel;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Changes the number of partitions of the records before they are written by {@link ObsBatchSink}, so that each task
+ * of the sink writes a file of about the target size instead of the many small files written when the previous stages
+ * have many small partitions, or the few large ones when they have few large partitions.
+ *
+ * Without a fixed number of partitions, the size of the records is estimated first, which requires computing them
+ * before they are written, so the records are persisted to not compute the previous stages twice.
+ */
+@Plugin(type = SparkCompute.PLUGIN_TYPE)
+@Name(ObsRepartitioner.NAME)
+@Description("Changes the number of partitions of the records so that an Obs sink writes files of about a target size.")
+public class ObsRepartitioner extends SparkCompute<StructuredRecord, StructuredRecord> {
+    public static final String NAME = "ObsRepartitioner";
+    private static final Logger logger = LogManager.getLogger(ObsRepartitioner.class);
+
+    private final ObsRepartitionerConfig config;
+
+    public ObsRepartitioner(ObsRepartitionerConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+        StageConfigurer stageConfigurer = pipelineConfigurer.getStageConfigurer();
+        config.validate(stageConfigurer.getFailureCollector());
+        stageConfigurer.getFailureCollector().getOrThrowException();
+        Schema inputSchema = stageConfigurer.getInputSchema();
+        stageConfigurer.setOutputSchema(inputSchema);
+    }
+
+    @Override
+    public JavaRDD<StructuredRecord> transform(SparkExecutionPluginContext context, JavaRDD<StructuredRecord> input) {
+        int current = input.getNumPartitions();
+        int partitions = config.getNumPartitions() == null ? estimatePartitions(input) : config.getNumPartitions();
+        if (partitions == current) {
+            return input;
+        }
+        // coalescing merges the partitions without a shuffle, but it can only reduce their number
+        if (partitions > current || config.shouldShuffle()) {
+            return input.repartition(partitions);
+        }
+        return input.coalesce(partitions);
+    }
+
+    /**
+     * Returns the number of partitions that splits the estimated size of the records in partitions of the target
+     * file size.
+     */
+    private int estimatePartitions(JavaRDD<StructuredRecord> input) {
+        if (input.getStorageLevel().equals(StorageLevel.NONE())) {
+            input.persist(StorageLevel.MEMORY_AND_DISK());
+        }
+        long bytes = input.map(ObsRepartitioner::estimateSize).fold(0L, Long::sum);
+        long targetFileSize = config.getTargetFileSize();
+        long partitions = Math.max(1L, bytes / targetFileSize + (bytes % targetFileSize == 0 ? 0 : 1));
+        logger.info("Estimated {} bytes in {} partitions, writing them in {} partitions of {} bytes", bytes,
+                input.getNumPartitions(), partitions, targetFileSize);
+        return (int) Math.min(partitions, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Estimates the size of a value once written, as the size of its fields in a binary format: numbers take their
+     * width and strings their length. The files of a compressed format are smaller.
+     */
+    static long estimateSize(@Nullable Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Byte) {
+            return 1L;
+        }
+        if (value instanceof Integer || value instanceof Float || value instanceof Short) {
+            return 4L;
+        }
+        if (value instanceof Number) {
+            return 8L;
+        }
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof ByteBuffer) {
+            return ((ByteBuffer) value).remaining();
+        }
+        long size = 0L;
+        if (value instanceof StructuredRecord) {
+            StructuredRecord record = (StructuredRecord) value;
+            for (Schema.Field field : record.getSchema().getFields()) {
+                size += estimateSize(record.get(field.getName()));
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                size += estimateSize(element);
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                size += estimateSize(element);
+            }
+            return size;
+        }
+        return value.toString().length();
+    }
+
+    /**
+     * Obs repartitioner configuration.
+     */
+    @SuppressWarnings("unused")
+    public static class ObsRepartitionerConfig extends PluginConfig {
+        private static final String NAME_NUM_PARTITIONS = "numPartitions";
+        private static final String NAME_TARGET_FILE_SIZE = "targetFileSize";
+        private static final long DEFAULT_TARGET_FILE_SIZE = 256L * 1024 * 1024;
+
+        @Macro
+        @Nullable
+        @Description("Number of partitions of the records, which is the number of files written by the sink. " +
+                "If not specified, it is computed from the estimated size of the records and the target file size.")
+        private Integer numPartitions;
+
+        @Macro
+        @Nullable
+        @Description("Size in bytes of the files written by the sink, used to compute the number of partitions. " +
+                "Defaults to 256 MB.")
+        private Long targetFileSize;
+
+        @Macro
+        @Nullable
+        @Description("Whether to shuffle the records when reducing the number of partitions, so that the partitions " +
+                "have the same size. Otherwise the partitions are merged without a shuffle. Defaults to False.")
+        private Boolean shuffle;
+
+        ObsRepartitionerConfig() {
+            // Set default value for Nullable properties.
+            this.targetFileSize = DEFAULT_TARGET_FILE_SIZE;
+            this.shuffle = false;
+        }
+
+        public void validate(FailureCollector collector) {
+            if (!containsMacro(NAME_NUM_PARTITIONS) && numPartitions != null && numPartitions < 1) {
+                collector.addFailure("Number of partitions must be at least 1.", null)
+                        .withConfigProperty(NAME_NUM_PARTITIONS);
+            }
+            if (!containsMacro(NAME_TARGET_FILE_SIZE) && targetFileSize != null && targetFileSize < 1) {
+                collector.addFailure("Target file size must be positive.", null)
+                        .withConfigProperty(NAME_TARGET_FILE_SIZE);
+            }
+        }
+
+        @Nullable
+        Integer getNumPartitions() {
+            return numPartitions;
+        }
+
+        long getTargetFileSize() {
+            return targetFileSize == null ? DEFAULT_TARGET_FILE_SIZE : targetFileSize;
+        }
+
+        boolean shouldShuffle() {
+            return shuffle != null && shuffle;
+        }
+    }
+}
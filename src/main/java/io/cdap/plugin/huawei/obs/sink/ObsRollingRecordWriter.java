@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link RecordWriter} that writes the records of a task to a sequence of files instead of a single one, closing the
+ * current file and opening the next one once it reaches the roll size or the roll record count.
+ *
+ * Each file is written by a record writer of the output format of the sink format, with a different base name, so
+ * the files are named {@code part-00000-r-00003}, {@code part-00001-r-00003}, ... instead of {@code part-r-00003}.
+ * Files are only opened when a record is written, so a task without records does not write an empty file.
+ *
+ * The size of a file is the number of bytes written to the filesystem while its records were written, so that the
+ * writers of several partitions of a task can write in turn. Formats that buffer the records in memory, like parquet
+ * with its row groups, only write when the buffer is flushed, so their files can exceed the roll size by up to the
+ * size of the buffer.
+ */
+public class ObsRollingRecordWriter<K, V> extends RecordWriter<K, V> {
+    private static final Logger logger = LogManager.getLogger(ObsRollingRecordWriter.class);
+
+    // the base name of the files written by FileOutputFormat, FileOutputFormat.BASE_OUTPUT_NAME is not public
+    static final String BASE_OUTPUT_NAME = "mapreduce.output.basename";
+    private static final String DEFAULT_BASE_OUTPUT_NAME = "part";
+
+    private final OutputFormat<K, V> delegate;
+    private final TaskAttemptContext context;
+    private final String baseName;
+    private final long rollSize;
+    private final long rollRecords;
+    private final LongSupplier bytesWritten;
+
+    private RecordWriter<K, V> current;
+    private TaskAttemptContext currentContext;
+    private int fileIndex;
+    private long fileRecords;
+    private long fileBytes;
+
+    /**
+     * @param rollSize size in bytes of the files, 0 to not roll by size
+     * @param rollRecords number of records of the files, 0 to not roll by record count
+     * @param bytesWritten the number of bytes written by the task to the filesystem
+     */
+    public ObsRollingRecordWriter(OutputFormat<K, V> delegate, TaskAttemptContext context, long rollSize,
+                                  long rollRecords, LongSupplier bytesWritten) {
+        this(delegate, context, getBaseName(context), rollSize, rollRecords, bytesWritten);
+    }
+
+    /**
+     * @param baseName base name of the files, which can include a directory relative to the output
+     */
+    ObsRollingRecordWriter(OutputFormat<K, V> delegate, TaskAttemptContext context, String baseName, long rollSize,
+                           long rollRecords, LongSupplier bytesWritten) {
+        this.delegate = delegate;
+        this.context = context;
+        this.baseName = baseName;
+        this.rollSize = rollSize;
+        this.rollRecords = rollRecords;
+        this.bytesWritten = bytesWritten;
+    }
+
+    @Override
+    public void write(K key, V value) throws IOException, InterruptedException {
+        if (current == null) {
+            open();
+        }
+        long before = bytesWritten.getAsLong();
+        current.write(key, value);
+        fileBytes += bytesWritten.getAsLong() - before;
+        fileRecords++;
+        if ((rollRecords > 0 && fileRecords >= rollRecords) || (rollSize > 0 && fileBytes >= rollSize)) {
+            roll();
+        }
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+        roll();
+    }
+
+    /**
+     * @return whether a file is open, it is closed when it rolls over until the next record is written
+     */
+    boolean isOpen() {
+        return current != null;
+    }
+
+    /**
+     * Closes the current file, the next record is written to a new file.
+     */
+    void roll() throws IOException, InterruptedException {
+        if (current == null) {
+            return;
+        }
+        RecordWriter<K, V> writer = current;
+        TaskAttemptContext writerContext = currentContext;
+        current = null;
+        currentContext = null;
+        long before = bytesWritten.getAsLong();
+        writer.close(writerContext);
+        logger.debug("Task {} wrote {} records and {} bytes to file {}", context.getTaskAttemptID(), fileRecords,
+                fileBytes + bytesWritten.getAsLong() - before, writerContext.getConfiguration().get(BASE_OUTPUT_NAME));
+    }
+
+    private void open() throws IOException, InterruptedException {
+        Configuration conf = new Configuration(context.getConfiguration());
+        conf.set(BASE_OUTPUT_NAME, String.format("%s-%05d", baseName, fileIndex++));
+        currentContext = new TaskAttemptContextImpl(conf, context.getTaskAttemptID());
+        fileRecords = 0;
+        long before = bytesWritten.getAsLong();
+        current = delegate.getRecordWriter(currentContext);
+        fileBytes = bytesWritten.getAsLong() - before;
+    }
+
+    static String getBaseName(TaskAttemptContext context) {
+        return context.getConfiguration().get(BASE_OUTPUT_NAME, DEFAULT_BASE_OUTPUT_NAME);
+    }
+}
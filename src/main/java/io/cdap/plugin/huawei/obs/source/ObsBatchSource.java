@@ -16,6 +16,8 @@
 
 package io.cdap.plugin.huawei.obs.source;
 
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import io.cdap.cdap.api.annotation.Description;
@@ -24,28 +26,64 @@ import io.cdap.cdap.api.annotation.Metadata;
 import io.cdap.cdap.api.annotation.MetadataProperty;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.data.batch.Input;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.dataset.lib.KeyValue;
+import io.cdap.cdap.api.plugin.InvalidPluginConfigException;
+import io.cdap.cdap.api.plugin.InvalidPluginProperty;
+import io.cdap.cdap.etl.api.Emitter;
 import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageConfigurer;
+import io.cdap.cdap.etl.api.batch.BatchRuntimeContext;
 import io.cdap.cdap.etl.api.batch.BatchSource;
 import io.cdap.cdap.etl.api.batch.BatchSourceContext;
 import io.cdap.cdap.etl.api.connector.Connector;
+import io.cdap.cdap.etl.api.validation.FormatContext;
+import io.cdap.cdap.etl.api.validation.ValidatingInputFormat;
 import io.cdap.plugin.common.ConfigUtil;
 import io.cdap.plugin.common.LineageRecorder;
+import io.cdap.plugin.common.SourceInputFormatProvider;
+import io.cdap.plugin.common.batch.JobUtils;
+import io.cdap.plugin.format.RegexPathFilter;
+import io.cdap.plugin.format.input.EmptyInputFormat;
 import io.cdap.plugin.format.input.PathTrackingInputFormat;
 import io.cdap.plugin.format.plugin.AbstractFileSource;
 import io.cdap.plugin.format.plugin.AbstractFileSourceConfig;
+import io.cdap.plugin.huawei.obs.common.OBSFileSystemP;
+import io.cdap.plugin.huawei.obs.common.ObsClientCache;
 import io.cdap.plugin.huawei.obs.common.ObsConnectorConfig;
 import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsMetricsReporter;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import io.cdap.plugin.huawei.obs.common.ObsPrefixLister;
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics;
+import io.cdap.plugin.huawei.obs.common.ObsWatermark;
 import io.cdap.plugin.huawei.obs.connector.ObsConnector;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.spark.sql.SparkSession;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 
@@ -60,27 +98,353 @@ public class ObsBatchSource extends AbstractFileSource<ObsBatchSource.ObsBatchCo
     public static final String NAME = "Obs";
 
     private static final Logger logger = LogManager.getLogger(ObsBatchSource.class);
-
+    private static final String WATERMARK_ARGUMENT_PREFIX = "obs.watermark.";
+    // no object comes before it, used when there is nothing to read
+    private static final ObsWatermark EMPTY_WATERMARK = new ObsWatermark(Long.MIN_VALUE, "");
 
     @SuppressWarnings("unused")
     private final ObsBatchConfig config;
+    private ObsWatermark watermarkFrom;
+    private ObsWatermark watermarkTo;
+    // reports the Obs requests of the worker, set by initialize
+    private ObsMetricsReporter metricsReporter;
+    // schema read from the headers or footers by configurePipeline, null if the format detects it
+    private Schema detectedSchema;
 
     public ObsBatchSource(ObsBatchConfig config) {
         super(config);
         this.config = config;
     }
 
+    /**
+     * Detects the schema of the avro and parquet objects from their headers or footers, read with ranged requests,
+     * instead of letting the format open the objects.
+     */
+    @Override
+    public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
+        StageConfigurer stageConfigurer = pipelineConfigurer.getStageConfigurer();
+        detectedSchema = detectSchema(stageConfigurer.getFailureCollector());
+        super.configurePipeline(pipelineConfigurer);
+        if (detectedSchema != null) {
+            stageConfigurer.setOutputSchema(detectedSchema);
+        }
+    }
+
+    @Nullable
+    private Schema detectSchema(FailureCollector collector) {
+        ObsSchemaDetector.Format format = ObsSchemaDetector.Format.of(config.getFormatName());
+        if (format == null || !canGetSchema() || config.containsMacro(ObsBatchConfig.NAME_SCHEMA)
+                || config.containsMacro(ObsBatchConfig.NAME_SCHEMA_SAMPLE_FILES)
+                || config.containsMacro(ConfigUtil.NAME_CONNECTION) || config.connection == null
+                || !config.connection.isAccessCredentials() || !config.getPath().startsWith(ObsPath.SCHEME)
+                || config.getSchemaSampleFiles() < 1 || config.getSchemaSampleFiles() > ObsSchemaDetector.MAX_SAMPLE_FILES) {
+            // left to the format, the invalid number of files is reported by the validation
+            return null;
+        }
+        try {
+            if (config.getSchema() != null) {
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            // the invalid schema is reported by the validation
+            return null;
+        }
+        try (ObsClientCache.Lease lease = ObsClientCache.getInstance().acquire(getClientKey())) {
+            Schema schema = new ObsSchemaDetector(lease.getClient()).detect(ObsPath.from(config.getPath()), format,
+                    config.getFilePattern(), config.shouldReadRecursively(), config.getSchemaSampleFiles());
+            return schema == null ? null : withPathField(schema);
+        } catch (ObsSchemaDetector.SchemaConflictException e) {
+            collector.addFailure(e.getMessage(), "Set the schema, or merge the schemas of fewer files.")
+                    .withConfigProperty(ObsBatchConfig.NAME_SCHEMA_SAMPLE_FILES);
+            return null;
+        } catch (Exception e) {
+            // the format detects the schema instead
+            logger.warn("Failed to read the schema of {} from the headers or footers", config.getPath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the path field, which the format adds to the schemas it detects.
+     */
+    private Schema withPathField(Schema schema) {
+        String pathField = config.getPathField();
+        if (pathField == null || schema.getField(pathField) != null) {
+            return schema;
+        }
+        List<Schema.Field> fields = new ArrayList<>(schema.getFields());
+        fields.add(Schema.Field.of(pathField, Schema.of(Schema.Type.STRING)));
+        return Schema.recordOf(schema.getRecordName(), fields);
+    }
+
+    /**
+     * When reading directly, coalescing the small files, reading incrementally or using the inventory, prepares the run
+     * like {@link AbstractFileSource#prepareRun} does, except for the input format of the source format, which is
+     * replaced, see {@link #getInputFormat}.
+     */
+    @Override
+    public void prepareRun(BatchSourceContext context) throws Exception {
+        if (config.isIncremental()) {
+            prepareIncrementalRun(context);
+        }
+        if (!config.shouldCoalesceSmallFiles() && !config.shouldReadDirectly() && !config.isIncremental()
+                && !config.shouldUseInventory()) {
+            super.prepareRun(context);
+            return;
+        }
+        FailureCollector collector = context.getFailureCollector();
+        config.validate(collector);
+        String formatName = config.getFormatName();
+        ValidatingInputFormat format;
+        try {
+            format = context.newPluginInstance(formatName);
+        } catch (InvalidPluginConfigException e) {
+            Set<String> properties = new HashSet<>(e.getMissingProperties());
+            for (InvalidPluginProperty invalidProperty : e.getInvalidProperties()) {
+                properties.add(invalidProperty.getName());
+            }
+            throw new IllegalArgumentException(String.format("Format '%s' cannot be used because properties %s were "
+                    + "not provided or were invalid when the pipeline was deployed. Set the format to a different "
+                    + "value, or re-create the pipeline with all required properties.", formatName, properties), e);
+        }
+        if (format == null) {
+            collector.addFailure(String.format("Could not find the '%s' input format.", formatName), null)
+                    .withPluginNotFound(formatName, formatName, ValidatingInputFormat.PLUGIN_TYPE);
+            throw collector.getOrThrowException();
+        }
+        FormatContext formatContext = new FormatContext(collector, context.getInputSchema());
+        format.validate(formatContext);
+        validatePathField(collector, format.getSchema(formatContext));
+        collector.getOrThrowException();
+
+        Job job = JobUtils.createInstance();
+        Configuration conf = job.getConfiguration();
+        Pattern filePattern = config.getFilePattern();
+        if (filePattern != null) {
+            RegexPathFilter.configure(conf, filePattern);
+            FileInputFormat.setInputPathFilter(job, RegexPathFilter.class);
+        }
+        FileInputFormat.setInputDirRecursive(job, config.shouldReadRecursively());
+        Schema schema = config.getSchema();
+        LineageRecorder lineageRecorder = new LineageRecorder(context, config.getReferenceName());
+        lineageRecorder.createExternalDataset(schema);
+        if (schema != null && schema.getFields() != null) {
+            recordLineage(lineageRecorder,
+                    schema.getFields().stream().map(Schema.Field::getName).collect(Collectors.toList()));
+        }
+        Map<String, String> properties = getFileSystemProperties(context);
+        properties.forEach(conf::set);
+
+        Path path = new Path(config.getPath());
+        String inputFormat;
+        if (path.getFileSystem(conf).globStatus(path) == null) {
+            if (!config.shouldAllowEmptyInput()) {
+                throw new IOException(String.format("Input path %s does not exist", path));
+            }
+            inputFormat = EmptyInputFormat.class.getName();
+        } else {
+            FileInputFormat.addInputPath(job, path);
+            FileInputFormat.setMaxInputSplitSize(job, config.getMaxSplitSize());
+            format.getInputFormatConfiguration().forEach(conf::set);
+            inputFormat = getInputFormat(format.getInputFormatClassName(), conf);
+        }
+        // the properties of the filesystem take precedence over the ones of the format
+        properties.forEach(conf::set);
+        context.setInput(Input.of(config.getReferenceName(), new SourceInputFormatProvider(inputFormat, conf)));
+    }
+
+    /**
+     * Replaces the input format of the source format with {@link ObsDirectInputFormat} when reading directly, wraps it
+     * with {@link ObsCoalescingInputFormat} when coalescing the small files, and with {@link ObsListingInputFormat}
+     * when reading incrementally or using the inventory, so that the files are listed between the watermarks of the
+     * run, or from the inventory.
+     *
+     * @param inputFormat class name of the input format of the source format
+     * @param conf configuration of the input, to which the settings of the new input format are added
+     * @return class name of the input format of the source
+     */
+    private String getInputFormat(String inputFormat, Configuration conf) {
+        if (config.shouldReadDirectly()) {
+            inputFormat = ObsDirectInputFormat.class.getName();
+            conf.set(ObsDirectInputFormat.FORMAT, config.getFormatName());
+            if (ObsDirectInputFormat.isDelimited(config.getFormatName())) {
+                conf.set(ObsDirectInputFormat.DELIMITER, config.getDelimiter());
+                conf.set(ObsDirectInputFormat.QUOTED_VALUES, String.valueOf(config.shouldEnableQuotedValues()));
+                if (conf.get(ObsDirectInputFormat.SCHEMA) == null) {
+                    conf.set(ObsDirectInputFormat.SCHEMA, config.getSchema().toString());
+                }
+            }
+        }
+        if (config.shouldCoalesceSmallFiles()) {
+            conf.set(ObsCoalescingInputFormat.DELEGATE, inputFormat);
+            inputFormat = ObsCoalescingInputFormat.class.getName();
+        }
+        if (config.isIncremental() || config.shouldUseInventory()) {
+            conf.set(ObsListingInputFormat.DELEGATE, inputFormat);
+            inputFormat = ObsListingInputFormat.class.getName();
+        }
+        return inputFormat;
+    }
+
+    /**
+     * Same validation of the path field as {@link AbstractFileSource#prepareRun}.
+     */
+    private void validatePathField(FailureCollector collector, @Nullable Schema schema) {
+        String pathField = config.getPathField();
+        if (pathField == null || schema == null) {
+            return;
+        }
+        Schema.Field field = schema.getField(pathField);
+        if (field == null) {
+            collector.addFailure(String.format("Path field '%s' must exist in input schema.", pathField), null)
+                    .withConfigProperty(ObsBatchConfig.NAME_PATH_FIELD);
+            throw collector.getOrThrowException();
+        }
+        Schema fieldSchema = field.getSchema().isNullable() ? field.getSchema().getNonNullable() : field.getSchema();
+        if (fieldSchema.getType() != Schema.Type.STRING) {
+            collector.addFailure(String.format("Path field '%s' is of unsupported type '%s'.", pathField,
+                    fieldSchema.getDisplayName()), "It must be of type 'string'.")
+                    .withConfigProperty(ObsBatchConfig.NAME_PATH_FIELD).withOutputSchemaField(field.getName());
+        }
+    }
+
+    @Override
+    public void initialize(BatchRuntimeContext context) throws Exception {
+        super.initialize(context);
+        metricsReporter = new ObsMetricsReporter(context);
+    }
+
+    @Override
+    public void transform(KeyValue<NullWritable, StructuredRecord> input, Emitter<StructuredRecord> emitter)
+            throws Exception {
+        super.transform(input, emitter);
+        metricsReporter.onRecord();
+    }
+
+    @Override
+    public void destroy() {
+        if (metricsReporter != null) {
+            metricsReporter.report();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Commits the watermark of an incremental run once it succeeded, so that the next run starts after the objects
+     * read by this one.
+     */
+    @Override
+    public void onRunFinish(boolean succeeded, BatchSourceContext context) {
+        super.onRunFinish(succeeded, context);
+        try {
+            if (succeeded && config.isIncremental()) {
+                commitWatermark(context);
+            }
+        } finally {
+            // requests sent by the driver, like the listing of the path
+            new ObsMetricsReporter(context).report();
+        }
+    }
+
+    private void commitWatermark(BatchSourceContext context) {
+        String watermark = context.getArguments().get(getWatermarkArgument());
+        if (watermark == null) {
+            return;
+        }
+        ObsPath watermarkPath = ObsPath.from(config.getWatermarkPath());
+        try (ObsClientCache.Lease lease = ObsClientCache.getInstance().acquire(getClientKey(),
+                ObsRequestMetrics.forStage(context.getStageName()))) {
+            ObsWatermark.parse(watermark).store(lease.getClient(), watermarkPath.getBucket(), watermarkPath.getName());
+            logger.info("Committed watermark {} to {}", watermark, watermarkPath.getFullPath());
+        } catch (IOException e) {
+            // the objects of this run will be read again by the next one
+            logger.error("Failed to commit watermark {} to {}", watermark, watermarkPath.getFullPath(), e);
+        }
+    }
+
+    /**
+     * Reads the watermark of the previous run and lists the path to find the position of the last object, so that
+     * the run reads the objects between them. The path is listed with the parallelism and the filters of the
+     * listing of the input format.
+     */
+    private void prepareIncrementalRun(BatchSourceContext context) throws IOException {
+        ObsPath watermarkPath = ObsPath.from(config.getWatermarkPath());
+        ObsPath path = ObsPath.from(config.getPath());
+        ExecutorService executor = Executors.newFixedThreadPool(config.getListParallelism(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("obs-watermark-list-%d").build());
+        try (ObsClientCache.Lease lease = ObsClientCache.getInstance().acquire(getClientKey(),
+                ObsRequestMetrics.forStage(context.getStageName()))) {
+            watermarkFrom = ObsWatermark.load(lease.getClient(), watermarkPath.getBucket(), watermarkPath.getName());
+            ObsPrefixLister lister = new ObsPrefixLister(lease.getClient(), executor, config.getMaxListRequests());
+            watermarkTo = ObsWatermark.latest(lister, path, config.shouldReadRecursively(), config.getFilePattern(),
+                    watermarkFrom, config.getWatermarkLookback());
+        } finally {
+            executor.shutdownNow();
+        }
+        if (watermarkTo == null) {
+            watermarkTo = EMPTY_WATERMARK;
+        } else if (!watermarkTo.equals(watermarkFrom)) {
+            context.getArguments().set(getWatermarkArgument(), watermarkTo.format());
+        }
+        logger.info("Reading the objects of {} after {} up to {}", path.getFullPath(), watermarkFrom, watermarkTo);
+    }
+
+    private String getWatermarkArgument() {
+        return WATERMARK_ARGUMENT_PREFIX + config.getReferenceName();
+    }
+
+    private ObsClientCache.ClientKey getClientKey() {
+        return ObsClientCache.ClientKey.of(config.connection.getEndPoint(), config.connection.getAccessKey(),
+                config.connection.getSecretKey(), config.connection.getRetryPolicy());
+    }
+
     @Override
     protected Map<String, String> getFileSystemProperties(BatchSourceContext context) {
-        Map<String, String> properties = new HashMap<>(config.getFilesystemProperties());
+        Map<String, String> properties = config.getFilesystemProperties();
         if (config.connection.isAccessCredentials()) {
             if (config.path.startsWith("obs://")) {
             properties.put(ObsConstants.OBS_ACCESS_KEY, config.connection.getAccessKey());
             properties.put(ObsConstants.OBS_SECRET_KEY, config.connection.getSecretKey());
             properties.put(ObsConstants.OBS_END_POINT, config.connection.getEndPoint());
-//            properties.put("fs.obs.impl", "org.apache.hadoop.fs.obs.OBSFileSystem");
             } //TODO fix
         }
+        properties.putIfAbsent(ObsConstants.OBS_IMPL, OBSFileSystemP.class.getName());
+        properties.put(ObsConstants.STAGE, context.getStageName());
+        config.connection.getRetryPolicy().addTo(properties);
+        properties.put(ObsConstants.LIST_PARALLELISM, String.valueOf(config.getListParallelism()));
+        properties.put(ObsConstants.LIST_MAX_REQUESTS, String.valueOf(config.getMaxListRequests()));
+        properties.put(ObsConstants.LIST_INVENTORY, String.valueOf(config.shouldUseInventory()));
+        if (config.getReadAheadDepth() > 0) {
+            properties.put(ObsConstants.READ_AHEAD_DEPTH, String.valueOf(config.getReadAheadDepth()));
+            properties.put(ObsConstants.READ_CHUNK_SIZE, String.valueOf(config.getReadChunkSize()));
+            properties.put(ObsConstants.READ_MEMORY_LIMIT, String.valueOf(config.getReadMemoryLimit()));
+        }
+        if (watermarkFrom != null) {
+            properties.put(ObsConstants.WATERMARK_FROM, watermarkFrom.format());
+        }
+        if (watermarkTo != null) {
+            properties.put(ObsConstants.WATERMARK_TO, watermarkTo.format());
+            properties.put(ObsConstants.WATERMARK_LOOKBACK, String.valueOf(config.getWatermarkLookback()));
+        }
+        if (config.shouldCoalesceSmallFiles()) {
+            properties.put(ObsConstants.COALESCE_MAX_FILE_SIZE, String.valueOf(config.getCoalesceMaxFileSize()));
+            properties.put(ObsConstants.COALESCE_TARGET_SIZE, String.valueOf(config.getCoalesceTargetSize()));
+            properties.put(ObsConstants.COALESCE_FETCH_THREADS, String.valueOf(config.getCoalesceFetchThreads()));
+            properties.put(ObsConstants.COALESCE_PREFETCH_DEPTH, String.valueOf(config.getCoalescePrefetchDepth()));
+            properties.put(ObsConstants.COALESCE_PREFETCH_MEMORY_LIMIT,
+                    String.valueOf(config.getCoalescePrefetchMemoryLimit()));
+        }
+        if (config.isParquet()) {
+            Schema schema = config.getSchema();
+            if (config.shouldPushDownProjection() && schema != null) {
+                properties.put(ObsParquetFilter.REQUESTED_PROJECTION,
+                        ObsParquetFilter.getProjection(schema, config.getPathField()));
+            }
+            if (config.getFilter() != null && schema != null) {
+                properties.put(ObsParquetFilter.FILTER_PREDICATE,
+                        ObsParquetFilter.serialize(ObsParquetFilter.parse(config.getFilter(), schema)));
+            }
+        }
         if (config.shouldCopyHeader()) {
             properties.put(PathTrackingInputFormat.COPY_HEADER, "true");
         }
@@ -95,8 +459,15 @@ public class ObsBatchSource extends AbstractFileSource<ObsBatchSource.ObsBatchCo
         lineageRecorder.recordRead("Read", "Read from Obs.", outputFields);
     }
 
+    /**
+     * The format does not detect the schema if it was already read from the headers or footers.
+     */
     @Override
     protected boolean shouldGetSchema() {
+        return detectedSchema == null && canGetSchema();
+    }
+
+    private boolean canGetSchema() {
         return !config.containsMacro(ObsBatchConfig.NAME_PATH) && !config.containsMacro(ObsBatchConfig.NAME_FORMAT) &&
                 !config.containsMacro(ObsBatchConfig.NAME_DELIMITER) && !config.containsMacro(ObsConnectorConfig.NAME_SECRET_KEY)
                 && !config.containsMacro(ObsBatchConfig.NAME_FILE_SYSTEM_PROPERTIES) &&
@@ -111,7 +482,30 @@ public class ObsBatchSource extends AbstractFileSource<ObsBatchSource.ObsBatchCo
     public static class ObsBatchConfig extends AbstractFileSourceConfig {
         public static final String NAME_PATH = "path";
         private static final String NAME_FILE_SYSTEM_PROPERTIES = "fileSystemProperties";
+        private static final String NAME_PATH_FIELD = "pathField";
         private static final String NAME_DELIMITER = "delimiter";
+        private static final String NAME_SKIP_HEADER = "skipHeader";
+        private static final String NAME_COPY_HEADER = "copyHeader";
+        private static final String NAME_LIST_PARALLELISM = "listParallelism";
+        private static final String NAME_MAX_LIST_REQUESTS = "maxListRequests";
+        private static final String NAME_READ_AHEAD_DEPTH = "readAheadDepth";
+        private static final String NAME_READ_CHUNK_SIZE = "readChunkSize";
+        private static final String NAME_READ_MEMORY_LIMIT = "readMemoryLimit";
+        private static final String NAME_COALESCE_SMALL_FILES = "coalesceSmallFiles";
+        private static final String NAME_COALESCE_MAX_FILE_SIZE = "coalesceMaxFileSize";
+        private static final String NAME_COALESCE_TARGET_SIZE = "coalesceTargetSize";
+        private static final String NAME_COALESCE_FETCH_THREADS = "coalesceFetchThreads";
+        private static final String NAME_COALESCE_PREFETCH_DEPTH = "coalescePrefetchDepth";
+        private static final String NAME_COALESCE_PREFETCH_MEMORY_LIMIT = "coalescePrefetchMemoryLimit";
+        private static final String NAME_INCREMENTAL = "incremental";
+        private static final String NAME_WATERMARK_PATH = "watermarkPath";
+        private static final String NAME_WATERMARK_LOOKBACK = "watermarkLookback";
+        private static final String NAME_FILTER = "filter";
+        private static final String NAME_PROJECTION_PUSHDOWN = "projectionPushdown";
+        private static final String NAME_SCHEMA_SAMPLE_FILES = "schemaSampleFiles";
+        private static final String NAME_DIRECT_READ = "directRead";
+        private static final String NAME_ENABLE_QUOTED_VALUES = "enableQuotedValues";
+        private static final String PARQUET_FORMAT = "parquet";
 
         private static final Gson GSON = new Gson();
         private static final Type MAP_STRING_STRING_TYPE = new TypeToken<Map<String, String>>() { }.getType();
@@ -140,8 +534,157 @@ public class ObsBatchSource extends AbstractFileSource<ObsBatchSource.ObsBatchCo
                 "This is an advanced feature that requires knowledge of the properties supported by the underlying filesystem.")
         private String fileSystemProperties;
 
+        @Macro
+        @Nullable
+        @Description("Number of threads used to list the sub-directories of the path in parallel when the files " +
+                "are read recursively. A value greater than 1 enables the parallel listing. Defaults to 1.")
+        private Integer listParallelism;
+
+        @Macro
+        @Nullable
+        @Description("Maximum number of list requests sent to Obs at the same time by the parallel listing. " +
+                "Defaults to 16.")
+        private Integer maxListRequests;
+
+        @Macro
+        @Nullable
+        @Description("Whether the files are listed from the inventory of the path when it has one, with a single " +
+                "request instead of listing the path. Only enable it when the inventory is kept up to date, the " +
+                "objects added after it was built or updated are not read. Defaults to false.")
+        private Boolean useInventory;
+
+        @Macro
+        @Nullable
+        @Description("Number of chunks fetched with ranged requests ahead of the chunk being read. A value greater " +
+                "than 0 enables the parallel ranged reads, which speeds up the reading of large files. Defaults to 0.")
+        private Integer readAheadDepth;
+
+        @Macro
+        @Nullable
+        @Description("Size in bytes of the chunks fetched by the parallel ranged reads. Must be at least 65536. " +
+                "Defaults to 8388608 (8 MB).")
+        private Long readChunkSize;
+
+        @Macro
+        @Nullable
+        @Description("Maximum amount of memory in bytes used by the chunks fetched ahead by all the files read by " +
+                "an executor. Defaults to 268435456 (256 MB).")
+        private Long readMemoryLimit;
+
+        @Macro
+        @Nullable
+        @Description("Whether to pack the small files into splits of about the target size instead of reading " +
+                "each file in its own split. Defaults to false.")
+        private Boolean coalesceSmallFiles;
+
+        @Macro
+        @Nullable
+        @Description("Size in bytes up to which a file is packed with other files when the small files are " +
+                "coalesced. Defaults to 1048576 (1 MB).")
+        private Long coalesceMaxFileSize;
+
+        @Macro
+        @Nullable
+        @Description("Target size in bytes of the splits the small files are packed into. " +
+                "Defaults to 134217728 (128 MB).")
+        private Long coalesceTargetSize;
+
+        @Macro
+        @Nullable
+        @Description("Number of small files of a split opened in parallel while the current file is read. " +
+                "Defaults to 8.")
+        private Integer coalesceFetchThreads;
+
+        @Macro
+        @Nullable
+        @Description("Number of small files of a split opened, and their first bytes read, ahead of the file being " +
+                "read. Defaults to 8.")
+        private Integer coalescePrefetchDepth;
+
+        @Macro
+        @Nullable
+        @Description("Maximum sum of the sizes in bytes of the small files opened ahead by a split. The next file " +
+                "is always opened. Defaults to 67108864 (64 MB).")
+        private Long coalescePrefetchMemoryLimit;
+
+        @Macro
+        @Nullable
+        @Description("Whether to only read the objects added or modified since the previous successful run. " +
+                "Defaults to false.")
+        private Boolean incremental;
+
+        @Macro
+        @Nullable
+        @Description("Path of the object that stores the watermark of the incremental reads, for example " +
+                "obs://<Bucket name>/watermarks/<pipeline>.json. Required when reading incrementally.")
+        private String watermarkPath;
+
+        @Macro
+        @Nullable
+        @Description("Number of milliseconds before the watermark of the previous run in which the objects that " +
+                "were not read yet are read, for the objects listed after objects modified later. Defaults to 0.")
+        private Long watermarkLookback;
+
+        @Macro
+        @Nullable
+        @Description("Filter on the fields of the schema, pushed down to the Parquet reader to skip the row groups " +
+                "and records that do not match, for example: day >= '2021-10-01' AND country = 'FR'. " +
+                "Only supported with the parquet format.")
+        private String filter;
+
+        @Macro
+        @Nullable
+        @Description("Whether the Parquet reader only reads the columns of the output schema instead of all the " +
+                "columns of the files. Only supported with the parquet format. Defaults to false.")
+        private Boolean projectionPushdown;
+
+        @Macro
+        @Nullable
+        @Description("Number of files whose schemas are read and merged when the schema of the avro or parquet " +
+                "files is detected. Fields missing from some of the files are nullable. Defaults to 1.")
+        private Integer schemaSampleFiles;
+
+        @Macro
+        @Nullable
+        @Description("Whether the objects of the text, blob, csv, tsv and delimited formats are read into pooled " +
+                "direct buffers and split into lines in place, instead of through the input format of the format. " +
+                "The values of the csv, tsv and delimited lines are converted straight from the buffers, which " +
+                "requires a schema and a delimiter of a single character. Only supported with the UTF-8 encoding, " +
+                "without skipping or copying the header. Defaults to false.")
+        private Boolean directRead;
+
+        @Macro
+        @Nullable
+        @Description("Delimiter to use when the format is 'delimited'. This will be ignored for other formats.")
+        private String delimiter;
+
+        @Macro
+        @Nullable
+        @Description("Whether the values of the csv, tsv and delimited formats can be quoted when they are read " +
+                "directly. A quoted value can contain the delimiter, and a quote written as two quotes. Defaults to " +
+                "false.")
+        private Boolean enableQuotedValues;
+
         public ObsBatchConfig() {
             fileSystemProperties = GSON.toJson(Collections.emptyMap());
+            listParallelism = ObsConstants.DEFAULT_LIST_PARALLELISM;
+            maxListRequests = ObsConstants.DEFAULT_LIST_MAX_REQUESTS;
+            useInventory = false;
+            readAheadDepth = ObsConstants.DEFAULT_READ_AHEAD_DEPTH;
+            readChunkSize = ObsConstants.DEFAULT_READ_CHUNK_SIZE;
+            readMemoryLimit = ObsConstants.DEFAULT_READ_MEMORY_LIMIT;
+            coalesceSmallFiles = false;
+            coalesceMaxFileSize = ObsConstants.DEFAULT_COALESCE_MAX_FILE_SIZE;
+            coalesceTargetSize = ObsConstants.DEFAULT_COALESCE_TARGET_SIZE;
+            coalesceFetchThreads = ObsConstants.DEFAULT_COALESCE_FETCH_THREADS;
+            coalescePrefetchDepth = ObsConstants.DEFAULT_COALESCE_PREFETCH_DEPTH;
+            coalescePrefetchMemoryLimit = ObsConstants.DEFAULT_COALESCE_PREFETCH_MEMORY_LIMIT;
+            incremental = false;
+            watermarkLookback = ObsConstants.DEFAULT_WATERMARK_LOOKBACK;
+            projectionPushdown = false;
+            schemaSampleFiles = ObsConstants.DEFAULT_SCHEMA_SAMPLE_FILES;
+            directRead = false;
+            enableQuotedValues = false;
         }
 
         @Override
@@ -173,6 +716,132 @@ public class ObsBatchSource extends AbstractFileSource<ObsBatchSource.ObsBatchCo
                             .withConfigProperty(NAME_FILE_SYSTEM_PROPERTIES).withStacktrace(e.getStackTrace());
                 }
             }
+
+            if (!containsMacro(NAME_LIST_PARALLELISM) && listParallelism != null && listParallelism < 1) {
+                collector.addFailure("List parallelism must be at least 1.", null)
+                        .withConfigProperty(NAME_LIST_PARALLELISM);
+            }
+            if (!containsMacro(NAME_MAX_LIST_REQUESTS) && maxListRequests != null && maxListRequests < 1) {
+                collector.addFailure("Maximum list requests must be at least 1.", null)
+                        .withConfigProperty(NAME_MAX_LIST_REQUESTS);
+            }
+            if (!containsMacro(NAME_READ_AHEAD_DEPTH) && readAheadDepth != null && readAheadDepth < 0) {
+                collector.addFailure("Read ahead depth must not be negative.", null)
+                        .withConfigProperty(NAME_READ_AHEAD_DEPTH);
+            }
+            if (!containsMacro(NAME_READ_CHUNK_SIZE) && readChunkSize != null
+                    && (readChunkSize < ObsConstants.MIN_READ_CHUNK_SIZE || readChunkSize > Integer.MAX_VALUE - 8)) {
+                collector.addFailure(String.format("Read chunk size must be between %d and %d bytes.",
+                        ObsConstants.MIN_READ_CHUNK_SIZE, Integer.MAX_VALUE - 8), null)
+                        .withConfigProperty(NAME_READ_CHUNK_SIZE);
+            }
+            if (!containsMacro(NAME_READ_MEMORY_LIMIT) && readMemoryLimit != null && readMemoryLimit < 1) {
+                collector.addFailure("Read memory limit must be at least 1 byte.", null)
+                        .withConfigProperty(NAME_READ_MEMORY_LIMIT);
+            }
+            if (!containsMacro(NAME_COALESCE_MAX_FILE_SIZE) && coalesceMaxFileSize != null && coalesceMaxFileSize < 1) {
+                collector.addFailure("Coalesce maximum file size must be at least 1 byte.", null)
+                        .withConfigProperty(NAME_COALESCE_MAX_FILE_SIZE);
+            }
+            if (!containsMacro(NAME_COALESCE_TARGET_SIZE) && coalesceTargetSize != null && coalesceTargetSize < 1) {
+                collector.addFailure("Coalesce target size must be at least 1 byte.", null)
+                        .withConfigProperty(NAME_COALESCE_TARGET_SIZE);
+            }
+            if (!containsMacro(NAME_COALESCE_FETCH_THREADS) && coalesceFetchThreads != null
+                    && coalesceFetchThreads < 1) {
+                collector.addFailure("Coalesce fetch threads must be at least 1.", null)
+                        .withConfigProperty(NAME_COALESCE_FETCH_THREADS);
+            }
+            if (!containsMacro(NAME_COALESCE_PREFETCH_DEPTH) && coalescePrefetchDepth != null
+                    && coalescePrefetchDepth < 1) {
+                collector.addFailure("Coalesce prefetch depth must be at least 1.", null)
+                        .withConfigProperty(NAME_COALESCE_PREFETCH_DEPTH);
+            }
+            if (!containsMacro(NAME_COALESCE_PREFETCH_MEMORY_LIMIT) && coalescePrefetchMemoryLimit != null
+                    && coalescePrefetchMemoryLimit < 1) {
+                collector.addFailure("Coalesce prefetch memory limit must be at least 1 byte.", null)
+                        .withConfigProperty(NAME_COALESCE_PREFETCH_MEMORY_LIMIT);
+            }
+            if (!containsMacro(NAME_INCREMENTAL) && isIncremental() && !containsMacro(NAME_WATERMARK_PATH)) {
+                if (Strings.isNullOrEmpty(watermarkPath)) {
+                    collector.addFailure("Watermark path must be set when reading incrementally.", null)
+                            .withConfigProperty(NAME_WATERMARK_PATH);
+                } else if (!watermarkPath.startsWith("obs://") || watermarkPath.endsWith("/")) {
+                    collector.addFailure("Watermark path must be the path of an object starting with obs://", null)
+                            .withConfigProperty(NAME_WATERMARK_PATH);
+                }
+            }
+            if (!containsMacro(NAME_WATERMARK_LOOKBACK) && watermarkLookback != null && watermarkLookback < 0) {
+                collector.addFailure("Watermark lookback must be at least 0.", null)
+                        .withConfigProperty(NAME_WATERMARK_LOOKBACK);
+            }
+            if (!containsMacro(NAME_FILTER) && !Strings.isNullOrEmpty(filter) && !containsMacro(NAME_FORMAT)) {
+                if (!isParquet()) {
+                    collector.addFailure("Filter is only supported with the parquet format.", null)
+                            .withConfigProperty(NAME_FILTER);
+                } else if (!containsMacro(NAME_SCHEMA)) {
+                    try {
+                        Schema schema = getSchema();
+                        if (schema != null) {
+                            ObsParquetFilter.parse(filter, schema);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        collector.addFailure(e.getMessage(), null).withConfigProperty(NAME_FILTER);
+                    }
+                }
+            }
+            if (!containsMacro(NAME_PROJECTION_PUSHDOWN) && shouldPushDownProjection() && !containsMacro(NAME_FORMAT)
+                    && !isParquet()) {
+                collector.addFailure("Projection pushdown is only supported with the parquet format.", null)
+                        .withConfigProperty(NAME_PROJECTION_PUSHDOWN);
+            }
+            if (!containsMacro(NAME_SCHEMA_SAMPLE_FILES) && schemaSampleFiles != null
+                    && (schemaSampleFiles < 1 || schemaSampleFiles > ObsSchemaDetector.MAX_SAMPLE_FILES)) {
+                collector.addFailure(String.format("Schema sample files must be between 1 and %d.",
+                        ObsSchemaDetector.MAX_SAMPLE_FILES), null).withConfigProperty(NAME_SCHEMA_SAMPLE_FILES);
+            }
+            if (!containsMacro(NAME_DIRECT_READ) && directRead != null && directRead && !containsMacro(NAME_FORMAT)) {
+                boolean delimited = ObsDirectInputFormat.isDelimited(getFormatName());
+                if (!ObsDirectInputFormat.TEXT.equals(getFormatName())
+                        && !ObsDirectInputFormat.BLOB.equals(getFormatName()) && !delimited) {
+                    collector.addFailure("Direct read is only supported with the text, blob, csv, tsv and delimited " +
+                            "formats.", null).withConfigProperty(NAME_DIRECT_READ);
+                } else if (getFileEncoding() != null && !getFileEncoding().equals(getDefaultFileEncoding())) {
+                    collector.addFailure("Direct read is only supported with the UTF-8 encoding.", null)
+                            .withConfigProperty(NAME_DIRECT_READ);
+                } else if (!containsMacro(NAME_SKIP_HEADER) && !containsMacro(NAME_COPY_HEADER)
+                        && (skipHeader() || shouldCopyHeader())) {
+                    // the direct input format reads every line as a record
+                    collector.addFailure("Direct read does not support skipping or copying the header.",
+                            "Disable direct read, or do not skip or copy the header.")
+                            .withConfigProperty(NAME_DIRECT_READ);
+                } else if (delimited) {
+                    validateDirectDelimitedRead(collector);
+                }
+            }
+        }
+
+        private void validateDirectDelimitedRead(FailureCollector collector) {
+            String delimiter = getDelimiter();
+            if (!containsMacro(NAME_DELIMITER)
+                    && (delimiter == null || delimiter.length() != 1 || delimiter.charAt(0) > 0x7F)) {
+                collector.addFailure("Direct read is only supported with a delimiter of a single ASCII character.",
+                        null).withConfigProperty(NAME_DELIMITER);
+            } else if (!containsMacro(NAME_DELIMITER) && !containsMacro(NAME_ENABLE_QUOTED_VALUES)
+                    && shouldEnableQuotedValues() && "\"".equals(delimiter)) {
+                collector.addFailure("The delimiter cannot be a quote when the values are quoted.", null)
+                        .withConfigProperty(NAME_DELIMITER);
+            }
+            if (!containsMacro(NAME_SCHEMA)) {
+                try {
+                    if (getSchema() == null) {
+                        collector.addFailure("Direct read of the csv, tsv and delimited formats requires a schema.",
+                                null).withConfigProperty(NAME_SCHEMA);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // reported by the validation of the schema
+                }
+            }
         }
 
         @Override
@@ -184,10 +853,109 @@ public class ObsBatchSource extends AbstractFileSource<ObsBatchSource.ObsBatchCo
             return connection;
         }
 
+        int getListParallelism() {
+            return listParallelism == null ? ObsConstants.DEFAULT_LIST_PARALLELISM : listParallelism;
+        }
+
+        int getMaxListRequests() {
+            return maxListRequests == null ? ObsConstants.DEFAULT_LIST_MAX_REQUESTS : maxListRequests;
+        }
+
+        boolean shouldUseInventory() {
+            return useInventory != null && useInventory;
+        }
+
+        int getReadAheadDepth() {
+            return readAheadDepth == null ? ObsConstants.DEFAULT_READ_AHEAD_DEPTH : readAheadDepth;
+        }
+
+        long getReadChunkSize() {
+            return readChunkSize == null ? ObsConstants.DEFAULT_READ_CHUNK_SIZE : readChunkSize;
+        }
+
+        long getReadMemoryLimit() {
+            return readMemoryLimit == null ? ObsConstants.DEFAULT_READ_MEMORY_LIMIT : readMemoryLimit;
+        }
+
+        boolean shouldCoalesceSmallFiles() {
+            return coalesceSmallFiles != null && coalesceSmallFiles;
+        }
+
+        long getCoalesceMaxFileSize() {
+            return coalesceMaxFileSize == null ? ObsConstants.DEFAULT_COALESCE_MAX_FILE_SIZE : coalesceMaxFileSize;
+        }
+
+        long getCoalesceTargetSize() {
+            return coalesceTargetSize == null ? ObsConstants.DEFAULT_COALESCE_TARGET_SIZE : coalesceTargetSize;
+        }
+
+        int getCoalesceFetchThreads() {
+            return coalesceFetchThreads == null ? ObsConstants.DEFAULT_COALESCE_FETCH_THREADS : coalesceFetchThreads;
+        }
+
+        int getCoalescePrefetchDepth() {
+            return coalescePrefetchDepth == null ? ObsConstants.DEFAULT_COALESCE_PREFETCH_DEPTH : coalescePrefetchDepth;
+        }
+
+        long getCoalescePrefetchMemoryLimit() {
+            return coalescePrefetchMemoryLimit == null ? ObsConstants.DEFAULT_COALESCE_PREFETCH_MEMORY_LIMIT
+                    : coalescePrefetchMemoryLimit;
+        }
+
+        boolean isIncremental() {
+            return incremental != null && incremental;
+        }
+
+        @Nullable
+        String getWatermarkPath() {
+            return watermarkPath;
+        }
+
+        long getWatermarkLookback() {
+            return watermarkLookback == null ? ObsConstants.DEFAULT_WATERMARK_LOOKBACK : watermarkLookback;
+        }
+
+        @Nullable
+        String getFilter() {
+            return Strings.isNullOrEmpty(filter) ? null : filter;
+        }
+
+        boolean shouldPushDownProjection() {
+            return projectionPushdown != null && projectionPushdown;
+        }
+
+        int getSchemaSampleFiles() {
+            return schemaSampleFiles == null ? ObsConstants.DEFAULT_SCHEMA_SAMPLE_FILES : schemaSampleFiles;
+        }
+
+        boolean shouldReadDirectly() {
+            return directRead != null && directRead;
+        }
+
+        /**
+         * @return the delimiter of the values of the csv, tsv or delimited format
+         */
+        @Nullable
+        String getDelimiter() {
+            if (ObsDirectInputFormat.CSV.equals(getFormatName())) {
+                return ",";
+            }
+            return ObsDirectInputFormat.TSV.equals(getFormatName()) ? "\t" : delimiter;
+        }
+
+        boolean shouldEnableQuotedValues() {
+            return enableQuotedValues != null && enableQuotedValues;
+        }
+
+        boolean isParquet() {
+            return PARQUET_FORMAT.equals(getFormatName());
+        }
+
         Map<String, String> getFilesystemProperties() {
-            Map<String, String> properties = new HashMap<>();
-            if (containsMacro("fileSystemProperties")) {
-                return properties;
+            // the default value is an empty json object, no need to parse it
+            if (containsMacro("fileSystemProperties") || Strings.isNullOrEmpty(fileSystemProperties)
+                    || "{}".equals(fileSystemProperties)) {
+                return new HashMap<>();
             }
             return GSON.fromJson(fileSystemProperties, MAP_STRING_STRING_TYPE);
         }
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Split made of several whole files, read one after the other by {@link ObsCoalescingRecordReader}.
+ */
+public class ObsCoalescedSplit extends InputSplit implements Writable {
+    private static final String[] NO_LOCATIONS = new String[0];
+
+    private Path[] paths;
+    private long[] lengths;
+    private long length;
+
+    // for deserialization
+    public ObsCoalescedSplit() {
+        this(new Path[0], new long[0]);
+    }
+
+    public ObsCoalescedSplit(Path[] paths, long[] lengths) {
+        this.paths = paths;
+        this.lengths = lengths;
+        this.length = sum(lengths);
+    }
+
+    ObsCoalescedSplit(List<Path> paths, List<Long> lengths) {
+        this(paths.toArray(new Path[0]), lengths.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    public int getNumPaths() {
+        return paths.length;
+    }
+
+    public Path getPath(int index) {
+        return paths[index];
+    }
+
+    public long getLength(int index) {
+        return lengths[index];
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String[] getLocations() {
+        // objects have no locality
+        return NO_LOCATIONS;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            Text.writeString(out, paths[i].toString());
+            out.writeLong(lengths[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int count = in.readInt();
+        paths = new Path[count];
+        lengths = new long[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = new Path(Text.readString(in));
+            lengths[i] = in.readLong();
+        }
+        length = sum(lengths);
+    }
+
+    @Override
+    public String toString() {
+        return paths.length == 0 ? "[]" : "[" + paths[0] + " and " + (paths.length - 1) + " more, " + length + " bytes]";
+    }
+
+    private static long sum(long[] lengths) {
+        long sum = 0L;
+        for (long length : lengths) {
+            sum += length;
+        }
+        return sum;
+    }
+}
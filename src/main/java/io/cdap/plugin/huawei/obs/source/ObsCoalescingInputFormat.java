@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Input format that packs the small files of the input into {@link ObsCoalescedSplit}s of about the target size,
+ * instead of creating one split, and one task, per file. The files are packed in path order, so that the files of a
+ * prefix end up in the same splits. The files larger than the maximum file size are left to the input format of the
+ * source format, which is also used to read every file of the coalesced splits, so that the records are the same,
+ * including the path field.
+ *
+ * @param <K> type of the keys of the source format
+ * @param <V> type of the values of the source format
+ */
+public class ObsCoalescingInputFormat<K, V> extends InputFormat<K, V> {
+    private static final Logger logger = LogManager.getLogger(ObsCoalescingInputFormat.class);
+
+    /**
+     * Class name of the input format of the source format.
+     */
+    public static final String DELEGATE = "fs.obs.cdap.coalesce.delegate";
+
+    @Override
+    public List<InputSplit> getSplits(JobContext context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        long maxFileSize = conf.getLong(ObsConstants.COALESCE_MAX_FILE_SIZE, ObsConstants.DEFAULT_COALESCE_MAX_FILE_SIZE);
+        long targetSize = conf.getLong(ObsConstants.COALESCE_TARGET_SIZE, ObsConstants.DEFAULT_COALESCE_TARGET_SIZE);
+
+        List<FileStatus> smallFiles = new ArrayList<>();
+        List<Path> largeFiles = new ArrayList<>();
+        for (FileStatus file : new FileLister().listFiles(context)) {
+            if (file.getLen() <= maxFileSize) {
+                smallFiles.add(file);
+            } else {
+                largeFiles.add(file.getPath());
+            }
+        }
+
+        List<InputSplit> splits = new ArrayList<>();
+        if (!largeFiles.isEmpty()) {
+            Job job = Job.getInstance(conf);
+            FileInputFormat.setInputDirRecursive(job, false);
+            FileInputFormat.setInputPaths(job, largeFiles.toArray(new Path[0]));
+            splits.addAll(getDelegate(conf).getSplits(job));
+        }
+        List<ObsCoalescedSplit> coalesced = coalesce(smallFiles, targetSize);
+        splits.addAll(coalesced);
+        logger.debug("Coalesced {} small files into {} splits, {} splits for {} large files", smallFiles.size(),
+                coalesced.size(), splits.size() - coalesced.size(), largeFiles.size());
+        return splits;
+    }
+
+    @Override
+    public RecordReader<K, V> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        InputFormat<K, V> delegate = getDelegate(conf);
+        if (!(split instanceof ObsCoalescedSplit)) {
+            return delegate.createRecordReader(split, context);
+        }
+        int fetchThreads = Math.max(1, conf.getInt(ObsConstants.COALESCE_FETCH_THREADS,
+                ObsConstants.DEFAULT_COALESCE_FETCH_THREADS));
+        int prefetchDepth = Math.max(1, conf.getInt(ObsConstants.COALESCE_PREFETCH_DEPTH,
+                ObsConstants.DEFAULT_COALESCE_PREFETCH_DEPTH));
+        long prefetchMemoryLimit = conf.getLong(ObsConstants.COALESCE_PREFETCH_MEMORY_LIMIT,
+                ObsConstants.DEFAULT_COALESCE_PREFETCH_MEMORY_LIMIT);
+        return new ObsCoalescingRecordReader<>(delegate, fetchThreads, prefetchDepth, prefetchMemoryLimit);
+    }
+
+    /**
+     * Packs the files, in path order, into splits of at most the target size. A split that is already half full is
+     * not extended with the files of another prefix.
+     */
+    static List<ObsCoalescedSplit> coalesce(List<FileStatus> files, long targetSize) {
+        List<FileStatus> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing(file -> file.getPath().toString()));
+
+        List<ObsCoalescedSplit> splits = new ArrayList<>();
+        List<Path> paths = new ArrayList<>();
+        List<Long> lengths = new ArrayList<>();
+        long size = 0L;
+        Path prefix = null;
+        for (FileStatus file : sorted) {
+            Path parent = file.getPath().getParent();
+            boolean full = size + file.getLen() > targetSize;
+            boolean otherPrefix = !parent.equals(prefix) && size >= targetSize / 2;
+            if (!paths.isEmpty() && (full || otherPrefix)) {
+                splits.add(new ObsCoalescedSplit(paths, lengths));
+                paths.clear();
+                lengths.clear();
+                size = 0L;
+            }
+            paths.add(file.getPath());
+            lengths.add(file.getLen());
+            size += file.getLen();
+            prefix = parent;
+        }
+        if (!paths.isEmpty()) {
+            splits.add(new ObsCoalescedSplit(paths, lengths));
+        }
+        return splits;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> InputFormat<K, V> getDelegate(Configuration conf) {
+        Class<?> delegateClass = conf.getClass(DELEGATE, null, InputFormat.class);
+        if (delegateClass == null) {
+            throw new IllegalStateException("The input format of the source format is not set in " + DELEGATE);
+        }
+        return (InputFormat<K, V>) ReflectionUtils.newInstance(delegateClass, conf);
+    }
+
+    /**
+     * Lists the input files the way {@link FileInputFormat} does: same input paths, path filter and recursion.
+     */
+    private static final class FileLister extends FileInputFormat<Object, Object> {
+
+        private List<FileStatus> listFiles(JobContext context) throws IOException {
+            return listStatus(context);
+        }
+
+        @Override
+        public RecordReader<Object, Object> createRecordReader(InputSplit split, TaskAttemptContext context) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the files of an {@link ObsCoalescedSplit} one after the other with the record readers of the source format.
+ *
+ * The readers of the next files are opened, and their first record read, by a small pool of threads while the
+ * current file is being read, so that the latency of the requests of the small files overlaps instead of adding up.
+ * Reading the first record sends the request of the file and buffers its first bytes. Up to the prefetch depth files
+ * are opened ahead of the current one, as long as their sizes add up to at most the prefetch memory limit, the next
+ * file being opened whatever its size. Whether the next file was ready when the current one was done is recorded by
+ * {@link ObsRequestMetrics#recordPrefetch}.
+ */
+public class ObsCoalescingRecordReader<K, V> extends RecordReader<K, V> {
+    private final InputFormat<K, V> delegate;
+    private final int fetchThreads;
+    private final int prefetchDepth;
+    private final long prefetchMemoryLimit;
+    private ObsRequestMetrics metrics;
+    // readers being opened, in file order, and the sum of the sizes of their files
+    private final Deque<PendingFile<K, V>> opening = new ArrayDeque<>();
+    private long openingBytes;
+
+    private ObsCoalescedSplit split;
+    private TaskAttemptContext context;
+    private ExecutorService executor;
+    private int nextFile;
+    private int completedFiles;
+    private FileReader<K, V> current;
+    private volatile boolean closed;
+
+    public ObsCoalescingRecordReader(InputFormat<K, V> delegate, int fetchThreads) {
+        this(delegate, fetchThreads, fetchThreads, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param fetchThreads number of files opened in parallel
+     * @param prefetchDepth number of files opened ahead of the current one
+     * @param prefetchMemoryLimit maximum sum of the sizes of the files opened ahead
+     */
+    public ObsCoalescingRecordReader(InputFormat<K, V> delegate, int fetchThreads, int prefetchDepth,
+                                     long prefetchMemoryLimit) {
+        this.delegate = delegate;
+        this.fetchThreads = fetchThreads;
+        this.prefetchDepth = Math.max(1, prefetchDepth);
+        this.prefetchMemoryLimit = prefetchMemoryLimit;
+    }
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) {
+        this.split = (ObsCoalescedSplit) split;
+        this.context = context;
+        this.metrics = ObsRequestMetrics.fromConfiguration(context.getConfiguration());
+        int threads = Math.min(Math.min(fetchThreads, prefetchDepth), this.split.getNumPaths());
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("obs-coalesce-%d").build());
+        openNextFiles();
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+        while (true) {
+            if (current != null) {
+                if (current.next()) {
+                    return true;
+                }
+                current.reader.close();
+                current = null;
+                completedFiles++;
+            }
+            PendingFile<K, V> next = opening.poll();
+            if (next == null) {
+                return false;
+            }
+            openingBytes -= next.length;
+            // the file after the ones already opened is opened while waiting for this one
+            openNextFiles();
+            current = await(next.future);
+        }
+    }
+
+    @Override
+    public K getCurrentKey() throws IOException, InterruptedException {
+        return current.reader.getCurrentKey();
+    }
+
+    @Override
+    public V getCurrentValue() throws IOException, InterruptedException {
+        return current.reader.getCurrentValue();
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+        if (split == null || split.getNumPaths() == 0) {
+            return 1.0f;
+        }
+        float currentProgress = current == null ? 0.0f : current.reader.getProgress();
+        return Math.min(1.0f, (completedFiles + currentProgress) / split.getNumPaths());
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        if (current != null) {
+            try {
+                current.reader.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+            current = null;
+        }
+        // the files not opened yet are skipped, the readers already open are closed
+        closed = true;
+        for (PendingFile<K, V> pending : opening) {
+            try {
+                FileReader<K, V> reader = pending.future.get();
+                if (reader != null) {
+                    reader.reader.close();
+                }
+            } catch (ExecutionException e) {
+                // the reader was closed when it failed to open
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        opening.clear();
+        openingBytes = 0L;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void openNextFiles() {
+        while (opening.size() < prefetchDepth && nextFile < split.getNumPaths()) {
+            long length = split.getLength(nextFile);
+            if (!opening.isEmpty() && openingBytes + length > prefetchMemoryLimit) {
+                return;
+            }
+            InputSplit fileSplit = toFileSplit(split.getPath(nextFile), length);
+            opening.add(new PendingFile<>(executor.submit(() -> open(fileSplit)), length));
+            openingBytes += length;
+            nextFile++;
+        }
+    }
+
+    @Nullable
+    private FileReader<K, V> open(InputSplit fileSplit) throws IOException, InterruptedException {
+        if (closed) {
+            return null;
+        }
+        long start = System.nanoTime();
+        RecordReader<K, V> reader = delegate.createRecordReader(fileSplit, context);
+        try {
+            reader.initialize(fileSplit, context);
+            // reading the first record sends the request for the file
+            boolean hasFirst = reader.nextKeyValue();
+            return new FileReader<>(reader, hasFirst, System.nanoTime() - start);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    private InputSplit toFileSplit(Path path, long length) {
+        if (delegate instanceof CombineFileInputFormat) {
+            return new CombineFileSplit(new Path[] {path}, new long[] {length});
+        }
+        return new FileSplit(path, 0L, length, new String[0]);
+    }
+
+    private FileReader<K, V> await(Future<FileReader<K, V>> future) throws IOException {
+        boolean ready = future.isDone();
+        long start = System.nanoTime();
+        try {
+            FileReader<K, V> reader = future.get();
+            if (reader != null) {
+                metrics.recordPrefetch(ready, ready ? reader.openNanos : System.nanoTime() - start);
+            }
+            return reader;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening the next file");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to open the next file", cause);
+        }
+    }
+
+    /**
+     * File being opened, with its size.
+     */
+    private static final class PendingFile<K, V> {
+        private final Future<FileReader<K, V>> future;
+        private final long length;
+
+        private PendingFile(Future<FileReader<K, V>> future, long length) {
+            this.future = future;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Record reader of a file whose first record may already have been read.
+     */
+    private static final class FileReader<K, V> {
+        private final RecordReader<K, V> reader;
+        // time it took to open the file and read its first record
+        private final long openNanos;
+        private boolean firstPending;
+        private boolean done;
+
+        private FileReader(RecordReader<K, V> reader, boolean hasFirst, long openNanos) {
+            this.reader = reader;
+            this.openNanos = openNanos;
+            this.firstPending = hasFirst;
+            this.done = !hasFirst;
+        }
+
+        private boolean next() throws IOException, InterruptedException {
+            if (firstPending) {
+                firstPending = false;
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            done = !reader.nextKeyValue();
+            return !done;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Splits the lines of a delimited object into the fields of a schema, in the order of the fields. The values are
+ * found in the line buffer with {@link ObsDelimiterScanner}, the line is copied once into an array reused for every
+ * line, and each value is converted from the array by the converter of its field, chosen once from the schema: the
+ * ints, longs and booleans are parsed from the bytes, only the strings and the other types go through a string.
+ *
+ * Values can be quoted when enabled: a quoted value may contain the delimiter, and a quote written as two quotes. An
+ * empty value is null when the field is nullable, and the fields without a value in the line are null.
+ */
+public final class ObsDelimitedParser {
+    private static final byte QUOTE = '"';
+    private static final int MAX_INT_DIGITS = 9;
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private final byte delimiter;
+    private final boolean quotedValues;
+    private final Column[] columns;
+    // start and end in the line buffer of the values of the line, and whether a quoted value has escaped quotes
+    private final int[] starts;
+    private final int[] ends;
+    private final boolean[] escaped;
+    // the bytes of the line being converted, grown to the longest line
+    private byte[] bytes = new byte[256];
+
+    /**
+     * @param schema schema of the records
+     * @param pathField field of the path set by the source, which is not read from the lines
+     */
+    public ObsDelimitedParser(Schema schema, @Nullable String pathField, byte delimiter, boolean quotedValues) {
+        this.delimiter = delimiter;
+        this.quotedValues = quotedValues;
+        List<Column> columns = new ArrayList<>();
+        for (Schema.Field field : schema.getFields()) {
+            if (!field.getName().equals(pathField)) {
+                columns.add(new Column(field));
+            }
+        }
+        this.columns = columns.toArray(new Column[0]);
+        this.starts = new int[this.columns.length];
+        this.ends = new int[this.columns.length];
+        this.escaped = new boolean[this.columns.length];
+    }
+
+    /**
+     * Sets the fields of a record from the values of a line.
+     *
+     * @param line the line, between the position and the limit of the buffer, which are moved to the limit
+     * @throws IOException if the line has more values than the schema has fields, or a quoted value is not terminated
+     */
+    public void parse(ByteBuffer line, StructuredRecord.Builder builder) throws IOException {
+        int from = line.position();
+        int length = line.remaining();
+        int count = split(line, from, line.limit());
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        line.get(bytes, 0, length);
+        for (int i = 0; i < columns.length; i++) {
+            if (i >= count) {
+                builder.set(columns[i].name, null);
+                continue;
+            }
+            int start = starts[i] - from;
+            int end = escaped[i] ? unescape(start, ends[i] - from) : ends[i] - from;
+            columns[i].set(builder, bytes, start, end);
+        }
+    }
+
+    /**
+     * Finds the values of a line.
+     *
+     * @return the number of values
+     */
+    private int split(ByteBuffer line, int from, int to) throws IOException {
+        int count = 0;
+        int position = from;
+        while (true) {
+            int start = position;
+            int end;
+            int next;
+            boolean escapes = false;
+            if (quotedValues && position < to && line.get(position) == QUOTE) {
+                start = position + 1;
+                end = start;
+                while (true) {
+                    end = ObsDelimiterScanner.indexOf(line, end, to, QUOTE);
+                    if (end < 0) {
+                        throw new IOException(String.format("Found an unterminated quoted value at position %d of a line.",
+                                position - from));
+                    }
+                    if (end + 1 < to && line.get(end + 1) == QUOTE) {
+                        escapes = true;
+                        end += 2;
+                        continue;
+                    }
+                    break;
+                }
+                next = end + 1;
+                if (next < to && line.get(next) != delimiter) {
+                    throw new IOException(String.format("Found a quoted value followed by other characters at " +
+                            "position %d of a line.", position - from));
+                }
+            } else {
+                int index = ObsDelimiterScanner.indexOf(line, position, to, delimiter);
+                end = index < 0 ? to : index;
+                next = end;
+            }
+            if (count == columns.length) {
+                throw new IOException(String.format("Found a line with more values than the %d fields of the schema.",
+                        columns.length));
+            }
+            starts[count] = start;
+            ends[count] = end;
+            escaped[count] = escapes;
+            count++;
+            if (next >= to) {
+                return count;
+            }
+            // after the delimiter
+            position = next + 1;
+        }
+    }
+
+    /**
+     * Replaces the escaped quotes of a value with single quotes, in place.
+     *
+     * @return the end of the value
+     */
+    private int unescape(int start, int end) {
+        int target = start;
+        for (int i = start; i < end; i++) {
+            bytes[target++] = bytes[i];
+            if (bytes[i] == QUOTE) {
+                i++;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * How the values of a field are converted.
+     */
+    private enum Kind {
+        STRING, INT, LONG, BOOLEAN, OTHER;
+
+        static Kind of(Schema schema) {
+            if (schema.getLogicalType() != null) {
+                return OTHER;
+            }
+            switch (schema.getType()) {
+                case STRING:
+                    return STRING;
+                case INT:
+                    return INT;
+                case LONG:
+                    return LONG;
+                case BOOLEAN:
+                    return BOOLEAN;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    /**
+     * Field of the schema read from the lines.
+     */
+    private static final class Column {
+        private final String name;
+        private final Kind kind;
+        private final boolean nullable;
+
+        private Column(Schema.Field field) {
+            Schema schema = field.getSchema();
+            this.name = field.getName();
+            this.nullable = schema.isNullable();
+            this.kind = Kind.of(nullable ? schema.getNonNullable() : schema);
+        }
+
+        private void set(StructuredRecord.Builder builder, byte[] bytes, int start, int end) {
+            if (start == end && (nullable || kind != Kind.STRING)) {
+                builder.set(name, null);
+                return;
+            }
+            switch (kind) {
+                case STRING:
+                    builder.set(name, new String(bytes, start, end - start, StandardCharsets.UTF_8));
+                    break;
+                case INT:
+                    builder.set(name, (int) parse(bytes, start, end, false));
+                    break;
+                case LONG:
+                    builder.set(name, parse(bytes, start, end, true));
+                    break;
+                case BOOLEAN:
+                    builder.set(name, isTrue(bytes, start, end));
+                    break;
+                default:
+                    builder.convertAndSet(name, new String(bytes, start, end - start, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Parses the digits of an int or a long that cannot overflow, the other values are parsed by {@link Integer} or
+     * {@link Long}, which also report the invalid ones.
+     */
+    private static long parse(byte[] bytes, int start, int end, boolean isLong) {
+        boolean negative = bytes[start] == '-';
+        int index = negative || bytes[start] == '+' ? start + 1 : start;
+        if (index < end && end - index <= (isLong ? MAX_LONG_DIGITS : MAX_INT_DIGITS)) {
+            long value = 0;
+            for (; index < end; index++) {
+                int digit = bytes[index] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                value = value * 10 + digit;
+            }
+            if (index == end) {
+                return negative ? -value : value;
+            }
+        }
+        String value = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        return isLong ? Long.parseLong(value) : Integer.parseInt(value);
+    }
+
+    /**
+     * @return whether the value is "true", ignoring the case, like {@link Boolean#parseBoolean(String)}
+     */
+    private static boolean isTrue(byte[] bytes, int start, int end) {
+        return end - start == 4 && (bytes[start] | 0x20) == 't' && (bytes[start + 1] | 0x20) == 'r'
+                && (bytes[start + 2] | 0x20) == 'u' && (bytes[start + 3] | 0x20) == 'e';
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds a delimiter byte in a buffer eight bytes at a time: each long read from the buffer is compared with the
+ * delimiter repeated in every byte, and the bytes that are equal are found with the usual zero byte test of the
+ * difference, without a branch per byte. The long reads of a direct buffer are single memory loads.
+ */
+public final class ObsDelimiterScanner {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private ObsDelimiterScanner() {
+    }
+
+    /**
+     * @return the index of the first delimiter between the given indexes of the buffer, or -1 if there is none
+     */
+    public static int indexOf(ByteBuffer buffer, int from, int to, byte delimiter) {
+        long pattern = ONES * (delimiter & 0xFF);
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int index = from;
+        for (; index + Long.BYTES <= to; index += Long.BYTES) {
+            long word = buffer.getLong(index);
+            if (bigEndian) {
+                // the lowest byte of the test must be the first one, the borrows only propagate to the higher bytes
+                word = Long.reverseBytes(word);
+            }
+            long difference = word ^ pattern;
+            long found = (difference - ONES) & ~difference & HIGHS;
+            if (found != 0) {
+                return index + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; index < to; index++) {
+            if (buffer.get(index) == delimiter) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
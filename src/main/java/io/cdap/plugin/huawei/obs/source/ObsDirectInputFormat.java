@@ -0,0 +1,362 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.format.input.PathTrackingInputFormat;
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsWriteBufferPool;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the objects of the text, blob and delimited formats without going through the {@code Text} and
+ * {@code BytesWritable} of their input formats. The text records are read by {@link ObsLineReader} from pooled direct
+ * buffers, and their body is decoded straight from the line, which is the only copy of its bytes. The lines of the
+ * csv, tsv and delimited objects are split by {@link ObsDelimitedParser}, a batch of lines at a time. The body of a
+ * blob record is the buffer the object is read into, which is not pooled since the record keeps it.
+ *
+ * The records have the fields of the formats: the offset and the body of a line, the fields of the schema read from
+ * the values of a line, or the body of an object, and the path field set by the source.
+ */
+public class ObsDirectInputFormat extends FileInputFormat<NullWritable, StructuredRecord> {
+    /**
+     * Format of the objects, text, blob, csv, tsv or delimited.
+     */
+    public static final String FORMAT = "fs.obs.cdap.direct.format";
+    /**
+     * Delimiter of the values of the delimited formats, a single character.
+     */
+    public static final String DELIMITER = "fs.obs.cdap.direct.delimiter";
+    /**
+     * Whether the values of the delimited formats can be quoted.
+     */
+    public static final String QUOTED_VALUES = "fs.obs.cdap.direct.quoted.values";
+    public static final String TEXT = "text";
+    public static final String BLOB = "blob";
+    public static final String CSV = "csv";
+    public static final String TSV = "tsv";
+    public static final String DELIMITED = "delimited";
+
+    /**
+     * Keys of the configuration of {@link PathTrackingInputFormat} set by the formats, which it does not make public.
+     */
+    static final String SCHEMA = "schema";
+    private static final String PATH_FIELD = "path.tracking.path.field";
+    private static final String FILENAME_ONLY = "path.tracking.filename.only";
+
+    private static final String OFFSET_FIELD = "offset";
+    private static final String BODY_FIELD = "body";
+    // shared by the readers of an executor, the buffers are reused from one split to the next
+    private static final ObsWriteBufferPool BUFFERS = new ObsWriteBufferPool(ObsConstants.DIRECT_READ_BUFFER_SIZE,
+            true);
+    // records parsed at a time from the lines of the delimited formats
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * @return whether the format is one of the delimited formats
+     */
+    public static boolean isDelimited(String format) {
+        return CSV.equals(format) || TSV.equals(format) || DELIMITED.equals(format);
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        if (BLOB.equals(context.getConfiguration().get(FORMAT))) {
+            return false;
+        }
+        return new CompressionCodecFactory(context.getConfiguration()).getCodec(file) == null;
+    }
+
+    @Override
+    public RecordReader<NullWritable, StructuredRecord> createRecordReader(InputSplit split,
+                                                                          TaskAttemptContext context) {
+        String format = context.getConfiguration().get(FORMAT);
+        if (BLOB.equals(format)) {
+            return new BlobRecordReader();
+        }
+        return isDelimited(format) ? new DelimitedRecordReader() : new TextRecordReader();
+    }
+
+    /**
+     * Returns the schema of the records: the one of the source, or the default one of the format with the path
+     * field.
+     */
+    static Schema getSchema(Configuration conf) throws IOException {
+        String schema = conf.get(SCHEMA);
+        if (schema != null) {
+            return Schema.parseJson(schema);
+        }
+        if (isDelimited(conf.get(FORMAT))) {
+            throw new IOException("The schema is required to read the delimited formats directly");
+        }
+        String pathField = conf.get(PATH_FIELD);
+        boolean blob = BLOB.equals(conf.get(FORMAT));
+        Schema.Field body = Schema.Field.of(BODY_FIELD, Schema.of(blob ? Schema.Type.BYTES : Schema.Type.STRING));
+        Schema.Field offset = Schema.Field.of(OFFSET_FIELD, Schema.of(Schema.Type.LONG));
+        if (pathField == null) {
+            return blob ? Schema.recordOf("blob", body) : Schema.recordOf("text", offset, body);
+        }
+        Schema.Field path = Schema.Field.of(pathField, Schema.of(Schema.Type.STRING));
+        return blob ? Schema.recordOf("blob", body, path) : Schema.recordOf("text", offset, body, path);
+    }
+
+    /**
+     * Base of the record readers, which sets the path field of the records.
+     */
+    private abstract static class DirectRecordReader extends RecordReader<NullWritable, StructuredRecord> {
+        Schema schema;
+        boolean hasOffset;
+        @Nullable
+        String pathField;
+        String pathValue;
+        StructuredRecord current;
+
+        void initialize(FileSplit split, Configuration conf) throws IOException {
+            schema = getSchema(conf);
+            hasOffset = schema.getField(OFFSET_FIELD) != null;
+            pathField = conf.get(PATH_FIELD);
+            Path path = split.getPath();
+            pathValue = conf.getBoolean(FILENAME_ONLY, false) ? path.getName()
+                    : path.toUri().toString();
+        }
+
+        StructuredRecord.Builder newRecord() {
+            StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+            if (pathField != null) {
+                builder.set(pathField, pathValue);
+            }
+            return builder;
+        }
+
+        @Override
+        public NullWritable getCurrentKey() {
+            return NullWritable.get();
+        }
+
+        @Override
+        public StructuredRecord getCurrentValue() {
+            return current;
+        }
+    }
+
+    /**
+     * Reads the lines of a split. Like the text input format, a split skips its first line unless it starts the
+     * object, and reads the line that starts at its end.
+     */
+    private static class TextRecordReader extends DirectRecordReader {
+        private ObsLineReader reader;
+        private Decompressor decompressor;
+        private long start;
+        private long end;
+        // the bytes of the line being decoded, grown to the longest line
+        private byte[] bytes = new byte[256];
+
+        @Override
+        public void initialize(InputSplit inputSplit, TaskAttemptContext context) throws IOException {
+            FileSplit split = (FileSplit) inputSplit;
+            Configuration conf = context.getConfiguration();
+            initialize(split, conf);
+            Path path = split.getPath();
+            FileSystem fs = path.getFileSystem(conf);
+            FSDataInputStream in = fs.open(path);
+            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+            if (codec != null) {
+                decompressor = CodecPool.getDecompressor(codec);
+                start = 0L;
+                end = Long.MAX_VALUE;
+                reader = new ObsLineReader(codec.createInputStream(in, decompressor), BUFFERS, 0L);
+                return;
+            }
+            start = split.getStart();
+            end = start + split.getLength();
+            in.seek(start);
+            reader = new ObsLineReader(in, BUFFERS, start);
+            if (start != 0) {
+                // read by the previous split
+                reader.next();
+            }
+        }
+
+        /**
+         * @return the next line of the split, or null at its end
+         */
+        @Nullable
+        ByteBuffer nextLine() throws IOException {
+            return reader.getPosition() > end ? null : reader.next();
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            ByteBuffer line = nextLine();
+            if (line == null) {
+                return false;
+            }
+            int length = line.remaining();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            line.get(bytes, 0, length);
+            StructuredRecord.Builder builder = newRecord().set(BODY_FIELD, new String(bytes, 0, length,
+                    StandardCharsets.UTF_8));
+            if (hasOffset) {
+                builder.set(OFFSET_FIELD, reader.getLineOffset());
+            }
+            current = builder.build();
+            return true;
+        }
+
+        @Override
+        public float getProgress() {
+            if (end == Long.MAX_VALUE || end == start) {
+                return 0.0f;
+            }
+            return Math.min(1.0f, (reader.getPosition() - start) / (float) (end - start));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+            } finally {
+                if (decompressor != null) {
+                    CodecPool.returnDecompressor(decompressor);
+                    decompressor = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the records of the lines of a split, parsed a batch at a time so that the parsing of the lines is a tight
+     * loop over the buffer.
+     */
+    private static final class DelimitedRecordReader extends TextRecordReader {
+        private final StructuredRecord[] batch = new StructuredRecord[BATCH_SIZE];
+        private ObsDelimitedParser parser;
+        private int size;
+        private int index;
+
+        @Override
+        public void initialize(InputSplit inputSplit, TaskAttemptContext context) throws IOException {
+            super.initialize(inputSplit, context);
+            Configuration conf = context.getConfiguration();
+            String delimiter = conf.get(DELIMITER);
+            if (delimiter == null || delimiter.length() != 1 || delimiter.charAt(0) > 0x7F) {
+                throw new IOException("The delimiter must be a single ASCII character to read the delimited formats " +
+                        "directly");
+            }
+            parser = new ObsDelimitedParser(schema, pathField, (byte) delimiter.charAt(0),
+                    conf.getBoolean(QUOTED_VALUES, false));
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            if (index == size && !parseBatch()) {
+                return false;
+            }
+            current = batch[index++];
+            return true;
+        }
+
+        private boolean parseBatch() throws IOException {
+            size = 0;
+            index = 0;
+            ByteBuffer line;
+            while (size < BATCH_SIZE && (line = nextLine()) != null) {
+                StructuredRecord.Builder builder = newRecord();
+                parser.parse(line, builder);
+                batch[size++] = builder.build();
+            }
+            return size > 0;
+        }
+    }
+
+    /**
+     * Reads an object into a single record.
+     */
+    private static final class BlobRecordReader extends DirectRecordReader {
+        private FileSplit split;
+        private Configuration conf;
+        private boolean read;
+
+        @Override
+        public void initialize(InputSplit inputSplit, TaskAttemptContext context) throws IOException {
+            split = (FileSplit) inputSplit;
+            conf = context.getConfiguration();
+            initialize(split, conf);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            if (read) {
+                return false;
+            }
+            read = true;
+            Path path = split.getPath();
+            long length = split.getLength();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Object " + path + " of " + length + " bytes is too large for a blob record");
+            }
+            ByteBuffer body = ByteBuffer.allocate((int) length);
+            try (InputStream in = path.getFileSystem(conf).open(path)) {
+                int offset = 0;
+                while (offset < length) {
+                    int count = in.read(body.array(), offset, (int) length - offset);
+                    if (count < 0) {
+                        throw new IOException("Object " + path + " ended after " + offset + " of " + length + " bytes");
+                    }
+                    offset += count;
+                }
+            }
+            current = newRecord().set(BODY_FIELD, body).build();
+            return true;
+        }
+
+        @Override
+        public float getProgress() {
+            return read ? 1.0f : 0.0f;
+        }
+
+        @Override
+        public void close() {
+            // the object is closed once read
+        }
+    }
+}
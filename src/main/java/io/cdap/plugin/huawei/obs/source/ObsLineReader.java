@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.plugin.huawei.obs.common.ObsWriteBufferPool;
+import org.apache.hadoop.fs.ByteBufferReadable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the lines of a stream into a buffer of a pool, usually a direct one, and splits them in place with
+ * {@link ObsDelimiterScanner}. Every line is handed out as the same view of the buffer, so reading a line allocates
+ * nothing, and its bytes are only copied when the buffer is compacted to make room for the next ones.
+ *
+ * Lines end with '\n' or "\r\n", the last one may have no end. A line longer than the buffer is read into a larger
+ * buffer allocated for the rest of the stream.
+ */
+public class ObsLineReader implements Closeable {
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final int SCRATCH_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final ObsWriteBufferPool pool;
+    private ByteBuffer buffer;
+    private boolean pooled;
+    // view of the current line, reused for every line
+    private ByteBuffer line;
+    // offset in the stream of the first byte of the buffer
+    private long base;
+    // start of the next line, end of the bytes already scanned for its end, and end of the bytes read
+    private int start;
+    private int scanned;
+    private int end;
+    private long lineOffset = -1L;
+    private boolean eof;
+    // whether the stream reads into buffers, otherwise it is read through the scratch array
+    private boolean byteBufferReadable;
+    private byte[] scratch;
+
+    /**
+     * @param offset offset in the file of the first byte of the stream
+     */
+    public ObsLineReader(InputStream in, ObsWriteBufferPool pool, long offset) {
+        this.in = in;
+        this.pool = pool;
+        this.buffer = pool.acquire().order(ByteOrder.LITTLE_ENDIAN);
+        this.pooled = true;
+        this.line = buffer.duplicate();
+        this.base = offset;
+        this.byteBufferReadable = in instanceof ByteBufferReadable;
+    }
+
+    /**
+     * @return the next line without its end, as a view of the buffer that is only valid until the next call, or null
+     *         at the end of the stream
+     */
+    @Nullable
+    public ByteBuffer next() throws IOException {
+        while (true) {
+            int index = ObsDelimiterScanner.indexOf(buffer, scanned, end, LF);
+            if (index >= 0) {
+                return line(index, index + 1);
+            }
+            scanned = end;
+            if (eof) {
+                return start < end ? line(end, end) : null;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * @return the offset in the file of the line returned by {@link #next()}
+     */
+    public long getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * @return the offset in the file of the next line
+     */
+    public long getPosition() {
+        return base + start;
+    }
+
+    private ByteBuffer line(int lineEnd, int next) {
+        int last = lineEnd;
+        if (last > start && buffer.get(last - 1) == CR) {
+            last--;
+        }
+        lineOffset = base + start;
+        line.limit(last);
+        line.position(start);
+        start = next;
+        scanned = next;
+        return line;
+    }
+
+    /**
+     * Reads more bytes after the ones of the current line, moving them to the start of the buffer, or to a larger
+     * buffer if they fill it.
+     */
+    private void fill() throws IOException {
+        if (start > 0) {
+            buffer.limit(end).position(start);
+            buffer.compact();
+            base += start;
+            end -= start;
+            scanned -= start;
+            start = 0;
+        } else if (end == buffer.capacity()) {
+            grow();
+        }
+        buffer.limit(buffer.capacity()).position(end);
+        int read = read(buffer);
+        if (read < 0) {
+            eof = true;
+        } else {
+            end += read;
+        }
+        buffer.clear();
+    }
+
+    private void grow() {
+        if (buffer.capacity() > Integer.MAX_VALUE / 2) {
+            throw new IllegalStateException("Line at offset " + base + " is longer than " + buffer.capacity());
+        }
+        ByteBuffer larger = (buffer.isDirect() ? ByteBuffer.allocateDirect(buffer.capacity() * 2)
+                : ByteBuffer.allocate(buffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit(end).position(0);
+        larger.put(buffer);
+        release();
+        buffer = larger;
+        line = buffer.duplicate();
+    }
+
+    private int read(ByteBuffer target) throws IOException {
+        if (byteBufferReadable) {
+            try {
+                return ((ByteBufferReadable) in).read(target);
+            } catch (UnsupportedOperationException e) {
+                // the stream wrapped by the filesystem does not read into buffers
+                byteBufferReadable = false;
+            }
+        }
+        if (target.hasArray()) {
+            int read = in.read(target.array(), target.arrayOffset() + target.position(), target.remaining());
+            if (read > 0) {
+                target.position(target.position() + read);
+            }
+            return read;
+        }
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        int read = in.read(scratch, 0, Math.min(scratch.length, target.remaining()));
+        if (read > 0) {
+            target.put(scratch, 0, read);
+        }
+        return read;
+    }
+
+    private void release() {
+        if (pooled) {
+            pool.release(buffer);
+            pooled = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+        in.close();
+    }
+}
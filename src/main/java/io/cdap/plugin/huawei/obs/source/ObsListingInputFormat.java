@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.plugin.huawei.obs.common.OBSFileSystemP;
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsWatermark;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * Input format that lists the input with the settings of the job, and gives the files listed to the input format of
+ * the source format, which creates the splits and reads the records. The filesystem is cached and shared by the
+ * stages reading the same bucket, so these settings can't be taken from its configuration. When the input is read
+ * incrementally, only the files between the watermarks of the run are listed, see {@link ObsWatermark}, and when the
+ * inventory is used, the files of the input path are taken from its inventory, see {@link ObsConstants#LIST_INVENTORY}.
+ *
+ * @param <K> type of the keys of the source format
+ * @param <V> type of the values of the source format
+ */
+public class ObsListingInputFormat<K, V> extends InputFormat<K, V> {
+    /**
+     * Class name of the input format of the source format.
+     */
+    public static final String DELEGATE = "fs.obs.cdap.listing.delegate";
+
+    @Override
+    public List<InputSplit> getSplits(JobContext context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        InputFormat<K, V> delegate = getDelegate(conf);
+        Predicate<FileStatus> filter = getWatermarkFilter(conf);
+        boolean inventory = conf.getBoolean(ObsConstants.LIST_INVENTORY, false);
+        Path[] inputPaths = FileInputFormat.getInputPaths(context);
+        if (filter == null && !inventory || inputPaths.length == 0) {
+            return delegate.getSplits(context);
+        }
+        FileSystem fs = inputPaths[0].getFileSystem(conf);
+        if (!(fs instanceof OBSFileSystemP)) {
+            throw new IOException("The input can only be read incrementally or from the inventory with "
+                    + OBSFileSystemP.class.getName());
+        }
+        Job job = Job.getInstance(conf);
+        // the settings of the job only apply to the listings of the thread
+        job.getConfiguration().setInt(FileInputFormat.LIST_STATUS_NUM_THREADS, 1);
+        return ((OBSFileSystemP) fs).listInput(job.getConfiguration(), filter, () -> delegate.getSplits(job));
+    }
+
+    @Override
+    public RecordReader<K, V> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException, InterruptedException {
+        InputFormat<K, V> delegate = getDelegate(context.getConfiguration());
+        return delegate.createRecordReader(split, context);
+    }
+
+    /**
+     * @return the files of the run, between the watermarks of the configuration, or null if the input is not read
+     *         incrementally
+     */
+    @Nullable
+    static Predicate<FileStatus> getWatermarkFilter(Configuration conf) {
+        String fromValue = conf.get(ObsConstants.WATERMARK_FROM);
+        String toValue = conf.get(ObsConstants.WATERMARK_TO);
+        if (fromValue == null && toValue == null) {
+            return null;
+        }
+        ObsWatermark from = fromValue == null ? null : ObsWatermark.parse(fromValue);
+        ObsWatermark to = toValue == null ? null : ObsWatermark.parse(toValue);
+        long lookback = conf.getLong(ObsConstants.WATERMARK_LOOKBACK, ObsConstants.DEFAULT_WATERMARK_LOOKBACK);
+        return status -> {
+            long modified = status.getModificationTime();
+            String key = getKey(status.getPath());
+            return (from == null || from.isReadAfter(modified, key, lookback))
+                    && (to == null || to.isReadUpTo(modified, key, lookback));
+        };
+    }
+
+    private static String getKey(Path path) {
+        String key = path.toUri().getPath();
+        return key.startsWith("/") ? key.substring(1) : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> InputFormat<K, V> getDelegate(Configuration conf) {
+        Class<?> delegateClass = conf.getClass(DELEGATE, null, InputFormat.class);
+        if (delegateClass == null) {
+            throw new IllegalStateException("The input format of the source format is not set in " + DELEGATE);
+        }
+        return (InputFormat<K, V>) ReflectionUtils.newInstance(delegateClass, conf);
+    }
+}
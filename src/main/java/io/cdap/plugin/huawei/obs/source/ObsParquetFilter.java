@@ -0,0 +1,319 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.io.api.Binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Converts the filter of the source into a Parquet {@link FilterPredicate}, which the Parquet reader uses to skip the
+ * row groups whose statistics do not match, and to filter the records of the others.
+ *
+ * The filter is a list of comparisons between a field of the schema and a literal, joined with AND and OR, AND taking
+ * precedence. For example: {@code day >= '2021-10-01' AND country = 'FR' OR priority > 3}. Literals are numbers,
+ * quoted strings, true, false and null. Dates and timestamps are given as quoted ISO-8601 strings.
+ */
+public final class ObsParquetFilter {
+    /**
+     * Configuration property of the Parquet input format holding the serialized filter predicate.
+     */
+    public static final String FILTER_PREDICATE = "parquet.private.read.filter.predicate";
+    /**
+     * Configuration property of the Parquet Avro read support holding the Avro schema of the columns to read.
+     */
+    public static final String REQUESTED_PROJECTION = "parquet.avro.projection";
+
+    private static final String[] OPERATORS = {"<=", ">=", "!=", "<>", "==", "=", "<", ">"};
+
+    private final String expression;
+    private final Schema schema;
+    private int position;
+
+    private ObsParquetFilter(String expression, Schema schema) {
+        this.expression = expression;
+        this.schema = schema;
+    }
+
+    /**
+     * @param schema schema of the records, gives the type of the fields of the filter
+     * @throws IllegalArgumentException if the filter is not valid
+     */
+    public static FilterPredicate parse(String expression, Schema schema) {
+        return new ObsParquetFilter(expression, schema).parse();
+    }
+
+    /**
+     * Serializes the predicate the way {@code ParquetInputFormat.setFilterPredicate} does.
+     */
+    public static String serialize(FilterPredicate predicate) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeObject(predicate);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(Base64.getEncoder().encode(bytes.toByteArray()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the Avro schema of the columns to read: the fields of the schema, without the path field that is not
+     * part of the files.
+     */
+    public static String getProjection(Schema schema, @Nullable String pathField) {
+        List<Schema.Field> fields = new ArrayList<>();
+        for (Schema.Field field : schema.getFields()) {
+            if (!field.getName().equals(pathField)) {
+                fields.add(field);
+            }
+        }
+        return Schema.recordOf(schema.getRecordName(), fields).toString();
+    }
+
+    private FilterPredicate parse() {
+        FilterPredicate predicate = parseAnd();
+        while (consumeKeyword("OR")) {
+            predicate = FilterApi.or(predicate, parseAnd());
+        }
+        skipWhitespace();
+        if (position < expression.length()) {
+            throw error("Unexpected '" + expression.substring(position) + "'");
+        }
+        return predicate;
+    }
+
+    private FilterPredicate parseAnd() {
+        FilterPredicate predicate = parseComparison();
+        while (consumeKeyword("AND")) {
+            predicate = FilterApi.and(predicate, parseComparison());
+        }
+        return predicate;
+    }
+
+    private FilterPredicate parseComparison() {
+        String name = parseIdentifier();
+        String operator = parseOperator();
+        String literal = parseLiteral();
+
+        Schema.Field field = schema.getField(name);
+        if (field == null) {
+            throw error("Field '" + name + "' is not in the schema");
+        }
+        Schema fieldSchema = field.getSchema().isNullable() ? field.getSchema().getNonNullable() : field.getSchema();
+        Schema.LogicalType logicalType = fieldSchema.getLogicalType();
+        if (logicalType == Schema.LogicalType.DATE) {
+            return compare(FilterApi.intColumn(name), operator,
+                    literal == null ? null : (int) parseDate(name, literal).toEpochDay());
+        }
+        if (logicalType == Schema.LogicalType.TIMESTAMP_MILLIS) {
+            return compare(FilterApi.longColumn(name), operator,
+                    literal == null ? null : parseTimestamp(name, literal, TimeUnit.MILLISECONDS));
+        }
+        if (logicalType == Schema.LogicalType.TIMESTAMP_MICROS) {
+            return compare(FilterApi.longColumn(name), operator,
+                    literal == null ? null : parseTimestamp(name, literal, TimeUnit.MICROSECONDS));
+        }
+        if (logicalType != null) {
+            throw error("Field '" + name + "' of type " + logicalType + " can't be used in the filter");
+        }
+        try {
+            switch (fieldSchema.getType()) {
+                case INT:
+                    return compare(FilterApi.intColumn(name), operator,
+                            literal == null ? null : Integer.valueOf(literal));
+                case LONG:
+                    return compare(FilterApi.longColumn(name), operator, literal == null ? null : Long.valueOf(literal));
+                case FLOAT:
+                    return compare(FilterApi.floatColumn(name), operator,
+                            literal == null ? null : Float.valueOf(literal));
+                case DOUBLE:
+                    return compare(FilterApi.doubleColumn(name), operator,
+                            literal == null ? null : Double.valueOf(literal));
+                case STRING:
+                    return compare(FilterApi.binaryColumn(name), operator,
+                            literal == null ? null : Binary.fromString(literal));
+                case BOOLEAN:
+                    return equality(FilterApi.booleanColumn(name), operator,
+                            literal == null ? null : parseBoolean(name, literal));
+                default:
+                    throw error("Field '" + name + "' of type " + fieldSchema.getType() + " can't be used in the filter");
+            }
+        } catch (NumberFormatException e) {
+            throw error("Invalid value '" + literal + "' for field '" + name + "'");
+        }
+    }
+
+    private <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsLtGt> FilterPredicate compare(
+            C column, String operator, T value) {
+        switch (operator) {
+            case "<":
+                return FilterApi.lt(column, checkNotNull(column, value));
+            case "<=":
+                return FilterApi.ltEq(column, checkNotNull(column, value));
+            case ">":
+                return FilterApi.gt(column, checkNotNull(column, value));
+            case ">=":
+                return FilterApi.gtEq(column, checkNotNull(column, value));
+            default:
+                return equality(column, operator, value);
+        }
+    }
+
+    private <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsEqNotEq> FilterPredicate equality(
+            C column, String operator, T value) {
+        switch (operator) {
+            case "=":
+            case "==":
+                return FilterApi.eq(column, value);
+            case "!=":
+            case "<>":
+                return FilterApi.notEq(column, value);
+            default:
+                throw error("Operator " + operator + " can't be used with field '" + column.getColumnPath().toDotString() + "'");
+        }
+    }
+
+    private <T> T checkNotNull(Operators.Column<?> column, T value) {
+        if (value == null) {
+            throw error("null can only be compared for equality with field '" + column.getColumnPath().toDotString() + "'");
+        }
+        return value;
+    }
+
+    private LocalDate parseDate(String name, String literal) {
+        try {
+            return LocalDate.parse(literal);
+        } catch (DateTimeParseException e) {
+            throw error("Invalid date '" + literal + "' for field '" + name + "', expected yyyy-MM-dd");
+        }
+    }
+
+    private long parseTimestamp(String name, String literal, TimeUnit unit) {
+        Instant instant;
+        try {
+            instant = Instant.parse(literal);
+        } catch (DateTimeParseException e) {
+            throw error("Invalid timestamp '" + literal + "' for field '" + name + "', expected yyyy-MM-ddTHH:mm:ssZ");
+        }
+        long seconds = unit.convert(instant.getEpochSecond(), TimeUnit.SECONDS);
+        return seconds + unit.convert(instant.getNano(), TimeUnit.NANOSECONDS);
+    }
+
+    private Boolean parseBoolean(String name, String literal) {
+        if (!"true".equalsIgnoreCase(literal) && !"false".equalsIgnoreCase(literal)) {
+            throw error("Invalid value '" + literal + "' for field '" + name + "'");
+        }
+        return Boolean.valueOf(literal);
+    }
+
+    private String parseIdentifier() {
+        skipWhitespace();
+        int start = position;
+        while (position < expression.length()
+                && (Character.isLetterOrDigit(expression.charAt(position)) || expression.charAt(position) == '_')) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Expected a field name");
+        }
+        return expression.substring(start, position);
+    }
+
+    private String parseOperator() {
+        skipWhitespace();
+        for (String operator : OPERATORS) {
+            if (expression.startsWith(operator, position)) {
+                position += operator.length();
+                return operator;
+            }
+        }
+        throw error("Expected a comparison operator");
+    }
+
+    /**
+     * @return the literal, unquoted, or null for the null literal
+     */
+    private String parseLiteral() {
+        skipWhitespace();
+        if (position < expression.length() && expression.charAt(position) == '\'') {
+            StringBuilder value = new StringBuilder();
+            position++;
+            while (position < expression.length()) {
+                char c = expression.charAt(position++);
+                if (c != '\'') {
+                    value.append(c);
+                } else if (position < expression.length() && expression.charAt(position) == '\'') {
+                    // '' is an escaped quote
+                    value.append(c);
+                    position++;
+                } else {
+                    return value.toString();
+                }
+            }
+            throw error("Unterminated string");
+        }
+        int start = position;
+        while (position < expression.length() && !Character.isWhitespace(expression.charAt(position))) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Expected a value");
+        }
+        String literal = expression.substring(start, position);
+        return "null".equalsIgnoreCase(literal) ? null : literal;
+    }
+
+    private boolean consumeKeyword(String keyword) {
+        skipWhitespace();
+        int end = position + keyword.length();
+        if (expression.regionMatches(true, position, keyword, 0, keyword.length())
+                && end < expression.length() && Character.isWhitespace(expression.charAt(end))) {
+            position = end;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(String.format(Locale.ROOT, "%s at position %d of filter '%s'.",
+                message, position, expression));
+    }
+}
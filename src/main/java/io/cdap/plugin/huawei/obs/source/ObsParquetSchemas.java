@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.metadata.FileMetaData;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts the schema in the footer of a Parquet file to the schema of the records read by the parquet format. The
+ * Avro schema stored by the Avro writers, including the parquet sink, is used when there is one, like the Parquet
+ * Avro reader does. Otherwise the Parquet schema is converted the way the Parquet Avro schema converter does.
+ */
+final class ObsParquetSchemas {
+    private static final String AVRO_SCHEMA_KEY = "parquet.avro.schema";
+
+    private ObsParquetSchemas() {
+    }
+
+    /**
+     * @param footer the serialized file metadata at the end of the file, without its length and the magic
+     */
+    static Schema fromFooter(byte[] footer) throws IOException {
+        FileMetaData metadata = new ParquetMetadataConverter()
+                .readParquetMetadata(new ByteArrayInputStream(footer), ParquetMetadataConverter.NO_FILTER)
+                .getFileMetaData();
+        String avroSchema = metadata.getKeyValueMetaData().get(AVRO_SCHEMA_KEY);
+        if (avroSchema != null) {
+            return Schema.parseJson(avroSchema);
+        }
+        MessageType messageType = metadata.getSchema();
+        return Schema.recordOf(messageType.getName(), toFields(messageType));
+    }
+
+    private static List<Schema.Field> toFields(GroupType group) {
+        List<Schema.Field> fields = new ArrayList<>();
+        for (Type type : group.getFields()) {
+            Schema schema = type.isRepetition(Type.Repetition.REPEATED)
+                    ? Schema.arrayOf(toSchema(type)) : toSchema(type);
+            fields.add(Schema.Field.of(type.getName(),
+                    type.isRepetition(Type.Repetition.OPTIONAL) ? Schema.nullableOf(schema) : schema));
+        }
+        return fields;
+    }
+
+    private static Schema toSchema(Type type) {
+        if (type.isPrimitive()) {
+            return toSchema(type.asPrimitiveType());
+        }
+        GroupType group = type.asGroupType();
+        LogicalTypeAnnotation annotation = group.getLogicalTypeAnnotation();
+        if (annotation instanceof LogicalTypeAnnotation.ListLogicalTypeAnnotation && group.getFieldCount() == 1
+                && group.getType(0).isRepetition(Type.Repetition.REPEATED)) {
+            return Schema.arrayOf(toListElement(group.getType(0)));
+        }
+        if ((annotation instanceof LogicalTypeAnnotation.MapLogicalTypeAnnotation
+                || annotation instanceof LogicalTypeAnnotation.MapKeyValueTypeAnnotation)
+                && group.getFieldCount() == 1 && !group.getType(0).isPrimitive()
+                && group.getType(0).asGroupType().getFieldCount() == 2) {
+            GroupType keyValue = group.getType(0).asGroupType();
+            Type value = keyValue.getType(1);
+            Schema valueSchema = toSchema(value);
+            return Schema.mapOf(toSchema(keyValue.getType(0)),
+                    value.isRepetition(Type.Repetition.OPTIONAL) ? Schema.nullableOf(valueSchema) : valueSchema);
+        }
+        return Schema.recordOf(group.getName(), toFields(group));
+    }
+
+    /**
+     * @param repeated the repeated field of a list, either the element or a group wrapping the element
+     */
+    private static Schema toListElement(Type repeated) {
+        if (repeated.isPrimitive() || repeated.asGroupType().getFieldCount() > 1
+                || repeated.getName().equals("array") || repeated.getName().endsWith("_tuple")) {
+            // two levels list, the repeated field is the element
+            return toSchema(repeated);
+        }
+        Type element = repeated.asGroupType().getType(0);
+        Schema schema = toSchema(element);
+        return element.isRepetition(Type.Repetition.OPTIONAL) ? Schema.nullableOf(schema) : schema;
+    }
+
+    private static Schema toSchema(PrimitiveType type) {
+        LogicalTypeAnnotation annotation = type.getLogicalTypeAnnotation();
+        if (annotation instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+            LogicalTypeAnnotation.DecimalLogicalTypeAnnotation decimal =
+                    (LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) annotation;
+            return Schema.decimalOf(decimal.getPrecision(), decimal.getScale());
+        }
+        switch (type.getPrimitiveTypeName()) {
+            case BOOLEAN:
+                return Schema.of(Schema.Type.BOOLEAN);
+            case INT32:
+                if (annotation instanceof LogicalTypeAnnotation.DateLogicalTypeAnnotation) {
+                    return Schema.of(Schema.LogicalType.DATE);
+                }
+                if (annotation instanceof LogicalTypeAnnotation.TimeLogicalTypeAnnotation) {
+                    return Schema.of(Schema.LogicalType.TIME_MILLIS);
+                }
+                return Schema.of(Schema.Type.INT);
+            case INT64:
+                if (annotation instanceof LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) {
+                    LogicalTypeAnnotation.TimeUnit unit =
+                            ((LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) annotation).getUnit();
+                    if (unit == LogicalTypeAnnotation.TimeUnit.MILLIS) {
+                        return Schema.of(Schema.LogicalType.TIMESTAMP_MILLIS);
+                    }
+                    if (unit == LogicalTypeAnnotation.TimeUnit.MICROS) {
+                        return Schema.of(Schema.LogicalType.TIMESTAMP_MICROS);
+                    }
+                }
+                if (annotation instanceof LogicalTypeAnnotation.TimeLogicalTypeAnnotation
+                        && ((LogicalTypeAnnotation.TimeLogicalTypeAnnotation) annotation).getUnit()
+                        == LogicalTypeAnnotation.TimeUnit.MICROS) {
+                    return Schema.of(Schema.LogicalType.TIME_MICROS);
+                }
+                return Schema.of(Schema.Type.LONG);
+            case FLOAT:
+                return Schema.of(Schema.Type.FLOAT);
+            case DOUBLE:
+                return Schema.of(Schema.Type.DOUBLE);
+            case BINARY:
+                return annotation instanceof LogicalTypeAnnotation.StringLogicalTypeAnnotation
+                        || annotation instanceof LogicalTypeAnnotation.EnumLogicalTypeAnnotation
+                        || annotation instanceof LogicalTypeAnnotation.JsonLogicalTypeAnnotation
+                        ? Schema.of(Schema.Type.STRING) : Schema.of(Schema.Type.BYTES);
+            default:
+                // INT96 and FIXED_LEN_BYTE_ARRAY
+                return Schema.of(Schema.Type.BYTES);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded cache of the schemas read from the objects by {@link ObsSchemaDetector}, so that validating or deploying a
+ * pipeline again does not read the same headers and footers. Entries are keyed by the path, the ETag and the size of
+ * the object, so an object that is written again is read again, and they do not expire. The least recently used ones
+ * are evicted once the cache is full.
+ *
+ * The cache is shared by all source instances, since a new source is created for every validation.
+ */
+final class ObsSchemaCache {
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final ObsSchemaCache INSTANCE = new ObsSchemaCache(DEFAULT_MAX_ENTRIES);
+
+    // guarded by this, in access order for the LRU eviction
+    private final LinkedHashMap<Key, Schema> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ObsSchemaCache(int maxEntries) {
+        this.entries = new LinkedHashMap<Key, Schema>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Schema> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    static ObsSchemaCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the cached schema of the object, or reads it with the loader if it is not cached. Concurrent misses on
+     * the same object may both call the loader.
+     *
+     * @param path the full path of the object
+     * @param etag the ETag of the object, null if unknown, in which case the schema is not cached
+     */
+    <E extends Exception> Schema get(String path, @Nullable String etag, long size, SchemaLoader<E> loader) throws E {
+        if (etag == null) {
+            misses.incrementAndGet();
+            return loader.load();
+        }
+        Key key = new Key(path, etag, size);
+        synchronized (this) {
+            Schema schema = entries.get(key);
+            if (schema != null) {
+                hits.incrementAndGet();
+                return schema;
+            }
+        }
+        misses.incrementAndGet();
+        Schema schema = loader.load();
+        synchronized (this) {
+            entries.put(key, schema);
+        }
+        return schema;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Reads the schema of an object on a cache miss.
+     *
+     * @param <E> the exception thrown by the read
+     */
+    interface SchemaLoader<E extends Exception> {
+        Schema load() throws E;
+    }
+
+    /**
+     * Identifies a version of an object.
+     */
+    private static final class Key {
+        private final String path;
+        private final String etag;
+        private final long size;
+
+        private Key(String path, String etag, long size) {
+            this.path = path;
+            this.etag = etag;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return size == key.size && path.equals(key.path) && etag.equals(key.etag);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, etag, size);
+        }
+    }
+}
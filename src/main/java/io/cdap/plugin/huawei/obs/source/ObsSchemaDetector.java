@@ -0,0 +1,418 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.obs.services.IObsClient;
+import com.obs.services.model.GetObjectRequest;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObsObject;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import io.cdap.plugin.huawei.obs.common.ObsPrefixLister;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Detects the schema of Avro and Parquet objects from their header or footer, read with ranged requests instead of
+ * opening the objects with the Hadoop filesystem. The schemas read are kept in {@link ObsSchemaCache}.
+ *
+ * The schemas of several objects of a directory can be read in parallel and merged: the fields are taken in the order
+ * of the first object they appear in, and the ones missing from some of the objects are nullable.
+ */
+final class ObsSchemaDetector {
+    private static final Logger logger = LogManager.getLogger(ObsSchemaDetector.class);
+
+    static final int MAX_SAMPLE_FILES = 100;
+
+    private static final String DELIMITER = "/";
+    // first read of a header or footer, enough for most schemas
+    private static final int INITIAL_READ_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024 * 1024;
+    private static final byte[] AVRO_MAGIC = {'O', 'b', 'j', 1};
+    private static final String AVRO_SCHEMA_KEY = "avro.schema";
+    private static final byte[] PARQUET_MAGIC = {'P', 'A', 'R', '1'};
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(8,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("obs-schema-%d").build());
+
+    private final IObsClient obsClient;
+    private final ObsSchemaCache cache;
+    private final Executor executor;
+
+    /**
+     * Formats whose schema is read by the detector.
+     */
+    enum Format {
+        AVRO, PARQUET;
+
+        /**
+         * @return the format, null if the schema of the format is not read by the detector
+         */
+        @Nullable
+        static Format of(@Nullable String formatName) {
+            if ("avro".equals(formatName)) {
+                return AVRO;
+            }
+            if ("parquet".equals(formatName)) {
+                return PARQUET;
+            }
+            return null;
+        }
+    }
+
+    ObsSchemaDetector(IObsClient obsClient) {
+        this(obsClient, ObsSchemaCache.getInstance(), EXECUTOR);
+    }
+
+    ObsSchemaDetector(IObsClient obsClient, ObsSchemaCache cache, Executor executor) {
+        this.obsClient = obsClient;
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    /**
+     * @param filePattern pattern the full path of the objects must match, null to read all the objects
+     * @param recursive whether the objects of the sub-directories are read
+     * @param sampleFiles number of objects whose schemas are merged
+     * @return the schema of the object or the merged schema of the first objects of the directory, null if there is
+     *         no object
+     * @throws IOException if a schema cannot be read
+     * @throws SchemaConflictException if the schemas of the objects cannot be merged
+     */
+    @Nullable
+    Schema detect(ObsPath path, Format format, @Nullable Pattern filePattern, boolean recursive,
+                  int sampleFiles) throws IOException {
+        List<ObsObject> objects = listObjects(path, filePattern, recursive, sampleFiles);
+        List<CompletableFuture<Schema>> schemas = new ArrayList<>();
+        for (ObsObject object : objects) {
+            schemas.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return readSchema(object, format);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        Schema merged = null;
+        for (int i = 0; i < schemas.size(); i++) {
+            Schema schema = join(schemas.get(i), objects.get(i));
+            merged = merged == null ? schema : merge(merged, schema, objects.get(i).getObjectKey());
+        }
+        logger.debug("Detected the schema of {} from {} objects, {} cache hits so far", path.getFullPath(),
+                objects.size(), cache.getHits());
+        return merged;
+    }
+
+    private static Schema join(CompletableFuture<Schema> schema, ObsObject object) throws IOException {
+        try {
+            return schema.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Failed to read the schema of " + object.getObjectKey(), cause);
+        }
+    }
+
+    /**
+     * Lists the object at the path, or the first objects under it if it is a directory, skipping the empty and the
+     * hidden objects.
+     */
+    private List<ObsObject> listObjects(ObsPath path, @Nullable Pattern filePattern, boolean recursive,
+                                        int sampleFiles) {
+        String name = path.getName();
+        List<ObsObject> objects = new ArrayList<>();
+        if (!name.isEmpty() && !name.endsWith(DELIMITER)) {
+            List<ObsObject> listed = list(path.getBucket(), name, false, null, 1).getObjects();
+            if (!listed.isEmpty() && listed.get(0).getObjectKey().equals(name)) {
+                objects.add(listed.get(0));
+                return objects;
+            }
+        }
+        String prefix = name.isEmpty() || name.endsWith(DELIMITER) ? name : name + DELIMITER;
+        String marker = null;
+        do {
+            ObjectListing listing = list(path.getBucket(), prefix, !recursive, marker, 1000);
+            for (ObsObject object : listing.getObjects()) {
+                String key = object.getObjectKey();
+                if (getLength(object) > 0 && !isHidden(key.substring(prefix.length())) && (filePattern == null
+                        || filePattern.matcher(ObsPath.SCHEME + path.getBucket() + DELIMITER + key).matches())) {
+                    objects.add(object);
+                    if (objects.size() >= sampleFiles) {
+                        return objects;
+                    }
+                }
+            }
+            marker = listing.isTruncated() ? ObsPrefixLister.nextMarker(listing) : null;
+        } while (marker != null);
+        return objects;
+    }
+
+    /**
+     * @param delimited whether the objects of the sub-directories are left out of the listing
+     */
+    private ObjectListing list(String bucket, String prefix, boolean delimited, @Nullable String marker,
+                               int maxKeys) {
+        ListObjectsRequest request = new ListObjectsRequest(bucket);
+        if (!prefix.isEmpty()) {
+            request.setPrefix(prefix);
+        }
+        if (delimited) {
+            request.setDelimiter(DELIMITER);
+        }
+        request.setMarker(marker);
+        request.setMaxKeys(maxKeys);
+        return obsClient.listObjects(request);
+    }
+
+    private Schema readSchema(ObsObject object, Format format) throws IOException {
+        String key = object.getObjectKey();
+        long length = getLength(object);
+        String etag = object.getMetadata() == null ? null : object.getMetadata().getEtag();
+        return cache.get(ObsPath.SCHEME + object.getBucketName() + DELIMITER + key, etag, length,
+                () -> format == Format.AVRO ? readAvroSchema(object.getBucketName(), key, length)
+                        : readParquetSchema(object.getBucketName(), key, length));
+    }
+
+    /**
+     * Reads the schema from the metadata of the header of an Avro data file, reading more of the object if the
+     * header is larger than the first read.
+     */
+    private Schema readAvroSchema(String bucket, String key, long length) throws IOException {
+        for (int size = INITIAL_READ_SIZE; ; size *= 2) {
+            int read = (int) Math.min(size, length);
+            byte[] header = readRange(bucket, key, 0L, read);
+            try {
+                return Schema.parseJson(parseAvroSchema(header, bucket, key));
+            } catch (EOFException e) {
+                if (read == length || size >= MAX_HEADER_SIZE) {
+                    throw new IOException(String.format("The header of obs://%s/%s is larger than %d bytes",
+                            bucket, key, read), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @throws EOFException if the header is longer than the bytes read
+     */
+    static String parseAvroSchema(byte[] header, String bucket, String key) throws IOException {
+        for (int i = 0; i < AVRO_MAGIC.length; i++) {
+            if (header.length <= i || header[i] != AVRO_MAGIC[i]) {
+                throw new IOException(String.format("obs://%s/%s is not an Avro data file", bucket, key));
+            }
+        }
+        AvroDecoder decoder = new AvroDecoder(header, AVRO_MAGIC.length);
+        // the metadata is a map of blocks of entries, ending with an empty block
+        for (long count = decoder.readLong(); count != 0; count = decoder.readLong()) {
+            if (count < 0) {
+                // a negative count is followed by the size of the block
+                count = -count;
+                decoder.readLong();
+            }
+            for (long i = 0; i < count; i++) {
+                String entryKey = new String(decoder.readBytes(), StandardCharsets.UTF_8);
+                byte[] value = decoder.readBytes();
+                if (AVRO_SCHEMA_KEY.equals(entryKey)) {
+                    return new String(value, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new IOException(String.format("The header of obs://%s/%s has no schema", bucket, key));
+    }
+
+    /**
+     * Reads the footer at the end of a Parquet object, with a single request if it fits in the first read.
+     */
+    private Schema readParquetSchema(String bucket, String key, long length) throws IOException {
+        if (length < PARQUET_MAGIC.length * 2 + 4) {
+            throw new IOException(String.format("obs://%s/%s is too small to be a Parquet file", bucket, key));
+        }
+        int read = (int) Math.min(INITIAL_READ_SIZE, length);
+        byte[] tail = readRange(bucket, key, length - read, read);
+        for (int i = 0; i < PARQUET_MAGIC.length; i++) {
+            if (tail[read - PARQUET_MAGIC.length + i] != PARQUET_MAGIC[i]) {
+                throw new IOException(String.format("obs://%s/%s is not a Parquet file", bucket, key));
+            }
+        }
+        // the footer is followed by its length, as a little endian int, and the magic
+        int lengthOffset = read - PARQUET_MAGIC.length - 4;
+        long footerLength = (tail[lengthOffset] & 0xffL) | (tail[lengthOffset + 1] & 0xffL) << 8
+                | (tail[lengthOffset + 2] & 0xffL) << 16 | (tail[lengthOffset + 3] & 0xffL) << 24;
+        if (footerLength > MAX_HEADER_SIZE || footerLength > length - PARQUET_MAGIC.length * 2 - 4) {
+            throw new IOException(String.format("Invalid footer length %d in obs://%s/%s", footerLength, bucket, key));
+        }
+        byte[] footer;
+        if (footerLength <= lengthOffset) {
+            footer = new byte[(int) footerLength];
+            System.arraycopy(tail, lengthOffset - (int) footerLength, footer, 0, (int) footerLength);
+        } else {
+            footer = readRange(bucket, key, length - PARQUET_MAGIC.length - 4 - footerLength, (int) footerLength);
+        }
+        return ObsParquetSchemas.fromFooter(footer);
+    }
+
+    private byte[] readRange(String bucket, String key, long start, int size) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket, key);
+        request.setRangeStart(start);
+        request.setRangeEnd(start + size - 1);
+        byte[] content = new byte[size];
+        try (InputStream in = obsClient.getObject(request).getObjectContent()) {
+            int offset = 0;
+            while (offset < size) {
+                int read = in.read(content, offset, size - offset);
+                if (read < 0) {
+                    throw new EOFException(String.format("Unexpected end of obs://%s/%s at %d", bucket, key,
+                            start + offset));
+                }
+                offset += read;
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Merges the schema of an object into the schema of the previous objects.
+     *
+     * @throws SchemaConflictException if a field has different types in the schemas
+     */
+    static Schema merge(Schema merged, Schema schema, String key) {
+        Map<String, Schema.Field> fields = new LinkedHashMap<>();
+        for (Schema.Field field : merged.getFields()) {
+            Schema.Field other = schema.getField(field.getName());
+            fields.put(field.getName(), other == null ? nullable(field)
+                    : Schema.Field.of(field.getName(), mergeField(field, other, key)));
+        }
+        for (Schema.Field field : schema.getFields()) {
+            if (!fields.containsKey(field.getName())) {
+                fields.put(field.getName(), nullable(field));
+            }
+        }
+        return Schema.recordOf(merged.getRecordName(), new ArrayList<>(fields.values()));
+    }
+
+    private static Schema mergeField(Schema.Field field, Schema.Field other, String key) {
+        Schema schema = field.getSchema();
+        Schema otherSchema = other.getSchema();
+        if (schema.equals(otherSchema)) {
+            return schema;
+        }
+        Schema nonNullable = schema.isNullable() ? schema.getNonNullable() : schema;
+        Schema otherNonNullable = otherSchema.isNullable() ? otherSchema.getNonNullable() : otherSchema;
+        if (!nonNullable.equals(otherNonNullable)) {
+            throw new SchemaConflictException(String.format("Field '%s' is %s in %s but %s in the previous files.",
+                    field.getName(), otherNonNullable, key, nonNullable));
+        }
+        return Schema.nullableOf(nonNullable);
+    }
+
+    private static Schema.Field nullable(Schema.Field field) {
+        return field.getSchema().isNullable() ? field : Schema.Field.of(field.getName(),
+                Schema.nullableOf(field.getSchema()));
+    }
+
+    private static long getLength(ObsObject object) {
+        Long length = object.getMetadata() == null ? null : object.getMetadata().getContentLength();
+        return length == null ? 0L : length;
+    }
+
+    /**
+     * @param relativePath path of the object relative to the directory
+     */
+    private static boolean isHidden(String relativePath) {
+        for (String segment : relativePath.split(DELIMITER)) {
+            if (segment.startsWith("_") || segment.startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the zig-zag variable length longs and the bytes of the Avro binary encoding.
+     */
+    private static final class AvroDecoder {
+        private final byte[] buffer;
+        private int position;
+
+        private AvroDecoder(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        private long readLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= buffer.length) {
+                    throw new EOFException();
+                }
+                int b = buffer[position++] & 0xff;
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return (value >>> 1) ^ -(value & 1);
+                }
+            }
+            throw new IOException("Invalid long in the Avro header");
+        }
+
+        private byte[] readBytes() throws IOException {
+            long length = readLong();
+            if (length < 0) {
+                throw new IOException("Invalid length in the Avro header: " + length);
+            }
+            if (length > buffer.length - position) {
+                throw new EOFException();
+            }
+            byte[] bytes = new byte[(int) length];
+            System.arraycopy(buffer, position, bytes, 0, bytes.length);
+            position += bytes.length;
+            return bytes;
+        }
+    }
+
+    /**
+     * Thrown when the schemas of the objects have a field with different types.
+     */
+    static final class SchemaConflictException extends IllegalArgumentException {
+        private SchemaConflictException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs;
+
+import com.google.common.collect.ImmutableSet;
+import io.cdap.cdap.api.artifact.ArtifactSummary;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.dataset.table.Table;
+import io.cdap.cdap.datapipeline.DataPipelineApp;
+import io.cdap.cdap.datapipeline.SmartWorkflow;
+import io.cdap.cdap.etl.api.batch.BatchSource;
+import io.cdap.cdap.etl.mock.batch.MockSink;
+import io.cdap.cdap.etl.mock.test.HydratorTestBase;
+import io.cdap.cdap.etl.proto.v2.ETLBatchConfig;
+import io.cdap.cdap.etl.proto.v2.ETLPlugin;
+import io.cdap.cdap.etl.proto.v2.ETLStage;
+import io.cdap.cdap.proto.ProgramRunStatus;
+import io.cdap.cdap.proto.artifact.AppRequest;
+import io.cdap.cdap.proto.id.ArtifactId;
+import io.cdap.cdap.proto.id.NamespaceId;
+import io.cdap.cdap.test.ApplicationManager;
+import io.cdap.cdap.test.DataSetManager;
+import io.cdap.cdap.test.TestConfiguration;
+import io.cdap.cdap.test.WorkflowManager;
+import io.cdap.plugin.format.parquet.input.ParquetInputFormatProvider;
+import io.cdap.plugin.format.parquet.output.ParquetOutputFormatProvider;
+import io.cdap.plugin.huawei.obs.common.ObsStandInServer;
+import io.cdap.plugin.huawei.obs.source.ObsBatchSource;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a parquet object of several row groups from the in process {@link ObsStandInServer} through the Obs source,
+ * with and without the filter and the projection pushed down to the parquet reader.
+ */
+public class ObsParquetPushdownTest extends HydratorTestBase {
+    @ClassRule
+    public static final TestConfiguration CONFIG = new TestConfiguration("explore.enabled", false);
+    @ClassRule
+    public static final TemporaryFolder TEMPORARY_FOLDER = new TemporaryFolder();
+
+    private static final ArtifactId DATAPIPELINE_ARTIFACT_ID = NamespaceId.DEFAULT.artifact("data-pipeline", "3.2.0");
+    private static final ArtifactSummary DATAPIPELINE_ARTIFACT = new ArtifactSummary("data-pipeline", "3.2.0");
+    private static final String BUCKET = "parquet-pushdown";
+    private static final String INPUT = "obs://" + BUCKET + "/input/";
+    private static final int RECORDS = 20000;
+    private static final MessageType TYPE = MessageTypeParser.parseMessageType(
+            "message event { required int64 id; required binary name (UTF8); required double price; }");
+    private static final Schema SCHEMA = Schema.recordOf(
+            "event",
+            Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+            Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
+            Schema.Field.of("price", Schema.of(Schema.Type.DOUBLE)));
+    private static final Schema PROJECTED_SCHEMA = Schema.recordOf(
+            "event",
+            Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+            Schema.Field.of("name", Schema.of(Schema.Type.STRING)));
+
+    private static ObsStandInServer server;
+
+    @BeforeClass
+    public static void setupTestClass() throws Exception {
+        setupBatchArtifacts(DATAPIPELINE_ARTIFACT_ID, DataPipelineApp.class);
+        addPluginArtifact(NamespaceId.DEFAULT.artifact("huaweicloud-obs-plugin", "1.0.0"), DATAPIPELINE_ARTIFACT_ID,
+                ObsBatchSource.class);
+        addPluginArtifact(NamespaceId.DEFAULT.artifact("formats-parquet", "4.0.0"), DATAPIPELINE_ARTIFACT_ID,
+                ImmutableSet.of(ParquetOutputFormatProvider.PLUGIN_CLASS, ParquetInputFormatProvider.PLUGIN_CLASS),
+                ParquetOutputFormatProvider.class, ParquetInputFormatProvider.class);
+
+        server = ObsStandInServer.inMemory();
+        server.createBucket(BUCKET);
+        server.putObject(BUCKET, "input/events.parquet", writeEvents());
+    }
+
+    @AfterClass
+    public static void tearDownTestClass() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testFilterAndProjection() throws Exception {
+        long bytesRead = server.getBytesRead();
+        List<StructuredRecord> all = read("readAll", SCHEMA, null, false);
+        long allBytesRead = server.getBytesRead() - bytesRead;
+        Assert.assertEquals(RECORDS, all.size());
+
+        bytesRead = server.getBytesRead();
+        List<StructuredRecord> filtered = read("readFiltered", PROJECTED_SCHEMA, "id >= 19900", true);
+        long filteredBytesRead = server.getBytesRead() - bytesRead;
+
+        List<Long> ids = new ArrayList<>();
+        for (StructuredRecord record : filtered) {
+            Assert.assertEquals(PROJECTED_SCHEMA, record.getSchema());
+            Assert.assertEquals("name-" + record.get("id"), record.get("name"));
+            ids.add(record.get("id"));
+        }
+        ids.sort(Long::compareTo);
+        List<Long> expected = new ArrayList<>();
+        for (long id = 19900; id < RECORDS; id++) {
+            expected.add(id);
+        }
+        Assert.assertEquals(expected, ids);
+
+        // only the footer and the columns of the last row group are fetched, the row groups being about 64 KB of the
+        // 600 KB object
+        Assert.assertTrue(String.format("%d bytes read with the pushdown, %d without", filteredBytesRead,
+                allBytesRead), filteredBytesRead * 4 < allBytesRead);
+    }
+
+    /**
+     * Writes the events with small row groups, and without dictionaries so that the ids of each row group are in
+     * its statistics.
+     */
+    private static byte[] writeEvents() throws Exception {
+        File file = new File(TEMPORARY_FOLDER.getRoot(), "events.parquet");
+        try (ParquetWriter<Group> writer = ExampleParquetWriter.builder(new Path(file.toURI()))
+                .withConf(new Configuration())
+                .withType(TYPE)
+                .withRowGroupSize(64 * 1024)
+                .withPageSize(8 * 1024)
+                .withDictionaryEncoding(false)
+                .build()) {
+            SimpleGroupFactory groups = new SimpleGroupFactory(TYPE);
+            for (int i = 0; i < RECORDS; i++) {
+                writer.write(groups.newGroup()
+                        .append("id", (long) i)
+                        .append("name", "name-" + i)
+                        .append("price", i / 100d));
+            }
+        }
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private List<StructuredRecord> read(String name, Schema schema, String filter, boolean projectionPushdown)
+            throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("referenceName", name);
+        properties.put("useConnection", "false");
+        properties.put("accessKey", "access");
+        properties.put("secretKey", "secret");
+        properties.put("endPoint", server.getEndpoint());
+        properties.put("fileSystemProperties", "{\"fs.obs.connection.ssl.enabled\":\"false\"}");
+        properties.put("path", INPUT);
+        properties.put("format", "parquet");
+        properties.put("schema", schema.toString());
+        properties.put("projectionPushdown", String.valueOf(projectionPushdown));
+        if (filter != null) {
+            properties.put("filter", filter);
+        }
+        ETLStage source = new ETLStage("obsSource", new ETLPlugin(ObsBatchSource.NAME, BatchSource.PLUGIN_TYPE,
+                properties, null));
+        String outputTable = name + "Output";
+        ETLStage sink = new ETLStage("sink", MockSink.getPlugin(outputTable));
+        ETLBatchConfig config = ETLBatchConfig.builder()
+                .addStage(source)
+                .addStage(sink)
+                .addConnection(source.getName(), sink.getName())
+                .build();
+        ApplicationManager applicationManager = deployApplication(NamespaceId.DEFAULT.app(name),
+                new AppRequest<>(DATAPIPELINE_ARTIFACT, config));
+        WorkflowManager workflowManager = applicationManager.getWorkflowManager(SmartWorkflow.NAME);
+        workflowManager.startAndWaitForRun(ProgramRunStatus.COMPLETED, 5, TimeUnit.MINUTES);
+
+        DataSetManager<Table> outputManager = getDataset(NamespaceId.DEFAULT.dataset(outputTable));
+        return MockSink.readOutput(outputManager);
+    }
+}
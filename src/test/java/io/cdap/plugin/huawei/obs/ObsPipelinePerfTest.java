@@ -0,0 +1,229 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.cdap.cdap.api.artifact.ArtifactSummary;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.dataset.table.Table;
+import io.cdap.cdap.datapipeline.DataPipelineApp;
+import io.cdap.cdap.datapipeline.SmartWorkflow;
+import io.cdap.cdap.etl.api.batch.BatchSink;
+import io.cdap.cdap.etl.api.batch.BatchSource;
+import io.cdap.cdap.etl.mock.batch.MockSink;
+import io.cdap.cdap.etl.mock.batch.MockSource;
+import io.cdap.cdap.etl.mock.test.HydratorTestBase;
+import io.cdap.cdap.etl.proto.v2.ETLBatchConfig;
+import io.cdap.cdap.etl.proto.v2.ETLPlugin;
+import io.cdap.cdap.etl.proto.v2.ETLStage;
+import io.cdap.cdap.proto.ProgramRunStatus;
+import io.cdap.cdap.proto.artifact.AppRequest;
+import io.cdap.cdap.proto.id.ArtifactId;
+import io.cdap.cdap.proto.id.NamespaceId;
+import io.cdap.cdap.test.ApplicationManager;
+import io.cdap.cdap.test.DataSetManager;
+import io.cdap.cdap.test.TestConfiguration;
+import io.cdap.cdap.test.WorkflowManager;
+import io.cdap.plugin.format.avro.input.AvroInputFormatProvider;
+import io.cdap.plugin.format.avro.output.AvroOutputFormatProvider;
+import io.cdap.plugin.format.delimited.input.CSVInputFormatProvider;
+import io.cdap.plugin.format.delimited.input.TSVInputFormatProvider;
+import io.cdap.plugin.format.delimited.output.CSVOutputFormatProvider;
+import io.cdap.plugin.format.delimited.output.TSVOutputFormatProvider;
+import io.cdap.plugin.format.json.input.JsonInputFormatProvider;
+import io.cdap.plugin.format.json.output.JsonOutputFormatProvider;
+import io.cdap.plugin.format.parquet.input.ParquetInputFormatProvider;
+import io.cdap.plugin.format.parquet.output.ParquetOutputFormatProvider;
+import io.cdap.plugin.huawei.obs.common.ObsStandInServer;
+import io.cdap.plugin.huawei.obs.sink.ObsBatchSink;
+import io.cdap.plugin.huawei.obs.source.ObsBatchSource;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Obs source to Obs sink pipelines against the in process {@link ObsStandInServer}, for each format, and reports
+ * the records and the bytes read per second. The times include the start of the pipelines, compare them between
+ * commits rather than with a real endpoint. Excluded from the build, run with:
+ *
+ * <pre>
+ *   mvn test -Dtest=ObsPipelinePerfTest -Dobs.perf.records=1000000 -Dobs.perf.latencyMillis=20
+ * </pre>
+ */
+public class ObsPipelinePerfTest extends HydratorTestBase {
+    @ClassRule
+    public static final TestConfiguration CONFIG = new TestConfiguration("explore.enabled", false);
+
+    private static final ArtifactId DATAPIPELINE_ARTIFACT_ID = NamespaceId.DEFAULT.artifact("data-pipeline", "3.2.0");
+    private static final ArtifactSummary DATAPIPELINE_ARTIFACT = new ArtifactSummary("data-pipeline", "3.2.0");
+    private static final String BUCKET = "pipeline-perf";
+    private static final Schema SCHEMA = Schema.recordOf(
+            "event",
+            Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+            Schema.Field.of("name", Schema.of(Schema.Type.STRING)),
+            Schema.Field.of("price", Schema.of(Schema.Type.DOUBLE)),
+            Schema.Field.of("quantity", Schema.of(Schema.Type.INT)),
+            Schema.Field.of("active", Schema.of(Schema.Type.BOOLEAN)));
+
+    // the size of the run and the conditions of the stand-in server, set with system properties
+    private static final int RECORDS = Integer.getInteger("obs.perf.records", 10000);
+    private static final List<String> FORMATS = Arrays.asList(System.getProperty("obs.perf.formats",
+            "csv,tsv,json,avro,parquet").split(","));
+    private static final long LATENCY_MILLIS = Long.getLong("obs.perf.latencyMillis", 0L);
+    private static final long BYTES_PER_SECOND = Long.getLong("obs.perf.bytesPerSecond", 0L);
+
+    private static ObsStandInServer server;
+
+    @BeforeClass
+    public static void setupTestClass() throws Exception {
+        setupBatchArtifacts(DATAPIPELINE_ARTIFACT_ID, DataPipelineApp.class);
+        addPluginArtifact(NamespaceId.DEFAULT.artifact("huaweicloud-obs-plugin", "1.0.0"), DATAPIPELINE_ARTIFACT_ID,
+                ObsBatchSource.class, ObsBatchSink.class);
+        addPluginArtifact(NamespaceId.DEFAULT.artifact("formats-avro", "4.0.0"), DATAPIPELINE_ARTIFACT_ID,
+                ImmutableSet.of(AvroOutputFormatProvider.PLUGIN_CLASS, AvroInputFormatProvider.PLUGIN_CLASS),
+                AvroOutputFormatProvider.class, AvroInputFormatProvider.class);
+        addPluginArtifact(NamespaceId.DEFAULT.artifact("formats-parquet", "4.0.0"), DATAPIPELINE_ARTIFACT_ID,
+                ImmutableSet.of(ParquetOutputFormatProvider.PLUGIN_CLASS, ParquetInputFormatProvider.PLUGIN_CLASS),
+                ParquetOutputFormatProvider.class, ParquetInputFormatProvider.class);
+        addPluginArtifact(NamespaceId.DEFAULT.artifact("formats-delimited", "4.0.0"), DATAPIPELINE_ARTIFACT_ID,
+                ImmutableSet.of(CSVInputFormatProvider.PLUGIN_CLASS, CSVOutputFormatProvider.PLUGIN_CLASS,
+                        TSVInputFormatProvider.PLUGIN_CLASS, TSVOutputFormatProvider.PLUGIN_CLASS),
+                CSVInputFormatProvider.class, CSVOutputFormatProvider.class, TSVInputFormatProvider.class,
+                TSVOutputFormatProvider.class);
+        addPluginArtifact(NamespaceId.DEFAULT.artifact("formats-json", "4.0.0"), DATAPIPELINE_ARTIFACT_ID,
+                ImmutableSet.of(JsonInputFormatProvider.PLUGIN_CLASS, JsonOutputFormatProvider.PLUGIN_CLASS),
+                JsonInputFormatProvider.class, JsonOutputFormatProvider.class);
+
+        server = ObsStandInServer.inMemory();
+        server.createBucket(BUCKET);
+        server.setLatencyMillis(LATENCY_MILLIS);
+        server.setBytesPerSecondPerConnection(BYTES_PER_SECOND);
+    }
+
+    @AfterClass
+    public static void tearDownTestClass() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testPipelines() throws Exception {
+        List<StructuredRecord> records = new ArrayList<>(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            records.add(StructuredRecord.builder(SCHEMA)
+                    .set("id", (long) i)
+                    .set("name", "name-" + i)
+                    .set("price", i / 100d)
+                    .set("quantity", i % 1000)
+                    .set("active", i % 2 == 0)
+                    .build());
+        }
+
+        List<String> results = new ArrayList<>();
+        for (String format : FORMATS) {
+            String input = "obs://" + BUCKET + "/" + format + "/input";
+            String output = "obs://" + BUCKET + "/" + format + "/output";
+
+            // the input of the format, written by the sink
+            String inputTable = format + "Input";
+            ApplicationManager writer = deploy(format + "Write",
+                    new ETLStage("source", MockSource.getPlugin(inputTable, SCHEMA)), sink(input, format));
+            DataSetManager<Table> inputManager = getDataset(NamespaceId.DEFAULT.dataset(inputTable));
+            MockSource.writeInput(inputManager, records);
+            run(writer);
+
+            long bytesRead = server.getBytesRead();
+            long bytesWritten = server.getBytesWritten();
+            ApplicationManager copy = deploy(format + "Copy", source(input + "/", format), sink(output, format));
+            long started = System.nanoTime();
+            run(copy);
+            double seconds = (System.nanoTime() - started) / 1e9d;
+            bytesRead = server.getBytesRead() - bytesRead;
+            bytesWritten = server.getBytesWritten() - bytesWritten;
+
+            String outputTable = format + "Output";
+            run(deploy(format + "Check", source(output + "/", format),
+                    new ETLStage("sink", MockSink.getPlugin(outputTable))));
+            DataSetManager<Table> outputManager = getDataset(NamespaceId.DEFAULT.dataset(outputTable));
+            Assert.assertEquals(format, RECORDS, MockSink.readOutput(outputManager).size());
+
+            results.add(String.format("%-8s %10d records %8.2f s %12.0f records/s %8.2f MB/s read %8.2f MB/s written",
+                    format, RECORDS, seconds, RECORDS / seconds, bytesRead / seconds / (1024 * 1024),
+                    bytesWritten / seconds / (1024 * 1024)));
+        }
+        System.out.printf("Obs source to Obs sink, %d ms latency, %d bytes/s per connection%n", LATENCY_MILLIS,
+                BYTES_PER_SECOND);
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    private static ETLStage source(String path, String format) {
+        Map<String, String> properties = new HashMap<>(connection());
+        properties.put("referenceName", "perf-source");
+        properties.put("path", path);
+        properties.put("format", format);
+        properties.put("schema", SCHEMA.toString());
+        return new ETLStage("obsSource", new ETLPlugin(ObsBatchSource.NAME, BatchSource.PLUGIN_TYPE, properties,
+                null));
+    }
+
+    private static ETLStage sink(String path, String format) {
+        Map<String, String> properties = new HashMap<>(connection());
+        properties.put("referenceName", "perf-sink");
+        properties.put("path", path);
+        properties.put("format", format);
+        properties.put("schema", SCHEMA.toString());
+        return new ETLStage("obsSink", new ETLPlugin("Obs", BatchSink.PLUGIN_TYPE, properties, null));
+    }
+
+    private static Map<String, String> connection() {
+        return ImmutableMap.of(
+                "useConnection", "false",
+                "accessKey", "access",
+                "secretKey", "secret",
+                "endPoint", server.getEndpoint(),
+                "fileSystemProperties", "{\"fs.obs.connection.ssl.enabled\":\"false\"}");
+    }
+
+    private ApplicationManager deploy(String name, ETLStage source, ETLStage sink) throws Exception {
+        ETLBatchConfig config = ETLBatchConfig.builder()
+                .addStage(source)
+                .addStage(sink)
+                .addConnection(source.getName(), sink.getName())
+                .build();
+        return deployApplication(NamespaceId.DEFAULT.app(name), new AppRequest<>(DATAPIPELINE_ARTIFACT, config));
+    }
+
+    private static void run(ApplicationManager applicationManager) throws Exception {
+        WorkflowManager workflowManager = applicationManager.getWorkflowManager(SmartWorkflow.NAME);
+        workflowManager.startAndWaitForRun(ProgramRunStatus.COMPLETED, 30, TimeUnit.MINUTES);
+    }
+}
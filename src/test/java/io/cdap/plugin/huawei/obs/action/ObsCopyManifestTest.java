@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.action;
+
+import io.cdap.plugin.huawei.obs.common.FakeObsClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class ObsCopyManifestTest {
+
+    private static final String BUCKET = "manifest-test";
+    private static final String KEY = "out/" + ObsCopyManifest.NAME;
+
+    private FakeObsClient obsClient;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+    }
+
+    @Test
+    public void testStoreAppendsSegments() throws IOException {
+        Assert.assertNull(ObsCopyManifest.load(obsClient, BUCKET, KEY));
+
+        ObsCopyManifest manifest = new ObsCopyManifest("obs://source/in/", "obs://" + BUCKET + "/out/");
+        manifest.add("a.csv", "etag-a");
+        manifest.store(obsClient, BUCKET, KEY);
+        byte[] base = obsClient.getContent(BUCKET, KEY);
+
+        manifest.add("b.csv", "etag-b");
+        manifest.store(obsClient, BUCKET, KEY);
+        // nothing copied since the previous store
+        manifest.store(obsClient, BUCKET, KEY);
+        manifest.add("a.csv", "etag-a2");
+        manifest.add("c.csv", "etag-c");
+        manifest.store(obsClient, BUCKET, KEY);
+
+        // the whole manifest is only written once, the segments only have the objects copied since the previous store
+        Assert.assertArrayEquals(base, obsClient.getContent(BUCKET, KEY));
+        String first = segment(0);
+        Assert.assertTrue(first.contains("b.csv"));
+        Assert.assertFalse(first.contains("a.csv"));
+        String second = segment(1);
+        Assert.assertTrue(second.contains("etag-a2") && second.contains("c.csv"));
+        Assert.assertFalse(second.contains("b.csv"));
+        Assert.assertNull(obsClient.getContent(BUCKET, KEY + ".0000000002"));
+
+        ObsCopyManifest loaded = ObsCopyManifest.load(obsClient, BUCKET, KEY);
+        Assert.assertEquals(3, loaded.size());
+        Assert.assertEquals(2, loaded.getSegments());
+        Assert.assertTrue(loaded.isCopied("a.csv", "etag-a2"));
+        Assert.assertFalse(loaded.isCopied("a.csv", "etag-a"));
+        Assert.assertTrue(loaded.isCopied("b.csv", "etag-b"));
+        Assert.assertTrue(loaded.isCopied("c.csv", "etag-c"));
+
+        // the loaded manifest appends after the existing segments
+        loaded.add("d.csv", "etag-d");
+        loaded.store(obsClient, BUCKET, KEY);
+        Assert.assertTrue(segment(2).contains("d.csv"));
+        Assert.assertArrayEquals(base, obsClient.getContent(BUCKET, KEY));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        ObsCopyManifest manifest = new ObsCopyManifest("obs://source/in/", "obs://" + BUCKET + "/out/");
+        manifest.add("a.csv", "etag-a");
+        manifest.store(obsClient, BUCKET, KEY);
+        manifest.add("b.csv", "etag-b");
+        manifest.store(obsClient, BUCKET, KEY);
+        // a segment of a copy from another source
+        obsClient.putObject(BUCKET, KEY + ".0000000001", ("{\"source\":\"obs://other/in/\",\"destination\":\"obs://"
+                + BUCKET + "/out/\",\"copied\":{\"c.csv\":\"etag-c\"}}").getBytes(StandardCharsets.UTF_8));
+
+        ObsCopyManifest loaded = ObsCopyManifest.load(obsClient, BUCKET, KEY);
+        Assert.assertEquals(2, loaded.size());
+        Assert.assertFalse(loaded.isCopied("c.csv", "etag-c"));
+        loaded.compact(obsClient, BUCKET, KEY);
+        Assert.assertNull(obsClient.getContent(BUCKET, KEY + ".0000000000"));
+        Assert.assertNull(obsClient.getContent(BUCKET, KEY + ".0000000001"));
+
+        loaded = ObsCopyManifest.load(obsClient, BUCKET, KEY);
+        Assert.assertEquals(0, loaded.getSegments());
+        Assert.assertTrue(loaded.isCopied("a.csv", "etag-a"));
+        Assert.assertTrue(loaded.isCopied("b.csv", "etag-b"));
+    }
+
+    @Test
+    public void testFailedStoreIsRetried() throws IOException {
+        ObsCopyManifest manifest = new ObsCopyManifest("obs://source/in/", "obs://" + BUCKET + "/out/");
+        manifest.add("a.csv", "etag-a");
+        manifest.store(obsClient, BUCKET, KEY);
+        manifest.add("b.csv", "etag-b");
+        obsClient.failNextRequests(1, 500);
+        try {
+            manifest.store(obsClient, BUCKET, KEY);
+            Assert.fail("Store should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        manifest.add("c.csv", "etag-c");
+        manifest.store(obsClient, BUCKET, KEY);
+
+        String segment = segment(0);
+        Assert.assertTrue(segment.contains("b.csv") && segment.contains("c.csv"));
+        Assert.assertEquals(3, ObsCopyManifest.load(obsClient, BUCKET, KEY).size());
+    }
+
+    private String segment(int segment) {
+        byte[] content = obsClient.getContent(BUCKET, String.format("%s.%010d", KEY, segment));
+        Assert.assertNotNull(content);
+        return new String(content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.action;
+
+import io.cdap.plugin.huawei.obs.common.FakeObsClient;
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+public class ObsObjectCopierTest {
+
+    private static final String SOURCE_BUCKET = "copy-source";
+    private static final String DESTINATION_BUCKET = "copy-destination";
+    private static final int PART_SIZE = 1024;
+
+    private FakeObsClient obsClient;
+    private ExecutorService executor;
+    private ObsObjectCopier copier;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(SOURCE_BUCKET);
+        obsClient.createBucket(DESTINATION_BUCKET);
+        executor = Executors.newFixedThreadPool(4);
+        copier = new ObsObjectCopier(obsClient, executor, 4, PART_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCopyDirectory() throws IOException {
+        byte[] large = content(3 * PART_SIZE + 100);
+        obsClient.putObject(SOURCE_BUCKET, "in/large.csv", large);
+        obsClient.putObject(SOURCE_BUCKET, "in/small.csv", content(10));
+        obsClient.putObject(SOURCE_BUCKET, "in/empty.csv", new byte[0]);
+        obsClient.putObject(SOURCE_BUCKET, "in/year=2021/nested.csv", content(20));
+        obsClient.putObject(SOURCE_BUCKET, "in/notes.txt", content(5));
+        obsClient.putObject(SOURCE_BUCKET, "other/ignored.csv", content(5));
+
+        ObsObjectCopier.Result result = copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/"),
+                ObsPath.from("obs://" + DESTINATION_BUCKET + "/out"), true, Pattern.compile(".*\\.csv"), true);
+        Assert.assertEquals(4, result.getCopiedObjects());
+        Assert.assertEquals(0, result.getSkippedObjects());
+        Assert.assertEquals(large.length + 30L, result.getCopiedBytes());
+        Assert.assertArrayEquals(large, obsClient.getContent(DESTINATION_BUCKET, "out/large.csv"));
+        Assert.assertArrayEquals(content(10), obsClient.getContent(DESTINATION_BUCKET, "out/small.csv"));
+        Assert.assertArrayEquals(new byte[0], obsClient.getContent(DESTINATION_BUCKET, "out/empty.csv"));
+        Assert.assertArrayEquals(content(20), obsClient.getContent(DESTINATION_BUCKET, "out/year=2021/nested.csv"));
+        Assert.assertNull(obsClient.getContent(DESTINATION_BUCKET, "out/notes.txt"));
+        Assert.assertNull(obsClient.getContent(DESTINATION_BUCKET, "out/ignored.csv"));
+        Assert.assertNotNull(obsClient.getContent(DESTINATION_BUCKET, "out/" + ObsCopyManifest.NAME));
+
+        // 3 single copies and 4 parts, the content is not read through the client, only the missing manifest
+        Assert.assertEquals(7, obsClient.getCopyRequests());
+        Assert.assertEquals(1, obsClient.getGetRequests());
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+
+        // the objects already copied are skipped
+        obsClient.putObject(SOURCE_BUCKET, "in/new.csv", content(30));
+        result = copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/"),
+                ObsPath.from("obs://" + DESTINATION_BUCKET + "/out"), true, Pattern.compile(".*\\.csv"), true);
+        Assert.assertEquals(1, result.getCopiedObjects());
+        Assert.assertEquals(4, result.getSkippedObjects());
+        Assert.assertEquals(8, obsClient.getCopyRequests());
+    }
+
+    @Test
+    public void testCopyNotRecursive() throws IOException {
+        obsClient.putObject(SOURCE_BUCKET, "in/a.csv", content(10));
+        obsClient.putObject(SOURCE_BUCKET, "in/sub/b.csv", content(10));
+        // the destination is under the source, its objects are not copied again
+        obsClient.putObject(SOURCE_BUCKET, "in/copy/c.csv", content(10));
+
+        ObsObjectCopier.Result result = copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/"),
+                ObsPath.from("obs://" + SOURCE_BUCKET + "/in/copy/"), false, null, false);
+        Assert.assertEquals(1, result.getCopiedObjects());
+        Assert.assertArrayEquals(content(10), obsClient.getContent(SOURCE_BUCKET, "in/copy/a.csv"));
+        Assert.assertNull(obsClient.getContent(SOURCE_BUCKET, "in/copy/sub/b.csv"));
+        Assert.assertNull(obsClient.getContent(SOURCE_BUCKET, "in/copy/" + ObsCopyManifest.NAME));
+
+        result = copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/"),
+                ObsPath.from("obs://" + SOURCE_BUCKET + "/in/copy/"), true, null, false);
+        Assert.assertEquals(2, result.getCopiedObjects());
+        Assert.assertArrayEquals(content(10), obsClient.getContent(SOURCE_BUCKET, "in/copy/sub/b.csv"));
+        Assert.assertNull(obsClient.getContent(SOURCE_BUCKET, "in/copy/copy/c.csv"));
+    }
+
+    @Test
+    public void testCopyObject() throws IOException {
+        byte[] large = content(2 * PART_SIZE);
+        obsClient.putObject(SOURCE_BUCKET, "in/large.csv", large);
+
+        copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/large.csv"),
+                ObsPath.from("obs://" + DESTINATION_BUCKET + "/out/renamed.csv"), true, null, true);
+        Assert.assertArrayEquals(large, obsClient.getContent(DESTINATION_BUCKET, "out/renamed.csv"));
+        copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/large.csv"),
+                ObsPath.from("obs://" + DESTINATION_BUCKET + "/dir/"), true, null, true);
+        Assert.assertArrayEquals(large, obsClient.getContent(DESTINATION_BUCKET, "dir/large.csv"));
+        Assert.assertEquals(4, obsClient.getCopyRequests());
+
+        // a path that is not an object is a directory
+        ObsObjectCopier.Result result = copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in"),
+                ObsPath.from("obs://" + DESTINATION_BUCKET + "/all"), true, null, true);
+        Assert.assertEquals(1, result.getCopiedObjects());
+        Assert.assertArrayEquals(large, obsClient.getContent(DESTINATION_BUCKET, "all/large.csv"));
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        byte[] large = content(3 * PART_SIZE);
+        obsClient.putObject(SOURCE_BUCKET, "in/a.csv", content(10));
+        obsClient.putObject(SOURCE_BUCKET, "in/b.csv", large);
+        obsClient.setFailPartNumber(2);
+        try {
+            copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/"),
+                    ObsPath.from("obs://" + DESTINATION_BUCKET + "/out/"), true, null, true);
+            Assert.fail("Copy should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertNull(obsClient.getContent(DESTINATION_BUCKET, "out/b.csv"));
+        Assert.assertEquals(1, obsClient.getAbortedUploads());
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+
+        obsClient.setFailPartNumber(0);
+        ObsObjectCopier.Result result = copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/"),
+                ObsPath.from("obs://" + DESTINATION_BUCKET + "/out/"), true, null, true);
+        Assert.assertEquals(1, result.getCopiedObjects());
+        Assert.assertEquals(1, result.getSkippedObjects());
+        Assert.assertArrayEquals(large, obsClient.getContent(DESTINATION_BUCKET, "out/b.csv"));
+
+        // a changed object is copied again, the manifest of another copy is ignored
+        obsClient.putObject(SOURCE_BUCKET, "in/a.csv", content(11));
+        result = copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/"),
+                ObsPath.from("obs://" + DESTINATION_BUCKET + "/out/"), true, null, true);
+        Assert.assertEquals(1, result.getCopiedObjects());
+        Assert.assertArrayEquals(content(11), obsClient.getContent(DESTINATION_BUCKET, "out/a.csv"));
+        result = copier.copy(ObsPath.from("obs://" + SOURCE_BUCKET + "/in/b.csv"),
+                ObsPath.from("obs://" + DESTINATION_BUCKET + "/out/"), true, null, true);
+        Assert.assertEquals(1, result.getCopiedObjects());
+        Assert.assertEquals(0, result.getSkippedObjects());
+    }
+
+    @Test
+    public void testPartSize() {
+        Assert.assertEquals(PART_SIZE, ObsObjectCopier.getPartSize(10L * PART_SIZE, PART_SIZE));
+        long size = 2L * ObsConstants.MAX_COPY_PARTS * PART_SIZE + 1;
+        long partSize = ObsObjectCopier.getPartSize(size, PART_SIZE);
+        Assert.assertEquals(2L * PART_SIZE + 1, partSize);
+        Assert.assertTrue((size + partSize - 1) / partSize <= ObsConstants.MAX_COPY_PARTS);
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        return content;
+    }
+}
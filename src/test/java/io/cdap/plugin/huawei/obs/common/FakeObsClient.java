@@ -0,0 +1,521 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.ObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.AbortMultipartUploadRequest;
+import com.obs.services.model.CompleteMultipartUploadRequest;
+import com.obs.services.model.CompleteMultipartUploadResult;
+import com.obs.services.model.CopyObjectRequest;
+import com.obs.services.model.CopyObjectResult;
+import com.obs.services.model.CopyPartRequest;
+import com.obs.services.model.CopyPartResult;
+import com.obs.services.model.DeleteObjectResult;
+import com.obs.services.model.GetObjectRequest;
+import com.obs.services.model.HeaderResponse;
+import com.obs.services.model.InitiateMultipartUploadRequest;
+import com.obs.services.model.InitiateMultipartUploadResult;
+import com.obs.services.model.ListBucketsRequest;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsBucket;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PartEtag;
+import com.obs.services.model.PutObjectRequest;
+import com.obs.services.model.PutObjectResult;
+import com.obs.services.model.UploadPartRequest;
+import com.obs.services.model.UploadPartResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In memory stand-in for an Obs endpoint, used instead of a real {@link ObsClient} in tests.
+ */
+public class FakeObsClient extends ObsClient {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Map<String, NavigableMap<String, FakeObject>> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger listRequests = new AtomicInteger();
+    private final AtomicInteger getRequests = new AtomicInteger();
+    private final AtomicInteger copyRequests = new AtomicInteger();
+    private final AtomicInteger inFlightListRequests = new AtomicInteger();
+    private final AtomicInteger maxInFlightListRequests = new AtomicInteger();
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final AtomicInteger abortedUploads = new AtomicInteger();
+    private final AtomicInteger inFlightUploadParts = new AtomicInteger();
+    private final AtomicInteger maxInFlightUploadParts = new AtomicInteger();
+    private volatile long listLatencyMillis;
+    private volatile long requestLatencyMillis;
+    private volatile long bytesPerSecondPerConnection;
+    private volatile int failPartNumber;
+    private volatile long failRangeStart = -1L;
+    private final AtomicInteger injectedFailures = new AtomicInteger();
+    private volatile int injectedResponseCode;
+    private volatile boolean closed;
+
+    public FakeObsClient() {
+        super("fake-access-key", "fake-secret-key", "http://127.0.0.1:1");
+    }
+
+    @Override
+    public ObsBucket createBucket(String bucket) {
+        buckets.computeIfAbsent(bucket, b -> new ConcurrentSkipListMap<>());
+        return new ObsBucket(bucket, null);
+    }
+
+    public void putObject(String bucket, String key, byte[] content) {
+        createBucket(bucket);
+        buckets.get(bucket).put(key, new FakeObject(content, System.currentTimeMillis()));
+    }
+
+    /**
+     * Adds an empty object, cheap enough to create millions of them.
+     */
+    public void putEmptyObject(String bucket, String key, long lastModified) {
+        createBucket(bucket);
+        buckets.get(bucket).put(key, new FakeObject(EMPTY, lastModified));
+    }
+
+    public byte[] getContent(String bucket, String key) {
+        FakeObject object = getBucket(bucket).get(key);
+        return object == null ? null : object.content;
+    }
+
+    public void setListLatencyMillis(long listLatencyMillis) {
+        this.listLatencyMillis = listLatencyMillis;
+    }
+
+    /**
+     * Simulates the round trip time and the bandwidth of a single connection for the put and upload part requests.
+     */
+    public void setUploadThrottling(long requestLatencyMillis, long bytesPerSecondPerConnection) {
+        this.requestLatencyMillis = requestLatencyMillis;
+        this.bytesPerSecondPerConnection = bytesPerSecondPerConnection;
+    }
+
+    /**
+     * Makes the upload of the given part number fail, 0 to disable.
+     */
+    public void setFailPartNumber(int failPartNumber) {
+        this.failPartNumber = failPartNumber;
+    }
+
+    /**
+     * Makes the ranged get requests starting at the given offset fail, -1 to disable.
+     */
+    public void setFailRangeStart(long failRangeStart) {
+        this.failRangeStart = failRangeStart;
+    }
+
+    /**
+     * Makes the next requests fail with the given response code, like a server that throttles the requests (429,
+     * 503) or fails (500), or without response code and with an {@link IOException} cause if the code is 0, like a
+     * connection that fails.
+     */
+    public void failNextRequests(int count, int responseCode) {
+        injectedResponseCode = responseCode;
+        injectedFailures.set(count);
+    }
+
+    /**
+     * @return the number of failures set by {@link #failNextRequests} that did not happen yet
+     */
+    public int getPendingFailures() {
+        return injectedFailures.get();
+    }
+
+    public int getGetRequests() {
+        return getRequests.get();
+    }
+
+    /**
+     * @return the number of copy and copy part requests, which do not transfer the content through the client
+     */
+    public int getCopyRequests() {
+        return copyRequests.get();
+    }
+
+    public int getOpenUploads() {
+        return uploads.size();
+    }
+
+    public int getAbortedUploads() {
+        return abortedUploads.get();
+    }
+
+    public int getMaxInFlightUploadParts() {
+        return maxInFlightUploadParts.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getListRequests() {
+        return listRequests.get();
+    }
+
+    public int getMaxInFlightListRequests() {
+        return maxInFlightListRequests.get();
+    }
+
+    @Override
+    public List<ObsBucket> listBuckets(ListBucketsRequest request) throws ObsException {
+        injectFailure();
+        List<ObsBucket> result = new ArrayList<>();
+        for (String bucket : buckets.keySet()) {
+            result.add(new ObsBucket(bucket, null));
+        }
+        result.sort((b1, b2) -> b1.getBucketName().compareTo(b2.getBucketName()));
+        return result;
+    }
+
+    @Override
+    public ObjectListing listObjects(ListObjectsRequest request) throws ObsException {
+        listRequests.incrementAndGet();
+        injectFailure();
+        int inFlight = inFlightListRequests.incrementAndGet();
+        maxInFlightListRequests.accumulateAndGet(inFlight, Math::max);
+        try {
+            if (listLatencyMillis > 0) {
+                Thread.sleep(listLatencyMillis);
+            }
+            return doListObjects(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObsException("Interrupted");
+        } finally {
+            inFlightListRequests.decrementAndGet();
+        }
+    }
+
+    private ObjectListing doListObjects(ListObjectsRequest request) {
+        NavigableMap<String, FakeObject> bucket = getBucket(request.getBucketName());
+        String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        String delimiter = request.getDelimiter();
+        String marker = request.getMarker();
+        int maxKeys = request.getMaxKeys() <= 0 ? 1000 : request.getMaxKeys();
+
+        NavigableMap<String, FakeObject> candidates = marker == null || marker.compareTo(prefix) < 0 ?
+                bucket.tailMap(prefix, true) : bucket.tailMap(marker, false);
+        List<ObsObject> objects = new ArrayList<>();
+        List<String> commonPrefixes = new ArrayList<>();
+        String last = null;
+        boolean truncated = false;
+        String key = candidates.isEmpty() ? null : candidates.firstKey();
+        while (key != null && key.startsWith(prefix)) {
+            if (objects.size() + commonPrefixes.size() >= maxKeys) {
+                truncated = true;
+                break;
+            }
+            int idx = delimiter == null ? -1 : key.indexOf(delimiter, prefix.length());
+            if (idx >= 0) {
+                String commonPrefix = key.substring(0, idx + delimiter.length());
+                commonPrefixes.add(commonPrefix);
+                last = commonPrefix;
+                // jump over every key sharing the common prefix
+                key = bucket.higherKey(commonPrefix + Character.MAX_VALUE);
+            } else {
+                objects.add(toObsObject(request.getBucketName(), key, bucket.get(key), false));
+                last = key;
+                key = bucket.higherKey(key);
+            }
+        }
+        return new ObjectListing(objects, commonPrefixes, request.getBucketName(), truncated, prefix, marker,
+                maxKeys, delimiter, truncated ? last : null, null);
+    }
+
+    @Override
+    public ObsObject getObject(String bucketName, String objectKey) throws ObsException {
+        return getObject(new GetObjectRequest(bucketName, objectKey));
+    }
+
+    @Override
+    public ObsObject getObject(GetObjectRequest request) throws ObsException {
+        getRequests.incrementAndGet();
+        injectFailure();
+        if (request.getRangeStart() != null && request.getRangeStart() == failRangeStart) {
+            throw new ObsException("Failed to get range starting at " + failRangeStart);
+        }
+        FakeObject object = getBucket(request.getBucketName()).get(request.getObjectKey());
+        if (object == null) {
+            throw notFound(request.getObjectKey());
+        }
+        ObsObject result = toObsObject(request.getBucketName(), request.getObjectKey(), object, true);
+        if (request.getRangeStart() != null) {
+            int start = (int) Math.min(request.getRangeStart(), object.content.length);
+            int end = request.getRangeEnd() == null ? object.content.length - 1 :
+                    (int) Math.min(request.getRangeEnd(), object.content.length - 1);
+            byte[] range = Arrays.copyOfRange(object.content, start, Math.max(start, end + 1));
+            result.getMetadata().setContentLength((long) range.length);
+            result.setObjectContent(new ByteArrayInputStream(range));
+        }
+        return result;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String objectKey) throws ObsException {
+        injectFailure();
+        FakeObject object = getBucket(bucketName).get(objectKey);
+        if (object == null) {
+            throw notFound(objectKey);
+        }
+        return toObsObject(bucketName, objectKey, object, false).getMetadata();
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest request) throws ObsException {
+        byte[] content = transfer(request.getInput());
+        injectFailure();
+        putObject(request.getBucketName(), request.getObjectKey(), content);
+        return new PutObjectResult(request.getBucketName(), request.getObjectKey(), null, null, null, null);
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request)
+            throws ObsException {
+        getBucket(request.getBucketName());
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new ConcurrentHashMap<>());
+        return new InitiateMultipartUploadResult(request.getBucketName(), request.getObjectKey(), uploadId);
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) throws ObsException {
+        Map<Integer, byte[]> parts = getUpload(request.getUploadId());
+        int inFlight = inFlightUploadParts.incrementAndGet();
+        maxInFlightUploadParts.accumulateAndGet(inFlight, Math::max);
+        try {
+            if (request.getPartNumber() == failPartNumber) {
+                throw new ObsException("Simulated failure of part " + failPartNumber);
+            }
+            byte[] content = transfer(request.getInput());
+            injectFailure();
+            parts.put(request.getPartNumber(), content);
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setEtag(Integer.toHexString(Arrays.hashCode(content)));
+            return result;
+        } finally {
+            inFlightUploadParts.decrementAndGet();
+        }
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request)
+            throws ObsException {
+        Map<Integer, byte[]> parts = getUpload(request.getUploadId());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int expected = 1;
+        for (PartEtag etag : request.getPartEtag()) {
+            byte[] part = parts.get(etag.getPartNumber());
+            if (part == null || etag.getPartNumber() != expected++) {
+                throw new ObsException("Invalid part " + etag.getPartNumber());
+            }
+            content.write(part, 0, part.length);
+        }
+        uploads.remove(request.getUploadId());
+        putObject(request.getBucketName(), request.getObjectKey(), content.toByteArray());
+        return new CompleteMultipartUploadResult(request.getBucketName(), request.getObjectKey(), null, null, null,
+                null);
+    }
+
+    @Override
+    public CopyObjectResult copyObject(CopyObjectRequest request) throws ObsException {
+        copyRequests.incrementAndGet();
+        injectFailure();
+        FakeObject source = getBucket(request.getSourceBucketName()).get(request.getSourceObjectKey());
+        if (source == null) {
+            throw notFound(request.getSourceObjectKey());
+        }
+        putObject(request.getDestinationBucketName(), request.getDestinationObjectKey(), source.content);
+        return new CopyObjectResult(source.etag(), new Date(), null, null, null);
+    }
+
+    @Override
+    public CopyPartResult copyPart(CopyPartRequest request) throws ObsException {
+        copyRequests.incrementAndGet();
+        Map<Integer, byte[]> parts = getUpload(request.getUploadId());
+        int inFlight = inFlightUploadParts.incrementAndGet();
+        maxInFlightUploadParts.accumulateAndGet(inFlight, Math::max);
+        try {
+            if (request.getPartNumber() == failPartNumber) {
+                throw new ObsException("Simulated failure of part " + failPartNumber);
+            }
+            injectFailure();
+            FakeObject source = getBucket(request.getSourceBucketName()).get(request.getSourceObjectKey());
+            if (source == null) {
+                throw notFound(request.getSourceObjectKey());
+            }
+            int start = request.getByteRangeStart() == null ? 0 : request.getByteRangeStart().intValue();
+            int end = request.getByteRangeEnd() == null ? source.content.length - 1
+                    : request.getByteRangeEnd().intValue();
+            byte[] content = Arrays.copyOfRange(source.content, start, end + 1);
+            // the time of the copy on the server side
+            long millis = requestLatencyMillis;
+            if (millis > 0) {
+                Thread.sleep(millis);
+            }
+            parts.put(request.getPartNumber(), content);
+            return new CopyPartResult(request.getPartNumber(), Integer.toHexString(Arrays.hashCode(content)),
+                    new Date());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObsException("Interrupted");
+        } finally {
+            inFlightUploadParts.decrementAndGet();
+        }
+    }
+
+    @Override
+    public HeaderResponse abortMultipartUpload(AbortMultipartUploadRequest request) throws ObsException {
+        if (uploads.remove(request.getUploadId()) == null) {
+            throw notFound(request.getUploadId());
+        }
+        abortedUploads.incrementAndGet();
+        return new HeaderResponse();
+    }
+
+    @Override
+    public DeleteObjectResult deleteObject(String bucketName, String objectKey) throws ObsException {
+        getBucket(bucketName).remove(objectKey);
+        return new DeleteObjectResult(false, null);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void injectFailure() {
+        if (injectedFailures.getAndUpdate(n -> Math.max(0, n - 1)) == 0) {
+            return;
+        }
+        ObsException e;
+        if (injectedResponseCode == 0) {
+            e = new ObsException("Connection reset", new IOException("Connection reset"));
+        } else {
+            e = new ObsException("Injected failure with response code " + injectedResponseCode);
+            e.setResponseCode(injectedResponseCode);
+        }
+        throw e;
+    }
+
+    private Map<Integer, byte[]> getUpload(String uploadId) {
+        Map<Integer, byte[]> parts = uploads.get(uploadId);
+        if (parts == null) {
+            ObsException e = new ObsException("The specified upload does not exist: " + uploadId);
+            e.setResponseCode(404);
+            e.setErrorCode("NoSuchUpload");
+            throw e;
+        }
+        return parts;
+    }
+
+    /**
+     * Reads a request body, taking as long as the configured throttling says it would take over the network.
+     */
+    private byte[] transfer(InputStream input) {
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                content.write(buffer, 0, read);
+            }
+            long millis = requestLatencyMillis;
+            if (bytesPerSecondPerConnection > 0) {
+                millis += content.size() * 1000L / bytesPerSecondPerConnection;
+            }
+            if (millis > 0) {
+                Thread.sleep(millis);
+            }
+            return content.toByteArray();
+        } catch (IOException e) {
+            throw new ObsException("Failed to read the request body");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ObsException("Interrupted");
+        }
+    }
+
+    private NavigableMap<String, FakeObject> getBucket(String bucket) {
+        NavigableMap<String, FakeObject> objects = buckets.get(bucket);
+        if (objects == null) {
+            ObsException e = new ObsException("The specified bucket does not exist");
+            e.setResponseCode(404);
+            e.setErrorCode("NoSuchBucket");
+            throw e;
+        }
+        return objects;
+    }
+
+    private static ObsException notFound(String key) {
+        ObsException e = new ObsException("The specified key does not exist: " + key);
+        e.setResponseCode(404);
+        e.setErrorCode("NoSuchKey");
+        return e;
+    }
+
+    private static ObsObject toObsObject(String bucket, String key, FakeObject object, boolean withContent) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength((long) object.content.length);
+        metadata.setLastModified(new Date(object.lastModified));
+        metadata.setEtag(object.etag());
+        ObsObject result = new ObsObject();
+        result.setBucketName(bucket);
+        result.setObjectKey(key);
+        result.setMetadata(metadata);
+        if (withContent) {
+            result.setObjectContent(new ByteArrayInputStream(object.content));
+        }
+        return result;
+    }
+
+    /**
+     * An object stored in the fake endpoint.
+     */
+    private static final class FakeObject {
+        private final byte[] content;
+        private final long lastModified;
+
+        private FakeObject(byte[] content, long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+
+        private String etag() {
+            return "\"" + Integer.toHexString(Arrays.hashCode(content)) + "-" + content.length + "\"";
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.ObsClient;
+import io.cdap.plugin.huawei.obs.sink.ObsOutputFormat;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+public class OBSFileSystemPTest {
+    private static final String BUCKET = "fs-test";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ObsStandInServer server;
+
+    @Before
+    public void setup() throws IOException {
+        server = ObsStandInServer.inMemory();
+        server.createBucket(BUCKET);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testListInputPathFromInventory() throws Exception {
+        for (String key : Arrays.asList("data/a.csv", "data/b/1.csv", "data/b/2.csv")) {
+            server.putObject(BUCKET, key, key.getBytes(StandardCharsets.UTF_8));
+        }
+        try (ObsClient obsClient = new ObsClient("access", "secret", server.getEndpoint())) {
+            ObsInventory.build(obsClient, BUCKET, "data/", Executors.newSingleThreadExecutor(), 1)
+                    .store(obsClient, BUCKET);
+        }
+        // added after the inventory was built
+        server.putObject(BUCKET, "data/c.csv", new byte[] {1});
+
+        Configuration jobConf = getConf();
+        jobConf.set(FileInputFormat.INPUT_DIR, "obs://" + BUCKET + "/data");
+        jobConf.setBoolean(ObsConstants.LIST_INVENTORY, true);
+        // the filesystem is shared with the stages that do not use the inventory
+        try (FileSystem fs = FileSystem.newInstance(URI.create("obs://" + BUCKET + "/"), jobConf)) {
+            OBSFileSystemP obsFs = (OBSFileSystemP) fs;
+            int gets = server.getRequests("get");
+            int lists = server.getRequests("list");
+            Assert.assertEquals(Arrays.asList("a.csv", "b"), obsFs.listInput(jobConf, null, () -> list(fs, "/data")));
+            Assert.assertEquals(gets + 1, server.getRequests("get"));
+
+            // the sub-directories are listed
+            Assert.assertEquals(Arrays.asList("1.csv", "2.csv"),
+                    obsFs.listInput(jobConf, null, () -> list(fs, "/data/b")));
+            Assert.assertEquals(gets + 1, server.getRequests("get"));
+            Assert.assertTrue(server.getRequests("list") > lists);
+
+            // the inventory is only used for the input of the job enabling it
+            gets = server.getRequests("get");
+            // the inventory is left to the hidden files filter of the input format
+            Assert.assertEquals(Arrays.asList(ObsInventory.NAME, "a.csv", "b", "c.csv"), list(fs, "/data"));
+            Configuration otherJobConf = getConf();
+            otherJobConf.set(FileInputFormat.INPUT_DIR, "obs://" + BUCKET + "/data");
+            Assert.assertEquals(Arrays.asList(ObsInventory.NAME, "a.csv", "b", "c.csv"),
+                    obsFs.listInput(otherJobConf, null, () -> list(fs, "/data")));
+            Assert.assertEquals(gets, server.getRequests("get"));
+        }
+    }
+
+    @Test
+    public void testFileBytesAreCountedForTheStage() throws IOException {
+        String stage = "testFileBytesAreCountedForTheStage";
+        Configuration conf = getConf();
+        conf.set(ObsConstants.STAGE, stage);
+        // the blocks of the uploads are buffered on the disk
+        conf.set("hadoop.tmp.dir", temporaryFolder.getRoot().getPath());
+        ObsRequestMetrics metrics = ObsRequestMetrics.forStage(stage);
+        byte[] content = new byte[1000];
+        try (FileSystem fs = FileSystem.newInstance(URI.create("obs://" + BUCKET + "/"), conf)) {
+            try (OutputStream out = fs.create(new Path("/out/part-0"))) {
+                out.write(content);
+            }
+            try (InputStream in = fs.open(new Path("/out/part-0"))) {
+                Assert.assertEquals(content.length, IOUtils.toByteArray(in).length);
+            }
+        }
+        ObsRequestMetrics.Snapshot snapshot = metrics.drain();
+        Assert.assertEquals(content.length, snapshot.getFileBytesWritten());
+        Assert.assertEquals(content.length, snapshot.getFileBytesRead());
+    }
+
+    @Test
+    public void testAbortTaskAttemptUploads() throws Exception {
+        Configuration conf = getConf();
+        conf.set("hadoop.tmp.dir", temporaryFolder.getRoot().getPath());
+        // the filesystem shared by the tasks and the committer, created by a stage that does not commit directly
+        FileSystem fs = FileSystem.get(URI.create("obs://" + BUCKET + "/"), conf);
+
+        Configuration taskConf = new Configuration(conf);
+        taskConf.setBoolean(ObsConstants.COMMIT_DIRECT, true);
+        taskConf.setLong(ObsConstants.UPLOAD_PART_SIZE, ObsConstants.MIN_UPLOAD_PART_SIZE);
+        taskConf.set(ObsOutputFormat.DELEGATE, TextOutputFormat.class.getName());
+        taskConf.set(FileOutputFormat.OUTDIR, "obs://" + BUCKET + "/out");
+        TaskAttemptContext failed = new TaskAttemptContextImpl(taskConf,
+                TaskAttemptID.forName("attempt_202110181200_0001_m_000000_0"));
+        TaskAttemptContext running = new TaskAttemptContextImpl(taskConf,
+                TaskAttemptID.forName("attempt_202110181200_0001_m_000001_0"));
+        // larger than a part, so that the uploads are started before the files are closed
+        Text content = new Text(new byte[(int) ObsConstants.MIN_UPLOAD_PART_SIZE]);
+        try {
+            ObsOutputFormat<NullWritable, Text> outputFormat = new ObsOutputFormat<>();
+            OutputCommitter committer = outputFormat.getOutputCommitter(failed);
+            RecordWriter<NullWritable, Text> failedWriter = outputFormat.getRecordWriter(failed);
+            failedWriter.write(NullWritable.get(), content);
+            RecordWriter<NullWritable, Text> runningWriter = outputFormat.getRecordWriter(running);
+            runningWriter.write(NullWritable.get(), content);
+            Assert.assertEquals(2, server.getOpenUploads());
+
+            committer.abortTask(failed);
+            // the other attempt still writes its file
+            Assert.assertEquals(1, server.getOpenUploads());
+
+            runningWriter.close(running);
+            committer.commitTask(running);
+            committer.commitJob(running);
+            Assert.assertEquals(0, server.getOpenUploads());
+            Assert.assertEquals(content.getLength() + 1, server.getContent(BUCKET, "out/part-m-00001").length);
+            Assert.assertNull(server.getContent(BUCKET, "out/part-m-00000"));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    public void testTaskAttemptsWriteWithTheSettingsOfTheirTask() throws Exception {
+        Configuration conf = getConf();
+        conf.set("hadoop.tmp.dir", temporaryFolder.getRoot().getPath());
+        conf.set(ObsOutputFormat.DELEGATE, TextOutputFormat.class.getName());
+        conf.set(FileOutputFormat.OUTDIR, "obs://" + BUCKET + "/out");
+        // created by a stage that commits directly
+        Configuration directConf = new Configuration(conf);
+        directConf.setBoolean(ObsConstants.COMMIT_DIRECT, true);
+        FileSystem fs = FileSystem.get(URI.create("obs://" + BUCKET + "/"), directConf);
+        try {
+            TaskAttemptContext task = new TaskAttemptContextImpl(conf,
+                    TaskAttemptID.forName("attempt_202110181200_0002_m_000000_0"));
+            ObsOutputFormat<NullWritable, Text> outputFormat = new ObsOutputFormat<>();
+            OutputCommitter committer = outputFormat.getOutputCommitter(task);
+            committer.setupJob(task);
+            committer.setupTask(task);
+            RecordWriter<NullWritable, Text> writer = outputFormat.getRecordWriter(task);
+            writer.write(NullWritable.get(), new Text("a"));
+            writer.close(task);
+            // renamed by the committer of the task, not committed directly
+            Assert.assertNull(server.getContent(BUCKET, "out/part-m-00000"));
+            committer.commitTask(task);
+            committer.commitJob(task);
+            Assert.assertEquals("a\n", new String(server.getContent(BUCKET, "out/part-m-00000"),
+                    StandardCharsets.UTF_8));
+
+            // a task of the stage that commits directly
+            directConf.set(FileOutputFormat.OUTDIR, "obs://" + BUCKET + "/direct");
+            TaskAttemptContext directTask = new TaskAttemptContextImpl(directConf,
+                    TaskAttemptID.forName("attempt_202110181200_0003_m_000000_0"));
+            committer = outputFormat.getOutputCommitter(directTask);
+            writer = outputFormat.getRecordWriter(directTask);
+            writer.write(NullWritable.get(), new Text("b"));
+            writer.close(directTask);
+            committer.commitTask(directTask);
+            Assert.assertNull(server.getContent(BUCKET, "direct/part-m-00000"));
+            committer.commitJob(directTask);
+            Assert.assertEquals("b\n", new String(server.getContent(BUCKET, "direct/part-m-00000"),
+                    StandardCharsets.UTF_8));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    public void testAsyncWritesOfTheTaskAttempt() throws Exception {
+        Configuration conf = getConf();
+        conf.set("hadoop.tmp.dir", temporaryFolder.getRoot().getPath());
+        Configuration asyncConf = new Configuration(conf);
+        asyncConf.setBoolean(ObsConstants.WRITE_ASYNC, true);
+        // created by a stage that writes asynchronously
+        FileSystem fs = FileSystem.get(URI.create("obs://" + BUCKET + "/"), asyncConf);
+        try {
+            OBSFileSystemP obsFs = (OBSFileSystemP) fs;
+            TaskAttemptID plain = TaskAttemptID.forName("attempt_202110181200_0004_m_000000_0");
+            TaskAttemptID async = TaskAttemptID.forName("attempt_202110181200_0004_m_000001_0");
+            obsFs.startTaskAttempt(plain, conf);
+            obsFs.startTaskAttempt(async, asyncConf);
+            try (FSDataOutputStream out = fs.create(new Path("/out/_temporary/0/_temporary/" + plain + "/a"))) {
+                Assert.assertFalse(getFileStream(out) instanceof ObsAsyncOutputStream);
+                out.write('a');
+            }
+            try (FSDataOutputStream out = fs.create(new Path("/out/_temporary/0/_temporary/" + async + "/b"))) {
+                Assert.assertTrue(getFileStream(out) instanceof ObsAsyncOutputStream);
+                out.write('b');
+                out.write(new byte[10]);
+                // counted as they are written
+                Assert.assertEquals(11L, obsFs.getBytesWritten(async));
+            }
+            Assert.assertEquals(1L, obsFs.getBytesWritten(plain));
+            obsFs.finishTaskAttempt(plain);
+            obsFs.finishTaskAttempt(async);
+            Assert.assertEquals(11, server.getContent(BUCKET, "out/_temporary/0/_temporary/" + async + "/b").length);
+        } finally {
+            fs.close();
+        }
+    }
+
+    private Configuration getConf() {
+        Configuration conf = new Configuration(false);
+        conf.set(ObsConstants.OBS_IMPL, OBSFileSystemP.class.getName());
+        conf.set(ObsConstants.OBS_END_POINT, server.getEndpoint());
+        conf.set(ObsConstants.OBS_ACCESS_KEY, "access");
+        conf.set(ObsConstants.OBS_SECRET_KEY, "secret");
+        conf.set("fs.obs.connection.ssl.enabled", "false");
+        return conf;
+    }
+
+    /**
+     * @return the stream writing the file, under the stream counting the bytes written by the task attempt
+     */
+    private static OutputStream getFileStream(FSDataOutputStream out) {
+        return ((OBSFileSystemP.CountingOutputStream) out.getWrappedStream()).getWrappedStream();
+    }
+
+    private static List<String> list(FileSystem fs, String path) throws IOException {
+        List<String> names = new ArrayList<>();
+        RemoteIterator<LocatedFileStatus> statuses = fs.listLocatedStatus(new Path(path));
+        while (statuses.hasNext()) {
+            names.add(statuses.next().getPath().getName());
+        }
+        names.sort(String::compareTo);
+        return names;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ObsAsyncOutputStreamTest {
+    private static final int BUFFER_SIZE = 1000;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testWritesInOrder() throws IOException {
+        for (boolean direct : new boolean[] {false, true}) {
+            byte[] data = randomBytes(BUFFER_SIZE * 20 + 17);
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            ObsWriteBufferPool pool = new ObsWriteBufferPool(BUFFER_SIZE, direct);
+            try (OutputStream out = new ObsAsyncOutputStream(written, pool, 3, executor)) {
+                // uneven writes crossing the buffer boundaries
+                int offset = 0;
+                int chunk = 1;
+                while (offset < data.length) {
+                    int length = Math.min(chunk, data.length - offset);
+                    if (length == 1) {
+                        out.write(data[offset]);
+                    } else {
+                        out.write(data, offset, length);
+                    }
+                    offset += length;
+                    chunk = chunk * 3 % 2003;
+                    if (offset % 7 == 0) {
+                        out.flush();
+                    }
+                }
+            }
+            Assert.assertArrayEquals(data, written.toByteArray());
+            // the buffers are reused from one stream to the next
+            Assert.assertTrue(pool.free() <= 3);
+        }
+    }
+
+    @Test
+    public void testWriterBlocksOnceAllBuffersAreWaiting() throws Exception {
+        CountDownLatch network = new CountDownLatch(1);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutputStream slow = new OutputStream() {
+            @Override
+            public void write(int b) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    network.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                written.write(b, off, len);
+            }
+        };
+        byte[] data = randomBytes(BUFFER_SIZE * 10);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Semaphore chunks = new Semaphore(0);
+        Thread writer = new Thread(() -> {
+            try (OutputStream out = new ObsAsyncOutputStream(slow, new ObsWriteBufferPool(BUFFER_SIZE, false), 2,
+                    executor)) {
+                for (int i = 0; i < 10; i++) {
+                    out.write(data, i * BUFFER_SIZE, BUFFER_SIZE);
+                    chunks.release();
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        // the first buffer is being written and the second one is waiting, the third one cannot be filled
+        Assert.assertTrue(chunks.tryAcquire(2, 10, TimeUnit.SECONDS));
+        Assert.assertFalse(chunks.tryAcquire(1, 200, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(writer.isAlive());
+
+        network.countDown();
+        writer.join(10000);
+        Assert.assertNull(failure.get());
+        Assert.assertArrayEquals(data, written.toByteArray());
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        AtomicReference<Boolean> closed = new AtomicReference<>(false);
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("connection reset");
+            }
+
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        OutputStream out = new ObsAsyncOutputStream(failing, new ObsWriteBufferPool(BUFFER_SIZE, false), 2, executor);
+        try {
+            for (int i = 0; i < 100; i++) {
+                out.write(randomBytes(BUFFER_SIZE));
+            }
+            Assert.fail("Writes should fail once the underlying stream failed");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            out.close();
+            Assert.fail("Close should fail since the underlying stream failed");
+        } catch (IOException e) {
+            Assert.assertEquals("connection reset", e.getCause().getMessage());
+        }
+        Assert.assertTrue(closed.get());
+    }
+
+    @Test
+    public void testFailedMultipartUploadIsAborted() {
+        FakeObsClient obsClient = new FakeObsClient();
+        obsClient.createBucket("async-test");
+        obsClient.setFailPartNumber(2);
+        int partSize = (int) ObsConstants.MIN_UPLOAD_PART_SIZE;
+        OutputStream upload = new ObsMultipartOutputStream(obsClient, "async-test", "failed", partSize, executor,
+                new Semaphore(4));
+        try {
+            try (OutputStream out = new ObsAsyncOutputStream(upload, new ObsWriteBufferPool(64 * 1024, true), 4,
+                    executor)) {
+                out.write(randomBytes(partSize * 3));
+            }
+            Assert.fail("The upload should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertNull(obsClient.getContent("async-test", "failed"));
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4Factory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class ObsBlockCompressorStreamTest {
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    @Test
+    public void testGzipBlocksInOrder() throws IOException {
+        byte[] data = textBytes(BLOCK_SIZE * 10 + 123);
+        byte[] compressed = compress(ObsBlockCompression.GZIP, data, 3);
+        Assert.assertTrue(compressed.length < data.length);
+        Assert.assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void testEmptyGzipStream() throws IOException {
+        byte[] compressed = compress(ObsBlockCompression.GZIP, new byte[0], 2);
+        Assert.assertTrue(compressed.length > 0);
+        Assert.assertEquals(0, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))).length);
+    }
+
+    @Test
+    public void testZstdFrames() throws IOException {
+        byte[] data = textBytes(BLOCK_SIZE * 5 + 7);
+        byte[] compressed = compress(ObsBlockCompression.ZSTD, data, 4);
+        Assert.assertArrayEquals(data, readAll(new ZstdInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void testSnappyBlockFraming() throws IOException {
+        byte[] data = textBytes(ObsBlockCompression.SNAPPY.getMaxBlockSize() * 3 + 99);
+        ByteBuffer compressed = ByteBuffer.wrap(compress(ObsBlockCompression.SNAPPY, data, 4));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        while (compressed.hasRemaining()) {
+            int length = compressed.getInt();
+            byte[] block = new byte[compressed.getInt()];
+            compressed.get(block);
+            Assert.assertTrue(length <= ObsBlockCompression.SNAPPY.getMaxBlockSize());
+            byte[] decompressed = Snappy.uncompress(block);
+            Assert.assertEquals(length, decompressed.length);
+            uncompressed.write(decompressed);
+        }
+        Assert.assertArrayEquals(data, uncompressed.toByteArray());
+    }
+
+    @Test
+    public void testLz4BlockFraming() throws IOException {
+        byte[] data = textBytes(ObsBlockCompression.LZ4.getMaxBlockSize() * 2 + 5);
+        ByteBuffer compressed = ByteBuffer.wrap(compress(ObsBlockCompression.LZ4, data, 2));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        while (compressed.hasRemaining()) {
+            int length = compressed.getInt();
+            byte[] block = new byte[compressed.getInt()];
+            compressed.get(block);
+            Assert.assertTrue(length <= ObsBlockCompression.LZ4.getMaxBlockSize());
+            byte[] decompressed = new byte[length];
+            int size = LZ4Factory.fastestInstance().safeDecompressor().decompress(block, 0, block.length,
+                    decompressed, 0, length);
+            Assert.assertEquals(length, size);
+            uncompressed.write(decompressed);
+        }
+        Assert.assertArrayEquals(data, uncompressed.toByteArray());
+        // lz4 and snappy streams without data are empty, like the ones of the Hadoop codecs
+        Assert.assertEquals(0, compress(ObsBlockCompression.LZ4, new byte[0], 2).length);
+    }
+
+    @Test
+    public void testWriteAfterClose() throws IOException {
+        OutputStream out = new ObsBlockCompressorStream(new ByteArrayOutputStream(), ObsBlockCompression.GZIP, -1,
+                BLOCK_SIZE, 2);
+        out.close();
+        try {
+            out.write(1);
+            Assert.fail("Writes to a closed stream should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] compress(ObsBlockCompression compression, byte[] data, int threads) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new ObsBlockCompressorStream(compressed, compression, -1, BLOCK_SIZE, threads)) {
+            // uneven writes crossing the block boundaries
+            int offset = 0;
+            int chunk = 1;
+            while (offset < data.length) {
+                int length = Math.min(chunk, data.length - offset);
+                if (length == 1) {
+                    out.write(data[offset]);
+                } else {
+                    out.write(data, offset, length);
+                }
+                offset += length;
+                chunk = chunk * 7 % 100_003;
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] textBytes(int size) {
+        String[] words = {"obs", "bucket", "object", "record", "2021-10-18", "tenant", "42", "cdap"};
+        Random random = new Random(size);
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]).append(random.nextInt(8) == 0 ? '\n' : ',');
+        }
+        return Arrays.copyOf(text.toString().getBytes(StandardCharsets.UTF_8), size);
+    }
+}
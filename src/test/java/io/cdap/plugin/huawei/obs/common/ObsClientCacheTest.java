@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ObsClientCacheTest {
+
+    private static final long IDLE_TIMEOUT = 1000L;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<FakeObsClient> created = new ArrayList<>();
+    private ObsClientCache cache;
+
+    @Before
+    public void setup() {
+        clock.set(0L);
+        created.clear();
+        cache = new ObsClientCache(IDLE_TIMEOUT, key -> {
+            FakeObsClient client = new FakeObsClient();
+            created.add(client);
+            return client;
+        }, clock::get);
+    }
+
+    @Test
+    public void testSharedClient() {
+        ObsClientCache.ClientKey key = ObsClientCache.ClientKey.of("https://obs.example.com", "ak", "sk");
+        ObsClientCache.Lease first = cache.acquire(key);
+        ObsClientCache.Lease second = cache.acquire(ObsClientCache.ClientKey.of("https://obs.example.com", "ak", "sk"));
+        Assert.assertSame(first.getClient(), second.getClient());
+        Assert.assertEquals(1, created.size());
+
+        ObsClientCache.Lease other = cache.acquire(ObsClientCache.ClientKey.of("https://obs.example.com", "ak", "sk2"));
+        ObsClientCache.Lease tuned = cache.acquire(new ObsClientCache.ClientKey("https://obs.example.com", "ak", "sk",
+                10, 1000, 1000));
+        Assert.assertNotSame(first.getClient(), other.getClient());
+        Assert.assertNotSame(first.getClient(), tuned.getClient());
+        Assert.assertEquals(3, cache.size());
+        cache.shutdown();
+    }
+
+    @Test
+    public void testIdleEviction() {
+        ObsClientCache.ClientKey key = ObsClientCache.ClientKey.of("https://obs.example.com", "ak", "sk");
+        ObsClientCache.Lease first = cache.acquire(key);
+        ObsClientCache.Lease second = cache.acquire(key);
+        first.close();
+        // closing a lease twice must not release the client of the other lease
+        first.close();
+        clock.addAndGet(IDLE_TIMEOUT * 10);
+        Assert.assertEquals(0, cache.evictIdle());
+        Assert.assertFalse(created.get(0).isClosed());
+
+        second.close();
+        clock.addAndGet(IDLE_TIMEOUT - 1);
+        Assert.assertEquals(0, cache.evictIdle());
+        // reused while idle, no new client
+        cache.acquire(key).close();
+        Assert.assertEquals(1, created.size());
+
+        clock.addAndGet(IDLE_TIMEOUT);
+        Assert.assertEquals(1, cache.evictIdle());
+        Assert.assertTrue(created.get(0).isClosed());
+        Assert.assertEquals(0, cache.size());
+
+        cache.acquire(key).close();
+        Assert.assertEquals(2, created.size());
+        cache.shutdown();
+    }
+
+    @Test
+    public void testShutdown() {
+        ObsClientCache.Lease lease = cache.acquire(ObsClientCache.ClientKey.of("https://obs.example.com", "ak", "sk"));
+        cache.shutdown();
+        Assert.assertTrue(created.get(0).isClosed());
+        lease.close();
+        try {
+            cache.acquire(ObsClientCache.ClientKey.of("https://obs.example.com", "ak", "sk"));
+            Assert.fail("Acquiring a client after the shutdown should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testKeyDoesNotExposeCredentials() {
+        String key = ObsClientCache.ClientKey.of("https://obs.example.com", "my-access", "my-secret").toString();
+        Assert.assertFalse(key.contains("my-access"));
+        Assert.assertFalse(key.contains("my-secret"));
+    }
+}
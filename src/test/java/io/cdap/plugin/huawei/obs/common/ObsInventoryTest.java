@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.model.ObsObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ObsInventoryTest {
+    private static final String BUCKET = "inventory-test";
+
+    private FakeObsClient obsClient;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+    }
+
+    @Test
+    public void testBuildStoreLoad() throws IOException {
+        for (int day = 1; day <= 30; day++) {
+            for (int part = 0; part < 100; part++) {
+                putObject(String.format("events/dt=2021-06-%02d/part-%05d.avro", day, part), "day " + day);
+            }
+        }
+        putObject("events/_SUCCESS", "");
+        putObject("other/part-00000.avro", "other");
+
+        ObsInventory inventory = build("events/");
+        List<ObsInventory.Entry> entries = inventory.getEntries();
+        Assert.assertEquals(3001, entries.size());
+        Assert.assertEquals("events/_SUCCESS", entries.get(0).getKey());
+        ObsInventory.Entry entry = entries.get(1);
+        Assert.assertEquals("events/dt=2021-06-01/part-00000.avro", entry.getKey());
+        Assert.assertEquals(5L, entry.getSize());
+        Assert.assertEquals(obsClient.getObjectMetadata(BUCKET, entry.getKey()).getEtag(), entry.getEtag());
+
+        inventory.store(obsClient, BUCKET);
+        // front coded and compressed, a few bytes per object
+        long stored = obsClient.getContent(BUCKET, "events/" + ObsInventory.NAME).length;
+        Assert.assertTrue("Inventory of " + stored + " bytes", stored < 3001 * 8);
+
+        int gets = obsClient.getGetRequests();
+        int lists = obsClient.getListRequests();
+        ObsInventory loaded = ObsInventory.load(obsClient, BUCKET, "events/");
+        Assert.assertEquals(gets + 1, obsClient.getGetRequests());
+        Assert.assertEquals(lists, obsClient.getListRequests());
+        Assert.assertEquals("events/", loaded.getPrefix());
+        Assert.assertEquals(inventory.getListedAt(), loaded.getListedAt());
+        Assert.assertEquals(entries.size(), loaded.getEntries().size());
+        for (int i = 0; i < entries.size(); i++) {
+            Assert.assertEquals(entries.get(i).getKey(), loaded.getEntries().get(i).getKey());
+            Assert.assertEquals(entries.get(i).getSize(), loaded.getEntries().get(i).getSize());
+            Assert.assertEquals(entries.get(i).getLastModified(), loaded.getEntries().get(i).getLastModified());
+            Assert.assertEquals(entries.get(i).getEtag(), loaded.getEntries().get(i).getEtag());
+        }
+
+        // the inventory of a prefix without one, and of an other prefix
+        Assert.assertNull(ObsInventory.load(obsClient, BUCKET, "other/"));
+        try {
+            ObsInventory.read("other/", new ByteArrayInputStream(obsClient.getContent(BUCKET,
+                    "events/" + ObsInventory.NAME)));
+            Assert.fail("Read should fail");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("events/"));
+        }
+    }
+
+    @Test
+    public void testListing() throws IOException {
+        for (String key : Arrays.asList("data/a.csv", "data/b/1.csv", "data/b/2.csv", "data/b/c/3.csv",
+                "data/b-1.csv", "data/d/4.csv", "data/z.csv")) {
+            putObject(key, key);
+        }
+        ObsInventory inventory = build("data/");
+
+        Assert.assertEquals(Arrays.asList("data/b/", "data/d/"), inventory.getDirectories("data/"));
+        Assert.assertEquals(Arrays.asList("data/a.csv", "data/b-1.csv", "data/z.csv"),
+                keys(inventory.getObjects(BUCKET, "data/", false)));
+        Assert.assertEquals(Arrays.asList("data/b/c/"), inventory.getDirectories("data/b/"));
+        Assert.assertEquals(Arrays.asList("data/b/1.csv", "data/b/2.csv", "data/b/c/3.csv"),
+                keys(inventory.getObjects(BUCKET, "data/b/", true)));
+        Assert.assertTrue(inventory.getObjects(BUCKET, "data/missing/", true).isEmpty());
+
+        ObsObject object = inventory.getObjects(BUCKET, "data/d/", false).get(0);
+        Assert.assertEquals(BUCKET, object.getBucketName());
+        Assert.assertEquals(Long.valueOf(12L), object.getMetadata().getContentLength());
+    }
+
+    @Test
+    public void testUpdate() throws IOException {
+        for (int day = 1; day <= 3; day++) {
+            putObject(String.format("logs/dt=2021-06-%02d/part-0.txt", day), "old");
+        }
+        ObsInventory inventory = build("logs/");
+        inventory.store(obsClient, BUCKET);
+
+        for (int day = 4; day <= 5; day++) {
+            putObject(String.format("logs/dt=2021-06-%02d/part-0.txt", day), "new");
+        }
+        // not picked up by the update since it comes before the last key
+        putObject("logs/dt=2021-06-02/part-1.txt", "late");
+
+        int lists = obsClient.getListRequests();
+        ObsInventory updated = ObsInventory.load(obsClient, BUCKET, "logs/").update(obsClient, BUCKET);
+        Assert.assertEquals(lists + 1, obsClient.getListRequests());
+        Assert.assertEquals(Arrays.asList("logs/dt=2021-06-01/part-0.txt", "logs/dt=2021-06-02/part-0.txt",
+                "logs/dt=2021-06-03/part-0.txt", "logs/dt=2021-06-04/part-0.txt", "logs/dt=2021-06-05/part-0.txt"),
+                keys(updated.getObjects(BUCKET, "logs/", true)));
+
+        // the new objects are stored with the others
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        updated.write(out);
+        Assert.assertEquals(5, ObsInventory.read("logs/", new ByteArrayInputStream(out.toByteArray()))
+                .getEntries().size());
+
+        Assert.assertEquals(6, build("logs/").getEntries().size());
+    }
+
+    private ObsInventory build(String prefix) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            return ObsInventory.build(obsClient, BUCKET, prefix, executor, 4);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void putObject(String key, String content) {
+        obsClient.putObject(BUCKET, key, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> keys(List<ObsObject> objects) {
+        String[] keys = new String[objects.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = objects.get(i).getObjectKey();
+        }
+        return Arrays.asList(keys);
+    }
+}
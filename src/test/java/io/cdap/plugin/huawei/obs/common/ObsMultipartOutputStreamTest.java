@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.model.InitiateMultipartUploadRequest;
+import com.obs.services.model.InitiateMultipartUploadResult;
+import com.obs.services.model.PutObjectRequest;
+import com.obs.services.model.PutObjectResult;
+import com.obs.services.model.UploadPartRequest;
+import com.obs.services.model.UploadPartResult;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+public class ObsMultipartOutputStreamTest {
+
+    private static final String BUCKET = "upload-test";
+    private static final int PART_SIZE = (int) ObsConstants.MIN_UPLOAD_PART_SIZE;
+
+    private FakeObsClient obsClient;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSmallObject() throws IOException {
+        byte[] data = randomBytes(1000);
+        try (OutputStream out = newStream("small", 4)) {
+            out.write(data);
+        }
+        Assert.assertArrayEquals(data, obsClient.getContent(BUCKET, "small"));
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+    }
+
+    @Test
+    public void testMultipartObject() throws IOException {
+        byte[] data = randomBytes(PART_SIZE * 3 + 12345);
+        try (OutputStream out = newStream("large", 2)) {
+            // uneven writes crossing the part boundaries
+            int offset = 0;
+            int chunk = 1;
+            while (offset < data.length) {
+                int length = Math.min(chunk, data.length - offset);
+                out.write(data, offset, length);
+                offset += length;
+                chunk = chunk * 3 % 1_000_003;
+            }
+        }
+        Assert.assertArrayEquals(data, obsClient.getContent(BUCKET, "large"));
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+    }
+
+    @Test
+    public void testFailedPartAbortsUpload() {
+        obsClient.setFailPartNumber(2);
+        byte[] data = randomBytes(PART_SIZE * 3);
+        try {
+            try (OutputStream out = newStream("failed", 4)) {
+                out.write(data);
+            }
+            Assert.fail("The upload should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertNull(obsClient.getContent(BUCKET, "failed"));
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+        Assert.assertEquals(1, obsClient.getAbortedUploads());
+    }
+
+    @Test
+    public void testAbort() throws IOException {
+        ObsMultipartOutputStream out = newStream("aborted", 4);
+        out.write(randomBytes(PART_SIZE + 1));
+        out.abort();
+        out.close();
+        Assert.assertNull(obsClient.getContent(BUCKET, "aborted"));
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+    }
+
+    @Test
+    public void testServerSideEncryption() throws IOException {
+        Configuration conf = new Configuration(false);
+        conf.set(ObsConstants.OBS_SSE_TYPE, "sse-kms");
+        conf.set(ObsConstants.OBS_SSE_KEY, "key-id");
+        ObsServerSideEncryption kms = ObsServerSideEncryption.fromConfiguration(conf);
+        List<String> kmsKeys = new ArrayList<>();
+        obsClient = new FakeObsClient() {
+            @Override
+            public PutObjectResult putObject(PutObjectRequest request) {
+                kmsKeys.add(request.getSseKmsHeader().getKmsKeyId());
+                return super.putObject(request);
+            }
+
+            @Override
+            public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+                kmsKeys.add(request.getSseKmsHeader().getKmsKeyId());
+                return super.initiateMultipartUpload(request);
+            }
+        };
+        obsClient.createBucket(BUCKET);
+        try (OutputStream out = new ObsMultipartOutputStream(obsClient, BUCKET, "small", PART_SIZE, executor,
+                new Semaphore(4), kms)) {
+            out.write(randomBytes(1000));
+        }
+        try (OutputStream out = new ObsMultipartOutputStream(obsClient, BUCKET, "large", PART_SIZE, executor,
+                new Semaphore(4), kms)) {
+            out.write(randomBytes(PART_SIZE + 1));
+        }
+        Assert.assertEquals(Arrays.asList("key-id", "key-id"), kmsKeys);
+
+        // the key provided by the client is sent with every part
+        conf.set(ObsConstants.OBS_SSE_TYPE, "sse-c");
+        conf.set(ObsConstants.OBS_SSE_KEY, "Y2xpZW50LXByb3ZpZGVkLWtleS1vZi0zMi1ieXRlcyE=");
+        ObsServerSideEncryption sseC = ObsServerSideEncryption.fromConfiguration(conf);
+        List<String> sseCKeys = new ArrayList<>();
+        obsClient = new FakeObsClient() {
+            @Override
+            public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+                sseCKeys.add(request.getSseCHeader().getSseCKeyBase64());
+                return super.initiateMultipartUpload(request);
+            }
+
+            @Override
+            public UploadPartResult uploadPart(UploadPartRequest request) {
+                sseCKeys.add(request.getSseCHeader().getSseCKeyBase64());
+                return super.uploadPart(request);
+            }
+        };
+        obsClient.createBucket(BUCKET);
+        try (OutputStream out = new ObsMultipartOutputStream(obsClient, BUCKET, "large", PART_SIZE, executor,
+                new Semaphore(4), sseC)) {
+            out.write(randomBytes(PART_SIZE + 1));
+        }
+        Assert.assertEquals(Collections.nCopies(3, "Y2xpZW50LXByb3ZpZGVkLWtleS1vZi0zMi1ieXRlcyE="), sseCKeys);
+
+        conf.unset(ObsConstants.OBS_SSE_TYPE);
+        Assert.assertNull(ObsServerSideEncryption.fromConfiguration(conf));
+    }
+
+    private ObsMultipartOutputStream newStream(String key, int maxPendingParts) {
+        return new ObsMultipartOutputStream(obsClient, BUCKET, key, PART_SIZE, executor,
+                new Semaphore(maxPendingParts));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ObsPathTest {
+
+    @Test
+    public void testFrom() {
+        assertPath("obs://my-bucket/dir/file.csv", "my-bucket", "dir/file.csv", "obs://my-bucket/dir/file.csv");
+        assertPath("obs://my-bucket/dir/file.csv", "my-bucket", "dir/file.csv", "my-bucket/dir/file.csv");
+        assertPath("obs://my-bucket/dir/", "my-bucket", "dir/", "/my-bucket/dir/");
+        assertPath("obs://my-bucket/", "my-bucket", "", "obs://my-bucket");
+        assertPath("obs://my-bucket/", "my-bucket", "", "my-bucket/");
+        assertPath("obs://my.bucket-1/", "my.bucket-1", "", "/my.bucket-1");
+    }
+
+    @Test
+    public void testInvalidPaths() {
+        for (String path : new String[] {"", "ab", "obs://ab/file", "My-Bucket/file", "my_bucket", "//my-bucket"}) {
+            try {
+                ObsPath.from(path);
+                Assert.fail("Path '" + path + "' should be invalid");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertPath(String fullPath, String bucket, String name, String path) {
+        ObsPath obsPath = ObsPath.from(path);
+        Assert.assertEquals(fullPath, obsPath.getFullPath());
+        Assert.assertEquals(bucket, obsPath.getBucket());
+        Assert.assertEquals(name, obsPath.getName());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.model.ObsObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ObsPrefixListerTest {
+
+    private static final String BUCKET = "listing-test";
+    private static final int KEY_COUNT = Integer.getInteger("obs.test.syntheticKeys", 1_000_000);
+    private static final int SHARDS = 256;
+    private static final int DAYS = 4;
+
+    private static FakeObsClient obsClient;
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setup() {
+        obsClient = new FakeObsClient();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            obsClient.putEmptyObject(BUCKET, key(i), 0L);
+        }
+        // directory markers and hidden files are not part of the listing
+        obsClient.putEmptyObject(BUCKET, "events/", 0L);
+        obsClient.putEmptyObject(BUCKET, "events/_SUCCESS", 0L);
+        obsClient.putEmptyObject(BUCKET, "other/file.json", 0L);
+        executor = Executors.newFixedThreadPool(16);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testParallelListing() throws IOException {
+        ObsPrefixLister lister = new ObsPrefixLister(obsClient, executor, 8);
+        int before = obsClient.getListRequests();
+        List<ObsObject> objects = lister.list(BUCKET, "events/", prefix -> true, key -> !key.endsWith("_SUCCESS"));
+
+        Assert.assertEquals(KEY_COUNT, objects.size());
+        for (int i = 1; i < objects.size(); i++) {
+            Assert.assertTrue(objects.get(i - 1).getObjectKey().compareTo(objects.get(i).getObjectKey()) < 0);
+        }
+        Assert.assertTrue(obsClient.getMaxInFlightListRequests() <= 8);
+        // one request for the root, one per shard and at least one per day directory
+        Assert.assertTrue(obsClient.getListRequests() - before >= 1 + SHARDS + SHARDS * DAYS);
+    }
+
+    @Test
+    public void testPrefixFilter() throws IOException {
+        ObsPrefixLister lister = new ObsPrefixLister(obsClient, executor, 4);
+        List<ObsObject> objects = lister.list(BUCKET, "events/", prefix -> !prefix.endsWith("/day=0/"),
+                key -> key.endsWith(".json"));
+        int expected = 0;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if ((i / SHARDS) % DAYS != 0) {
+                expected++;
+            }
+        }
+        Assert.assertEquals(expected, objects.size());
+    }
+
+    @Test
+    public void testListingFailure() {
+        ObsPrefixLister lister = new ObsPrefixLister(obsClient, executor, 4);
+        try {
+            lister.list("missing-bucket", "", prefix -> true, key -> true);
+            Assert.fail("Listing a missing bucket should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static String key(int i) {
+        return String.format("events/%02x/day=%d/part-%07d.json", i % SHARDS, (i / SHARDS) % DAYS, i);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ObsRangedInputStreamTest {
+
+    private static final String BUCKET = "read-test";
+    private static final String KEY = "large.csv";
+    private static final int CHUNK_SIZE = (int) ObsConstants.MIN_READ_CHUNK_SIZE;
+    private static final int POOL_CAPACITY = 8;
+
+    private FakeObsClient obsClient;
+    private ExecutorService executor;
+    private ObsBufferPool bufferPool;
+    private int poolCapacity;
+    private byte[] data;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        data = new byte[CHUNK_SIZE * 16 + 123];
+        new Random(7).nextBytes(data);
+        obsClient.putObject(BUCKET, KEY, data);
+        executor = Executors.newFixedThreadPool(4);
+        poolCapacity = POOL_CAPACITY;
+        bufferPool = new ObsBufferPool(CHUNK_SIZE, poolCapacity);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSequentialRead() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("obs");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObsRangedInputStream in = newStream(4, Long.MAX_VALUE, statistics)) {
+            byte[] buffer = new byte[1000];
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            Assert.assertEquals(-1, in.read());
+        }
+        Assert.assertArrayEquals(data, out.toByteArray());
+        Assert.assertEquals(data.length, statistics.getBytesRead());
+        // one request per chunk
+        Assert.assertEquals(17, obsClient.getGetRequests());
+        assertBuffersReleased();
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        try (ObsRangedInputStream in = newStream(2, Long.MAX_VALUE, null)) {
+            for (long position : new long[] {CHUNK_SIZE * 5 + 17, 3, CHUNK_SIZE * 16 + 100, CHUNK_SIZE - 1}) {
+                in.seek(position);
+                Assert.assertEquals(position, in.getPos());
+                byte[] buffer = new byte[20];
+                int read = readFully(in, buffer);
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, (int) position, (int) position + read),
+                        Arrays.copyOf(buffer, read));
+            }
+            in.seek(data.length);
+            Assert.assertEquals(-1, in.read());
+            try {
+                in.seek(data.length + 1);
+                Assert.fail("Seek past the end should fail");
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+        assertBuffersReleased();
+    }
+
+    @Test
+    public void testReadAheadStopsAtSplitEnd() throws Exception {
+        try (ObsRangedInputStream in = newStream(8, CHUNK_SIZE * 4, null)) {
+            in.seek(CHUNK_SIZE * 4);
+            byte[] buffer = new byte[CHUNK_SIZE * 4];
+            Assert.assertEquals(buffer.length, readFully(in, buffer));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, CHUNK_SIZE * 4, CHUNK_SIZE * 8), buffer);
+            // the chunks of the split, nothing past it
+            Assert.assertEquals(4, obsClient.getGetRequests());
+        }
+        assertBuffersReleased();
+    }
+
+    @Test
+    public void testReadWithExhaustedPool() throws Exception {
+        poolCapacity = 1;
+        bufferPool = new ObsBufferPool(CHUNK_SIZE, poolCapacity);
+        byte[] buffer = new byte[data.length];
+        try (ObsRangedInputStream in = newStream(4, Long.MAX_VALUE, null)) {
+            Assert.assertEquals(data.length, readFully(in, buffer));
+        }
+        Assert.assertArrayEquals(data, buffer);
+        assertBuffersReleased();
+    }
+
+    @Test
+    public void testFailedRangeFailsRead() throws Exception {
+        obsClient.setFailRangeStart(CHUNK_SIZE * 2);
+        byte[] buffer = new byte[data.length];
+        try (ObsRangedInputStream in = newStream(4, Long.MAX_VALUE, null)) {
+            try {
+                readFully(in, buffer);
+                Assert.fail("Read should fail");
+            } catch (IOException e) {
+                Assert.assertEquals(CHUNK_SIZE * 2, in.getPos());
+            }
+        }
+        assertBuffersReleased();
+    }
+
+    private ObsRangedInputStream newStream(int depth, long splitSize, FileSystem.Statistics statistics) {
+        return new ObsRangedInputStream(obsClient, BUCKET, KEY, data.length, depth, splitSize, executor, bufferPool,
+                statistics);
+    }
+
+    private static int readFully(ObsRangedInputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+        return offset;
+    }
+
+    private void assertBuffersReleased() throws InterruptedException {
+        // prefetched chunks give their buffer back once their request is done
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(poolCapacity, bufferPool.available());
+    }
+}
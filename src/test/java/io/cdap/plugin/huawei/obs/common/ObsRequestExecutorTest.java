@@ -0,0 +1,290 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.PutObjectRequest;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ObsRequestExecutorTest {
+    private static final String BUCKET = "retries";
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<Long> sleeps = new ArrayList<>();
+    private FakeObsClient server;
+    private ObsCircuitBreaker circuitBreaker;
+
+    @Before
+    public void setup() {
+        server = new FakeObsClient();
+        server.createBucket(BUCKET);
+        server.putObject(BUCKET, "a", "content".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRetriesServerAndNetworkErrors() {
+        for (int responseCode : new int[] {500, 502, 504, 0}) {
+            sleeps.clear();
+            IObsClient client = newExecutor(new ObsRetryPolicy(5, 100, 10000, 0, 0, 0)).wrap(server);
+            server.failNextRequests(3, responseCode);
+            int requests = server.getListRequests();
+
+            Assert.assertEquals(1, client.listObjects(new ListObjectsRequest(BUCKET)).getObjects().size());
+            Assert.assertEquals(requests + 4, server.getListRequests());
+            // exponential backoff, the jitter of the test always picks the maximum delay
+            Assert.assertEquals(Arrays.asList(100L, 200L, 400L), sleeps);
+        }
+    }
+
+    @Test
+    public void testBackoffIsCapped() {
+        IObsClient client = newExecutor(new ObsRetryPolicy(6, 100, 300, 0, 0, 0)).wrap(server);
+        server.failNextRequests(5, 502);
+        client.listObjects(new ListObjectsRequest(BUCKET));
+        Assert.assertEquals(Arrays.asList(100L, 200L, 300L, 300L, 300L), sleeps);
+    }
+
+    @Test
+    public void testOtherErrorsAreNotRetried() {
+        IObsClient client = newExecutor(ObsRetryPolicy.DEFAULT).wrap(server);
+        try {
+            client.getObject(BUCKET, "missing");
+            Assert.fail("The missing object should not be found");
+        } catch (ObsException e) {
+            Assert.assertEquals(404, e.getResponseCode());
+        }
+        Assert.assertEquals(1, server.getGetRequests());
+
+        // a failure without response code is only retried if it is a network error
+        Assert.assertFalse(ObsRequestExecutor.isRetryable(new ObsException("Failed")));
+        Assert.assertTrue(ObsRequestExecutor.isRetryable(new ObsException("Failed", new IOException("reset"))));
+        Assert.assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        IObsClient client = newExecutor(new ObsRetryPolicy(3, 100, 10000, 0, 0, 0)).wrap(server);
+        server.failNextRequests(10, 500);
+        try {
+            client.getObject(BUCKET, "a");
+            Assert.fail("The request should fail after 3 attempts");
+        } catch (ObsException e) {
+            Assert.assertEquals(500, e.getResponseCode());
+        }
+        Assert.assertEquals(3, server.getGetRequests());
+        Assert.assertEquals(7, server.getPendingFailures());
+    }
+
+    @Test
+    public void testRetriedUploadSendsTheWholeContent() {
+        IObsClient client = newExecutor(ObsRetryPolicy.DEFAULT).wrap(server);
+        byte[] content = "uploaded content".getBytes(StandardCharsets.UTF_8);
+        server.failNextRequests(2, 503);
+        client.putObject(new PutObjectRequest(BUCKET, "b", new ByteArrayInputStream(content)));
+        Assert.assertArrayEquals(content, server.getContent(BUCKET, "b"));
+        Assert.assertEquals(0, server.getPendingFailures());
+    }
+
+    @Test
+    public void testRateLimiterAdaptsToThrottling() {
+        ObsRateLimiter limiter = new ObsRateLimiter(0, clock::get);
+        // not limited until the first throttled request
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals(0L, limiter.reserve());
+        }
+        Assert.assertTrue(Double.isInfinite(limiter.getRate()));
+
+        // starts from half of the observed rate
+        limiter.onThrottled();
+        Assert.assertEquals(20.0d, limiter.getRate(), 0.001d);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(50), limiter.reserve());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve());
+
+        // multiplicative decrease
+        limiter.onThrottled();
+        Assert.assertEquals(10.0d, limiter.getRate(), 0.001d);
+
+        // additive increase, about one request per second every second
+        for (int i = 0; i < 50; i++) {
+            limiter.onSuccess();
+        }
+        Assert.assertTrue(limiter.getRate() > 14.0d && limiter.getRate() < 15.0d);
+
+        // never below one request per second
+        for (int i = 0; i < 20; i++) {
+            limiter.onThrottled();
+        }
+        Assert.assertEquals(ObsRateLimiter.MIN_RATE, limiter.getRate(), 0.001d);
+    }
+
+    @Test
+    public void testRateLimiterNeverExceedsMaxRate() {
+        ObsRateLimiter limiter = new ObsRateLimiter(10, clock::get);
+        // a burst of one second of requests is not delayed
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(0L, limiter.reserve());
+        }
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), limiter.reserve());
+        for (int i = 0; i < 1000; i++) {
+            limiter.onSuccess();
+        }
+        Assert.assertEquals(10.0d, limiter.getRate(), 0.001d);
+
+        // the tokens come back over time
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(0L, limiter.reserve());
+    }
+
+    @Test
+    public void testThrottledRequestsSlowDownTheEndpoint() {
+        ObsRateLimiter limiter = new ObsRateLimiter(0, clock::get);
+        ObsRequestExecutor executor = new ObsRequestExecutor("obs.test", new ObsRetryPolicy(5, 0, 0, 0, 0, 0),
+                limiter, new ObsCircuitBreaker(0, 0, clock::get), nanos -> {
+                    sleeps.add(nanos);
+                    clock.addAndGet(nanos);
+                }, () -> 1.0d);
+        IObsClient client = executor.wrap(server);
+        for (int i = 0; i < 10; i++) {
+            client.getObject(BUCKET, "a");
+        }
+        Assert.assertTrue(sleeps.isEmpty());
+
+        server.failNextRequests(1, 429);
+        client.getObject(BUCKET, "a");
+        Assert.assertEquals(5.5d, limiter.getRate(), 0.5d);
+        // the retry waited for the rate limiter
+        Assert.assertFalse(sleeps.isEmpty());
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAndHalfOpens() {
+        IObsClient client = newExecutor(new ObsRetryPolicy(1, 0, 0, 0, 3, 1000)).wrap(server);
+        server.failNextRequests(3, 500);
+        for (int i = 0; i < 3; i++) {
+            try {
+                client.getObject(BUCKET, "a");
+                Assert.fail("The request should fail");
+            } catch (ObsException e) {
+                Assert.assertEquals(500, e.getResponseCode());
+            }
+        }
+        Assert.assertTrue(circuitBreaker.isOpen());
+
+        // the next request waits for the cooldown and is sent as the trial request, the circuit opens again if it fails
+        server.failNextRequests(1, 500);
+        sleeps.clear();
+        try {
+            client.getObject(BUCKET, "a");
+            Assert.fail("The trial request should fail");
+        } catch (ObsException e) {
+            Assert.assertEquals(500, e.getResponseCode());
+        }
+        Assert.assertEquals(Collections.singletonList(1000L), sleeps);
+        Assert.assertTrue(circuitBreaker.isOpen());
+
+        // the circuit closes once a trial request succeeds
+        sleeps.clear();
+        client.getObject(BUCKET, "a");
+        Assert.assertEquals(Collections.singletonList(1000L), sleeps);
+        Assert.assertFalse(circuitBreaker.isOpen());
+        sleeps.clear();
+        client.getObject(BUCKET, "a");
+        Assert.assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    public void testRequestsFailAfterWaitingForTheCircuit() {
+        IObsClient client = newExecutor(new ObsRetryPolicy(2, 0, 0, 0, 2, 1000)).wrap(server);
+        server.failNextRequests(2, 500);
+        try {
+            client.getObject(BUCKET, "a");
+            Assert.fail("The request should fail");
+        } catch (ObsException e) {
+            Assert.assertEquals(500, e.getResponseCode());
+        }
+        // the trial request of another thread never completes
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        Assert.assertTrue(circuitBreaker.tryAcquire());
+
+        int requests = server.getGetRequests();
+        long start = clock.get();
+        try {
+            client.getObject(BUCKET, "a");
+            Assert.fail("The request should fail while the circuit is open");
+        } catch (ObsException e) {
+            Assert.assertEquals("CircuitOpen", e.getErrorCode());
+        }
+        Assert.assertEquals(requests, server.getGetRequests());
+        // waited for the maximum attempts times the cooldown
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(2000), clock.get() - start);
+    }
+
+    @Test
+    public void testThrottlingDoesNotOpenTheCircuit() {
+        IObsClient client = newExecutor(new ObsRetryPolicy(1, 0, 0, 0, 2, 1000)).wrap(server);
+        for (int code : new int[] {429, 503, 429, 503}) {
+            server.failNextRequests(1, code);
+            try {
+                client.getObject(BUCKET, "a");
+                Assert.fail("The request should fail");
+            } catch (ObsException e) {
+                Assert.assertEquals(code, e.getResponseCode());
+            }
+        }
+        Assert.assertFalse(circuitBreaker.isOpen());
+        Assert.assertEquals(0, circuitBreaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void testClientErrorsDoNotOpenTheCircuit() {
+        IObsClient client = newExecutor(new ObsRetryPolicy(1, 0, 0, 0, 2, 1000)).wrap(server);
+        for (int i = 0; i < 5; i++) {
+            try {
+                client.getObject(BUCKET, "missing");
+                Assert.fail("The missing object should not be found");
+            } catch (ObsException e) {
+                Assert.assertEquals(404, e.getResponseCode());
+            }
+        }
+        Assert.assertEquals(5, server.getGetRequests());
+    }
+
+    private ObsRequestExecutor newExecutor(ObsRetryPolicy policy) {
+        circuitBreaker = new ObsCircuitBreaker(policy.getCircuitBreakerThreshold(),
+                policy.getCircuitBreakerCooldownMillis(), clock::get);
+        return new ObsRequestExecutor("obs.test", policy, new ObsRateLimiter(policy.getMaxRequestsPerSecond(),
+                clock::get), circuitBreaker, nanos -> {
+                    sleeps.add(TimeUnit.NANOSECONDS.toMillis(nanos));
+                    clock.addAndGet(nanos);
+                }, () -> 1.0d);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.IObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.PutObjectRequest;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics.Operation;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class ObsRequestMetricsTest {
+    private static final String BUCKET = "metrics";
+
+    @Test
+    public void testDrain() {
+        ObsRequestMetrics metrics = new ObsRequestMetrics();
+        metrics.recordSuccess(Operation.GET, TimeUnit.MILLISECONDS.toNanos(2), 1000);
+        metrics.recordFailure(Operation.GET, TimeUnit.MILLISECONDS.toNanos(1), 503);
+        metrics.recordRetry(Operation.GET);
+        metrics.recordFailure(Operation.LIST, TimeUnit.MILLISECONDS.toNanos(1), 0);
+        metrics.recordFailure(Operation.HEAD, TimeUnit.MILLISECONDS.toNanos(1), 418);
+        metrics.recordRejected();
+        metrics.recordPrefetch(true, TimeUnit.MILLISECONDS.toNanos(30));
+        metrics.recordPrefetch(true, TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.recordPrefetch(false, TimeUnit.MILLISECONDS.toNanos(5));
+
+        ObsRequestMetrics.Snapshot snapshot = metrics.drain();
+        Assert.assertEquals(2, snapshot.getRequests(Operation.GET));
+        Assert.assertEquals(1, snapshot.getFailures(Operation.GET));
+        Assert.assertEquals(1, snapshot.getRetries(Operation.GET));
+        Assert.assertEquals(1000, snapshot.getBytes(Operation.GET));
+        // 1000 bytes in 3 ms of requests
+        Assert.assertEquals(333333, snapshot.getBytesPerSecond(Operation.GET));
+        Assert.assertEquals(2000, snapshot.getMaxLatencyMicros(Operation.GET));
+        Assert.assertEquals(1, snapshot.getErrors(503));
+        Assert.assertEquals(1, snapshot.getErrors(0));
+        Assert.assertEquals(1, snapshot.getErrors(-1));
+        Assert.assertEquals(1, snapshot.getRejected());
+        Assert.assertEquals(0, snapshot.getRequests(Operation.PUT));
+        Assert.assertEquals(2, snapshot.getPrefetchReady());
+        Assert.assertEquals(50, snapshot.getPrefetchAvoidedMillis());
+        Assert.assertEquals(1, snapshot.getPrefetchStalls());
+        Assert.assertEquals(5, snapshot.getPrefetchStallMillis());
+
+        // the counts are reported once
+        Assert.assertTrue(metrics.drain().isEmpty());
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        ObsRequestMetrics metrics = new ObsRequestMetrics();
+        for (int i = 0; i < 90; i++) {
+            metrics.recordSuccess(Operation.LIST, TimeUnit.MICROSECONDS.toNanos(100), 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.recordSuccess(Operation.LIST, TimeUnit.MILLISECONDS.toNanos(10), 0);
+        }
+        ObsRequestMetrics.Snapshot snapshot = metrics.drain();
+        // upper bounds of the power of two buckets, never above the maximum
+        Assert.assertEquals(127, snapshot.getLatencyPercentileMicros(Operation.LIST, 50));
+        Assert.assertEquals(127, snapshot.getLatencyPercentileMicros(Operation.LIST, 90));
+        Assert.assertEquals(10000, snapshot.getLatencyPercentileMicros(Operation.LIST, 99));
+        Assert.assertEquals(0, snapshot.getLatencyPercentileMicros(Operation.GET, 99));
+
+        Assert.assertEquals(0, ObsRequestMetrics.latencyBucket(0));
+        Assert.assertEquals(1, ObsRequestMetrics.latencyBucket(TimeUnit.MICROSECONDS.toNanos(1)));
+        Assert.assertEquals(ObsRequestMetrics.LATENCY_BUCKETS - 1, ObsRequestMetrics.latencyBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testExecutorRecordsEveryAttempt() {
+        FakeObsClient server = new FakeObsClient();
+        server.createBucket(BUCKET);
+        byte[] content = "0123456789".getBytes(StandardCharsets.UTF_8);
+        ObsRequestMetrics metrics = new ObsRequestMetrics();
+        IObsClient client = new ObsRequestExecutor("obs.test", ObsRetryPolicy.DEFAULT, new ObsRateLimiter(0),
+                new ObsCircuitBreaker(0, 0), nanos -> { }, () -> 1.0d, metrics).wrap(server);
+
+        server.failNextRequests(2, 503);
+        client.putObject(new PutObjectRequest(BUCKET, "a", new ByteArrayInputStream(content)));
+        client.getObject(BUCKET, "a");
+        client.listObjects(new ListObjectsRequest(BUCKET));
+        try {
+            client.getObjectMetadata(BUCKET, "missing");
+            Assert.fail("The missing object should not be found");
+        } catch (ObsException e) {
+            // expected
+        }
+
+        ObsRequestMetrics.Snapshot snapshot = metrics.drain();
+        Assert.assertEquals(3, snapshot.getRequests(Operation.PUT));
+        Assert.assertEquals(2, snapshot.getFailures(Operation.PUT));
+        Assert.assertEquals(2, snapshot.getRetries(Operation.PUT));
+        Assert.assertEquals(content.length, snapshot.getBytes(Operation.PUT));
+        Assert.assertEquals(1, snapshot.getRequests(Operation.GET));
+        Assert.assertEquals(content.length, snapshot.getBytes(Operation.GET));
+        Assert.assertEquals(1, snapshot.getRequests(Operation.LIST));
+        Assert.assertEquals(1, snapshot.getFailures(Operation.HEAD));
+        Assert.assertEquals(2, snapshot.getErrors(503));
+        Assert.assertEquals(1, snapshot.getErrors(404));
+    }
+
+    @Test
+    public void testStagesCountTheirOwnRequests() {
+        FakeObsClient server = new FakeObsClient();
+        server.createBucket(BUCKET);
+        server.putObject(BUCKET, "a", new byte[10]);
+        ObsRequestMetrics process = new ObsRequestMetrics();
+        IObsClient client = new ObsRequestExecutor("obs.test", ObsRetryPolicy.DEFAULT, new ObsRateLimiter(0),
+                new ObsCircuitBreaker(0, 0), nanos -> { }, () -> 1.0d, process).wrap(server);
+        ObsRequestMetrics source = ObsRequestMetrics.forStage("testStagesCountTheirOwnRequests.source");
+        ObsRequestMetrics sink = ObsRequestMetrics.forStage("testStagesCountTheirOwnRequests.sink");
+        Assert.assertSame(source, ObsRequestMetrics.forStage("testStagesCountTheirOwnRequests.source"));
+        Assert.assertSame(ObsRequestMetrics.get(), ObsRequestMetrics.forStage(null));
+
+        ObsRequestExecutor.withMetrics(client, source).getObject(BUCKET, "a");
+        ObsRequestExecutor.withMetrics(client, source).getObject(BUCKET, "a");
+        ObsRequestExecutor.withMetrics(client, sink).listObjects(new ListObjectsRequest(BUCKET));
+        client.getObjectMetadata(BUCKET, "a");
+
+        ObsRequestMetrics.Snapshot snapshot = source.drain();
+        Assert.assertEquals(2, snapshot.getRequests(Operation.GET));
+        Assert.assertEquals(20, snapshot.getBytes(Operation.GET));
+        Assert.assertEquals(0, snapshot.getRequests(Operation.LIST));
+        snapshot = sink.drain();
+        Assert.assertEquals(1, snapshot.getRequests(Operation.LIST));
+        Assert.assertEquals(0, snapshot.getRequests(Operation.GET));
+        snapshot = process.drain();
+        Assert.assertEquals(1, snapshot.getRequests(Operation.HEAD));
+        Assert.assertEquals(0, snapshot.getRequests(Operation.GET));
+
+        // clients that do not go through an executor are left as they are
+        Assert.assertSame(server, ObsRequestExecutor.withMetrics(server, source));
+    }
+
+    @Test
+    public void testReport() {
+        ObsRequestMetrics metrics = new ObsRequestMetrics();
+        metrics.recordSuccess(Operation.MULTIPART, TimeUnit.SECONDS.toNanos(1), 8 * 1024 * 1024);
+        metrics.recordFailure(Operation.MULTIPART, TimeUnit.MILLISECONDS.toNanos(3), 500);
+        metrics.recordRetry(Operation.MULTIPART);
+
+        Map<String, Long> values = new HashMap<>();
+        long[] clock = {0L};
+        ObsMetricsReporter reporter = new ObsMetricsReporter(recording(values), metrics, () -> clock[0]);
+        for (int i = 0; i < 10000; i++) {
+            reporter.onRecord();
+        }
+        // not reported before the interval is over
+        Assert.assertTrue(values.isEmpty());
+
+        clock[0] = ObsMetricsReporter.REPORT_INTERVAL_NANOS;
+        for (int i = 0; i < 1024; i++) {
+            reporter.onRecord();
+        }
+        Assert.assertEquals(Long.valueOf(2), values.get("obs.multipart.requests"));
+        Assert.assertEquals(Long.valueOf(1), values.get("obs.multipart.failures"));
+        Assert.assertEquals(Long.valueOf(1), values.get("obs.multipart.retries"));
+        Assert.assertEquals(Long.valueOf(8 * 1024 * 1024), values.get("obs.multipart.bytes"));
+        Assert.assertEquals(Long.valueOf(1), values.get("obs.errors.500"));
+        Assert.assertEquals(Long.valueOf(1000000), values.get("obs.multipart.latency.max.us"));
+        Assert.assertNull(values.get("obs.get.requests"));
+        Assert.assertNull(values.get("obs.fs.bytes.read"));
+
+        metrics.recordFileRead(100);
+        metrics.recordFileWritten(50);
+        reporter.report();
+        Assert.assertEquals(Long.valueOf(100), values.get("obs.fs.bytes.read"));
+        Assert.assertEquals(Long.valueOf(50), values.get("obs.fs.bytes.written"));
+
+        // nothing new to report
+        values.clear();
+        reporter.report();
+        Assert.assertNull(values.get("obs.multipart.requests"));
+    }
+
+    /**
+     * Keeps the counts and the last value of the gauges.
+     */
+    private static StageMetrics recording(Map<String, Long> values) {
+        return (StageMetrics) Proxy.newProxyInstance(StageMetrics.class.getClassLoader(),
+                new Class<?>[] {StageMetrics.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "count":
+                        case "countLong":
+                            values.merge((String) args[0], ((Number) args[1]).longValue(), Long::sum);
+                            return null;
+                        case "gauge":
+                            values.put((String) args[0], (Long) args[1]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,1273 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * In process stand-in for an Obs endpoint, serving the Obs REST API over HTTP so that the real Obs client, and the
+ * Obs filesystem built on it, can be used in tests without credentials nor network. It serves the requests used by
+ * the plugins: listing buckets and objects (prefix, delimiter, marker and max keys), get with a range, head, put,
+ * delete, copy and multipart uploads. The requests are not authenticated and the buckets are addressed in the path, which
+ * is what the client does for an endpoint given as an IP address.
+ *
+ * The objects are kept in memory, or in a local directory where each bucket is a sub-directory and each object a file,
+ * so that existing files can be served. The latency, the bandwidth of each connection and failures can be injected.
+ */
+public class ObsStandInServer implements Closeable {
+    private static final String NAMESPACE = "http://obs.myhwclouds.com/doc/2015-06-30/";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Storage storage;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicInteger injectedFailures = new AtomicInteger();
+    private final Random random = new Random(0);
+    private volatile int injectedResponseCode = 503;
+    private volatile double failureRate;
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecondPerConnection;
+
+    private ObsStandInServer(Storage storage) throws IOException {
+        this.storage = storage;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "obs-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Starts a server keeping the objects in memory.
+     */
+    public static ObsStandInServer inMemory() throws IOException {
+        return new ObsStandInServer(new MemoryStorage());
+    }
+
+    /**
+     * Starts a server keeping the objects in the directory, each sub-directory being a bucket.
+     */
+    public static ObsStandInServer onDirectory(File directory) throws IOException {
+        return new ObsStandInServer(new DirectoryStorage(directory));
+    }
+
+    /**
+     * @return the endpoint to give to the client, the filesystem or the plugins
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void createBucket(String bucket) throws IOException {
+        storage.createBucket(bucket);
+    }
+
+    public void putObject(String bucket, String key, byte[] content) throws IOException {
+        storage.createBucket(bucket);
+        storage.put(bucket, key, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * @return the content of the object, null if it does not exist
+     */
+    public byte[] getContent(String bucket, String key) throws IOException {
+        StoredObject object = storage.get(bucket, key);
+        if (object == null) {
+            return null;
+        }
+        try (InputStream in = storage.open(bucket, key, 0, object.size)) {
+            return readAll(in);
+        }
+    }
+
+    /**
+     * @return the objects under the prefix, sorted by key
+     */
+    public List<StoredObject> listObjects(String bucket, String prefix) throws IOException {
+        return new ArrayList<>(storage.list(bucket, prefix, null).values());
+    }
+
+    /**
+     * Delays the response of every request, like the round trip and the time to first byte of a remote endpoint.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Limits the rate at which each request body is read and each response body is written, 0 for no limit.
+     */
+    public void setBytesPerSecondPerConnection(long bytesPerSecondPerConnection) {
+        this.bytesPerSecondPerConnection = bytesPerSecondPerConnection;
+    }
+
+    /**
+     * Makes the next requests fail with the given response code, such as 503 for a throttled request.
+     */
+    public void failNextRequests(int count, int responseCode) {
+        injectedResponseCode = responseCode;
+        injectedFailures.set(count);
+    }
+
+    /**
+     * Makes a random fraction of the requests fail with the given response code, 0 to disable.
+     */
+    public void setFailureRate(double failureRate, int responseCode) {
+        injectedResponseCode = responseCode;
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @param operation one of list, get, head, put, copy, delete, multipart, bucket and buckets
+     * @return the number of requests of the operation, including the failed ones
+     */
+    public int getRequests(String operation) {
+        AtomicInteger count = requests.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the bytes of the objects served by the get requests
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return the bytes of the objects received by the put and upload part requests
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public int getOpenUploads() {
+        return uploads.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Request request = new Request(exchange);
+            requests.computeIfAbsent(request.operation(), o -> new AtomicInteger()).incrementAndGet();
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (shouldFail()) {
+                drain(exchange.getRequestBody());
+                sendError(exchange, injectedResponseCode, injectedResponseCode == 503 ? "ServiceUnavailable"
+                        : "InternalError", "Injected failure");
+                return;
+            }
+            dispatch(exchange, request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ObsError e) {
+            sendError(exchange, e.status, e.code, e.getMessage());
+        } catch (Exception e) {
+            sendError(exchange, 500, "InternalError", String.valueOf(e));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean shouldFail() {
+        if (injectedFailures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            return true;
+        }
+        double rate = failureRate;
+        if (rate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    private void dispatch(HttpExchange exchange, Request request) throws IOException, InterruptedException {
+        String method = exchange.getRequestMethod();
+        if (request.bucket.isEmpty()) {
+            if (!method.equals("GET")) {
+                throw new ObsError(405, "MethodNotAllowed", "Unsupported " + method + " on the service");
+            }
+            listBuckets(exchange);
+            return;
+        }
+        if (request.key.isEmpty()) {
+            switch (method) {
+                case "GET":
+                    if (request.query.containsKey("uploads")) {
+                        listUploads(exchange, request);
+                    } else {
+                        listObjects(exchange, request);
+                    }
+                    return;
+                case "POST":
+                    if (!request.query.containsKey("delete")) {
+                        throw new ObsError(405, "MethodNotAllowed", "Unsupported POST on a bucket");
+                    }
+                    deleteObjects(exchange, request);
+                    return;
+                case "HEAD":
+                    storage.checkBucket(request.bucket);
+                    sendEmpty(exchange, 200);
+                    return;
+                case "PUT":
+                    storage.createBucket(request.bucket);
+                    sendEmpty(exchange, 200);
+                    return;
+                default:
+                    throw new ObsError(405, "MethodNotAllowed", "Unsupported " + method + " on a bucket");
+            }
+        }
+        String uploadId = request.query.get("uploadId");
+        switch (method) {
+            case "GET":
+                getObject(exchange, request);
+                return;
+            case "HEAD":
+                headObject(exchange, request);
+                return;
+            case "PUT":
+                if (request.copySource != null) {
+                    copy(exchange, request, uploadId);
+                } else if (uploadId != null) {
+                    uploadPart(exchange, request, uploadId);
+                } else {
+                    putObject(exchange, request);
+                }
+                return;
+            case "POST":
+                if (request.query.containsKey("uploads")) {
+                    initiateUpload(exchange, request);
+                } else if (uploadId != null) {
+                    completeUpload(exchange, request, uploadId);
+                } else {
+                    throw new ObsError(405, "MethodNotAllowed", "Unsupported POST on an object");
+                }
+                return;
+            case "DELETE":
+                if (uploadId != null) {
+                    getUpload(uploadId);
+                    uploads.remove(uploadId);
+                } else {
+                    storage.delete(request.bucket, request.key);
+                }
+                sendEmpty(exchange, 204);
+                return;
+            default:
+                throw new ObsError(405, "MethodNotAllowed", "Unsupported " + method + " on an object");
+        }
+    }
+
+    private void listBuckets(HttpExchange exchange) throws IOException, InterruptedException {
+        Xml xml = new Xml("ListAllMyBucketsResult").open("Owner").element("ID", "stand-in").close("Owner")
+                .open("Buckets");
+        for (String bucket : storage.buckets()) {
+            xml.open("Bucket").element("Name", bucket).element("CreationDate", isoDate(0L)).close("Bucket");
+        }
+        sendXml(exchange, 200, xml.close("Buckets").end());
+    }
+
+    private void listObjects(HttpExchange exchange, Request request) throws IOException, InterruptedException {
+        String prefix = request.query.getOrDefault("prefix", "");
+        String marker = request.query.get("marker");
+        String delimiter = request.query.get("delimiter");
+        int maxKeys = request.query.containsKey("max-keys") ? Integer.parseInt(request.query.get("max-keys")) : 1000;
+        maxKeys = Math.max(0, Math.min(1000, maxKeys));
+        storage.checkBucket(request.bucket);
+
+        List<StoredObject> contents = new ArrayList<>();
+        List<String> commonPrefixes = new ArrayList<>();
+        String last = null;
+        boolean truncated = false;
+        for (StoredObject object : storage.list(request.bucket, prefix, marker).values()) {
+            String key = object.key;
+            String commonPrefix = null;
+            if (delimiter != null && !delimiter.isEmpty()) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    commonPrefix = key.substring(0, index + delimiter.length());
+                }
+            }
+            if (commonPrefix != null && commonPrefix.equals(last)) {
+                continue;
+            }
+            // the common prefix of the marker was already returned in the previous page
+            if (commonPrefix != null && marker != null && marker.startsWith(commonPrefix)) {
+                continue;
+            }
+            if (contents.size() + commonPrefixes.size() == maxKeys) {
+                truncated = true;
+                break;
+            }
+            if (commonPrefix != null) {
+                commonPrefixes.add(commonPrefix);
+                last = commonPrefix;
+            } else {
+                contents.add(object);
+                last = key;
+            }
+        }
+
+        Xml xml = new Xml("ListBucketResult").element("Name", request.bucket).element("Prefix", prefix)
+                .element("Marker", marker == null ? "" : marker).element("MaxKeys", String.valueOf(maxKeys));
+        if (delimiter != null) {
+            xml.element("Delimiter", delimiter);
+        }
+        xml.element("IsTruncated", String.valueOf(truncated));
+        if (truncated && delimiter != null) {
+            xml.element("NextMarker", last);
+        }
+        for (StoredObject object : contents) {
+            xml.open("Contents").element("Key", object.key).element("LastModified", isoDate(object.lastModified))
+                    .element("ETag", object.etag).element("Size", String.valueOf(object.size))
+                    .open("Owner").element("ID", "stand-in").close("Owner")
+                    .element("StorageClass", "STANDARD").close("Contents");
+        }
+        for (String commonPrefix : commonPrefixes) {
+            xml.open("CommonPrefixes").element("Prefix", commonPrefix).close("CommonPrefixes");
+        }
+        sendXml(exchange, 200, xml.end());
+    }
+
+    private void getObject(HttpExchange exchange, Request request) throws IOException, InterruptedException {
+        StoredObject object = getObject(request);
+        long start = 0;
+        long end = object.size - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        boolean partial = false;
+        if (range != null) {
+            Matcher matcher = RANGE.matcher(range.trim());
+            if (matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                if (matcher.group(1).isEmpty()) {
+                    // the last bytes of the object
+                    start = Math.max(0, object.size - Long.parseLong(matcher.group(2)));
+                } else {
+                    start = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) {
+                        end = Math.min(end, Long.parseLong(matcher.group(2)));
+                    }
+                }
+                if (start >= object.size || start > end) {
+                    throw new ObsError(416, "InvalidRange", "The requested range cannot be satisfied");
+                }
+                partial = true;
+            }
+        }
+        long length = end - start + 1;
+        Headers headers = exchange.getResponseHeaders();
+        setObjectHeaders(headers, object);
+        if (partial) {
+            headers.add("Content-Range", "bytes " + start + "-" + end + "/" + object.size);
+        }
+        exchange.sendResponseHeaders(partial ? 206 : 200, length == 0 ? -1 : length);
+        if (length > 0) {
+            try (InputStream in = storage.open(request.bucket, request.key, start, length);
+                 OutputStream out = exchange.getResponseBody()) {
+                bytesRead.addAndGet(copy(in, out));
+            }
+        }
+    }
+
+    private void headObject(HttpExchange exchange, Request request) throws IOException {
+        StoredObject object = getObject(request);
+        setObjectHeaders(exchange.getResponseHeaders(), object);
+        exchange.getResponseHeaders().add("Content-Length", String.valueOf(object.size));
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void putObject(HttpExchange exchange, Request request) throws IOException, InterruptedException {
+        storage.checkBucket(request.bucket);
+        StoredObject object = storage.put(request.bucket, request.key, new CountingInputStream(
+                new ThrottledInputStream(exchange.getRequestBody()), bytesWritten));
+        exchange.getResponseHeaders().add("ETag", object.etag);
+        sendEmpty(exchange, 200);
+    }
+
+    /**
+     * Copies an object, or a range of it to a part of a multipart upload.
+     */
+    private void copy(HttpExchange exchange, Request request, String uploadId) throws IOException, InterruptedException {
+        drain(exchange.getRequestBody());
+        String source = request.copySource.startsWith("/") ? request.copySource.substring(1) : request.copySource;
+        int slash = source.indexOf('/');
+        if (slash <= 0) {
+            throw new ObsError(400, "InvalidArgument", "Invalid copy source " + request.copySource);
+        }
+        String sourceBucket = source.substring(0, slash);
+        String sourceKey = source.substring(slash + 1);
+        storage.checkBucket(sourceBucket);
+        StoredObject object = storage.get(sourceBucket, sourceKey);
+        if (object == null) {
+            throw new ObsError(404, "NoSuchKey", "The specified key does not exist");
+        }
+        if (uploadId == null) {
+            storage.checkBucket(request.bucket);
+            StoredObject copy;
+            try (InputStream in = storage.open(sourceBucket, sourceKey, 0, object.size)) {
+                copy = storage.put(request.bucket, request.key, in);
+            }
+            sendXml(exchange, 200, new Xml("CopyObjectResult").element("LastModified", isoDate(copy.lastModified))
+                    .element("ETag", copy.etag).end());
+            return;
+        }
+        Upload upload = getUpload(uploadId);
+        long start = 0;
+        long end = object.size - 1;
+        String range = request.header("copy-source-range");
+        if (range != null) {
+            Matcher matcher = RANGE.matcher(range.trim());
+            if (!matcher.matches() || matcher.group(1).isEmpty() || matcher.group(2).isEmpty()) {
+                throw new ObsError(400, "InvalidArgument", "Invalid copy source range " + range);
+            }
+            start = Long.parseLong(matcher.group(1));
+            end = Long.parseLong(matcher.group(2));
+            if (start > end || end >= object.size) {
+                throw new ObsError(416, "InvalidRange", "The requested range cannot be satisfied");
+            }
+        }
+        byte[] content;
+        try (InputStream in = storage.open(sourceBucket, sourceKey, start, end - start + 1)) {
+            content = readAll(in);
+        }
+        String etag = etag(md5(content));
+        upload.parts.put(Integer.parseInt(request.query.get("partNumber")), new Part(content, etag));
+        sendXml(exchange, 200, new Xml("CopyPartResult").element("LastModified", isoDate(System.currentTimeMillis()))
+                .element("ETag", etag).end());
+    }
+
+    private void deleteObjects(HttpExchange exchange, Request request) throws IOException, InterruptedException {
+        storage.checkBucket(request.bucket);
+        String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        Matcher matcher = Pattern.compile("<Key>([^<]*)</Key>").matcher(body);
+        boolean quiet = body.contains("<Quiet>true</Quiet>");
+        Xml xml = new Xml("DeleteResult");
+        while (matcher.find()) {
+            String key = unescape(matcher.group(1));
+            storage.delete(request.bucket, key);
+            if (!quiet) {
+                xml.open("Deleted").element("Key", key).close("Deleted");
+            }
+        }
+        sendXml(exchange, 200, xml.end());
+    }
+
+    private void listUploads(HttpExchange exchange, Request request) throws IOException, InterruptedException {
+        storage.checkBucket(request.bucket);
+        String prefix = request.query.getOrDefault("prefix", "");
+        Xml xml = new Xml("ListMultipartUploadsResult").element("Bucket", request.bucket).element("KeyMarker", "")
+                .element("UploadIdMarker", "").element("Prefix", prefix).element("MaxUploads", "1000")
+                .element("IsTruncated", "false");
+        for (Map.Entry<String, Upload> entry : uploads.entrySet()) {
+            Upload upload = entry.getValue();
+            if (upload.bucket.equals(request.bucket) && upload.key.startsWith(prefix)) {
+                xml.open("Upload").element("Key", upload.key).element("UploadId", entry.getKey())
+                        .element("Initiated", isoDate(upload.initiated)).element("StorageClass", "STANDARD")
+                        .close("Upload");
+            }
+        }
+        sendXml(exchange, 200, xml.end());
+    }
+
+    private void initiateUpload(HttpExchange exchange, Request request) throws IOException, InterruptedException {
+        storage.checkBucket(request.bucket);
+        String uploadId = UUID.randomUUID().toString().replace("-", "");
+        uploads.put(uploadId, new Upload(request.bucket, request.key));
+        sendXml(exchange, 200, new Xml("InitiateMultipartUploadResult").element("Bucket", request.bucket)
+                .element("Key", request.key).element("UploadId", uploadId).end());
+    }
+
+    private void uploadPart(HttpExchange exchange, Request request, String uploadId)
+            throws IOException, InterruptedException {
+        Upload upload = getUpload(uploadId);
+        int partNumber = Integer.parseInt(request.query.get("partNumber"));
+        byte[] content = readAll(new CountingInputStream(new ThrottledInputStream(exchange.getRequestBody()),
+                bytesWritten));
+        String etag = etag(md5(content));
+        upload.parts.put(partNumber, new Part(content, etag));
+        exchange.getResponseHeaders().add("ETag", etag);
+        sendEmpty(exchange, 200);
+    }
+
+    private void completeUpload(HttpExchange exchange, Request request, String uploadId)
+            throws IOException, InterruptedException {
+        Upload upload = getUpload(uploadId);
+        String body = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        Matcher matcher = Pattern.compile("<PartNumber>(\\d+)</PartNumber>\\s*<ETag>([^<]*)</ETag>").matcher(body);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream digests = new ByteArrayOutputStream();
+        int parts = 0;
+        int previous = 0;
+        while (matcher.find()) {
+            int partNumber = Integer.parseInt(matcher.group(1));
+            Part part = upload.parts.get(partNumber);
+            if (part == null || partNumber <= previous || !unquote(part.etag).equals(unquote(unescape(
+                    matcher.group(2))))) {
+                throw new ObsError(400, "InvalidPart", "Invalid part " + partNumber);
+            }
+            content.write(part.content);
+            digests.write(md5(part.content));
+            previous = partNumber;
+            parts++;
+        }
+        if (parts == 0) {
+            throw new ObsError(400, "MalformedXML", "The upload has no part");
+        }
+        uploads.remove(uploadId);
+        StoredObject object = storage.put(upload.bucket, upload.key, new ByteArrayInputStream(content.toByteArray()));
+        String etag = "\"" + hex(md5(digests.toByteArray())) + "-" + parts + "\"";
+        storage.setEtag(upload.bucket, upload.key, object, etag);
+        sendXml(exchange, 200, new Xml("CompleteMultipartUploadResult").element("Location", "/" + upload.bucket
+                + "/" + upload.key).element("Bucket", upload.bucket).element("Key", upload.key)
+                .element("ETag", etag).end());
+    }
+
+    private StoredObject getObject(Request request) throws IOException {
+        storage.checkBucket(request.bucket);
+        StoredObject object = storage.get(request.bucket, request.key);
+        if (object == null) {
+            throw new ObsError(404, "NoSuchKey", "The specified key does not exist");
+        }
+        return object;
+    }
+
+    private Upload getUpload(String uploadId) {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw new ObsError(404, "NoSuchUpload", "The specified upload does not exist");
+        }
+        return upload;
+    }
+
+    private static void setObjectHeaders(Headers headers, StoredObject object) {
+        headers.add("ETag", object.etag);
+        headers.add("Last-Modified", httpDate(object.lastModified));
+        headers.add("Content-Type", "application/octet-stream");
+        headers.add("Accept-Ranges", "bytes");
+    }
+
+    private void sendXml(HttpExchange exchange, int status, String xml) throws IOException, InterruptedException {
+        byte[] content = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            copy(new ByteArrayInputStream(content), out);
+        }
+    }
+
+    private static void sendEmpty(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private void sendError(HttpExchange exchange, int status, String code, String message) {
+        try {
+            String xml = new Xml("Error").element("Code", code).element("Message", message)
+                    .element("RequestId", "stand-in").element("HostId", "stand-in").end();
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                sendEmpty(exchange, status);
+            } else {
+                sendXml(exchange, status, xml);
+            }
+        } catch (IOException e) {
+            // the client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copies the bytes, taking as long as the bandwidth of the connection says it would take.
+     */
+    private long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        long started = System.nanoTime();
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+            copied += read;
+            throttle(started, copied);
+        }
+        return copied;
+    }
+
+    private void throttle(long started, long bytes) throws InterruptedIOException {
+        long bandwidth = bytesPerSecondPerConnection;
+        if (bandwidth <= 0) {
+            return;
+        }
+        long wait = bytes * 1000L / bandwidth - (System.nanoTime() - started) / 1000000L;
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+    }
+
+    private static byte[] md5(byte[] content) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String etag(byte[] digest) {
+        return "\"" + hex(digest) + "\"";
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static String unquote(String etag) {
+        return etag.replace("\"", "");
+    }
+
+    private static String unescape(String xml) {
+        return xml.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    private static String isoDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    /**
+     * An object as listed by the server.
+     */
+    public static final class StoredObject {
+        private final String key;
+        private final long size;
+        private final long lastModified;
+        private final String etag;
+
+        private StoredObject(String key, long size, long lastModified, String etag) {
+            this.key = key;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    /**
+     * The bucket, key and query of a request, the bucket being the first segment of the path.
+     */
+    private static final class Request {
+        private final String bucket;
+        private final String key;
+        private final Map<String, String> query = new HashMap<>();
+        private final String method;
+        private final Headers headers;
+        private final String copySource;
+
+        private Request(HttpExchange exchange) throws UnsupportedEncodingException {
+            method = exchange.getRequestMethod();
+            headers = exchange.getRequestHeaders();
+            String path = exchange.getRequestURI().getPath();
+            path = path.startsWith("/") ? path.substring(1) : path;
+            int slash = path.indexOf('/');
+            bucket = slash < 0 ? path : path.substring(0, slash);
+            key = slash < 0 ? "" : path.substring(slash + 1);
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            if (rawQuery != null) {
+                for (String parameter : rawQuery.split("&")) {
+                    int equals = parameter.indexOf('=');
+                    String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), "UTF-8");
+                    String value = equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+                    query.put(name, value);
+                }
+            }
+            String source = header("copy-source");
+            copySource = source == null ? null : URLDecoder.decode(source, "UTF-8");
+        }
+
+        /**
+         * @return the header with the Obs or the S3 compatible prefix, depending on the signature of the client
+         */
+        private String header(String name) {
+            String value = headers.getFirst("x-obs-" + name);
+            return value == null ? headers.getFirst("x-amz-" + name) : value;
+        }
+
+        private String operation() {
+            if (bucket.isEmpty()) {
+                return "buckets";
+            }
+            if (query.containsKey("uploads") || query.containsKey("uploadId")) {
+                return copySource == null ? "multipart" : "copy";
+            }
+            if (copySource != null) {
+                return "copy";
+            }
+            if (query.containsKey("delete")) {
+                return "delete";
+            }
+            if (key.isEmpty()) {
+                return method.equals("GET") ? "list" : "bucket";
+            }
+            return method.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Error response of a request.
+     */
+    private static final class ObsError extends RuntimeException {
+        private final int status;
+        private final String code;
+
+        private ObsError(int status, String code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+    }
+
+    /**
+     * Builds the small xml documents of the responses.
+     */
+    private static final class Xml {
+        private final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        private final String root;
+
+        private Xml(String root) {
+            this.root = root;
+            xml.append('<').append(root).append(" xmlns=\"").append(NAMESPACE).append("\">");
+        }
+
+        private Xml open(String name) {
+            xml.append('<').append(name).append('>');
+            return this;
+        }
+
+        private Xml close(String name) {
+            xml.append("</").append(name).append('>');
+            return this;
+        }
+
+        private Xml element(String name, String value) {
+            return open(name).text(value).close(name);
+        }
+
+        private Xml text(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '<':
+                        xml.append("&lt;");
+                        break;
+                    case '>':
+                        xml.append("&gt;");
+                        break;
+                    case '&':
+                        xml.append("&amp;");
+                        break;
+                    case '"':
+                        xml.append("&quot;");
+                        break;
+                    default:
+                        xml.append(c);
+                }
+            }
+            return this;
+        }
+
+        private String end() {
+            return close(root).xml.toString();
+        }
+    }
+
+    /**
+     * A multipart upload in progress.
+     */
+    private static final class Upload {
+        private final String bucket;
+        private final String key;
+        private final Map<Integer, Part> parts = new ConcurrentHashMap<>();
+        private final long initiated = System.currentTimeMillis();
+
+        private Upload(String bucket, String key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+    }
+
+    /**
+     * An uploaded part.
+     */
+    private static final class Part {
+        private final byte[] content;
+        private final String etag;
+
+        private Part(byte[] content, String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * Reads a request body at the bandwidth of the connection.
+     */
+    private final class ThrottledInputStream extends InputStream {
+        private final InputStream in;
+        private final long started = System.nanoTime();
+        private long read;
+
+        private ThrottledInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            if (n > 0) {
+                read += n;
+                throttle(started, read);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static final class CountingInputStream extends InputStream {
+        private final InputStream in;
+        private final AtomicLong count;
+
+        private CountingInputStream(InputStream in, AtomicLong count) {
+            this.in = in;
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Where the objects are kept.
+     */
+    private interface Storage {
+        void createBucket(String bucket) throws IOException;
+
+        /**
+         * @throws ObsError if the bucket does not exist
+         */
+        void checkBucket(String bucket) throws IOException;
+
+        List<String> buckets() throws IOException;
+
+        /**
+         * @return the objects whose key starts with the prefix and comes after the marker, sorted by key
+         */
+        NavigableMap<String, StoredObject> list(String bucket, String prefix, String marker) throws IOException;
+
+        StoredObject get(String bucket, String key) throws IOException;
+
+        InputStream open(String bucket, String key, long start, long length) throws IOException;
+
+        StoredObject put(String bucket, String key, InputStream content) throws IOException;
+
+        void setEtag(String bucket, String key, StoredObject object, String etag) throws IOException;
+
+        void delete(String bucket, String key) throws IOException;
+    }
+
+    /**
+     * Keeps the objects in memory.
+     */
+    private static final class MemoryStorage implements Storage {
+        private final Map<String, NavigableMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+        private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+
+        @Override
+        public void createBucket(String bucket) {
+            buckets.computeIfAbsent(bucket, b -> new ConcurrentSkipListMap<>());
+        }
+
+        @Override
+        public void checkBucket(String bucket) {
+            getBucket(bucket);
+        }
+
+        @Override
+        public List<String> buckets() {
+            List<String> names = new ArrayList<>(buckets.keySet());
+            names.sort(null);
+            return names;
+        }
+
+        @Override
+        public NavigableMap<String, StoredObject> list(String bucket, String prefix, String marker) {
+            NavigableMap<String, StoredObject> objects = getBucket(bucket);
+            NavigableMap<String, StoredObject> tail = marker != null && marker.compareTo(prefix) >= 0
+                    ? objects.tailMap(marker, false) : objects.tailMap(prefix, true);
+            NavigableMap<String, StoredObject> result = new ConcurrentSkipListMap<>();
+            for (Map.Entry<String, StoredObject> entry : tail.entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                result.put(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }
+
+        @Override
+        public StoredObject get(String bucket, String key) {
+            return getBucket(bucket).get(key);
+        }
+
+        @Override
+        public InputStream open(String bucket, String key, long start, long length) throws IOException {
+            byte[] content = contents.get(bucket + "/" + key);
+            if (content == null) {
+                throw new ObsError(404, "NoSuchKey", "The specified key does not exist");
+            }
+            return new ByteArrayInputStream(content, (int) start, (int) length);
+        }
+
+        @Override
+        public StoredObject put(String bucket, String key, InputStream content) throws IOException {
+            byte[] bytes = readAll(content);
+            StoredObject object = new StoredObject(key, bytes.length, System.currentTimeMillis(), etag(md5(bytes)));
+            contents.put(bucket + "/" + key, bytes);
+            getBucket(bucket).put(key, object);
+            return object;
+        }
+
+        @Override
+        public void setEtag(String bucket, String key, StoredObject object, String etag) {
+            getBucket(bucket).put(key, new StoredObject(key, object.size, object.lastModified, etag));
+        }
+
+        @Override
+        public void delete(String bucket, String key) {
+            getBucket(bucket).remove(key);
+            contents.remove(bucket + "/" + key);
+        }
+
+        private NavigableMap<String, StoredObject> getBucket(String bucket) {
+            NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+            if (objects == null) {
+                throw new ObsError(404, "NoSuchBucket", "The specified bucket does not exist");
+            }
+            return objects;
+        }
+    }
+
+    /**
+     * Keeps the objects in the files of a directory, each bucket being a sub-directory. The keys ending with '/'
+     * are directories, listed as objects while they are empty. The ETag of a file is computed when it is listed.
+     */
+    private static final class DirectoryStorage implements Storage {
+        private final File root;
+        private final Map<String, StoredObject> etags = new ConcurrentHashMap<>();
+
+        private DirectoryStorage(File root) throws IOException {
+            this.root = root;
+            Files.createDirectories(root.toPath());
+        }
+
+        @Override
+        public void createBucket(String bucket) throws IOException {
+            Files.createDirectories(new File(root, bucket).toPath());
+        }
+
+        @Override
+        public void checkBucket(String bucket) {
+            if (!new File(root, bucket).isDirectory()) {
+                throw new ObsError(404, "NoSuchBucket", "The specified bucket does not exist");
+            }
+        }
+
+        @Override
+        public List<String> buckets() {
+            List<String> names = new ArrayList<>();
+            File[] files = root.listFiles(File::isDirectory);
+            if (files != null) {
+                for (File file : files) {
+                    names.add(file.getName());
+                }
+            }
+            names.sort(null);
+            return names;
+        }
+
+        @Override
+        public NavigableMap<String, StoredObject> list(String bucket, String prefix, String marker)
+                throws IOException {
+            checkBucket(bucket);
+            Path bucketPath = new File(root, bucket).toPath();
+            NavigableMap<String, StoredObject> result = new ConcurrentSkipListMap<>();
+            try (Stream<Path> paths = Files.walk(bucketPath)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    if (path.equals(bucketPath)) {
+                        continue;
+                    }
+                    File file = path.toFile();
+                    String key = bucketPath.relativize(path).toString().replace(File.separatorChar, '/');
+                    String[] children = file.list();
+                    if (file.isDirectory() && (children == null || children.length > 0)) {
+                        continue;
+                    }
+                    key = file.isDirectory() ? key + "/" : key;
+                    if (key.startsWith(prefix) && (marker == null || key.compareTo(marker) > 0)) {
+                        result.put(key, toObject(key, file));
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public StoredObject get(String bucket, String key) throws IOException {
+            File file = getFile(bucket, key);
+            if (!file.exists() || file.isDirectory() != key.endsWith("/")) {
+                return null;
+            }
+            return toObject(key, file);
+        }
+
+        @Override
+        public InputStream open(String bucket, String key, long start, long length) throws IOException {
+            File file = getFile(bucket, key);
+            if (file.isDirectory()) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            FileInputStream in = new FileInputStream(file);
+            long skipped = 0;
+            while (skipped < start) {
+                skipped += in.skip(start - skipped);
+            }
+            return new InputStream() {
+                private long remaining = length;
+
+                @Override
+                public int read() throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    remaining--;
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int n = in.read(buffer, offset, (int) Math.min(count, remaining));
+                    if (n > 0) {
+                        remaining -= n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                }
+            };
+        }
+
+        @Override
+        public StoredObject put(String bucket, String key, InputStream content) throws IOException {
+            File file = getFile(bucket, key);
+            if (key.endsWith("/")) {
+                drain(content);
+                Files.createDirectories(file.toPath());
+                return toObject(key, file);
+            }
+            Files.createDirectories(file.getParentFile().toPath());
+            File temporary = new File(file.getParentFile(), "." + file.getName() + "." + UUID.randomUUID());
+            try (OutputStream out = new FileOutputStream(temporary)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = content.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return toObject(key, file);
+        }
+
+        @Override
+        public void setEtag(String bucket, String key, StoredObject object, String etag) {
+            etags.put(bucket + "/" + key, new StoredObject(key, object.size, object.lastModified, etag));
+        }
+
+        @Override
+        public void delete(String bucket, String key) throws IOException {
+            File file = getFile(bucket, key);
+            etags.remove(bucket + "/" + key);
+            if (file.exists() && file.isDirectory() == key.endsWith("/")) {
+                Files.delete(file.toPath());
+            }
+        }
+
+        private File getFile(String bucket, String key) {
+            checkBucket(bucket);
+            File bucketDirectory = new File(root, bucket);
+            File file = new File(bucketDirectory, key);
+            if (!file.toPath().normalize().startsWith(bucketDirectory.toPath().normalize())) {
+                throw new ObsError(400, "InvalidArgument", "Invalid key " + key);
+            }
+            return file;
+        }
+
+        /**
+         * Computes the ETag of the file, or takes the one of the multipart upload that wrote it.
+         */
+        private StoredObject toObject(String key, File file) throws IOException {
+            String bucketKey = root.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/')
+                    + (file.isDirectory() ? "/" : "");
+            long size = file.isDirectory() ? 0L : file.length();
+            long lastModified = file.lastModified();
+            StoredObject cached = etags.get(bucketKey);
+            if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+                return cached;
+            }
+            byte[] content = file.isDirectory() ? new byte[0] : Files.readAllBytes(file.toPath());
+            StoredObject object = new StoredObject(key, size, lastModified, etag(md5(content)));
+            etags.put(bucketKey, object);
+            return object;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.ObsClient;
+import com.obs.services.ObsConfiguration;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.CompleteMultipartUploadRequest;
+import com.obs.services.model.CopyPartRequest;
+import com.obs.services.model.CopyPartResult;
+import com.obs.services.model.DeleteObjectsRequest;
+import com.obs.services.model.GetObjectRequest;
+import com.obs.services.model.InitiateMultipartUploadRequest;
+import com.obs.services.model.ListMultipartUploadsRequest;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObsObject;
+import com.obs.services.model.PartEtag;
+import com.obs.services.model.UploadPartRequest;
+import com.obs.services.model.UploadPartResult;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ObsStandInServerTest {
+    private static final String BUCKET = "stand-in-test";
+
+    private ObsStandInServer server;
+    private ObsClient obsClient;
+
+    @Before
+    public void setup() throws IOException {
+        server = ObsStandInServer.inMemory();
+        server.createBucket(BUCKET);
+        obsClient = new ObsClient("access", "secret", server.getEndpoint());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        obsClient.close();
+        server.close();
+    }
+
+    @Test
+    public void testList() throws IOException {
+        for (String key : Arrays.asList("data/a.csv", "data/b/1.csv", "data/b/2.csv", "data/c/3.csv", "data/d.csv",
+                "other.csv")) {
+            obsClient.putObject(BUCKET, key, new ByteArrayInputStream(key.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        ListObjectsRequest request = new ListObjectsRequest(BUCKET);
+        request.setPrefix("data/");
+        request.setDelimiter("/");
+        request.setMaxKeys(2);
+        List<String> keys = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        int pages = 0;
+        ObjectListing listing;
+        do {
+            listing = obsClient.listObjects(request);
+            for (ObsObject object : listing.getObjects()) {
+                keys.add(object.getObjectKey());
+            }
+            prefixes.addAll(listing.getCommonPrefixes());
+            request.setMarker(listing.getNextMarker());
+            pages++;
+        } while (listing.isTruncated());
+        Assert.assertEquals(Arrays.asList("data/a.csv", "data/d.csv"), keys);
+        Assert.assertEquals(Arrays.asList("data/b/", "data/c/"), prefixes);
+        Assert.assertEquals(2, pages);
+        Assert.assertEquals(2, server.getRequests("list"));
+
+        // without the delimiter the marker is the last key
+        listing = obsClient.listObjects(new ListObjectsRequest(BUCKET, "data/b", "data/b/1.csv", null, 1000));
+        Assert.assertEquals(1, listing.getObjects().size());
+        ObsObject object = listing.getObjects().get(0);
+        Assert.assertEquals("data/b/2.csv", object.getObjectKey());
+        Assert.assertEquals(Long.valueOf(12L), object.getMetadata().getContentLength());
+        Assert.assertEquals(server.listObjects(BUCKET, "data/b/2.csv").get(0).getEtag(),
+                "\"" + object.getMetadata().getEtag().replace("\"", "") + "\"");
+
+        try {
+            obsClient.listObjects("missing-bucket");
+            Assert.fail("List should fail");
+        } catch (ObsException e) {
+            Assert.assertEquals(404, e.getResponseCode());
+            Assert.assertEquals("NoSuchBucket", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testGetRange() throws IOException {
+        byte[] content = "0123456789".getBytes(StandardCharsets.UTF_8);
+        server.putObject(BUCKET, "digits", content);
+
+        Assert.assertEquals("0123456789", get(new GetObjectRequest(BUCKET, "digits")));
+        GetObjectRequest request = new GetObjectRequest(BUCKET, "digits");
+        request.setRangeStart(2L);
+        request.setRangeEnd(4L);
+        Assert.assertEquals("234", get(request));
+        request.setRangeEnd(100L);
+        Assert.assertEquals("23456789", get(request));
+        Assert.assertEquals(21L, server.getBytesRead());
+
+        ObjectMetadata metadata = obsClient.getObjectMetadata(BUCKET, "digits");
+        Assert.assertEquals(Long.valueOf(10L), metadata.getContentLength());
+        Assert.assertEquals(1, server.getRequests("head"));
+
+        request.setRangeStart(10L);
+        try {
+            get(request);
+            Assert.fail("Get should fail");
+        } catch (ObsException e) {
+            Assert.assertEquals(416, e.getResponseCode());
+        }
+        try {
+            obsClient.getObjectMetadata(BUCKET, "missing");
+            Assert.fail("Head should fail");
+        } catch (ObsException e) {
+            Assert.assertEquals(404, e.getResponseCode());
+        }
+    }
+
+    @Test
+    public void testMultipartUpload() throws IOException {
+        String uploadId = obsClient.initiateMultipartUpload(new InitiateMultipartUploadRequest(BUCKET, "big"))
+                .getUploadId();
+        Assert.assertEquals(1, server.getOpenUploads());
+        List<PartEtag> etags = new ArrayList<>();
+        for (int part = 1; part <= 3; part++) {
+            UploadPartRequest request = new UploadPartRequest(BUCKET, "big");
+            request.setUploadId(uploadId);
+            request.setPartNumber(part);
+            request.setInput(new ByteArrayInputStream(("part " + part + ";").getBytes(StandardCharsets.UTF_8)));
+            UploadPartResult result = obsClient.uploadPart(request);
+            etags.add(new PartEtag(result.getEtag(), part));
+        }
+        Assert.assertNull(server.getContent(BUCKET, "big"));
+
+        obsClient.completeMultipartUpload(new CompleteMultipartUploadRequest(BUCKET, "big", uploadId, etags));
+        Assert.assertEquals("part 1;part 2;part 3;", new String(server.getContent(BUCKET, "big"),
+                StandardCharsets.UTF_8));
+        Assert.assertEquals(0, server.getOpenUploads());
+        Assert.assertTrue(server.listObjects(BUCKET, "big").get(0).getEtag().endsWith("-3\""));
+        Assert.assertEquals(21L, server.getBytesWritten());
+    }
+
+    @Test
+    public void testCopyDelete() throws IOException {
+        server.putObject(BUCKET, "tmp/part-0", "0123456789".getBytes(StandardCharsets.UTF_8));
+
+        // the rename of the filesystem
+        obsClient.copyObject(BUCKET, "tmp/part-0", BUCKET, "out/part 0");
+        Assert.assertEquals("0123456789", new String(server.getContent(BUCKET, "out/part 0"), StandardCharsets.UTF_8));
+        Assert.assertEquals(1, server.getRequests("copy"));
+
+        String uploadId = obsClient.initiateMultipartUpload(new InitiateMultipartUploadRequest(BUCKET, "out/big"))
+                .getUploadId();
+        Assert.assertEquals(1, obsClient.listMultipartUploads(new ListMultipartUploadsRequest(BUCKET))
+                .getMultipartTaskList().size());
+        CopyPartRequest request = new CopyPartRequest(uploadId, BUCKET, "tmp/part-0", BUCKET, "out/big", 1);
+        request.setByteRangeStart(5L);
+        request.setByteRangeEnd(9L);
+        CopyPartResult result = obsClient.copyPart(request);
+        obsClient.completeMultipartUpload(new CompleteMultipartUploadRequest(BUCKET, "out/big", uploadId,
+                Arrays.asList(new PartEtag(result.getEtag(), 1))));
+        Assert.assertEquals("56789", new String(server.getContent(BUCKET, "out/big"), StandardCharsets.UTF_8));
+
+        DeleteObjectsRequest delete = new DeleteObjectsRequest(BUCKET);
+        delete.addKeyAndVersion("tmp/part-0");
+        delete.addKeyAndVersion("out/big");
+        Assert.assertEquals(2, obsClient.deleteObjects(delete).getDeletedObjectResults().size());
+        Assert.assertNull(server.getContent(BUCKET, "tmp/part-0"));
+        Assert.assertEquals(1, server.listObjects(BUCKET, "").size());
+    }
+
+    @Test
+    public void testDirectory() throws IOException {
+        File directory = Files.createTempDirectory("obs-stand-in").toFile();
+        File bucket = new File(directory, BUCKET);
+        Assert.assertTrue(new File(bucket, "data").mkdirs());
+        Files.write(new File(bucket, "data/existing.txt").toPath(), "existing".getBytes(StandardCharsets.UTF_8));
+        try (ObsStandInServer directoryServer = ObsStandInServer.onDirectory(directory)) {
+            ObsClient client = new ObsClient("access", "secret", directoryServer.getEndpoint());
+            Assert.assertEquals("existing", read(client.getObject(BUCKET, "data/existing.txt").getObjectContent()));
+            client.putObject(BUCKET, "data/new.txt", new ByteArrayInputStream(new byte[]{'n'}));
+            client.putObject(BUCKET, "empty/", new ByteArrayInputStream(new byte[0]));
+            Assert.assertEquals("n", new String(Files.readAllBytes(new File(bucket, "data/new.txt").toPath()),
+                    StandardCharsets.UTF_8));
+
+            List<String> keys = new ArrayList<>();
+            for (ObsObject object : client.listObjects(BUCKET).getObjects()) {
+                keys.add(object.getObjectKey());
+            }
+            Assert.assertEquals(Arrays.asList("data/existing.txt", "data/new.txt", "empty/"), keys);
+            client.close();
+        }
+    }
+
+    @Test
+    public void testInjection() throws IOException {
+        server.putObject(BUCKET, "key", new byte[256 * 1024]);
+
+        // retried by the client
+        server.failNextRequests(1, 503);
+        Assert.assertEquals(Long.valueOf(256 * 1024L), obsClient.getObjectMetadata(BUCKET, "key").getContentLength());
+        Assert.assertEquals(2, server.getRequests("head"));
+
+        ObsConfiguration configuration = new ObsConfiguration();
+        configuration.setEndPoint(server.getEndpoint());
+        configuration.setMaxErrorRetry(0);
+        ObsClient noRetryClient = new ObsClient("access", "secret", configuration);
+        server.failNextRequests(1, 503);
+        try {
+            noRetryClient.getObjectMetadata(BUCKET, "key");
+            Assert.fail("Head should fail");
+        } catch (ObsException e) {
+            Assert.assertEquals(503, e.getResponseCode());
+        } finally {
+            noRetryClient.close();
+        }
+
+        server.setLatencyMillis(100);
+        long started = System.currentTimeMillis();
+        obsClient.getObjectMetadata(BUCKET, "key");
+        Assert.assertTrue(System.currentTimeMillis() - started >= 100);
+        server.setLatencyMillis(0);
+
+        // 256KB at 1MB/s
+        server.setBytesPerSecondPerConnection(1024 * 1024);
+        started = System.currentTimeMillis();
+        read(obsClient.getObject(BUCKET, "key").getObjectContent());
+        Assert.assertTrue(System.currentTimeMillis() - started >= 250);
+    }
+
+    private String get(GetObjectRequest request) throws IOException {
+        return read(obsClient.getObject(request).getObjectContent());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.common;
+
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObsObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+public class ObsWatermarkTest {
+
+    private static final String BUCKET = "watermark-test";
+    private static final String STATE_KEY = "state/pipeline.json";
+
+    private FakeObsClient obsClient;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLoadMissing() throws IOException {
+        Assert.assertNull(ObsWatermark.load(obsClient, BUCKET, STATE_KEY));
+    }
+
+    @Test
+    public void testStoreAndLoad() throws IOException {
+        ObsWatermark watermark = new ObsWatermark(1634567890123L, "landing/2021/10/18/\"file\":1.json");
+        watermark.store(obsClient, BUCKET, STATE_KEY);
+        Assert.assertEquals(watermark, ObsWatermark.load(obsClient, BUCKET, STATE_KEY));
+
+        ObsWatermark next = new ObsWatermark(1634567899999L, "landing/2021/10/18/file-2.json");
+        next.store(obsClient, BUCKET, STATE_KEY);
+        Assert.assertEquals(next, ObsWatermark.load(obsClient, BUCKET, STATE_KEY));
+    }
+
+    @Test
+    public void testFormatAndParse() {
+        ObsWatermark watermark = new ObsWatermark(42L, "a:b/c");
+        Assert.assertEquals(watermark, ObsWatermark.parse(watermark.format()));
+        ObsWatermark withRecentKeys = new ObsWatermark(42L, "a:b/c", Arrays.asList("a:b/a", "a:b/c"));
+        Assert.assertEquals(withRecentKeys, ObsWatermark.parse(withRecentKeys.format()));
+        Assert.assertNotEquals(watermark, withRecentKeys);
+    }
+
+    @Test
+    public void testLoadWithoutRecentKeys() throws IOException {
+        obsClient.putObject(BUCKET, STATE_KEY,
+                "{\"lastModified\":42,\"lastKey\":\"data/a\"}".getBytes(StandardCharsets.UTF_8));
+        ObsWatermark watermark = ObsWatermark.load(obsClient, BUCKET, STATE_KEY);
+        Assert.assertEquals(new ObsWatermark(42L, "data/a"), watermark);
+        Assert.assertEquals(Collections.emptySet(), watermark.getRecentKeys());
+    }
+
+    @Test
+    public void testOrder() {
+        ObsWatermark watermark = new ObsWatermark(1000L, "data/b");
+        Assert.assertTrue(watermark.isBefore(1001L, "data/a"));
+        // same modification time, ordered by key
+        Assert.assertTrue(watermark.isBefore(1000L, "data/c"));
+        Assert.assertFalse(watermark.isBefore(1000L, "data/b"));
+        Assert.assertFalse(watermark.isBefore(1000L, "data/a"));
+        Assert.assertFalse(watermark.isBefore(999L, "data/z"));
+    }
+
+    @Test
+    public void testLatest() throws IOException {
+        Assert.assertNull(latest("data/", true, null, null));
+
+        obsClient.putEmptyObject(BUCKET, "data/a", 1000L);
+        obsClient.putEmptyObject(BUCKET, "data/b", 3000L);
+        obsClient.putEmptyObject(BUCKET, "data/c", 2000L);
+        obsClient.putEmptyObject(BUCKET, "data/sub/d", 5000L);
+        obsClient.putEmptyObject(BUCKET, "other/e", 9000L);
+
+        Assert.assertEquals(new ObsWatermark(5000L, "data/sub/d"), latest("data/", true, null, null));
+        Assert.assertEquals(new ObsWatermark(3000L, "data/b"), latest("data/", false, null, null));
+        // the directory without the trailing slash, and a single object
+        Assert.assertEquals(new ObsWatermark(5000L, "data/sub/d"), latest("data", true, null, null));
+        Assert.assertEquals(new ObsWatermark(2000L, "data/c"), latest("data/c", true, null, null));
+
+        // nothing after the previous watermark
+        ObsWatermark previous = new ObsWatermark(6000L, "data/x");
+        Assert.assertSame(previous, latest("data/", true, null, previous));
+    }
+
+    @Test
+    public void testLatestKeepsTheRecentKeys() throws IOException {
+        obsClient.putEmptyObject(BUCKET, "data/a", 1000L);
+        obsClient.putEmptyObject(BUCKET, "data/b", 2000L);
+        obsClient.putEmptyObject(BUCKET, "data/c", 2500L);
+        obsClient.putEmptyObject(BUCKET, "data/d", 3000L);
+
+        Assert.assertEquals(new ObsWatermark(3000L, "data/d", Arrays.asList("data/c", "data/d")),
+                latest("data/", true, null, null, 1000L));
+        ObsWatermark previous = latest("data/", true, null, null, 1000L);
+        Assert.assertSame(previous, latest("data/", true, null, previous, 1000L));
+        // listed after the previous watermark was taken, within its lookback
+        obsClient.putEmptyObject(BUCKET, "data/e", 2900L);
+        Assert.assertEquals(new ObsWatermark(3000L, "data/d", Arrays.asList("data/c", "data/d", "data/e")),
+                latest("data/", true, null, previous, 1000L));
+    }
+
+    @Test
+    public void testLatestFiltersLikeTheInputFormat() throws IOException {
+        obsClient.putEmptyObject(BUCKET, "data/a.csv", 1000L);
+        obsClient.putEmptyObject(BUCKET, "data/b.csv", 2000L);
+        obsClient.putEmptyObject(BUCKET, "data/c.json", 3000L);
+        obsClient.putEmptyObject(BUCKET, "data/_SUCCESS", 4000L);
+        obsClient.putEmptyObject(BUCKET, "data/.staging/d.csv", 5000L);
+        obsClient.putEmptyObject(BUCKET, "data/_temporary/0/e.csv", 6000L);
+        obsClient.putEmptyObject(BUCKET, "data/sub_$folder$", 7000L);
+
+        Assert.assertEquals(new ObsWatermark(3000L, "data/c.json"), latest("data/", true, null, null));
+        Assert.assertEquals(new ObsWatermark(2000L, "data/b.csv"),
+                latest("data/", true, Pattern.compile(".*\\.csv"), null));
+    }
+
+    @Test
+    public void testLatestPaginates() throws IOException {
+        for (int i = 0; i < 2500; i++) {
+            obsClient.putEmptyObject(BUCKET, String.format("data/file-%05d", i), 1000L + (i * 7919L) % 2500);
+        }
+        ObsWatermark latest = latest("data/", true, null, null);
+        Assert.assertEquals(3499L, latest.getLastModified());
+        Assert.assertTrue(obsClient.getListRequests() >= 3);
+    }
+
+    @Test
+    public void testIncrementalRuns() throws IOException {
+        obsClient.putEmptyObject(BUCKET, "data/1", 1000L);
+        obsClient.putEmptyObject(BUCKET, "data/2", 2000L);
+        Assert.assertEquals(Arrays.asList("data/1", "data/2"), run());
+
+        // same modification time as the watermark but a later key, and a newer object
+        obsClient.putEmptyObject(BUCKET, "data/3", 2000L);
+        obsClient.putEmptyObject(BUCKET, "data/0", 4000L);
+        Assert.assertEquals(Arrays.asList("data/0", "data/3"), run());
+
+        Assert.assertEquals(new ArrayList<>(), run());
+    }
+
+    @Test
+    public void testIncrementalRunsWithLookback() throws IOException {
+        obsClient.putEmptyObject(BUCKET, "data/1", 1000L);
+        obsClient.putEmptyObject(BUCKET, "data/2", 2000L);
+        Assert.assertEquals(Arrays.asList("data/1", "data/2"), run(1500L));
+
+        // listed after data/2 although it was modified before, and a newer object
+        obsClient.putEmptyObject(BUCKET, "data/late", 1800L);
+        obsClient.putEmptyObject(BUCKET, "data/3", 3000L);
+        Assert.assertEquals(Arrays.asList("data/3", "data/late"), run(1500L));
+        Assert.assertEquals(new ArrayList<>(), run(1500L));
+
+        // too late for the lookback
+        obsClient.putEmptyObject(BUCKET, "data/older", 1000L);
+        Assert.assertEquals(new ArrayList<>(), run(1500L));
+    }
+
+    @Test
+    public void testIncrementalRunsWithoutLookback() throws IOException {
+        obsClient.putEmptyObject(BUCKET, "data/1", 1000L);
+        obsClient.putEmptyObject(BUCKET, "data/2", 2000L);
+        Assert.assertEquals(Arrays.asList("data/1", "data/2"), run());
+
+        obsClient.putEmptyObject(BUCKET, "data/late", 1800L);
+        obsClient.putEmptyObject(BUCKET, "data/3", 3000L);
+        Assert.assertEquals(Collections.singletonList("data/3"), run());
+    }
+
+    private List<String> run() throws IOException {
+        return run(0L);
+    }
+
+    /**
+     * Reads the objects between the stored watermark and the latest one, like the source and the input format do,
+     * and commits the watermark.
+     */
+    private List<String> run(long lookback) throws IOException {
+        ObsWatermark from = ObsWatermark.load(obsClient, BUCKET, STATE_KEY);
+        ObsWatermark to = latest("data/", true, null, from, lookback);
+        List<String> read = new ArrayList<>();
+        ListObjectsRequest request = new ListObjectsRequest(BUCKET);
+        request.setPrefix("data/");
+        for (ObsObject object : obsClient.listObjects(request).getObjects()) {
+            long modified = object.getMetadata().getLastModified().getTime();
+            if ((from == null || from.isReadAfter(modified, object.getObjectKey(), lookback))
+                    && to.isReadUpTo(modified, object.getObjectKey(), lookback)) {
+                read.add(object.getObjectKey());
+            }
+        }
+        if (to != null && !to.equals(from)) {
+            to.store(obsClient, BUCKET, STATE_KEY);
+        }
+        return read;
+    }
+
+    private ObsWatermark latest(String name, boolean recursive, Pattern filePattern, ObsWatermark from)
+            throws IOException {
+        return latest(name, recursive, filePattern, from, 0L);
+    }
+
+    private ObsWatermark latest(String name, boolean recursive, Pattern filePattern, ObsWatermark from,
+                                long lookback) throws IOException {
+        ObsPrefixLister lister = new ObsPrefixLister(obsClient, executor, 2);
+        return ObsWatermark.latest(lister, ObsPath.from("obs://" + BUCKET + "/" + name), recursive, filePattern,
+                from, lookback);
+    }
+}
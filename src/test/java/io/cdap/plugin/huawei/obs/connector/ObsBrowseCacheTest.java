@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.connector;
+
+import io.cdap.cdap.etl.api.connector.BrowseDetail;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ObsBrowseCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testHitAndExpiration() {
+        ObsBrowseCache cache = new ObsBrowseCache(10, 1000L, clock::get);
+        BrowseDetail first = cache.get("connection", "obs://bucket/dir", 100, this::load);
+        Assert.assertSame(first, cache.get("connection", "obs://bucket/dir", 100, this::load));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        // another connection or limit is another listing
+        cache.get("other", "obs://bucket/dir", 100, this::load);
+        cache.get("connection", "obs://bucket/dir", 10, this::load);
+        Assert.assertEquals(3, loads.get());
+
+        clock.addAndGet(1000L);
+        Assert.assertNotSame(first, cache.get("connection", "obs://bucket/dir", 100, this::load));
+        Assert.assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testSizeEviction() {
+        ObsBrowseCache cache = new ObsBrowseCache(2, 1000L, clock::get);
+        cache.get("connection", "obs://bucket/a", 100, this::load);
+        cache.get("connection", "obs://bucket/b", 100, this::load);
+        // a is now the most recently used
+        cache.get("connection", "obs://bucket/a", 100, this::load);
+        cache.get("connection", "obs://bucket/c", 100, this::load);
+        Assert.assertEquals(2, cache.size());
+
+        cache.get("connection", "obs://bucket/a", 100, this::load);
+        Assert.assertEquals(3, loads.get());
+        cache.get("connection", "obs://bucket/b", 100, this::load);
+        Assert.assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        ObsBrowseCache cache = new ObsBrowseCache(10, 1000L, clock::get);
+        cache.get("connection", "obs://", 100, this::load);
+        cache.get("connection", "obs://bucket/dir", 100, this::load);
+        cache.get("connection", "obs://bucket/dir/sub/", 100, this::load);
+        cache.get("connection", "obs://other-bucket/dir", 100, this::load);
+        cache.get("other", "obs://bucket/dir", 100, this::load);
+
+        cache.invalidate("connection", "obs://bucket/dir/file.csv");
+        // the parents of the sampled path are dropped, the other listings are kept
+        Assert.assertEquals(3, cache.size());
+        cache.get("connection", "obs://bucket/dir/sub/", 100, this::load);
+        cache.get("connection", "obs://other-bucket/dir", 100, this::load);
+        cache.get("other", "obs://bucket/dir", 100, this::load);
+        Assert.assertEquals(5, loads.get());
+    }
+
+    private BrowseDetail load() {
+        loads.incrementAndGet();
+        return BrowseDetail.builder().build();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.connector;
+
+import io.cdap.cdap.etl.api.connector.BrowseDetail;
+import io.cdap.cdap.etl.api.connector.BrowseEntity;
+import io.cdap.cdap.etl.api.connector.BrowseRequest;
+import io.cdap.plugin.huawei.obs.common.FakeObsClient;
+import io.cdap.plugin.huawei.obs.common.ObsConnectorConfig;
+import io.cdap.plugin.huawei.obs.common.ObsInventory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+public class ObsConnectorBrowseTest {
+
+    private static final String BUCKET = "browse-test";
+    private static final int FILES = 2500;
+    private static final int DIRECTORIES = 10;
+
+    private static FakeObsClient obsClient;
+    private static ObsConnector connector;
+
+    @BeforeClass
+    public static void setup() {
+        obsClient = new FakeObsClient();
+        for (int i = 0; i < FILES; i++) {
+            obsClient.putObject(BUCKET, String.format("data/file-%05d.csv", i), new byte[i % 100]);
+        }
+        for (int i = 0; i < DIRECTORIES; i++) {
+            obsClient.putEmptyObject(BUCKET, String.format("data/dir-%02d/part.json", i), 0L);
+        }
+        connector = new ObsConnector(new ObsConnectorConfig("ak", "sk", ObsConnectorConfig.ACCESS_CREDENTIALS,
+                "http://127.0.0.1:1"), obsClient);
+    }
+
+    @Before
+    public void clearCache() {
+        ObsBrowseCache.getInstance().clear();
+    }
+
+    @Test
+    public void testBrowseAllPages() throws IOException {
+        BrowseDetail detail = connector.browse(null, BrowseRequest.builder(BUCKET + "/data").build());
+        List<BrowseEntity> entities = detail.getEntities();
+        Assert.assertEquals(FILES + DIRECTORIES, entities.size());
+        Assert.assertEquals(FILES + DIRECTORIES, detail.getTotalCount());
+
+        BrowseEntity directory = entities.get(0);
+        Assert.assertEquals("dir-00", directory.getName());
+        Assert.assertEquals(BUCKET + "/data/dir-00/", directory.getPath());
+        Assert.assertEquals(ObsConnector.DIRECTORY_TYPE, directory.getType());
+
+        BrowseEntity file = entities.get(DIRECTORIES + 42);
+        Assert.assertEquals("file-00042.csv", file.getName());
+        Assert.assertEquals(BUCKET + "/data/file-00042.csv", file.getPath());
+        Assert.assertEquals(ObsConnector.FILE_TYPE, file.getType());
+        Assert.assertEquals("42", file.getProperties().get(ObsConnector.SIZE_KEY).getValue());
+    }
+
+    @Test
+    public void testBrowseStopsAtLimit() throws IOException {
+        int before = obsClient.getListRequests();
+        BrowseDetail detail = connector.browse(null, BrowseRequest.builder(BUCKET + "/data").setLimit(10).build());
+        Assert.assertEquals(10, detail.getEntities().size());
+        // the count covers the first page and tells that there is more
+        Assert.assertTrue(detail.getTotalCount() > 10);
+        Assert.assertEquals(1, obsClient.getListRequests() - before);
+    }
+
+    @Test
+    public void testBrowseCached() throws IOException {
+        BrowseRequest request = BrowseRequest.builder(BUCKET + "/data").setLimit(100).build();
+        BrowseDetail detail = connector.browse(null, request);
+        int before = obsClient.getListRequests();
+        Assert.assertSame(detail, connector.browse(null, request));
+        Assert.assertEquals(before, obsClient.getListRequests());
+    }
+
+    @Test
+    public void testBrowseInventory() throws IOException {
+        for (int i = 0; i < FILES; i++) {
+            obsClient.putObject(BUCKET, String.format("indexed/file-%05d.csv", i), new byte[i % 100]);
+        }
+        obsClient.putEmptyObject(BUCKET, "indexed/dir-00/part.json", 0L);
+        ObsInventory.build(obsClient, BUCKET, "indexed/", Runnable::run, 1).store(obsClient, BUCKET);
+
+        int lists = obsClient.getListRequests();
+        int gets = obsClient.getGetRequests();
+        BrowseDetail detail = connector.browse(null, BrowseRequest.builder(BUCKET + "/indexed").build());
+        // the first page, then the inventory instead of the other pages
+        Assert.assertEquals(1, obsClient.getListRequests() - lists);
+        Assert.assertEquals(1, obsClient.getGetRequests() - gets);
+        Assert.assertEquals(FILES + 1, detail.getTotalCount());
+        Assert.assertEquals(FILES + 1, detail.getEntities().size());
+        Assert.assertEquals(BUCKET + "/indexed/dir-00/", detail.getEntities().get(0).getPath());
+        Assert.assertEquals("file-00042.csv", detail.getEntities().get(43).getName());
+
+        // the first page is enough for the limit
+        ObsBrowseCache.getInstance().clear();
+        gets = obsClient.getGetRequests();
+        detail = connector.browse(null, BrowseRequest.builder(BUCKET + "/indexed").setLimit(10).build());
+        Assert.assertEquals(10, detail.getEntities().size());
+        Assert.assertEquals(gets, obsClient.getGetRequests());
+    }
+
+    @Test
+    public void testBrowseFile() throws IOException {
+        BrowseDetail detail = connector.browse(null,
+                BrowseRequest.builder(BUCKET + "/data/file-00007.csv").build());
+        Assert.assertEquals(1, detail.getTotalCount());
+        Assert.assertEquals("file-00007.csv", detail.getEntities().get(0).getName());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.connector;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.huawei.obs.common.FakeObsClient;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ObsSamplerTest {
+    private static final String BUCKET = "sample-test";
+
+    private FakeObsClient obsClient;
+    private ObsSampler sampler;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+        sampler = new ObsSampler(obsClient, Runnable::run, 1024, 3);
+    }
+
+    @Test
+    public void testSampleReadsOnlyThePrefix() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 8 * 1024 * 1024; i++) {
+            content.append("line-").append(i).append(",value-").append(i).append("\r\n");
+        }
+        putObject("data/large.csv", content.toString());
+
+        List<StructuredRecord> records = sampler.sample(ObsPath.from(BUCKET + "/data/large.csv"), 1000);
+        Assert.assertEquals(1, obsClient.getGetRequests());
+        // only the lines that fit entirely in the first 1024 bytes
+        String prefix = content.substring(0, 1024);
+        String[] lines = prefix.substring(0, prefix.lastIndexOf("\r\n")).split("\r\n");
+        Assert.assertEquals(lines.length, records.size());
+        Assert.assertEquals("line-0,value-0", records.get(0).get("body"));
+        Assert.assertEquals(Long.valueOf(0L), records.get(0).get("offset"));
+        Assert.assertEquals(lines[lines.length - 1], records.get(records.size() - 1).get("body"));
+        Assert.assertEquals(Long.valueOf(lines[0].length() + 2L), records.get(1).get("offset"));
+
+        records = sampler.sample(ObsPath.from(BUCKET + "/data/large.csv"), 5);
+        Assert.assertEquals(5, records.size());
+    }
+
+    @Test
+    public void testSampleSmallObject() throws IOException {
+        putObject("small.txt", "a\nb\nc");
+        List<StructuredRecord> records = sampler.sample(ObsPath.from(BUCKET + "/small.txt"), 10);
+        Assert.assertEquals(3, records.size());
+        // the last line is complete since it is the end of the object
+        Assert.assertEquals("c", records.get(2).get("body"));
+    }
+
+    @Test
+    public void testSampleDirectory() throws IOException {
+        putObject("dir/_SUCCESS", "");
+        putObject("dir/.part-0.csv.crc", "crc");
+        putObject("dir/_temporary/0/part-9.csv", "temporary\n");
+        obsClient.putEmptyObject(BUCKET, "dir/empty/", 0L);
+        for (int i = 0; i < 5; i++) {
+            putObject("dir/part-" + i + ".csv", "first-" + i + "\nsecond-" + i + "\n");
+        }
+        // a directory and not the object with the same prefix
+        putObject("dir.csv", "not sampled\n");
+
+        List<StructuredRecord> records = sampler.sample(ObsPath.from(BUCKET + "/dir"), 100);
+        // the first 3 visible objects
+        Assert.assertEquals(6, records.size());
+        Assert.assertEquals("first-0", records.get(0).get("body"));
+        Assert.assertEquals("second-2", records.get(5).get("body"));
+        Assert.assertEquals(3, obsClient.getGetRequests());
+
+        // stops reading objects once the limit is reached
+        records = sampler.sample(ObsPath.from(BUCKET + "/dir/"), 3);
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals(5, obsClient.getGetRequests());
+
+        Assert.assertTrue(sampler.sample(ObsPath.from(BUCKET + "/missing"), 100).isEmpty());
+    }
+
+    @Test
+    public void testOtherFormatsAreNotSampled() throws IOException {
+        putObject("data.avro", "avro");
+        putObject("data.csv.gz", "gzip");
+        Assert.assertNull(sampler.sample(ObsPath.from(BUCKET + "/data.avro"), 10));
+        Assert.assertNull(sampler.sample(ObsPath.from(BUCKET + "/data.csv.gz"), 10));
+        Assert.assertEquals(0, obsClient.getGetRequests());
+
+        Assert.assertEquals(ObsSampler.Format.TEXT, ObsSampler.Format.of("dir.v2/part-00000"));
+        Assert.assertEquals(ObsSampler.Format.PARQUET, ObsSampler.Format.of("part-00000.snappy.parquet"));
+    }
+
+    @Test
+    public void testSampleInputFormat() throws Exception {
+        putObject("dir/part-0.csv", "first\nsecond\n");
+        List<StructuredRecord> records = sampler.sample(ObsPath.from(BUCKET + "/dir"), 100);
+        Schema other = Schema.recordOf("other", Schema.Field.of("id", Schema.of(Schema.Type.INT)));
+        records.add(StructuredRecord.builder(other).set("id", 1).build());
+
+        ObsSampleInputFormat inputFormat = new ObsSampleInputFormat();
+        TaskAttemptContext context = new TaskAttemptContextImpl(ObsSampleInputFormat.configure(records),
+                new TaskAttemptID());
+        List<InputSplit> splits = inputFormat.getSplits(context);
+        Assert.assertEquals(1, splits.size());
+        List<StructuredRecord> read = new ArrayList<>();
+        try (RecordReader<NullWritable, StructuredRecord> reader =
+                     inputFormat.createRecordReader(splits.get(0), context)) {
+            reader.initialize(splits.get(0), context);
+            while (reader.nextKeyValue()) {
+                read.add(reader.getCurrentValue());
+            }
+        }
+        Assert.assertEquals(records, read);
+    }
+
+    private void putObject(String key, String content) {
+        obsClient.putObject(BUCKET, key, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import com.google.gson.Gson;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.AbortMultipartUploadRequest;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObsObject;
+import io.cdap.plugin.huawei.obs.common.FakeObsClient;
+import io.cdap.plugin.huawei.obs.common.ObsPendingOutputStream;
+import io.cdap.plugin.huawei.obs.common.ObsPendingUpload;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+public class ObsDirectOutputCommitterTest {
+
+    private static final String BUCKET = "commit-test";
+    private static final String OUTPUT = "output/2021-10-18";
+    private static final int PART_SIZE = 1024;
+
+    private FakeObsClient obsClient;
+    private ExecutorService executor;
+    private ObsDirectOutputCommitter committer;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+        executor = Executors.newFixedThreadPool(4);
+        committer = new ObsDirectOutputCommitter(new Path("obs://" + BUCKET + "/" + OUTPUT), obsClient, 4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDestinationKey() {
+        Assert.assertEquals("out/part-r-00000.avro",
+                ObsPendingUpload.getDestinationKey("out/_temporary/0/_temporary/attempt_1/part-r-00000.avro"));
+        Assert.assertEquals("out/year=2021/part-r-00000",
+                ObsPendingUpload.getDestinationKey("out/_temporary/0/_temporary/attempt_1/year=2021/part-r-00000"));
+        Assert.assertEquals("part-r-00000",
+                ObsPendingUpload.getDestinationKey("_temporary/1/_temporary/attempt_1/part-r-00000"));
+        Assert.assertNull(ObsPendingUpload.getDestinationKey("out/_temporary/0/task_1.pendingset"));
+        Assert.assertNull(ObsPendingUpload.getDestinationKey("out/_temporary/0/_temporary/attempt_1/"));
+        Assert.assertNull(ObsPendingUpload.getDestinationKey("out/part-r-00000"));
+    }
+
+    @Test
+    public void testCommit() throws IOException {
+        TaskAttemptContext task0 = newContext("attempt_202110181200_0001_r_000000_0");
+        TaskAttemptContext task1 = newContext("attempt_202110181200_0001_r_000001_0");
+        // larger than a part, smaller than a part and empty
+        byte[] large = content(3 * PART_SIZE + 100);
+        writeFile(task0, "part-r-00000", large);
+        writeFile(task1, "part-r-00001", content(10));
+        writeFile(task1, "part-r-00002", new byte[0]);
+
+        committer.commitTask(task0);
+        committer.commitTask(task1);
+        // nothing is visible before the job commits
+        Assert.assertEquals(Collections.emptyList(), listFiles());
+
+        committer.commitJob(task0);
+        Assert.assertEquals(Arrays.asList(OUTPUT + "/_SUCCESS", OUTPUT + "/part-r-00000", OUTPUT + "/part-r-00001",
+                OUTPUT + "/part-r-00002"), listKeys(OUTPUT + "/"));
+        Assert.assertArrayEquals(large, obsClient.getContent(BUCKET, OUTPUT + "/part-r-00000"));
+        Assert.assertArrayEquals(content(10), obsClient.getContent(BUCKET, OUTPUT + "/part-r-00001"));
+        Assert.assertArrayEquals(new byte[0], obsClient.getContent(BUCKET, OUTPUT + "/part-r-00002"));
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+
+        ObsDirectOutputCommitter.Manifest manifest = new Gson().fromJson(new String(
+                obsClient.getContent(BUCKET, OUTPUT + "/_SUCCESS"), StandardCharsets.UTF_8),
+                ObsDirectOutputCommitter.Manifest.class);
+        List<String> files = new ArrayList<>(manifest.files);
+        Collections.sort(files);
+        Assert.assertEquals(Arrays.asList(OUTPUT + "/part-r-00000", OUTPUT + "/part-r-00001",
+                OUTPUT + "/part-r-00002"), files);
+        Assert.assertEquals(large.length + 10, manifest.length);
+    }
+
+    @Test
+    public void testAbortTask() throws IOException {
+        TaskAttemptContext task = newContext("attempt_202110181200_0001_r_000000_0");
+        writeFile(task, "part-r-00000", content(2 * PART_SIZE));
+        writeFile(task, "part-r-00001", content(10));
+
+        committer.abortTask(task);
+        Assert.assertEquals(2, obsClient.getAbortedUploads());
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+        Assert.assertEquals(Collections.emptyList(), listKeys(OUTPUT + "/"));
+    }
+
+    @Test
+    public void testAbortJob() throws IOException {
+        TaskAttemptContext task0 = newContext("attempt_202110181200_0001_r_000000_0");
+        TaskAttemptContext task1 = newContext("attempt_202110181200_0001_r_000001_0");
+        writeFile(task0, "part-r-00000", content(10));
+        committer.commitTask(task0);
+        // the second task failed before committing
+        writeFile(task1, "part-r-00001", content(10));
+
+        committer.abortJob(task0, JobStatus.State.FAILED);
+        Assert.assertEquals(2, obsClient.getAbortedUploads());
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+        Assert.assertEquals(Collections.emptyList(), listKeys(OUTPUT + "/"));
+    }
+
+    @Test
+    public void testRetriedTask() throws IOException {
+        TaskAttemptContext attempt0 = newContext("attempt_202110181200_0001_r_000000_0");
+        TaskAttemptContext attempt1 = newContext("attempt_202110181200_0001_r_000000_1");
+        writeFile(attempt0, "part-r-00000", "first".getBytes(StandardCharsets.UTF_8));
+        committer.commitTask(attempt0);
+        writeFile(attempt1, "part-r-00000", "second".getBytes(StandardCharsets.UTF_8));
+        committer.commitTask(attempt1);
+
+        committer.commitJob(attempt1);
+        Assert.assertEquals("second", new String(obsClient.getContent(BUCKET, OUTPUT + "/part-r-00000"),
+                StandardCharsets.UTF_8));
+        Assert.assertEquals(1, obsClient.getAbortedUploads());
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+    }
+
+    @Test
+    public void testCommitJobFailure() throws IOException {
+        TaskAttemptContext task = newContext("attempt_202110181200_0001_r_000000_0");
+        for (int i = 0; i < 10; i++) {
+            writeFile(task, "part-r-0000" + i, content(10));
+        }
+        committer.commitTask(task);
+        // the upload of one of the files disappeared
+        String pendingSet = OUTPUT + "/_temporary/0/task_202110181200_0001_r_000000"
+                + ObsDirectOutputCommitter.PENDING_SET_SUFFIX;
+        ObsPendingUpload lost = ObsPendingUpload.load(obsClient, BUCKET, pendingSet).get(3);
+        obsClient.abortMultipartUpload(new AbortMultipartUploadRequest(BUCKET, lost.getKey(), lost.getUploadId()));
+
+        try {
+            committer.commitJob(task);
+            Assert.fail("Job commit should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        // the uploads that were not completed are aborted, no _SUCCESS is written
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+        try {
+            obsClient.getObjectMetadata(BUCKET, OUTPUT + "/_SUCCESS");
+            Assert.fail("The manifest should not be written");
+        } catch (ObsException e) {
+            Assert.assertEquals(404, e.getResponseCode());
+        }
+        committer.abortJob(task, JobStatus.State.FAILED);
+        Assert.assertEquals(Collections.emptyList(), listKeys(OUTPUT + "/_temporary/"));
+    }
+
+    @Test
+    public void testCommitTaskWithoutPendingUploads() throws IOException {
+        TaskAttemptContext task = newContext("attempt_202110181200_0001_r_000000_0");
+        writeFile(task, "part-r-00000", content(10));
+        // a file written by a filesystem that did not commit the output directly
+        String key = OUTPUT + "/_temporary/0/_temporary/" + task.getTaskAttemptID() + "/part-r-00001";
+        obsClient.putObject(BUCKET, key, content(10));
+
+        try {
+            committer.commitTask(task);
+            Assert.fail("Task commit should fail");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(key));
+        }
+        committer.abortTask(task);
+        Assert.assertEquals(0, obsClient.getOpenUploads());
+    }
+
+    /**
+     * Writes a file of the task attempt the way the filesystem does when the output is committed directly.
+     */
+    private void writeFile(TaskAttemptContext context, String name, byte[] content) throws IOException {
+        String key = OUTPUT + "/_temporary/0/_temporary/" + context.getTaskAttemptID() + "/" + name;
+        try (OutputStream out = new ObsPendingOutputStream(obsClient, BUCKET, ObsPendingUpload.getDestinationKey(key),
+                key + ObsPendingUpload.PENDING_SUFFIX, PART_SIZE, executor, new Semaphore(4), null)) {
+            out.write(content);
+        }
+    }
+
+    /**
+     * @return the keys of the output that are not under the temporary directory
+     */
+    private List<String> listFiles() {
+        List<String> files = new ArrayList<>();
+        for (String key : listKeys(OUTPUT + "/")) {
+            if (!key.startsWith(OUTPUT + "/_temporary/")) {
+                files.add(key);
+            }
+        }
+        return files;
+    }
+
+    private List<String> listKeys(String prefix) {
+        ListObjectsRequest request = new ListObjectsRequest(BUCKET);
+        request.setPrefix(prefix);
+        List<String> keys = new ArrayList<>();
+        for (ObsObject object : obsClient.listObjects(request).getObjects()) {
+            keys.add(object.getObjectKey());
+        }
+        return keys;
+    }
+
+    private static TaskAttemptContext newContext(String taskAttemptId) {
+        return new TaskAttemptContextImpl(new Configuration(), TaskAttemptID.forName(taskAttemptId));
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+}
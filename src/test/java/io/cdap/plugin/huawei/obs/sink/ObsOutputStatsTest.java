@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import io.cdap.plugin.huawei.obs.common.FakeObsClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ObsOutputStatsTest {
+
+    private static final String BUCKET = "stats-test";
+
+    @Test
+    public void testCollect() throws Exception {
+        FakeObsClient obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+        obsClient.putObject(BUCKET, "output/part-r-00000", new byte[100]);
+        obsClient.putObject(BUCKET, "output/part-r-00001", new byte[300]);
+        obsClient.putObject(BUCKET, "output/year=2021/part-r-00000", new byte[200]);
+        // not part of the output
+        obsClient.putObject(BUCKET, "output/_SUCCESS", new byte[50]);
+        obsClient.putObject(BUCKET, "output/.part-r-00000.crc", new byte[8]);
+        obsClient.putObject(BUCKET, "output/_temporary/0/_temporary/attempt_1/part-r-00002", new byte[400]);
+        obsClient.putObject(BUCKET, "output/year=2021/", new byte[0]);
+        obsClient.putObject(BUCKET, "output2/part-r-00000", new byte[1000]);
+
+        ObsOutputStats stats = ObsOutputStats.collect(obsClient, BUCKET, "output/");
+        Assert.assertEquals(3, stats.getFiles());
+        Assert.assertEquals(600, stats.getBytes());
+        Assert.assertEquals(100, stats.getMinBytes());
+        Assert.assertEquals(300, stats.getMaxBytes());
+        Assert.assertEquals(200, stats.getAverageBytes());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        FakeObsClient obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+        obsClient.putObject(BUCKET, "output/_SUCCESS", new byte[0]);
+
+        ObsOutputStats stats = ObsOutputStats.collect(obsClient, BUCKET, "output/");
+        Assert.assertEquals(0, stats.getFiles());
+        Assert.assertEquals(0, stats.getBytes());
+        Assert.assertEquals(0, stats.getMinBytes());
+        Assert.assertEquals(0, stats.getAverageBytes());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+public class ObsPartitionedRecordWriterTest {
+
+    // the records are "<partition>:<value>"
+    private static final Function<String, String> PARTITIONER = record -> "p=" + record.split(":")[0];
+
+    // records of the closed files, by base name
+    private final Map<String, List<String>> files = new LinkedHashMap<>();
+    private final Set<String> openFiles = new HashSet<>();
+    private int maxOpenFiles;
+
+    @Test
+    public void testPartitions() throws Exception {
+        write(newWriter(16, 100, 0L), "a:1", "b:1", "a:2", "c:1", "b:2");
+        Assert.assertEquals(3, files.size());
+        Assert.assertEquals(Arrays.asList("a:1", "a:2"), files.get("p=a/part-00000"));
+        Assert.assertEquals(Arrays.asList("b:1", "b:2"), files.get("p=b/part-00000"));
+        Assert.assertEquals(Collections.singletonList("c:1"), files.get("p=c/part-00000"));
+    }
+
+    @Test
+    public void testLeastRecentlyWrittenClosed() throws Exception {
+        write(newWriter(2, 100, 0L), "a:1", "b:1", "a:2", "c:1", "a:3", "b:2");
+        Assert.assertEquals(2, maxOpenFiles);
+        // c closes b, which was written before a, and b then closes c
+        Assert.assertEquals(Arrays.asList("a:1", "a:2", "a:3"), files.get("p=a/part-00000"));
+        Assert.assertEquals(Collections.singletonList("b:1"), files.get("p=b/part-00000"));
+        Assert.assertEquals(Collections.singletonList("b:2"), files.get("p=b/part-00001"));
+        Assert.assertEquals(Collections.singletonList("c:1"), files.get("p=c/part-00000"));
+        Assert.assertEquals(4, files.size());
+        Assert.assertTrue(openFiles.isEmpty());
+    }
+
+    @Test
+    public void testRollPerPartition() throws Exception {
+        write(newWriter(16, 100, 2L), "a:1", "b:1", "a:2", "a:3", "b:2");
+        Assert.assertEquals(Arrays.asList("a:1", "a:2"), files.get("p=a/part-00000"));
+        Assert.assertEquals(Collections.singletonList("a:3"), files.get("p=a/part-00001"));
+        Assert.assertEquals(Arrays.asList("b:1", "b:2"), files.get("p=b/part-00000"));
+        Assert.assertEquals(3, files.size());
+    }
+
+    @Test
+    public void testMaxPartitions() throws Exception {
+        RecordWriter<Void, String> writer = newWriter(16, 2, 0L);
+        writer.write(null, "a:1");
+        writer.write(null, "b:1");
+        writer.write(null, "a:2");
+        try {
+            writer.write(null, "c:1");
+            Assert.fail("The third partition should fail the task");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private RecordWriter<Void, String> newWriter(int maxOpenWriters, int maxPartitions, long rollRecords) {
+        TaskAttemptContext context = new TaskAttemptContextImpl(new Configuration(),
+                TaskAttemptID.forName("attempt_202110181200_0001_r_000003_0"));
+        return new ObsPartitionedRecordWriter<>(new RecordingOutputFormat(), context, PARTITIONER, maxOpenWriters,
+                maxPartitions, 0L, rollRecords, () -> 0L);
+    }
+
+    private static void write(RecordWriter<Void, String> writer, String... values)
+            throws IOException, InterruptedException {
+        for (String value : values) {
+            writer.write(null, value);
+        }
+        writer.close(null);
+    }
+
+    /**
+     * Output format that records the records of each file, and the files open at the same time.
+     */
+    private final class RecordingOutputFormat extends OutputFormat<Void, String> {
+
+        @Override
+        public RecordWriter<Void, String> getRecordWriter(TaskAttemptContext context) {
+            String name = context.getConfiguration().get(ObsRollingRecordWriter.BASE_OUTPUT_NAME);
+            Assert.assertFalse("File " + name + " written twice", files.containsKey(name));
+            openFiles.add(name);
+            maxOpenFiles = Math.max(maxOpenFiles, openFiles.size());
+            List<String> records = new ArrayList<>();
+            return new RecordWriter<Void, String>() {
+                @Override
+                public void write(Void key, String value) {
+                    records.add(value);
+                }
+
+                @Override
+                public void close(TaskAttemptContext context) {
+                    openFiles.remove(name);
+                    files.put(name, records);
+                }
+            };
+        }
+
+        @Override
+        public void checkOutputSpecs(JobContext context) {
+        }
+
+        @Override
+        public OutputCommitter getOutputCommitter(TaskAttemptContext context) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ObsRecordPartitionerTest {
+
+    private static final Schema SCHEMA = Schema.recordOf(
+            "event",
+            Schema.Field.of("tenant", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+            Schema.Field.of("date", Schema.of(Schema.LogicalType.DATE)),
+            Schema.Field.of("ts", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+            Schema.Field.of("count", Schema.of(Schema.Type.INT)),
+            Schema.Field.of("payload", Schema.of(Schema.Type.BYTES)));
+
+    @Test
+    public void testPartition() {
+        StructuredRecord record = builder().set("tenant", "acme").build();
+        Assert.assertEquals("tenant=acme/date=2021-10-18",
+                new ObsRecordPartitioner(Arrays.asList("tenant", "date")).apply(record));
+        Assert.assertEquals("count=42/ts=2021-10-18 12%3A00%3A00",
+                new ObsRecordPartitioner(Arrays.asList("count", "ts")).apply(record));
+    }
+
+    @Test
+    public void testDefaultPartition() {
+        ObsRecordPartitioner partitioner = new ObsRecordPartitioner(Collections.singletonList("tenant"));
+        Assert.assertEquals("tenant=" + ObsRecordPartitioner.DEFAULT_PARTITION,
+                partitioner.apply(builder().build()));
+        Assert.assertEquals("tenant=" + ObsRecordPartitioner.DEFAULT_PARTITION,
+                partitioner.apply(builder().set("tenant", "").build()));
+    }
+
+    @Test
+    public void testEscape() {
+        Assert.assertEquals("acme", ObsRecordPartitioner.escape("acme"));
+        Assert.assertEquals("a%2Fb%3Dc%25d e", ObsRecordPartitioner.escape("a/b=c%d e"));
+        Assert.assertEquals("%0A%3A%5B%5D", ObsRecordPartitioner.escape("\n:[]"));
+    }
+
+    @Test
+    public void testSupported() {
+        Assert.assertTrue(ObsRecordPartitioner.isSupported(SCHEMA.getField("tenant").getSchema()));
+        Assert.assertTrue(ObsRecordPartitioner.isSupported(SCHEMA.getField("date").getSchema()));
+        Assert.assertTrue(ObsRecordPartitioner.isSupported(SCHEMA.getField("count").getSchema()));
+        Assert.assertFalse(ObsRecordPartitioner.isSupported(SCHEMA.getField("payload").getSchema()));
+        Assert.assertFalse(ObsRecordPartitioner.isSupported(SCHEMA));
+    }
+
+    @Test
+    public void testMissingField() {
+        try {
+            new ObsRecordPartitioner(Collections.singletonList("missing"))
+                    .apply(builder().build());
+            Assert.fail("A field that is not in the schema should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A builder with the values of the fields that are not nullable.
+     */
+    private static StructuredRecord.Builder builder() {
+        return StructuredRecord.builder(SCHEMA)
+                .set("date", (int) LocalDate.of(2021, 10, 18).toEpochDay())
+                .set("ts", 1634558400123456L)
+                .set("count", 42)
+                .set("payload", new byte[] {1});
+    }
+}
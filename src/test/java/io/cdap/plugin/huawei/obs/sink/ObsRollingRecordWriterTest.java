@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.sink;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ObsRollingRecordWriterTest {
+
+    // records of the closed files, by base name
+    private final Map<String, List<String>> files = new LinkedHashMap<>();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    @Test
+    public void testRollByRecords() throws Exception {
+        TaskAttemptContext context = newContext(new Configuration());
+        write(new ObsRollingRecordWriter<>(new RecordingOutputFormat(), context, 0L, 3L, bytesWritten::get), context,
+                "a", "b", "c", "d", "e", "f", "g");
+        Assert.assertEquals(Arrays.asList("part-00000", "part-00001", "part-00002"), new ArrayList<>(files.keySet()));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), files.get("part-00000"));
+        Assert.assertEquals(Arrays.asList("d", "e", "f"), files.get("part-00001"));
+        Assert.assertEquals(Collections.singletonList("g"), files.get("part-00002"));
+    }
+
+    @Test
+    public void testRollBySize() throws Exception {
+        TaskAttemptContext context = newContext(new Configuration());
+        // the file rolls once it reaches 10 bytes, after the third record of 4 bytes
+        write(new ObsRollingRecordWriter<>(new RecordingOutputFormat(), context, 10L, 0L, bytesWritten::get), context,
+                "aaaa", "bbbb", "cccc", "dddd", "eeeeeeeeeeee", "ffff");
+        Assert.assertEquals(Arrays.asList("aaaa", "bbbb", "cccc"), files.get("part-00000"));
+        Assert.assertEquals(Arrays.asList("dddd", "eeeeeeeeeeee"), files.get("part-00001"));
+        Assert.assertEquals(Collections.singletonList("ffff"), files.get("part-00002"));
+        Assert.assertEquals(3, files.size());
+    }
+
+    @Test
+    public void testRollBySizeOrRecords() throws Exception {
+        TaskAttemptContext context = newContext(new Configuration());
+        write(new ObsRollingRecordWriter<>(new RecordingOutputFormat(), context, 10L, 2L, bytesWritten::get), context,
+                "a", "b", "cccccccccc", "d", "e");
+        Assert.assertEquals(Arrays.asList("a", "b"), files.get("part-00000"));
+        Assert.assertEquals(Collections.singletonList("cccccccccc"), files.get("part-00001"));
+        Assert.assertEquals(Arrays.asList("d", "e"), files.get("part-00002"));
+        Assert.assertEquals(3, files.size());
+    }
+
+    @Test
+    public void testBaseName() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set(ObsRollingRecordWriter.BASE_OUTPUT_NAME, "data");
+        TaskAttemptContext context = newContext(conf);
+        write(new ObsRollingRecordWriter<>(new RecordingOutputFormat(), context, 0L, 1L, bytesWritten::get), context,
+                "a", "b");
+        Assert.assertEquals(Arrays.asList("data-00000", "data-00001"), new ArrayList<>(files.keySet()));
+        // the configuration of the task is not modified
+        Assert.assertEquals("data", conf.get(ObsRollingRecordWriter.BASE_OUTPUT_NAME));
+    }
+
+    @Test
+    public void testNoRecords() throws Exception {
+        TaskAttemptContext context = newContext(new Configuration());
+        write(new ObsRollingRecordWriter<>(new RecordingOutputFormat(), context, 10L, 10L, bytesWritten::get),
+                context);
+        Assert.assertTrue(files.isEmpty());
+    }
+
+    private static void write(RecordWriter<String, String> writer, TaskAttemptContext context, String... values)
+            throws IOException, InterruptedException {
+        for (String value : values) {
+            writer.write(null, value);
+        }
+        writer.close(context);
+    }
+
+    private static TaskAttemptContext newContext(Configuration conf) {
+        return new TaskAttemptContextImpl(conf, TaskAttemptID.forName("attempt_202110181200_0001_r_000003_0"));
+    }
+
+    /**
+     * Output format that records the records of each file, and counts their length as the bytes written.
+     */
+    private final class RecordingOutputFormat extends OutputFormat<String, String> {
+
+        @Override
+        public RecordWriter<String, String> getRecordWriter(TaskAttemptContext context) {
+            String name = context.getConfiguration().get(ObsRollingRecordWriter.BASE_OUTPUT_NAME);
+            Assert.assertFalse("File " + name + " written twice", files.containsKey(name));
+            List<String> records = new ArrayList<>();
+            return new RecordWriter<String, String>() {
+                @Override
+                public void write(String key, String value) {
+                    records.add(value);
+                    bytesWritten.addAndGet(value.length());
+                }
+
+                @Override
+                public void close(TaskAttemptContext context) {
+                    files.put(name, records);
+                }
+            };
+        }
+
+        @Override
+        public void checkOutputSpecs(JobContext context) {
+        }
+
+        @Override
+        public OutputCommitter getOutputCommitter(TaskAttemptContext context) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.plugin.huawei.obs.common.ObsRequestMetrics;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ObsCoalescingInputFormatTest {
+
+    private static final String ROOT = "obs://coalesce-test/landing/";
+
+    @Test
+    public void testCoalesceByPrefix() {
+        List<FileStatus> files = new ArrayList<>();
+        for (int i = 9; i >= 0; i--) {
+            files.add(file("b/file-" + i, 10));
+            files.add(file("a/file-" + i, 10));
+        }
+        List<ObsCoalescedSplit> splits = ObsCoalescingInputFormat.coalesce(files, 60);
+        Assert.assertEquals(4, splits.size());
+        assertSplit(splits.get(0), "a", 0, 6);
+        assertSplit(splits.get(1), "a", 6, 4);
+        // the split is more than half full, the files of b are not added to it
+        assertSplit(splits.get(2), "b", 0, 6);
+        assertSplit(splits.get(3), "b", 6, 4);
+    }
+
+    @Test
+    public void testCoalesceSmallPrefixes() {
+        List<FileStatus> files = new ArrayList<>();
+        for (char prefix = 'a'; prefix <= 'j'; prefix++) {
+            files.add(file(prefix + "/file", 10));
+        }
+        // small prefixes share the splits until they are half full
+        List<ObsCoalescedSplit> splits = ObsCoalescingInputFormat.coalesce(files, 60);
+        Assert.assertEquals(4, splits.size());
+        Assert.assertEquals(3, splits.get(0).getNumPaths());
+        Assert.assertEquals(30, splits.get(0).getLength());
+        Assert.assertEquals(1, splits.get(3).getNumPaths());
+
+        splits = ObsCoalescingInputFormat.coalesce(files, 1000);
+        Assert.assertEquals(1, splits.size());
+        Assert.assertEquals(10, splits.get(0).getNumPaths());
+        Assert.assertEquals(100, splits.get(0).getLength());
+    }
+
+    @Test
+    public void testSplitSerialization() throws IOException {
+        ObsCoalescedSplit split = new ObsCoalescedSplit(new Path[] {new Path(ROOT + "a/1"), new Path(ROOT + "b/2")},
+                new long[] {5, 7});
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        split.write(new DataOutputStream(bytes));
+        ObsCoalescedSplit copy = new ObsCoalescedSplit();
+        copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(2, copy.getNumPaths());
+        Assert.assertEquals(new Path(ROOT + "b/2"), copy.getPath(1));
+        Assert.assertEquals(7, copy.getLength(1));
+        Assert.assertEquals(12, copy.getLength());
+    }
+
+    @Test
+    public void testReadCoalescedSplit() throws Exception {
+        LinesInputFormat delegate = new LinesInputFormat();
+        List<Path> paths = new ArrayList<>();
+        List<Long> lengths = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Path path = new Path(ROOT + "data/file-" + i);
+            // every 10th file is empty
+            List<String> lines = i % 10 == 0 ? Collections.emptyList() : Arrays.asList("x" + i, "y" + i, "z" + i);
+            delegate.files.put(path, lines);
+            paths.add(path);
+            lengths.add(lines.size() * 2L);
+            for (String line : lines) {
+                expected.add(path + ":" + line);
+            }
+        }
+        delegate.openLatencyMillis = 5;
+
+        List<String> records = new ArrayList<>();
+        try (RecordReader<Path, String> reader = new ObsCoalescingRecordReader<>(delegate, 4)) {
+            reader.initialize(new ObsCoalescedSplit(paths, lengths), newContext());
+            while (reader.nextKeyValue()) {
+                // the key tells which file the record is from, like the path field
+                records.add(reader.getCurrentKey() + ":" + reader.getCurrentValue());
+            }
+            Assert.assertEquals(1.0f, reader.getProgress(), 0.0001f);
+        }
+        Assert.assertEquals(expected, records);
+        Assert.assertEquals(0, delegate.openReaders.get());
+        Assert.assertTrue(delegate.maxOpening.get() > 1);
+        Assert.assertTrue(delegate.maxOpening.get() <= 4);
+    }
+
+    @Test
+    public void testFailedFileFailsRead() throws Exception {
+        LinesInputFormat delegate = new LinesInputFormat();
+        List<Path> paths = new ArrayList<>();
+        List<Long> lengths = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Path path = new Path(ROOT + "data/file-" + i);
+            delegate.files.put(path, Arrays.asList("a", "b"));
+            paths.add(path);
+            lengths.add(4L);
+        }
+        delegate.failingPath = paths.get(3);
+
+        int records = 0;
+        RecordReader<Path, String> reader = new ObsCoalescingRecordReader<>(delegate, 4);
+        reader.initialize(new ObsCoalescedSplit(paths, lengths), newContext());
+        try {
+            while (reader.nextKeyValue()) {
+                records++;
+            }
+            Assert.fail("Read should fail");
+        } catch (IOException e) {
+            Assert.assertEquals(6, records);
+        } finally {
+            reader.close();
+        }
+        Assert.assertEquals(0, delegate.openReaders.get());
+    }
+
+    @Test
+    public void testPrefetchDepthAndMemoryLimit() throws Exception {
+        LinesInputFormat delegate = new LinesInputFormat();
+        List<Path> paths = new ArrayList<>();
+        List<Long> lengths = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path path = new Path(ROOT + "data/file-" + i);
+            delegate.files.put(path, Arrays.asList("a", "b"));
+            paths.add(path);
+            lengths.add(10L);
+        }
+        delegate.openLatencyMillis = 5;
+        ObsRequestMetrics.get().drain();
+
+        int records = 0;
+        // a single file of 10 bytes fits in the memory limit, besides the one the reader waits for
+        try (RecordReader<Path, String> reader = new ObsCoalescingRecordReader<>(delegate, 8, 4, 15L)) {
+            reader.initialize(new ObsCoalescedSplit(paths, lengths), newContext());
+            while (reader.nextKeyValue()) {
+                // parsing the records takes longer than opening the next file
+                Thread.sleep(10);
+                records++;
+            }
+        }
+        Assert.assertEquals(40, records);
+        Assert.assertEquals(0, delegate.openReaders.get());
+        Assert.assertEquals(2, delegate.maxOpenReaders.get());
+        ObsRequestMetrics.Snapshot snapshot = ObsRequestMetrics.get().drain();
+        Assert.assertEquals(20, snapshot.getPrefetchReady() + snapshot.getPrefetchStalls());
+        Assert.assertTrue(snapshot.getPrefetchReady() >= 10);
+
+        delegate.maxOpenReaders.set(0);
+        delegate.maxOpening.set(0);
+        try (RecordReader<Path, String> reader = new ObsCoalescingRecordReader<>(delegate, 2, 6, Long.MAX_VALUE)) {
+            reader.initialize(new ObsCoalescedSplit(paths, lengths), newContext());
+            while (reader.nextKeyValue()) {
+                Thread.sleep(10);
+            }
+        }
+        // the files opened ahead and the one the reader waits for, opened by 2 threads
+        Assert.assertEquals(7, delegate.maxOpenReaders.get());
+        Assert.assertTrue(delegate.maxOpening.get() <= 2);
+    }
+
+    private static TaskAttemptContext newContext() {
+        return new TaskAttemptContextImpl(new Configuration(), new TaskAttemptID());
+    }
+
+    private static FileStatus file(String name, long length) {
+        return new FileStatus(length, false, 1, 128L * 1024 * 1024, 0L, new Path(ROOT + name));
+    }
+
+    private static void assertSplit(ObsCoalescedSplit split, String prefix, int first, int count) {
+        Assert.assertEquals(count, split.getNumPaths());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(new Path(ROOT + prefix + "/file-" + (first + i)), split.getPath(i));
+        }
+    }
+
+    /**
+     * Input format of in-memory files, with one record per line keyed by the path of the file.
+     */
+    private static final class LinesInputFormat extends InputFormat<Path, String> {
+        private final Map<Path, List<String>> files = new HashMap<>();
+        private final AtomicInteger openReaders = new AtomicInteger();
+        private final AtomicInteger maxOpenReaders = new AtomicInteger();
+        private final AtomicInteger opening = new AtomicInteger();
+        private final AtomicInteger maxOpening = new AtomicInteger();
+        private volatile long openLatencyMillis;
+        private volatile Path failingPath;
+
+        @Override
+        public List<InputSplit> getSplits(JobContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RecordReader<Path, String> createRecordReader(InputSplit split, TaskAttemptContext context) {
+            maxOpenReaders.accumulateAndGet(openReaders.incrementAndGet(), Math::max);
+            return new RecordReader<Path, String>() {
+                private Path path;
+                private List<String> lines;
+                private int index = -1;
+
+                @Override
+                public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+                    path = ((FileSplit) split).getPath();
+                    if (path.equals(failingPath)) {
+                        throw new IOException("Failed to open " + path);
+                    }
+                    lines = files.get(path);
+                }
+
+                @Override
+                public boolean nextKeyValue() throws InterruptedException {
+                    if (index < 0) {
+                        // the first read sends the request
+                        maxOpening.accumulateAndGet(opening.incrementAndGet(), Math::max);
+                        Thread.sleep(openLatencyMillis);
+                        opening.decrementAndGet();
+                    }
+                    return ++index < lines.size();
+                }
+
+                @Override
+                public Path getCurrentKey() {
+                    return path;
+                }
+
+                @Override
+                public String getCurrentValue() {
+                    return lines.get(index);
+                }
+
+                @Override
+                public float getProgress() {
+                    return lines.isEmpty() ? 1.0f : (float) Math.min(index, lines.size()) / lines.size();
+                }
+
+                @Override
+                public void close() {
+                    openReaders.decrementAndGet();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class ObsDelimitedParserTest {
+    private static final Schema SCHEMA = Schema.recordOf("record",
+            Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+            Schema.Field.of("count", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+            Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+            Schema.Field.of("active", Schema.of(Schema.Type.BOOLEAN)),
+            Schema.Field.of("price", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+            Schema.Field.of("path", Schema.of(Schema.Type.STRING)));
+    private static final String PATH = "obs://bucket/data.csv";
+
+    @Test
+    public void testValues() throws IOException {
+        ObsDelimitedParser parser = new ObsDelimitedParser(SCHEMA, "path", (byte) ',', false);
+        StructuredRecord record = parse(parser, "9223372036854775807,-42,café,TRUE,1.5");
+        Assert.assertEquals(Long.MAX_VALUE, (long) record.get("id"));
+        Assert.assertEquals(-42, (int) record.get("count"));
+        Assert.assertEquals("café", record.get("name"));
+        Assert.assertTrue(record.get("active"));
+        Assert.assertEquals(1.5d, record.get("price"), 0.0d);
+        // the path field is left to the record reader
+        Assert.assertEquals(PATH, record.get("path"));
+
+        // empty values of nullable fields, and missing values
+        record = parse(parser, "+7,,,false");
+        Assert.assertEquals(7L, (long) record.get("id"));
+        Assert.assertNull(record.get("count"));
+        Assert.assertNull(record.get("name"));
+        Assert.assertFalse(record.get("active"));
+        Assert.assertNull(record.get("price"));
+
+        // quotes are values when they are not enabled
+        record = parse(parser, "1,2,\"a\",yes,");
+        Assert.assertEquals("\"a\"", record.get("name"));
+        Assert.assertFalse(record.get("active"));
+
+        try {
+            parse(parser, "1,2,a,true,3,4");
+            Assert.fail("Expected a line with too many values to fail");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            parse(parser, "1,2x,a,true");
+            Assert.fail("Expected an invalid int to fail");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testQuotedValues() throws IOException {
+        ObsDelimitedParser parser = new ObsDelimitedParser(SCHEMA, "path", (byte) '\t', true);
+        StructuredRecord record = parse(parser, "1\t\"2\"\t\"a\tlong \"\"quoted\"\" value\"\t\"true\"\t\"\"");
+        Assert.assertEquals(1L, (long) record.get("id"));
+        Assert.assertEquals(2, (int) record.get("count"));
+        Assert.assertEquals("a\tlong \"quoted\" value", record.get("name"));
+        Assert.assertTrue(record.get("active"));
+        Assert.assertNull(record.get("price"));
+
+        // a quote inside an unquoted value
+        record = parse(parser, "1\t2\tit's a \"b\"\tfalse");
+        Assert.assertEquals("it's a \"b\"", record.get("name"));
+
+        try {
+            parse(parser, "1\t2\t\"unterminated\tfalse");
+            Assert.fail("Expected an unterminated quoted value to fail");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            parse(parser, "1\t2\t\"a\"b\tfalse");
+            Assert.fail("Expected characters after a quoted value to fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLinesOfBuffer() throws IOException {
+        // the lines are views of a larger direct buffer, values longer than a word are scanned eight bytes at a time
+        ObsDelimitedParser parser = new ObsDelimitedParser(SCHEMA, "path", (byte) ',', true);
+        byte[] content = "123456789012,12,\"a much longer, quoted name\",true,2\n5,6,short,false,7"
+                .getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content);
+        int split = "123456789012,12,\"a much longer, quoted name\",true,2".length();
+        ByteBuffer line = buffer.duplicate();
+        line.limit(content.length).position(split + 1);
+        StructuredRecord.Builder builder = StructuredRecord.builder(SCHEMA).set("path", PATH);
+        parser.parse(line, builder);
+        Assert.assertEquals("short", builder.build().get("name"));
+
+        line.limit(split).position(0);
+        builder = StructuredRecord.builder(SCHEMA).set("path", PATH);
+        parser.parse(line, builder);
+        StructuredRecord record = builder.build();
+        Assert.assertEquals(123456789012L, (long) record.get("id"));
+        Assert.assertEquals("a much longer, quoted name", record.get("name"));
+        Assert.assertEquals(2.0d, record.get("price"), 0.0d);
+    }
+
+    private static StructuredRecord parse(ObsDelimitedParser parser, String line) throws IOException {
+        StructuredRecord.Builder builder = StructuredRecord.builder(SCHEMA).set("path", PATH);
+        parser.parse(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)), builder);
+        return builder.build();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.plugin.huawei.obs.common.ObsWriteBufferPool;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ObsLineReaderTest {
+
+    @Test
+    public void testScanner() {
+        Random random = new Random(42);
+        byte[] content = new byte[100];
+        for (int i = 0; i < content.length; i++) {
+            // few delimiters, and bytes that differ from it by one bit or by the sign
+            content[i] = (byte) new int[] {'a', '\n', 0x0B, 0x8A, 0x00, 0xFF}[random.nextInt(6)];
+        }
+        for (ByteOrder order : Arrays.asList(ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN)) {
+            for (boolean direct : new boolean[] {true, false}) {
+                ByteBuffer buffer = (direct ? ByteBuffer.allocateDirect(content.length)
+                        : ByteBuffer.allocate(content.length)).order(order);
+                buffer.put(content);
+                for (int from = 0; from < content.length; from++) {
+                    for (int to = from; to <= content.length; to++) {
+                        Assert.assertEquals(order + " " + from + " " + to, indexOf(content, from, to, (byte) '\n'),
+                                ObsDelimiterScanner.indexOf(buffer, from, to, (byte) '\n'));
+                    }
+                }
+            }
+        }
+        // a delimiter with the high bit set
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, (byte) 0xFE, 11});
+        Assert.assertEquals(9, ObsDelimiterScanner.indexOf(buffer, 0, 11, (byte) 0xFE));
+        Assert.assertEquals(-1, ObsDelimiterScanner.indexOf(buffer, 0, 9, (byte) 0xFE));
+    }
+
+    @Test
+    public void testLines() throws IOException {
+        // lines across the buffers, "\r\n" ends, empty lines, a line longer than the buffer and no end
+        String content = "first\nsecond line\r\n\n" + repeat('x', 40) + "\nlast";
+        for (boolean byteBufferReadable : new boolean[] {true, false}) {
+            CountingPool pool = new CountingPool(16);
+            InputStream in = byteBufferReadable ? new ByteBufferStream(content) : stream(content);
+            List<String> lines = new ArrayList<>();
+            List<Long> offsets = new ArrayList<>();
+            try (ObsLineReader reader = new ObsLineReader(in, pool, 100L)) {
+                ByteBuffer line;
+                while ((line = reader.next()) != null) {
+                    lines.add(StandardCharsets.UTF_8.decode(line).toString());
+                    offsets.add(reader.getLineOffset());
+                }
+                Assert.assertEquals(100L + content.length(), reader.getPosition());
+            }
+            Assert.assertEquals(Arrays.asList("first", "second line", "", repeat('x', 40), "last"), lines);
+            Assert.assertEquals(Arrays.asList(100L, 106L, 119L, 120L, 161L), offsets);
+            // the pooled buffer is released once, when the long line moved to a larger buffer
+            Assert.assertEquals(1, pool.released.get());
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        CountingPool pool = new CountingPool(16);
+        try (ObsLineReader reader = new ObsLineReader(stream(""), pool, 0L)) {
+            Assert.assertNull(reader.next());
+        }
+        try (ObsLineReader reader = new ObsLineReader(stream("\n"), pool, 0L)) {
+            Assert.assertEquals(0, reader.next().remaining());
+            Assert.assertNull(reader.next());
+        }
+        Assert.assertEquals(2, pool.released.get());
+    }
+
+    private static int indexOf(byte[] content, int from, int to, byte delimiter) {
+        for (int i = from; i < to; i++) {
+            if (content[i] == delimiter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Pool of direct buffers that counts the released buffers.
+     */
+    private static final class CountingPool extends ObsWriteBufferPool {
+        private final AtomicInteger released = new AtomicInteger();
+
+        private CountingPool(int bufferSize) {
+            super(bufferSize, true);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            released.incrementAndGet();
+            super.release(buffer);
+        }
+    }
+
+    /**
+     * Stream that reads into buffers, a few bytes at a time like a network stream.
+     */
+    private static final class ByteBufferStream extends InputStream implements ByteBufferReadable {
+        private final ByteBuffer content;
+
+        private ByteBufferStream(String content) {
+            this.content = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int read(ByteBuffer target) {
+            if (!content.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(target.remaining(), content.remaining()), 7);
+            ByteBuffer slice = content.duplicate();
+            slice.limit(slice.position() + count);
+            target.put(slice);
+            content.position(content.position() + count);
+            return count;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
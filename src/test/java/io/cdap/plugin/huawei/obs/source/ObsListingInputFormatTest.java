@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import com.obs.services.ObsClient;
+import io.cdap.plugin.huawei.obs.common.OBSFileSystemP;
+import io.cdap.plugin.huawei.obs.common.ObsConstants;
+import io.cdap.plugin.huawei.obs.common.ObsInventory;
+import io.cdap.plugin.huawei.obs.common.ObsStandInServer;
+import io.cdap.plugin.huawei.obs.common.ObsWatermark;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+public class ObsListingInputFormatTest {
+    private static final String BUCKET = "listing-test";
+
+    private ObsStandInServer server;
+
+    @Before
+    public void setup() throws IOException {
+        server = ObsStandInServer.inMemory();
+        server.createBucket(BUCKET);
+        for (String key : Arrays.asList("data/a.csv", "data/b/1.csv", "data/b/2.csv")) {
+            server.putObject(BUCKET, key, key.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testWatermarksOfTheJob() throws Exception {
+        FileSystem fs = FileSystem.get(URI.create("obs://" + BUCKET + "/"), getConf());
+        try {
+            ObsWatermark latest = null;
+            for (String key : Arrays.asList("data/a.csv", "data/b/1.csv", "data/b/2.csv")) {
+                ObsWatermark watermark = getWatermark(fs, key);
+                if (latest == null || latest.isBefore(watermark.getLastModified(), key)) {
+                    latest = watermark;
+                }
+            }
+
+            // every run of the stages sharing the cached filesystem reads between its own watermarks
+            Assert.assertEquals(Arrays.asList("a.csv", "1.csv", "2.csv"), getSplits(null, latest, 0L));
+            Assert.assertEquals(Collections.emptyList(), getSplits(latest, null, 0L));
+            ObsWatermark recent = new ObsWatermark(latest.getLastModified(), latest.getLastKey(),
+                    Arrays.asList("data/a.csv", "data/b/1.csv"));
+            Assert.assertEquals(Collections.singletonList("2.csv"), getSplits(recent, null, Long.MAX_VALUE));
+            Assert.assertEquals(Arrays.asList("a.csv", "1.csv", "2.csv"), getSplits(null, null, 0L));
+
+            // the filter does not outlive the listing of the input
+            Assert.assertEquals(2, fs.listStatus(new Path("/data")).length);
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    public void testInventoryOfTheJob() throws Exception {
+        try (ObsClient obsClient = new ObsClient("access", "secret", server.getEndpoint())) {
+            ObsInventory.build(obsClient, BUCKET, "data/", Executors.newSingleThreadExecutor(), 1)
+                    .store(obsClient, BUCKET);
+        }
+        // added after the inventory was built
+        server.putObject(BUCKET, "data/c.csv", new byte[] {1});
+
+        FileSystem fs = FileSystem.get(URI.create("obs://" + BUCKET + "/"), getConf());
+        try {
+            int gets = server.getRequests("get");
+            Assert.assertEquals(Arrays.asList("a.csv", "1.csv", "2.csv"), getSplits(null, null, 0L, true));
+            Assert.assertEquals(gets + 1, server.getRequests("get"));
+            Assert.assertEquals(Arrays.asList("a.csv", "c.csv", "1.csv", "2.csv"), getSplits(null, null, 0L, false));
+            Assert.assertEquals(gets + 1, server.getRequests("get"));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    public void testWatermarkFilter() {
+        Configuration conf = new Configuration(false);
+        Assert.assertNull(ObsListingInputFormat.getWatermarkFilter(conf));
+        conf.set(ObsConstants.WATERMARK_FROM, new ObsWatermark(1000L, "data/b").format());
+        conf.set(ObsConstants.WATERMARK_TO, new ObsWatermark(2000L, "data/b").format());
+        Assert.assertFalse(ObsListingInputFormat.getWatermarkFilter(conf).test(file("data/a", 1000L)));
+        Assert.assertTrue(ObsListingInputFormat.getWatermarkFilter(conf).test(file("data/c", 1000L)));
+        Assert.assertTrue(ObsListingInputFormat.getWatermarkFilter(conf).test(file("data/b", 2000L)));
+        Assert.assertFalse(ObsListingInputFormat.getWatermarkFilter(conf).test(file("data/c", 2000L)));
+
+        conf.set(ObsConstants.WATERMARK_FROM, new ObsWatermark(1000L, "data/b",
+                Collections.singletonList("data/b")).format());
+        conf.setLong(ObsConstants.WATERMARK_LOOKBACK, 500L);
+        // modified within the lookback, and not read by the previous run
+        Assert.assertTrue(ObsListingInputFormat.getWatermarkFilter(conf).test(file("data/a", 600L)));
+        Assert.assertFalse(ObsListingInputFormat.getWatermarkFilter(conf).test(file("data/a", 500L)));
+        Assert.assertFalse(ObsListingInputFormat.getWatermarkFilter(conf).test(file("data/b", 1000L)));
+    }
+
+    private List<String> getSplits(ObsWatermark from, ObsWatermark to, long lookback) throws Exception {
+        return getSplits(from, to, lookback, false);
+    }
+
+    private List<String> getSplits(ObsWatermark from, ObsWatermark to, long lookback, boolean inventory)
+            throws Exception {
+        Job job = Job.getInstance(getConf());
+        Configuration conf = job.getConfiguration();
+        conf.set(ObsListingInputFormat.DELEGATE, TextInputFormat.class.getName());
+        conf.setBoolean(ObsConstants.LIST_INVENTORY, inventory);
+        FileInputFormat.setInputDirRecursive(job, true);
+        FileInputFormat.addInputPath(job, new Path("obs://" + BUCKET + "/data"));
+        if (from != null) {
+            conf.set(ObsConstants.WATERMARK_FROM, from.format());
+        }
+        if (to != null) {
+            conf.set(ObsConstants.WATERMARK_TO, to.format());
+        }
+        conf.setLong(ObsConstants.WATERMARK_LOOKBACK, lookback);
+        List<String> names = new ArrayList<>();
+        for (InputSplit split : new ObsListingInputFormat<>().getSplits(job)) {
+            names.add(((FileSplit) split).getPath().getName());
+        }
+        return names;
+    }
+
+    private static ObsWatermark getWatermark(FileSystem fs, String key) throws IOException {
+        return new ObsWatermark(fs.getFileStatus(new Path("/" + key)).getModificationTime(), key);
+    }
+
+    private static FileStatus file(String key, long modified) {
+        return new FileStatus(1, false, 1, 1, modified, new Path("obs://" + BUCKET + "/" + key));
+    }
+
+    private Configuration getConf() {
+        Configuration conf = new Configuration(false);
+        conf.set(ObsConstants.OBS_IMPL, OBSFileSystemP.class.getName());
+        conf.set(ObsConstants.OBS_END_POINT, server.getEndpoint());
+        conf.set(ObsConstants.OBS_ACCESS_KEY, "access");
+        conf.set(ObsConstants.OBS_SECRET_KEY, "secret");
+        conf.set("fs.obs.connection.ssl.enabled", "false");
+        return conf;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.io.api.Binary;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+
+public class ObsParquetFilterTest {
+
+    private static final Schema SCHEMA = Schema.recordOf("event",
+            Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+            Schema.Field.of("country", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+            Schema.Field.of("priority", Schema.of(Schema.Type.INT)),
+            Schema.Field.of("score", Schema.of(Schema.Type.DOUBLE)),
+            Schema.Field.of("valid", Schema.of(Schema.Type.BOOLEAN)),
+            Schema.Field.of("day", Schema.of(Schema.LogicalType.DATE)),
+            Schema.Field.of("ts", Schema.of(Schema.LogicalType.TIMESTAMP_MICROS)),
+            Schema.Field.of("path", Schema.of(Schema.Type.STRING)));
+
+    @Test
+    public void testComparisons() {
+        Assert.assertEquals(FilterApi.gtEq(FilterApi.longColumn("id"), 42L), ObsParquetFilter.parse("id >= 42", SCHEMA));
+        Assert.assertEquals(FilterApi.eq(FilterApi.binaryColumn("country"), Binary.fromString("it's")),
+                ObsParquetFilter.parse("country = 'it''s'", SCHEMA));
+        Assert.assertEquals(FilterApi.notEq(FilterApi.binaryColumn("country"), null),
+                ObsParquetFilter.parse("country <> null", SCHEMA));
+        Assert.assertEquals(FilterApi.lt(FilterApi.doubleColumn("score"), 0.5d),
+                ObsParquetFilter.parse("score<0.5", SCHEMA));
+        Assert.assertEquals(FilterApi.eq(FilterApi.booleanColumn("valid"), true),
+                ObsParquetFilter.parse("valid == TRUE", SCHEMA));
+    }
+
+    @Test
+    public void testLogicalTypes() {
+        Assert.assertEquals(FilterApi.gt(FilterApi.intColumn("day"), (int) LocalDate.of(2021, 10, 1).toEpochDay()),
+                ObsParquetFilter.parse("day > '2021-10-01'", SCHEMA));
+        long micros = Instant.parse("2021-10-18T12:00:00Z").toEpochMilli() * 1000L;
+        Assert.assertEquals(FilterApi.ltEq(FilterApi.longColumn("ts"), micros),
+                ObsParquetFilter.parse("ts <= '2021-10-18T12:00:00Z'", SCHEMA));
+    }
+
+    @Test
+    public void testPrecedence() {
+        FilterPredicate expected = FilterApi.or(
+                FilterApi.and(FilterApi.gtEq(FilterApi.intColumn("priority"), 3),
+                        FilterApi.eq(FilterApi.binaryColumn("country"), Binary.fromString("FR"))),
+                FilterApi.lt(FilterApi.longColumn("id"), 10L));
+        Assert.assertEquals(expected,
+                ObsParquetFilter.parse("priority >= 3 and country = 'FR' OR id < 10", SCHEMA));
+    }
+
+    @Test
+    public void testInvalidFilters() {
+        assertInvalid("unknown = 1", "Field 'unknown' is not in the schema");
+        assertInvalid("priority = abc", "Invalid value 'abc'");
+        assertInvalid("priority < null", "null can only be compared for equality");
+        assertInvalid("valid > true", "Operator > can't be used");
+        assertInvalid("day = '18/10/2021'", "Invalid date");
+        assertInvalid("country = 'FR", "Unterminated string");
+        assertInvalid("id = 1 id = 2", "Unexpected 'id = 2'");
+        assertInvalid("id 1", "Expected a comparison operator");
+    }
+
+    @Test
+    public void testSerialize() throws Exception {
+        FilterPredicate predicate = ObsParquetFilter.parse("id >= 42 AND country = 'FR'", SCHEMA);
+        byte[] bytes = Base64.getDecoder().decode(ObsParquetFilter.serialize(predicate));
+        try (ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes)))) {
+            Assert.assertEquals(predicate, in.readObject());
+        }
+    }
+
+    @Test
+    public void testProjection() {
+        Schema projection = Schema.recordOf("event",
+                Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                Schema.Field.of("country", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+        Schema schema = Schema.recordOf("event",
+                Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+                Schema.Field.of("country", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+                Schema.Field.of("path", Schema.of(Schema.Type.STRING)));
+        Assert.assertEquals(projection.toString(), ObsParquetFilter.getProjection(schema, "path"));
+        Assert.assertEquals(schema.toString(), ObsParquetFilter.getProjection(schema, null));
+    }
+
+    private static void assertInvalid(String filter, String message) {
+        try {
+            ObsParquetFilter.parse(filter, SCHEMA);
+            Assert.fail("Filter '" + filter + "' should be invalid");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2021 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ */
+
+package io.cdap.plugin.huawei.obs.source;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.huawei.obs.common.FakeObsClient;
+import io.cdap.plugin.huawei.obs.common.ObsPath;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+public class ObsSchemaDetectorTest {
+    private static final String BUCKET = "schema-test";
+    private static final String SCHEMA_AB = "{\"type\":\"record\",\"name\":\"event\",\"fields\":["
+            + "{\"name\":\"a\",\"type\":\"long\"},{\"name\":\"b\",\"type\":[\"string\",\"null\"]}]}";
+    private static final String SCHEMA_AC = "{\"type\":\"record\",\"name\":\"event\",\"fields\":["
+            + "{\"name\":\"a\",\"type\":[\"null\",\"long\"]},{\"name\":\"c\",\"type\":\"double\"}]}";
+
+    private FakeObsClient obsClient;
+    private ObsSchemaCache cache;
+    private ObsSchemaDetector detector;
+
+    @Before
+    public void setup() {
+        obsClient = new FakeObsClient();
+        obsClient.createBucket(BUCKET);
+        cache = new ObsSchemaCache(10);
+        detector = new ObsSchemaDetector(obsClient, cache, Runnable::run);
+    }
+
+    @Test
+    public void testDetectReadsTheHeaderOnce() throws IOException {
+        obsClient.putObject(BUCKET, "data/part-0.avro", avroFile(SCHEMA_AB, 1024 * 1024));
+
+        Schema schema = detect("data/part-0.avro", 1);
+        Assert.assertEquals(Schema.parseJson(SCHEMA_AB), schema);
+        Assert.assertEquals(1, obsClient.getGetRequests());
+        Assert.assertEquals(1, cache.size());
+
+        // the directory has the same object, which is cached
+        Assert.assertEquals(schema, detect("data", 1));
+        Assert.assertEquals(1, obsClient.getGetRequests());
+        Assert.assertEquals(1, cache.getHits());
+
+        // an object written again is read again
+        obsClient.putObject(BUCKET, "data/part-0.avro", avroFile(SCHEMA_AC, 16));
+        Assert.assertEquals(Schema.parseJson(SCHEMA_AC), detect("data/part-0.avro", 1));
+        Assert.assertEquals(2, obsClient.getGetRequests());
+    }
+
+    @Test
+    public void testDetectLargeHeader() throws IOException {
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            fields.append(i == 0 ? "" : ",").append("{\"name\":\"field_").append(i).append("\",\"type\":\"string\"}");
+        }
+        String json = "{\"type\":\"record\",\"name\":\"wide\",\"fields\":[" + fields + "]}";
+        obsClient.putObject(BUCKET, "wide.avro", avroFile(json, 0));
+
+        Schema schema = detect("wide.avro", 1);
+        Assert.assertEquals(3000, schema.getFields().size());
+        // the first read is too small for the header
+        Assert.assertEquals(2, obsClient.getGetRequests());
+    }
+
+    @Test
+    public void testMergeSchemas() throws IOException {
+        obsClient.putEmptyObject(BUCKET, "dir/_SUCCESS", 0L);
+        obsClient.putObject(BUCKET, "dir/_temporary/part-9.avro", new byte[]{1});
+        obsClient.putObject(BUCKET, "dir/part-0.avro", avroFile(SCHEMA_AB, 16));
+        obsClient.putObject(BUCKET, "dir/part-1.avro", avroFile(SCHEMA_AC, 16));
+        obsClient.putObject(BUCKET, "dir/part-2.avro", new byte[]{1});
+
+        Schema schema = detect("dir/", 2);
+        Assert.assertEquals(2, obsClient.getGetRequests());
+        Assert.assertEquals(3, schema.getFields().size());
+        Assert.assertEquals(Schema.nullableOf(Schema.of(Schema.Type.LONG)), schema.getField("a").getSchema());
+        Assert.assertEquals(Schema.nullableOf(Schema.of(Schema.Type.STRING)), schema.getField("b").getSchema());
+        Assert.assertEquals(Schema.nullableOf(Schema.of(Schema.Type.DOUBLE)), schema.getField("c").getSchema());
+
+        // only the first file
+        Assert.assertEquals(Schema.parseJson(SCHEMA_AB), detect("dir", 1));
+
+        // the third file is not an avro file
+        try {
+            detect("dir", 3);
+            Assert.fail("Detection should fail");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("part-2.avro"));
+        }
+
+        // the file pattern leaves it out
+        Assert.assertEquals(schema, detector.detect(ObsPath.from(BUCKET + "/dir"), ObsSchemaDetector.Format.AVRO,
+                Pattern.compile(".*part-[01]\\.avro"), true, 3));
+
+        Assert.assertNull(detect("missing", 1));
+    }
+
+    @Test
+    public void testMergeConflict() throws IOException {
+        obsClient.putObject(BUCKET, "dir/part-0.avro", avroFile(SCHEMA_AB, 16));
+        obsClient.putObject(BUCKET, "dir/sub/part-1.avro", avroFile("{\"type\":\"record\",\"name\":\"event\","
+                + "\"fields\":[{\"name\":\"a\",\"type\":\"string\"}]}", 16));
+
+        // the sub-directory is not read
+        Assert.assertEquals(Schema.parseJson(SCHEMA_AB), detector.detect(ObsPath.from(BUCKET + "/dir"),
+                ObsSchemaDetector.Format.AVRO, null, false, 2));
+        try {
+            detect("dir", 2);
+            Assert.fail("Merge should fail");
+        } catch (ObsSchemaDetector.SchemaConflictException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Field 'a' is"));
+        }
+    }
+
+    private Schema detect(String name, int sampleFiles) throws IOException {
+        return detector.detect(ObsPath.from(BUCKET + "/" + name), ObsSchemaDetector.Format.AVRO, null, true,
+                sampleFiles);
+    }
+
+    /**
+     * @return the header of an avro data file with the schema, followed by the data size bytes
+     */
+    private static byte[] avroFile(String schema, int dataSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('O');
+        out.write('b');
+        out.write('j');
+        out.write(1);
+        writeLong(out, 2);
+        writeBytes(out, "avro.codec".getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, "null".getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, "avro.schema".getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, schema.getBytes(StandardCharsets.UTF_8));
+        writeLong(out, 0);
+        // the sync marker and the blocks
+        out.write(new byte[16 + dataSize], 0, 16 + dataSize);
+        return out.toByteArray();
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        writeLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        long encoded = (value << 1) ^ (value >> 63);
+        while ((encoded & ~0x7fL) != 0) {
+            out.write((int) ((encoded & 0x7f) | 0x80));
+            encoded >>>= 7;
+        }
+        out.write((int) encoded);
+    }
+}